@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.changes;
+
+import java.util.UUID;
+
+/**
+ * A write that has been committed to an application, either an entity change
+ * or a message posted to a queue. Events are immutable and only carry
+ * identifiers, subscribers load whatever state they need.
+ */
+public class ChangeEvent {
+
+	public enum Type {
+		CREATED, UPDATED, DELETED, MESSAGE;
+	}
+
+	private final UUID applicationId;
+	private final Type type;
+	private final String path;
+	private final String entityType;
+	private final UUID uuid;
+	private final long timestamp;
+
+	/**
+	 * @param applicationId
+	 *            the application the write belongs to
+	 * @param type
+	 *            the kind of write
+	 * @param path
+	 *            the collection name for entities or the queue path for
+	 *            messages
+	 * @param entityType
+	 *            the entity type, null for messages
+	 * @param uuid
+	 *            the entity or message id
+	 */
+	public ChangeEvent(UUID applicationId, Type type, String path,
+			String entityType, UUID uuid) {
+		this(applicationId, type, path, entityType, uuid, System
+				.currentTimeMillis());
+	}
+
+	public ChangeEvent(UUID applicationId, Type type, String path,
+			String entityType, UUID uuid, long timestamp) {
+		this.applicationId = applicationId;
+		this.type = type;
+		this.path = path;
+		this.entityType = entityType;
+		this.uuid = uuid;
+		this.timestamp = timestamp;
+	}
+
+	public UUID getApplicationId() {
+		return applicationId;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getEntityType() {
+		return entityType;
+	}
+
+	public UUID getUuid() {
+		return uuid;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Merge a later event for the same entity into this one. A burst of
+	 * writes collapses to a single event: an entity created and then updated
+	 * is still reported as created, otherwise the latest type wins.
+	 */
+	public ChangeEvent coalesce(ChangeEvent later) {
+		Type merged = later.type;
+		if ((type == Type.CREATED) && (later.type == Type.UPDATED)) {
+			merged = Type.CREATED;
+		}
+		return new ChangeEvent(applicationId, merged, later.path,
+				later.entityType != null ? later.entityType : entityType,
+				uuid, later.timestamp);
+	}
+
+	@Override
+	public String toString() {
+		return "ChangeEvent [applicationId=" + applicationId + ", type="
+				+ type + ", path=" + path + ", uuid=" + uuid + "]";
+	}
+
+}
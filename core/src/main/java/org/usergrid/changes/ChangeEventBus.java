@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.changes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In process bus that fans committed writes out to listeners such as the
+ * websocket server. Publishing never blocks the writer: events go onto a
+ * bounded queue and are dropped when it is full. A single dispatcher thread
+ * collects events for a short window, collapses repeated writes to the same
+ * entity and hands each listener one batch.
+ *
+ * When no listeners are registered publishing is a no-op, so deployments
+ * without push subscribers pay nothing.
+ */
+public class ChangeEventBus {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ChangeEventBus.class);
+
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+	public static final long DEFAULT_COALESCE_MILLIS = 50;
+
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	private long coalesceMillis = DEFAULT_COALESCE_MILLIS;
+
+	private volatile BlockingQueue<ChangeEvent> pending;
+	private Thread dispatcher;
+
+	public ChangeEventBus() {
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * The maximum number of undelivered events, must be set before the first
+	 * listener is added
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public long getCoalesceMillis() {
+		return coalesceMillis;
+	}
+
+	/**
+	 * How long to collect events for before dispatching them
+	 */
+	public void setCoalesceMillis(long coalesceMillis) {
+		this.coalesceMillis = coalesceMillis;
+	}
+
+	/**
+	 * @return The number of events discarded because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public synchronized void addListener(ChangeListener listener) {
+		listeners.add(listener);
+		if (dispatcher == null) {
+			pending = new ArrayBlockingQueue<ChangeEvent>(queueSize);
+			dispatcher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					dispatchLoop();
+				}
+			}, "usergrid-change-dispatcher");
+			dispatcher.setDaemon(true);
+			dispatcher.start();
+		}
+	}
+
+	public void removeListener(ChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	public boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	public void publish(ChangeEvent event) {
+		BlockingQueue<ChangeEvent> queue = pending;
+		if ((queue == null) || listeners.isEmpty()) {
+			return;
+		}
+		if (!queue.offer(event)) {
+			if ((dropped.incrementAndGet() % 1000) == 1) {
+				logger.warn("Change event queue full, {} events dropped so far",
+						dropped.get());
+			}
+		}
+	}
+
+	public void publish(UUID applicationId, ChangeEvent.Type type,
+			String path, String entityType, UUID uuid) {
+		if (pending == null || listeners.isEmpty()) {
+			return;
+		}
+		publish(new ChangeEvent(applicationId, type, path, entityType, uuid));
+	}
+
+	/**
+	 * Stops the dispatcher, events still pending are discarded
+	 */
+	public synchronized void destroy() {
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+			dispatcher = null;
+		}
+	}
+
+	private void dispatchLoop() {
+		List<ChangeEvent> batch = new ArrayList<ChangeEvent>();
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				ChangeEvent first = pending.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				if (coalesceMillis > 0) {
+					Thread.sleep(coalesceMillis);
+				}
+				pending.drainTo(batch);
+				dispatch(coalesce(batch));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	void dispatch(List<ChangeEvent> events) {
+		for (ChangeListener listener : listeners) {
+			try {
+				listener.onChanges(events);
+			} catch (Exception e) {
+				logger.error("Change listener {} failed", listener, e);
+			}
+		}
+	}
+
+	/**
+	 * Collapse events for the same entity, keeping the order each entity was
+	 * first seen in
+	 */
+	static List<ChangeEvent> coalesce(List<ChangeEvent> events) {
+		Map<UUID, ChangeEvent> merged = new LinkedHashMap<UUID, ChangeEvent>();
+		for (ChangeEvent event : events) {
+			ChangeEvent previous = merged.get(event.getUuid());
+			merged.put(event.getUuid(),
+					previous != null ? previous.coalesce(event) : event);
+		}
+		return new ArrayList<ChangeEvent>(merged.values());
+	}
+
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.clustering.hazelcast;
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.cassandra.EntityCache;
+import org.usergrid.persistence.cassandra.EntityCacheChannel;
+
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.MessageListener;
+
+/**
+ * Sends entity cache invalidations to every node of the Hazelcast cluster
+ * over a topic. Messages are "applicationId/entityId" strings.
+ */
+public class HazelcastEntityCacheChannel implements EntityCacheChannel,
+		MessageListener<String> {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(HazelcastEntityCacheChannel.class);
+
+	public static final String DEFAULT_TOPIC = "usergrid-entity-cache";
+
+	private String topicName = DEFAULT_TOPIC;
+	private ITopic<String> topic;
+	private EntityCache cache;
+
+	public HazelcastEntityCacheChannel() {
+	}
+
+	public void setTopicName(String topicName) {
+		this.topicName = topicName;
+	}
+
+	@Override
+	public synchronized void subscribe(EntityCache cache) {
+		this.cache = cache;
+		if (topic == null) {
+			topic = Hazelcast.getTopic(topicName);
+			topic.addMessageListener(this);
+		}
+	}
+
+	@Override
+	public void publish(UUID applicationId, UUID entityId) {
+		if (topic != null) {
+			topic.publish(applicationId + "/" + entityId);
+		}
+	}
+
+	@Override
+	public void onMessage(String message) {
+		EntityCache cache = this.cache;
+		if (cache == null) {
+			return;
+		}
+		int i = message.indexOf('/');
+		if (i < 0) {
+			return;
+		}
+		try {
+			cache.invalidateLocal(UUID.fromString(message.substring(0, i)),
+					UUID.fromString(message.substring(i + 1)));
+		} catch (IllegalArgumentException e) {
+			logger.warn("Ignoring malformed entity cache invalidation {}",
+					message);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.locking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.usergrid.locking.exception.UGLockException;
+
+/**
+ * A lock over several paths for lock managers that can only lock one path at
+ * a time. The paths are always locked in sorted order so two composite locks
+ * over overlapping paths can't deadlock, and are unlocked in reverse order.
+ */
+public class CompositeLock implements Lock {
+
+  private final List<Lock> locks;
+
+  /**
+   * @param locks
+   *          The locks to acquire, in the order they are acquired
+   */
+  public CompositeLock(List<Lock> locks) {
+    this.locks = locks;
+  }
+
+  /**
+   * Create a composite lock from the manager's single path locks
+   */
+  public static Lock create(LockManager manager, UUID applicationId, List<String> paths) {
+    List<Lock> locks = new ArrayList<Lock>(paths.size());
+
+    for (String path : new TreeSet<String>(paths)) {
+      locks.add(manager.createLock(applicationId, path));
+    }
+
+    return new CompositeLock(locks);
+  }
+
+  /* (non-Javadoc)
+   * @see org.usergrid.locking.Lock#tryLock(long, java.util.concurrent.TimeUnit)
+   */
+  @Override
+  public boolean tryLock(long timeout, TimeUnit time) throws UGLockException {
+    long deadline = System.nanoTime() + time.toNanos(timeout);
+    int acquired = 0;
+
+    try {
+      for (Lock lock : locks) {
+        long remaining = Math.max(0, deadline - System.nanoTime());
+
+        if (!lock.tryLock(remaining, TimeUnit.NANOSECONDS)) {
+          return false;
+        }
+
+        acquired++;
+      }
+    } finally {
+      if (acquired < locks.size()) {
+        unlock(acquired);
+      }
+    }
+
+    return true;
+  }
+
+  /* (non-Javadoc)
+   * @see org.usergrid.locking.Lock#lock()
+   */
+  @Override
+  public void lock() throws UGLockException {
+    int acquired = 0;
+
+    try {
+      for (Lock lock : locks) {
+        lock.lock();
+        acquired++;
+      }
+    } finally {
+      if (acquired < locks.size()) {
+        unlock(acquired);
+      }
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see org.usergrid.locking.Lock#unlock()
+   */
+  @Override
+  public void unlock() throws UGLockException {
+    unlock(locks.size());
+  }
+
+  /**
+   * Unlock the first count locks in reverse order. Every lock is released even
+   * if one of them fails, the first failure is rethrown.
+   */
+  private void unlock(int count) throws UGLockException {
+    UGLockException failure = null;
+
+    for (int i = count - 1; i >= 0; i--) {
+      try {
+        locks.get(i).unlock();
+      } catch (UGLockException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+}
@@ -18,6 +18,12 @@ package org.usergrid.locking;
 import static org.usergrid.locking.LockPathBuilder.buildPath;
 import static org.usergrid.utils.ConversionUtils.bytes;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.commons.codec.binary.Hex;
@@ -53,4 +59,51 @@ public class LockHelper {
     
   }
 
+  /**
+   * Build a single lock over the unique values of several properties of the
+   * same entity type, so they are acquired together rather than one at a time.
+   * Null values are skipped, if there are none left a no op lock is returned
+   * 
+   * @param applicationId
+   * @param entityType
+   * @param values The property values by property name
+   * @return
+   */
+  public static Lock getUniqueUpdateLocks(LockManager manager, UUID applicationId, String entityType,
+      Map<String, Object> values) {
+    return getUniqueUpdateLocks(manager, applicationId, entityType, Collections.singletonList(values));
+  }
+
+  /**
+   * Build a single lock over the unique values of several entities of the
+   * same entity type, so a batch of new entities is locked in one acquisition
+   * rather than one lock per entity, which could deadlock with another batch
+   * locking the same values in a different order
+   * 
+   * @param applicationId
+   * @param entityType
+   * @param values The property values by property name of each entity
+   * @return
+   */
+  public static Lock getUniqueUpdateLocks(LockManager manager, UUID applicationId, String entityType,
+      List<Map<String, Object>> values) {
+    Set<String> paths = new LinkedHashSet<String>();
+
+    for (Map<String, Object> entityValues : values) {
+      for (Map.Entry<String, Object> entry : entityValues.entrySet()) {
+        if (entry.getValue() == null) {
+          continue;
+        }
+
+        paths.add(buildPath(Hex.encodeHexString(bytes(entry.getValue())), entityType, entry.getKey()));
+      }
+    }
+
+    if (paths.isEmpty()) {
+      return NO_OP_LOCK;
+    }
+
+    return manager.createMultiLock(applicationId, new ArrayList<String>(paths));
+  }
+
 }
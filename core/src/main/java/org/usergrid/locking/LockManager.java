@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.usergrid.locking;
 
+import java.util.List;
 import java.util.UUID;
 
 import org.usergrid.locking.exception.UGLockException;
@@ -37,4 +38,16 @@ public interface LockManager {
    */
   public Lock createLock(final UUID applicationId, final String... path);
 
+  /**
+   * Create a single lock over several paths. The lock is held once every path
+   * is held, implementations that can acquire all paths in one operation do so.
+   * 
+   * @param applicationId
+   *          application UUID
+   * @param paths
+   *          the paths to lock, each is the same as a single element path
+   *          passed to {@link #createLock(UUID, String...)}
+   */
+  public Lock createMultiLock(final UUID applicationId, final List<String> paths);
+
 }
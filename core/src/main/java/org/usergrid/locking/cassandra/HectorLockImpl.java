@@ -15,32 +15,36 @@
  ******************************************************************************/
 package org.usergrid.locking.cassandra;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import me.prettyprint.hector.api.locking.HLock;
-import me.prettyprint.hector.api.locking.HLockManager;
-import me.prettyprint.hector.api.locking.HLockTimeoutException;
-
 import org.usergrid.locking.Lock;
+import org.usergrid.locking.cassandra.HectorLockManagerImpl.Lease;
 import org.usergrid.locking.exception.UGLockException;
+import org.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.usergrid.persistence.cassandra.util.TraceTagManager;
 
 /**
+ * A lock on one or more paths held with a single lease. Reentrant for the
+ * owner of this lock instance.
+ * 
  * @author tnine
  *
  */
 public class HectorLockImpl implements Lock {
 
-  private HLock lock;
-  private HLockManager lm;
-  private AtomicInteger count = new AtomicInteger();
+  private final HectorLockManagerImpl manager;
+  private final List<String> lockPaths;
+  private final AtomicInteger count = new AtomicInteger();
+  private volatile Lease lease;
   
   /**
    * 
    */
-  public HectorLockImpl(HLock lock, HLockManager lm) {
-    this.lock = lock;
-    this.lm = lm;
+  public HectorLockImpl(HectorLockManagerImpl manager, List<String> lockPaths) {
+    this.manager = manager;
+    this.lockPaths = lockPaths;
   }
 
   /* (non-Javadoc)
@@ -48,14 +52,7 @@ public class HectorLockImpl implements Lock {
    */
   @Override
   public boolean tryLock(long timeout, TimeUnit time) throws UGLockException {
-    try{
-      lm.acquire(this.lock, time.toMillis(timeout));
-      count.incrementAndGet();
-    }catch(HLockTimeoutException hlte){
-     return false;
-    }
-    
-    return true;
+    return acquire(time.toMillis(timeout));
   }
 
   /* (non-Javadoc)
@@ -63,8 +60,7 @@ public class HectorLockImpl implements Lock {
    */
   @Override
   public void lock() throws UGLockException {
-    lm.acquire(lock);
-    count.incrementAndGet();
+    acquire(-1);
   }
 
   /* (non-Javadoc)
@@ -72,12 +68,43 @@ public class HectorLockImpl implements Lock {
    */
   @Override
   public void unlock() throws UGLockException {
-   int current =  count.decrementAndGet();
-    
-    if(current == 0){
-      lm.release(this.lock);
+    int current = count.decrementAndGet();
+
+    if (current < 0) {
+      count.incrementAndGet();
+      throw new IllegalMonitorStateException("Lock " + lockPaths + " is not held");
+    }
+
+    if (current == 0) {
+      Lease held = lease;
+      lease = null;
+      manager.release(held);
+    }
+  }
+
+  private boolean acquire(long timeout) throws UGLockException {
+    // already held, just count the reentrant acquisition
+    if (count.get() > 0) {
+      count.incrementAndGet();
+      return true;
+    }
+
+    TimedOpTag timedOpTag = TraceTagManager.startOp();
+    Lease acquired = null;
+
+    try {
+      acquired = manager.acquire(lockPaths, timeout);
+    } finally {
+      TraceTagManager.stopOp(timedOpTag, TraceTagManager.LOCK_WAIT_OP, acquired != null);
     }
-    
+
+    if (acquired == null) {
+      return false;
+    }
+
+    lease = acquired;
+    count.incrementAndGet();
+    return true;
   }
 
 }
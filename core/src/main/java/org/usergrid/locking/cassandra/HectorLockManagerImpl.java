@@ -15,51 +15,195 @@
  ******************************************************************************/
 package org.usergrid.locking.cassandra;
 
+import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createMultigetSliceQuery;
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 
-import me.prettyprint.cassandra.locking.HLockManagerImpl;
+import me.prettyprint.cassandra.model.ConfigurableConsistencyLevel;
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
 import me.prettyprint.hector.api.Cluster;
-import me.prettyprint.hector.api.locking.HLockManager;
-import me.prettyprint.hector.api.locking.HLockManagerConfigurator;
+import me.prettyprint.hector.api.HConsistencyLevel;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
+import me.prettyprint.hector.api.ddl.ComparatorType;
+import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
+import me.prettyprint.hector.api.exceptions.HectorException;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 import org.usergrid.locking.Lock;
 import org.usergrid.locking.LockManager;
 import org.usergrid.locking.LockPathBuilder;
 import org.usergrid.locking.exception.UGLockException;
+import org.usergrid.utils.UUIDUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
 
 /**
- * Uses the hector based locking implementation to obtain locks
+ * Lease based locks stored in cassandra. Each lock path is a row, and a holder
+ * is a time uuid column with a ttl in every row it locks. A lease is written to
+ * all of its paths in one batch and verified with one multiget, both at QUORUM.
+ * The lease is held if it is the only live column in every row, otherwise it is
+ * removed and the attempt is retried after a randomized backoff. Any two
+ * competing writers overlap on at least one replica, so at most one of them can
+ * see itself as the only holder.
+ * 
+ * All held leases are renewed by a single scheduled batch every ttl/3
+ * milliseconds, rather than one heartbeat per lock.
+ * 
+ * The leases are kept in their own column family, not in the HLocks column
+ * family of the hector lock manager this replaces, and the two don't see each
+ * other's locks. Upgrading from the hector locks requires stopping every node
+ * before any upgraded node starts, a rolling upgrade would let old and new
+ * nodes hold the same lock at once.
  * 
  * @author tnine
  * 
  */
 public class HectorLockManagerImpl implements LockManager {
 
+  private static final Logger logger = LoggerFactory.getLogger(HectorLockManagerImpl.class);
+
+  /**
+   * The column family holding the lease rows
+   */
+  public static final String LOCK_CF = "Leases";
+
+  /**
+   * The column family of the hector lock manager used by earlier versions
+   */
+  public static final String LEGACY_LOCK_CF = "HLocks";
+
+  private static final StringSerializer se = StringSerializer.get();
+  private static final UUIDSerializer ue = UUIDSerializer.get();
+  private static final ByteBufferSerializer be = ByteBufferSerializer.get();
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  /**
+   * The smallest backoff after a contended attempt, in milliseconds
+   */
+  private static final long MIN_BACKOFF = 10;
+
   private int replicationFactor = 1;
   private int numberOfLockObserverThreads = 1;
   private long lockTtl = 2000;
   private String keyspaceName;
   private Cluster cluster;
-  private HLockManager lm;
+
+  private Keyspace keyspace;
+  private ScheduledExecutorService renewals;
+  private final Set<Lease> leases = Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+  private final Random random = new Random();
+
+  private final Histogram waits;
+  private final Histogram holds;
+  private final Meter retries;
 
   /**
    * 
    */
   public HectorLockManagerImpl() {
+    waits = Metrics.newHistogram(HectorLockManagerImpl.class, "wait", true);
+    holds = Metrics.newHistogram(HectorLockManagerImpl.class, "hold", true);
+    retries = Metrics.newMeter(HectorLockManagerImpl.class, "retries", "attempts", TimeUnit.SECONDS);
+    Metrics.newGauge(HectorLockManagerImpl.class, "held", new Gauge<Integer>() {
+      @Override
+      public Integer value() {
+        return leases.size();
+      }
+    });
   }
 
   @PostConstruct
   public void init() {
-    HLockManagerConfigurator hlc = new HLockManagerConfigurator();
-    hlc.setReplicationFactor(replicationFactor);
-    hlc.setKeyspaceName(keyspaceName);
-    hlc.setNumberOfLockObserverThreads(numberOfLockObserverThreads);
-    hlc.setLocksTTLInMillis(lockTtl);
-    lm = new HLockManagerImpl(cluster, hlc);
-    lm.init();
+    Assert.notNull(cluster, "You must specify a cluster");
+    Assert.hasText(keyspaceName, "You must specify a keyspace name");
+
+    createSchema();
+
+    ConfigurableConsistencyLevel consistency = new ConfigurableConsistencyLevel();
+    consistency.setDefaultReadConsistencyLevel(HConsistencyLevel.QUORUM);
+    consistency.setDefaultWriteConsistencyLevel(HConsistencyLevel.QUORUM);
+
+    keyspace = HFactory.createKeyspace(keyspaceName, cluster, consistency);
+
+    renewals = Executors.newScheduledThreadPool(numberOfLockObserverThreads, new ThreadFactoryBuilder()
+        .setNameFormat("lock-renewal-%d").setDaemon(true).build());
+
+    long period = Math.max(1, lockTtl / 3);
+
+    renewals.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        renew();
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Create the keyspace and lease column family if they don't exist
+   */
+  private void createSchema() {
+    ColumnFamilyDefinition cfDef = HFactory.createColumnFamilyDefinition(keyspaceName, LOCK_CF,
+        ComparatorType.TIMEUUIDTYPE);
+
+    KeyspaceDefinition ksDef = cluster.describeKeyspace(keyspaceName);
+
+    if (ksDef == null) {
+      logger.info("Creating lock keyspace {}", keyspaceName);
+      cluster.addKeyspace(HFactory.createKeyspaceDefinition(keyspaceName,
+          "org.apache.cassandra.locator.SimpleStrategy", replicationFactor, Arrays.asList(cfDef)), true);
+      return;
+    }
+
+    boolean exists = false;
+
+    for (ColumnFamilyDefinition existing : ksDef.getCfDefs()) {
+      if (LOCK_CF.equals(existing.getName())) {
+        exists = true;
+      } else if (LEGACY_LOCK_CF.equals(existing.getName())) {
+        logger.warn("Found the {} column family of the previous lock manager in {}. Locks held by nodes that "
+            + "haven't been upgraded are not visible to this node, all nodes must be stopped before any "
+            + "upgraded node is started. It can be dropped once every node is upgraded", LEGACY_LOCK_CF, keyspaceName);
+      }
+    }
+
+    if (exists) {
+      return;
+    }
+
+    logger.info("Creating lock column family {} in {}", LOCK_CF, keyspaceName);
+    cluster.addColumnFamily(cfDef, true);
   }
 
   /*
@@ -69,12 +213,186 @@ public class HectorLockManagerImpl implements LockManager {
    * java.lang.String[])
    */
   @Override
-  public Lock createLock(UUID applicationId, String... path)  {
+  public Lock createLock(UUID applicationId, String... path) {
 
     String lockPath = LockPathBuilder.buildPath(applicationId, path);
 
-    return new HectorLockImpl(lm.createLock(lockPath), lm);
-   
+    return new HectorLockImpl(this, Collections.singletonList(lockPath));
+
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.usergrid.locking.LockManager#createMultiLock(java.util.UUID,
+   * java.util.List)
+   */
+  @Override
+  public Lock createMultiLock(UUID applicationId, List<String> paths) {
+    TreeSet<String> lockPaths = new TreeSet<String>();
+
+    for (String path : paths) {
+      lockPaths.add(LockPathBuilder.buildPath(applicationId, path));
+    }
+
+    return new HectorLockImpl(this, new ArrayList<String>(lockPaths));
+  }
+
+  /**
+   * Acquire a lease on all of the paths.
+   * 
+   * @param lockPaths
+   *          The full paths to lock
+   * @param timeout
+   *          The time to wait in milliseconds, negative to wait forever
+   * @return The lease, or null if it couldn't be acquired in time
+   */
+  Lease acquire(List<String> lockPaths, long timeout) throws UGLockException {
+    long start = System.currentTimeMillis();
+    long deadline = timeout < 0 ? Long.MAX_VALUE : start + timeout;
+
+    for (int attempt = 0;; attempt++) {
+      Lease lease = new Lease(lockPaths, UUIDUtils.newTimeUUID());
+
+      try {
+        write(lease);
+
+        if (isOnlyHolder(lease)) {
+          lease.acquired = System.currentTimeMillis();
+          leases.add(lease);
+          waits.update(lease.acquired - start);
+          return lease;
+        }
+
+        delete(lease);
+      } catch (HectorException e) {
+        remove(lease);
+        throw new UGLockException("Unable to acquire lock on " + lockPaths, e);
+      }
+
+      retries.mark();
+
+      long now = System.currentTimeMillis();
+
+      if (now >= deadline) {
+        waits.update(now - start);
+        return null;
+      }
+
+      try {
+        Thread.sleep(Math.min(backoff(attempt), deadline - now));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UGLockException("Interrupted waiting for lock on " + lockPaths, e);
+      }
+    }
+  }
+
+  /**
+   * Release the lease. If the delete fails the lease still expires after the
+   * ttl.
+   */
+  void release(Lease lease) {
+    leases.remove(lease);
+    holds.update(System.currentTimeMillis() - lease.acquired);
+    remove(lease);
+  }
+
+  /**
+   * Rewrite every held lease in a single batch so their ttls are extended.
+   * A lease released while a renewal is in flight can at worst stay visible
+   * until its ttl expires.
+   */
+  void renew() {
+    if (leases.isEmpty()) {
+      return;
+    }
+
+    Mutator<String> m = createMutator(keyspace, se);
+
+    for (Lease lease : leases) {
+      addInsertions(m, lease);
+    }
+
+    try {
+      m.execute();
+    } catch (HectorException e) {
+      logger.warn("Unable to renew lock leases", e);
+    }
+  }
+
+  /**
+   * @return A randomized backoff that grows with each failed attempt and never
+   *         exceeds half the lock ttl
+   */
+  private long backoff(int attempt) {
+    long ceiling = Math.max(MIN_BACKOFF, Math.min(MIN_BACKOFF << Math.min(attempt, 10), lockTtl / 2));
+    return ceiling / 2 + random.nextInt((int) (ceiling / 2) + 1);
+  }
+
+  private void write(Lease lease) {
+    Mutator<String> m = createMutator(keyspace, se);
+    addInsertions(m, lease);
+    m.execute();
+  }
+
+  private void addInsertions(Mutator<String> m, Lease lease) {
+    int ttl = (int) Math.max(1, (lockTtl + 999) / 1000);
+
+    for (String path : lease.lockPaths) {
+      HColumn<UUID, ByteBuffer> column = createColumn(lease.id, EMPTY, ue, be);
+      column.setTtl(ttl);
+      m.addInsertion(path, LOCK_CF, column);
+    }
+  }
+
+  private void delete(Lease lease) {
+    Mutator<String> m = createMutator(keyspace, se);
+
+    for (String path : lease.lockPaths) {
+      m.addDeletion(path, LOCK_CF, lease.id, ue);
+    }
+
+    m.execute();
+  }
+
+  /**
+   * Delete the lease, logging rather than failing since it will expire anyway
+   */
+  private void remove(Lease lease) {
+    try {
+      delete(lease);
+    } catch (HectorException e) {
+      logger.warn("Unable to release lock on {}, it will expire after {} ms", lease.lockPaths, lockTtl);
+    }
+  }
+
+  /**
+   * @return True if the lease is the only live column on every path
+   */
+  private boolean isOnlyHolder(Lease lease) {
+    MultigetSliceQuery<String, UUID, ByteBuffer> q = createMultigetSliceQuery(keyspace, se, ue, be);
+    q.setColumnFamily(LOCK_CF);
+    q.setKeys(lease.lockPaths);
+    q.setRange(null, null, false, 2);
+
+    Rows<String, UUID, ByteBuffer> rows = q.execute().get();
+
+    for (String path : lease.lockPaths) {
+      Row<String, UUID, ByteBuffer> row = rows.getByKey(path);
+
+      if (row == null) {
+        return false;
+      }
+
+      List<HColumn<UUID, ByteBuffer>> columns = row.getColumnSlice().getColumns();
+
+      if (columns.size() != 1 || !lease.id.equals(columns.get(0).getName())) {
+        return false;
+      }
+    }
+
+    return true;
   }
 
   /**
@@ -88,15 +406,16 @@ public class HectorLockManagerImpl implements LockManager {
    */
   public void setReplicationFactor(int replicationFactor) {
     
-    Assert.isTrue(numberOfLockObserverThreads%2 != 0, "You must specify an odd number for replication factor");
+    Assert.isTrue(replicationFactor%2 != 0, "You must specify an odd number for replication factor");
 
     this.replicationFactor = replicationFactor;
   }
  
   
   /**
-   * Set the number of threads the lock heartbeat executor uses.  Must accommodate the total number of locks
-   * that may exist in the system.  Locks are always renewed at the ttl/2 time.
+   * Set the number of threads the lease renewal executor uses. All held leases
+   * are renewed together in one batch every ttl/3, so a single thread is
+   * normally enough.
    *  
    * @param numberOfLockObserverThreads the numberOfLockObserverThreads to set
    */
@@ -128,4 +447,19 @@ public class HectorLockManagerImpl implements LockManager {
     this.cluster = cluster;
   }
 
+  /**
+   * A lease on a set of paths, identified by its column name
+   */
+  static final class Lease {
+
+    final List<String> lockPaths;
+    final UUID id;
+    volatile long acquired;
+
+    Lease(List<String> lockPaths, UUID id) {
+      this.lockPaths = lockPaths;
+      this.id = id;
+    }
+  }
+
 }
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.usergrid.locking.noop;
 
+import java.util.List;
 import java.util.UUID;
 
 import org.usergrid.locking.Lock;
@@ -39,6 +40,14 @@ public class NoOpLockManagerImpl implements LockManager {
     return new NoOpLockImpl();
   }
 
+  /* (non-Javadoc)
+   * @see org.usergrid.locking.LockManager#createMultiLock(java.util.UUID, java.util.List)
+   */
+  @Override
+  public Lock createMultiLock(UUID applicationId, List<String> paths) {
+    return new NoOpLockImpl();
+  }
+
 
 
 }
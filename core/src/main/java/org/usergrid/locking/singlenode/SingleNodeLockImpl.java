@@ -16,10 +16,12 @@
 package org.usergrid.locking.singlenode;
 
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.usergrid.locking.Lock;
 import org.usergrid.locking.exception.UGLockException;
+import org.usergrid.locking.singlenode.SingleNodeLockManagerImpl.LockEntry;
+import org.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.usergrid.persistence.cassandra.util.TraceTagManager;
 
 /**
  * @author tnine
@@ -27,13 +29,15 @@ import org.usergrid.locking.exception.UGLockException;
  */
 public class SingleNodeLockImpl implements Lock {
 
-  private ReentrantLock lock;
+  private final SingleNodeLockManagerImpl manager;
+  private final String lockPath;
   
   /**
    * 
    */
-  public SingleNodeLockImpl(ReentrantLock lock) {
-    this.lock = lock;
+  public SingleNodeLockImpl(SingleNodeLockManagerImpl manager, String lockPath) {
+    this.manager = manager;
+    this.lockPath = lockPath;
   }
 
  
@@ -42,10 +46,19 @@ public class SingleNodeLockImpl implements Lock {
    */
   @Override
   public boolean tryLock(long timeout, TimeUnit time) throws UGLockException {
+    TimedOpTag timedOpTag = TraceTagManager.startOp();
+    LockEntry entry = manager.retain(lockPath);
+    boolean acquired = false;
     try {
-     return this.lock.tryLock(timeout, time);
+     acquired = manager.tryLock(entry, timeout, time);
+     return acquired;
     } catch (InterruptedException e) {
       throw new UGLockException("Couldn't get the lock", e);
+    } finally {
+      if (!acquired) {
+        manager.release(lockPath, entry);
+      }
+      TraceTagManager.stopOp(timedOpTag, TraceTagManager.LOCK_WAIT_OP, acquired);
     }
   }
 
@@ -54,7 +67,18 @@ public class SingleNodeLockImpl implements Lock {
    */
   @Override
   public void lock() throws UGLockException {
-    this.lock.lock();
+    TimedOpTag timedOpTag = TraceTagManager.startOp();
+    LockEntry entry = manager.retain(lockPath);
+    boolean acquired = false;
+    try {
+      manager.lock(entry);
+      acquired = true;
+    } finally {
+      if (!acquired) {
+        manager.release(lockPath, entry);
+      }
+      TraceTagManager.stopOp(timedOpTag, TraceTagManager.LOCK_WAIT_OP, acquired);
+    }
   }
 
 
@@ -63,7 +87,14 @@ public class SingleNodeLockImpl implements Lock {
    */
   @Override
   public void unlock() throws UGLockException {
-    this.lock.unlock();
+    // we hold a reference while we hold the lock, so the entry can't have
+    // been replaced
+    LockEntry entry = manager.get(lockPath);
+    if (entry == null) {
+      throw new IllegalMonitorStateException("Lock " + lockPath + " is not held");
+    }
+    entry.lock.unlock();
+    manager.release(lockPath, entry);
   }
 
 }
@@ -15,32 +15,53 @@
  ******************************************************************************/
 package org.usergrid.locking.singlenode;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.usergrid.locking.CompositeLock;
 import org.usergrid.locking.Lock;
 import org.usergrid.locking.LockManager;
 import org.usergrid.locking.LockPathBuilder;
-import org.usergrid.locking.exception.UGLockException;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
 
 /**
- * Single Node implementation for {@link LocalManager}
- * 
+ * Single Node implementation for {@link LockManager}. Lock entries are
+ * reference counted, a path only has an entry while some thread holds or is
+ * waiting for its lock, and the entry is removed on the last release. Memory
+ * use is bounded by the number of locks in use rather than by every path ever
+ * locked, and creating a lock never takes a global monitor.
  */
 public class SingleNodeLockManagerImpl implements LockManager {
 
-  private final HashMap<String, ReentrantLock> globalLocks;
+  private final ConcurrentHashMap<String, LockEntry> globalLocks;
+
+  private final Meter acquired;
+  private final Meter contended;
+  private final Timer waits;
 
   /**
    * Default constructor.
    */
   public SingleNodeLockManagerImpl() {
-    globalLocks = new HashMap<String, ReentrantLock>();
-  }
+    globalLocks = new ConcurrentHashMap<String, LockEntry>();
 
-
- 
+    acquired = Metrics.newMeter(SingleNodeLockManagerImpl.class, "acquired", "locks", TimeUnit.SECONDS);
+    contended = Metrics.newMeter(SingleNodeLockManagerImpl.class, "contended", "locks", TimeUnit.SECONDS);
+    waits = Metrics.newTimer(SingleNodeLockManagerImpl.class, "wait", TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+    Metrics.newGauge(SingleNodeLockManagerImpl.class, "active", new Gauge<Integer>() {
+      @Override
+      public Integer value() {
+        return globalLocks.size();
+      }
+    });
+  }
 
   /*
    * (non-Javadoc)
@@ -52,29 +73,136 @@ public class SingleNodeLockManagerImpl implements LockManager {
   public Lock createLock(UUID applicationId, String... path) {
 
     String lockPath = LockPathBuilder.buildPath(applicationId, path);
-    
-    // check first if it is already own by this thread.
-    ReentrantLock lock = globalLocks.get(lockPath);
-    
-
-    if (lock == null) {
-      synchronized (this) {
-        // Check in the Global collection in case someone else owns it.
-        lock = globalLocks.get(lockPath);
-
-        if (lock == null) {
-          // if lock does not exist, null is return but intermediateLock
-          // is added to the map.
-          lock = new ReentrantLock();
-          globalLocks.put(lockPath, lock);
+
+    // entries are only created when the lock is actually acquired, so a lock
+    // that is created and never used costs nothing here
+    return new SingleNodeLockImpl(this, lockPath);
+  }
+
+  /* (non-Javadoc)
+   * @see org.usergrid.locking.LockManager#createMultiLock(java.util.UUID, java.util.List)
+   */
+  @Override
+  public Lock createMultiLock(UUID applicationId, List<String> paths) {
+    return CompositeLock.create(this, applicationId, paths);
+  }
+
+  /**
+   * @return The number of paths currently locked or waited on
+   */
+  public int getActiveLockCount() {
+    return globalLocks.size();
+  }
+
+  /**
+   * Get the entry for the path and add a reference to it, creating it if
+   * required. The caller must call {@link #release(String, LockEntry)} exactly
+   * once for each call.
+   */
+  LockEntry retain(String lockPath) {
+    for (;;) {
+      LockEntry entry = globalLocks.get(lockPath);
+
+      if (entry == null) {
+        LockEntry created = new LockEntry();
+        entry = globalLocks.putIfAbsent(lockPath, created);
+
+        if (entry == null) {
+          return created;
         }
       }
+
+      if (entry.retain()) {
+        return entry;
+      }
+
+      // the entry was released by its last holder and is being removed, try
+      // again with a new one
+      Thread.yield();
     }
+  }
 
-    // So at this point, the lock was added to the threadLocal collection as
-    // well as
-    // the general collection.
-    return new SingleNodeLockImpl(lock);
+  /**
+   * Drop a reference to the entry, removing it once nobody holds or waits for
+   * the lock
+   */
+  void release(String lockPath, LockEntry entry) {
+    if (entry.release()) {
+      globalLocks.remove(lockPath, entry);
+    }
+  }
+
+  /**
+   * The entry currently registered for the path, only valid while the caller
+   * holds a reference to it
+   */
+  LockEntry get(String lockPath) {
+    return globalLocks.get(lockPath);
+  }
+
+  /**
+   * Acquire the entry's lock, recording the time spent waiting if the lock was
+   * held by another thread
+   */
+  void lock(LockEntry entry) {
+    if (!entry.lock.tryLock()) {
+      contended.mark();
+      long start = System.nanoTime();
+      entry.lock.lock();
+      waits.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    acquired.mark();
+  }
+
+  boolean tryLock(LockEntry entry, long timeout, TimeUnit time) throws InterruptedException {
+    if (entry.lock.tryLock()) {
+      acquired.mark();
+      return true;
+    }
+
+    contended.mark();
+
+    if (timeout <= 0) {
+      return false;
+    }
+
+    long start = System.nanoTime();
+    boolean locked = entry.lock.tryLock(timeout, time);
+    waits.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    if (locked) {
+      acquired.mark();
+    }
+
+    return locked;
+  }
+
+  /**
+   * A lock and the number of lock calls that have not been matched by an
+   * unlock yet, including calls still waiting. Once the count reaches zero
+   * the entry is dead and can't be retained again.
+   */
+  static final class LockEntry {
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    private int references = 1;
+
+    synchronized boolean retain() {
+      if (references <= 0) {
+        return false;
+      }
+      references++;
+      return true;
+    }
+
+    /**
+     * @return True if this was the last reference
+     */
+    synchronized boolean release() {
+      references--;
+      return references == 0;
+    }
   }
 
 }
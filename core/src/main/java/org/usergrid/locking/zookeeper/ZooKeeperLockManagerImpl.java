@@ -15,12 +15,14 @@
  ******************************************************************************/
 package org.usergrid.locking.zookeeper;
 
+import java.util.List;
 import java.util.UUID;
 
 import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.usergrid.locking.CompositeLock;
 import org.usergrid.locking.Lock;
 import org.usergrid.locking.LockManager;
 import org.usergrid.locking.LockPathBuilder;
@@ -82,6 +84,14 @@ public final class ZooKeeperLockManagerImpl implements LockManager {
 
   }
 
+  /* (non-Javadoc)
+   * @see org.usergrid.locking.LockManager#createMultiLock(java.util.UUID, java.util.List)
+   */
+  @Override
+  public Lock createMultiLock(UUID applicationId, List<String> paths) {
+    return CompositeLock.create(this, applicationId, paths);
+  }
+
   public String getHostPort() {
     return hostPort;
   }
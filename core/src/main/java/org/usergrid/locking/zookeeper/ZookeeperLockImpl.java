@@ -19,6 +19,8 @@ import java.util.concurrent.TimeUnit;
 
 import org.usergrid.locking.Lock;
 import org.usergrid.locking.exception.UGLockException;
+import org.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.usergrid.persistence.cassandra.util.TraceTagManager;
 
 import com.netflix.curator.framework.recipes.locks.InterProcessMutex;
 
@@ -45,10 +47,15 @@ public class ZookeeperLockImpl implements Lock {
   @Override
   public boolean tryLock(long timeout, TimeUnit time) throws UGLockException {
   
+    TimedOpTag timedOpTag = TraceTagManager.startOp();
+    boolean acquired = false;
     try {
-      return zkMutex.acquire(timeout, time);
+      acquired = zkMutex.acquire(timeout, time);
+      return acquired;
     } catch (Exception e) {
       throw new UGLockException("Unable to obtain lock", e);
+    } finally {
+      TraceTagManager.stopOp(timedOpTag, TraceTagManager.LOCK_WAIT_OP, acquired);
     }
   }
 
@@ -57,10 +64,15 @@ public class ZookeeperLockImpl implements Lock {
    */
   @Override
   public void lock() throws UGLockException {
+    TimedOpTag timedOpTag = TraceTagManager.startOp();
+    boolean acquired = false;
     try {
       zkMutex.acquire();
+      acquired = true;
     } catch (Exception e) {
       throw new UGLockException("Unable to obtain lock", e);
+    } finally {
+      TraceTagManager.stopOp(timedOpTag, TraceTagManager.LOCK_WAIT_OP, acquired);
     }
   }
 
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.usergrid.mq;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -106,6 +107,15 @@ public interface QueueManager {
 	 * @throws TransactionNotFoundException 
 	 */
 	public abstract UUID renewTransaction(String queuePath,UUID transactionId,QueueQuery query) throws TransactionNotFoundException;
+
+	/**
+	 * Renew many transactions on the same queue in a single batch.  Transactions that no longer exist are skipped
+	 * @param queuePath The path to the queue
+	 * @param transactionIds The transaction ids
+	 * @param query
+	 * @return A map of the renewed transaction ids to their new transaction ids
+	 */
+	public abstract Map<UUID, UUID> renewTransactions(String queuePath, Collection<UUID> transactionIds, QueueQuery query);
 	
 	/**
 	 * Deletes the transaction for the consumer
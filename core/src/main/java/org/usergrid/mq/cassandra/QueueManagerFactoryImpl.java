@@ -26,6 +26,7 @@ import me.prettyprint.cassandra.serializers.UUIDSerializer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.usergrid.changes.ChangeEventBus;
 import org.usergrid.locking.LockManager;
 import org.usergrid.mq.QueueManager;
 import org.usergrid.mq.QueueManagerFactory;
@@ -42,6 +43,7 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
 	private CassandraService cass;
 	private CounterUtils counterUtils;
 	private LockManager lockManager;
+	private ChangeEventBus changeEventBus;
 
 	public static final StringSerializer se = new StringSerializer();
 	public static final ByteBufferSerializer be = new ByteBufferSerializer();
@@ -65,6 +67,10 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
 		this.lockManager = lockManager;
 	}
 
+	public void setChangeEventBus(ChangeEventBus changeEventBus) {
+		this.changeEventBus = changeEventBus;
+	}
+
 	@Override
 	public String getImpementationDescription() throws Exception {
 		return IMPLEMENTATION_DESCRIPTION;
@@ -74,6 +80,7 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
 	public QueueManager getQueueManager(UUID applicationId) {
 	    QueueManagerImpl qm = new QueueManagerImpl();
 	    qm.init(cass, counterUtils, lockManager, applicationId);
+	    qm.setChangeEventBus(changeEventBus);
 	    return qm;
 		//return applicationContext.getAutowireCapableBeanFactory()
 		//		.createBean(QueueManagerImpl.class)
@@ -63,6 +63,7 @@ import static org.usergrid.utils.UUIDUtils.newTimeUUID;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -97,6 +98,8 @@ import me.prettyprint.hector.api.query.SliceQuery;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.usergrid.changes.ChangeEvent;
+import org.usergrid.changes.ChangeEventBus;
 import org.usergrid.locking.LockManager;
 import org.usergrid.mq.CounterQuery;
 import org.usergrid.mq.Message;
@@ -146,6 +149,7 @@ public class QueueManagerImpl implements QueueManager {
   private CassandraService cass;
   private CounterUtils counterUtils;
   private LockManager lockManager;
+  private ChangeEventBus changeEventBus;
 
   public static final StringSerializer se = new StringSerializer();
   public static final ByteBufferSerializer be = new ByteBufferSerializer();
@@ -166,6 +170,14 @@ public class QueueManagerImpl implements QueueManager {
     return this;
   }
 
+  /**
+   * Messages posted through this queue manager are published to the bus
+   * once they are written
+   */
+  public void setChangeEventBus(ChangeEventBus changeEventBus) {
+    this.changeEventBus = changeEventBus;
+  }
+
   @Override
   public Message getMessage(UUID messageId) {
     SliceQuery<UUID, String, ByteBuffer> q = createSliceQuery(cass.getApplicationKeyspace(applicationId), ue, se, be);
@@ -259,6 +271,10 @@ public class QueueManagerImpl implements QueueManager {
       }
     }
 
+    if (changeEventBus != null) {
+      changeEventBus.publish(applicationId, ChangeEvent.Type.MESSAGE, queuePath, null, message.getUuid());
+    }
+
     return message;
   }
 
@@ -1400,6 +1416,19 @@ public class QueueManagerImpl implements QueueManager {
         query);
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.usergrid.mq.QueueManager#renewTransactions(java.lang.String,
+   * java.util.Collection, org.usergrid.mq.QueueQuery)
+   */
+  @Override
+  public Map<UUID, UUID> renewTransactions(String queuePath, Collection<UUID> transactionIds, QueueQuery query) {
+    Keyspace ko = cass.getApplicationKeyspace(applicationId);
+    return new ConsumerTransaction(applicationId, ko, lockManager, cass).renewTransactions(queuePath, transactionIds,
+        query);
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -25,8 +25,11 @@ import static org.usergrid.mq.cassandra.QueuesCF.CONSUMER_QUEUE_TIMEOUTS;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import me.prettyprint.hector.api.Keyspace;
@@ -132,6 +135,70 @@ public class ConsumerTransaction extends NoTransactionSearch {
 
   }
 
+  /**
+   * Renew the existing transactions in a single read and a single write. Does
+   * so by deleting each existing timeout and replacing it with a new value.
+   * Transactions that no longer exist are skipped
+   * 
+   * @param queuePath
+   *          The queue path
+   * @param transactionIds
+   *          The transaction ids
+   * @param query
+   *          The query params
+   * @return The new transaction uuid for each renewed transaction
+   */
+  public Map<UUID, UUID> renewTransactions(String queuePath, Collection<UUID> transactionIds, QueueQuery query) {
+    Map<UUID, UUID> renewed = new HashMap<UUID, UUID>(transactionIds.size());
+
+    if (transactionIds.isEmpty()) {
+      return renewed;
+    }
+
+    long now = System.currentTimeMillis();
+
+    if (query == null) {
+      query = new QueueQuery();
+    }
+
+    UUID queueId = getQueueId(queuePath);
+    UUID consumerId = getConsumerId(queueId, query);
+    ByteBuffer key = getQueueClientTransactionKey(queueId, consumerId);
+
+    // read all the original transactions, we can't extend the ones that have
+    // gone
+    SliceQuery<ByteBuffer, UUID, UUID> q = createSliceQuery(ko, be, ue, ue);
+    q.setColumnFamily(CONSUMER_QUEUE_TIMEOUTS.getColumnFamily());
+    q.setKey(key);
+    q.setColumnNames(transactionIds.toArray(new UUID[transactionIds.size()]));
+
+    List<HColumn<UUID, UUID>> cols = q.execute().get().getColumns();
+
+    if (cols.isEmpty()) {
+      return renewed;
+    }
+
+    Mutator<ByteBuffer> mutator = createMutator(ko, be);
+    long timestamp = cass.createTimestamp();
+
+    for (HColumn<UUID, UUID> col : cols) {
+      // Generate a new expiration for each transaction, they must be unique
+      UUID expirationId = UUIDUtils.newTimeUUID(now + query.getTimeout());
+
+      mutator.addInsertion(key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(),
+          createColumn(expirationId, col.getValue(), timestamp, ue, ue));
+      mutator.addDeletion(key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(), col.getName(), ue, timestamp);
+
+      renewed.put(col.getName(), expirationId);
+    }
+
+    logger.debug("Renewing {} transactions on queue '{}'", renewed.size(), queuePath);
+
+    mutator.execute();
+
+    return renewed;
+  }
+
   /**
    * Delete the specified transaction
    * 
@@ -17,6 +17,7 @@ package org.usergrid.persistence;
 
 import static org.usergrid.persistence.Schema.PROPERTY_NAME;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -132,11 +133,29 @@ public abstract class AbstractEntity implements Entity {
 
 	@Override
 	public void setProperties(Map<String, Object> properties) {
+		if (properties instanceof LazyPropertyMap) {
+			setLazyProperties((LazyPropertyMap) properties);
+			return;
+		}
 		dynamic_properties = new TreeMap<String, Object>(
 				String.CASE_INSENSITIVE_ORDER);
 		addProperties(properties);
 	}
 
+	/**
+	 * Properties backed by bean accessors are decoded and set right away, every
+	 * other property stays in the lazy map until it's read
+	 */
+	private void setLazyProperties(LazyPropertyMap properties) {
+		Schema schema = Schema.getDefaultSchema();
+		for (String propertyName : new ArrayList<String>(properties.keySet())) {
+			if (schema.getDescriptorForEntityProperty(getClass(), propertyName) != null) {
+				setProperty(propertyName, properties.remove(propertyName));
+			}
+		}
+		dynamic_properties = properties;
+	}
+
 	@Override
 	public void addProperties(Map<String, Object> properties) {
 		if (properties == null) {
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import net.sf.cglib.reflect.FastClass;
+
+import org.apache.commons.lang.ClassUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.utils.UUIDUtils;
+
+/**
+ * Reads and writes the schema properties of one typed entity class through a
+ * generated {@link FastClass}, which dispatches on a method index instead of
+ * going through reflection. Built once per class when the class is registered
+ * with the {@link Schema}.
+ * 
+ * Values that don't match the property type are converted with a small table
+ * for the mismatches that come out of the JSON and column decoders (numbers
+ * of the wrong width, uuid strings), anything else is converted by the
+ * object mapper like before.
+ */
+public class EntityAccessor {
+
+  private static final Logger logger = LoggerFactory.getLogger(EntityAccessor.class);
+
+  private static final Object[] NO_ARGS = new Object[0];
+
+  private final Class<? extends Entity> entityClass;
+  private final ObjectMapper mapper;
+  private final FastClass fastClass;
+
+  private final Property[] properties;
+  private final Map<String, Property> propertiesByName;
+
+  private static class Property {
+    final String name;
+    final Class<?> type;
+    final Method getter;
+    final Method setter;
+    final int getterIndex;
+    final int setterIndex;
+
+    Property(String name, Class<?> type, Method getter, Method setter, int getterIndex, int setterIndex) {
+      this.name = name;
+      this.type = type;
+      this.getter = getter;
+      this.setter = setter;
+      this.getterIndex = getterIndex;
+      this.setterIndex = setterIndex;
+    }
+  }
+
+  /**
+   * @param entityClass
+   *          The entity class
+   * @param descriptors
+   *          The schema properties of the class by property name
+   * @param mapper
+   *          Used to convert values the conversion table doesn't handle
+   */
+  public EntityAccessor(Class<? extends Entity> entityClass, Map<String, PropertyDescriptor> descriptors,
+      ObjectMapper mapper) {
+    this.entityClass = entityClass;
+    this.mapper = mapper;
+
+    FastClass fc = null;
+    try {
+      fc = FastClass.create(entityClass);
+    } catch (Throwable t) {
+      logger.warn("Unable to generate accessors for {}, using reflection", entityClass);
+    }
+    fastClass = fc;
+
+    properties = new Property[descriptors.size()];
+    propertiesByName = new HashMap<String, Property>(descriptors.size() * 2);
+
+    int i = 0;
+    for (Map.Entry<String, PropertyDescriptor> entry : descriptors.entrySet()) {
+      PropertyDescriptor descriptor = entry.getValue();
+      Method getter = descriptor.getReadMethod();
+      Method setter = descriptor.getWriteMethod();
+      Class<?> type = descriptor.getPropertyType();
+      if ((type != null) && type.isPrimitive()) {
+        type = ClassUtils.primitiveToWrapper(type);
+      }
+
+      Property property = new Property(entry.getKey(), type, getter, setter, index(getter), index(setter));
+      properties[i++] = property;
+      propertiesByName.put(property.name, property);
+    }
+  }
+
+  private int index(Method method) {
+    if ((fastClass == null) || (method == null)) {
+      return -1;
+    }
+    try {
+      return fastClass.getIndex(method.getName(), method.getParameterTypes());
+    } catch (Throwable t) {
+      return -1;
+    }
+  }
+
+  public Class<? extends Entity> getEntityClass() {
+    return entityClass;
+  }
+
+  public Set<String> getPropertyNames() {
+    return Collections.unmodifiableSet(propertiesByName.keySet());
+  }
+
+  public boolean hasProperty(String name) {
+    return propertiesByName.containsKey(name);
+  }
+
+  /**
+   * @return The property value, null if the class has no such property or it
+   *         can't be read
+   */
+  public Object getProperty(Entity entity, String name) {
+    Property property = propertiesByName.get(name);
+    if (property == null) {
+      return null;
+    }
+    return get(entity, property);
+  }
+
+  /**
+   * Copies the non null schema property values of the entity into the map
+   */
+  public void getProperties(Entity entity, Map<String, Object> into) {
+    for (Property property : properties) {
+      Object value = get(entity, property);
+      if (value != null) {
+        into.put(property.name, value);
+      }
+    }
+  }
+
+  /**
+   * Sets a schema property, converting the value to the property type if
+   * required.
+   * 
+   * @return False if the class has no such property or the value couldn't be
+   *         set
+   */
+  public boolean setProperty(Entity entity, String name, Object value) {
+    Property property = propertiesByName.get(name);
+    if ((property == null) || (property.type == null)) {
+      return false;
+    }
+
+    // set already logs a failure, converting the value won't help
+    if ((value == null) || property.type.isInstance(value)) {
+      return set(entity, property, value);
+    }
+
+    try {
+      Object converted = convert(value, property.type);
+      if (converted == null) {
+        converted = mapper.convertValue(value, property.type);
+      }
+      return set(entity, property, converted);
+    } catch (Exception e) {
+      logger.error("Unable to set entity property " + name, e);
+    }
+    return false;
+  }
+
+  private Object get(Entity entity, Property property) {
+    try {
+      if (property.getterIndex >= 0) {
+        return fastClass.invoke(property.getterIndex, entity, NO_ARGS);
+      }
+      return property.getter.invoke(entity);
+    } catch (Exception e) {
+      logger.error("Unable to get entity property " + property.name, e);
+    }
+    return null;
+  }
+
+  private boolean set(Entity entity, Property property, Object value) {
+    try {
+      if (property.setterIndex >= 0) {
+        fastClass.invoke(property.setterIndex, entity, new Object[] { value });
+      } else {
+        property.setter.invoke(entity, value);
+      }
+      return true;
+    } catch (Exception e) {
+      logger.error("Unable to set entity property " + property.name, e);
+    }
+    return false;
+  }
+
+  /**
+   * Conversion table for the common mismatches between decoded values and
+   * typed entity properties.
+   * 
+   * @return The converted value or null if the table has no conversion, or
+   *         the number is out of the range of the type
+   */
+  static Object convert(Object value, Class<?> type) {
+    if (value instanceof Number) {
+      Number number = (Number) value;
+      if (type == Long.class) {
+        return inRange(number, Long.MIN_VALUE, Long.MAX_VALUE) ? number.longValue() : null;
+      }
+      if (type == Integer.class) {
+        return inRange(number, Integer.MIN_VALUE, Integer.MAX_VALUE) ? number.intValue() : null;
+      }
+      if (type == Double.class) {
+        return number.doubleValue();
+      }
+      if (type == Float.class) {
+        return number.floatValue();
+      }
+      if (type == Short.class) {
+        return inRange(number, Short.MIN_VALUE, Short.MAX_VALUE) ? number.shortValue() : null;
+      }
+      if (type == Byte.class) {
+        return inRange(number, Byte.MIN_VALUE, Byte.MAX_VALUE) ? number.byteValue() : null;
+      }
+      if (type == String.class) {
+        return number.toString();
+      }
+    } else if (value instanceof String) {
+      String string = (String) value;
+      if (type == UUID.class) {
+        return UUIDUtils.tryGetUUID(string);
+      }
+      if (type == Boolean.class) {
+        if ("true".equalsIgnoreCase(string)) {
+          return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(string)) {
+          return Boolean.FALSE;
+        }
+      }
+    } else if ((value instanceof UUID) && (type == String.class)) {
+      return value.toString();
+    }
+    return null;
+  }
+
+  /**
+   * Narrowing would silently wrap numbers out of the range, those are left to
+   * the mapper, which rejects them
+   */
+  private static boolean inRange(Number number, long min, long max) {
+    if (number instanceof BigInteger) {
+      return (((BigInteger) number).bitLength() < 64) && inRange(number.longValue(), min, max);
+    }
+    if ((number instanceof Double) || (number instanceof Float) || (number instanceof BigDecimal)) {
+      double d = number.doubleValue();
+      return (d >= min) && (d < (double) max + 1);
+    }
+    return inRange(number.longValue(), min, max);
+  }
+
+  private static boolean inRange(long value, long min, long max) {
+    return (value >= min) && (value <= max);
+  }
+
+}
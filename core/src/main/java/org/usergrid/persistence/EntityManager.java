@@ -99,6 +99,26 @@ public interface EntityManager {
     public Entity create(UUID importId, String entityType,
             Map<String, Object> properties) throws Exception;
 
+    /**
+     * Creates several entities of the specified type, writing all of them in
+     * a single batch. If any entity is invalid, or shares a unique property
+     * value with an existing entity or another entity of the batch, nothing
+     * is written. The new ids are set in the property maps before the batch
+     * is written, so after a failed write each entity can be created again
+     * with {@link #create(UUID, String, Map)} without being duplicated.
+     * Events are posted one at a time rather than in a batch.
+     * 
+     * @param entityType
+     *            the type of the entities to create.
+     * @param entitiesProperties
+     *            property values for each of the new entities.
+     * @return the newly created entity objects.
+     * @throws Exception
+     *             the exception
+     */
+    public List<Entity> createEntities(String entityType,
+            List<Map<String, Object>> entitiesProperties) throws Exception;
+
     public void createApplicationCollection(String entityType) throws Exception;
 
 //    public UUID createAlias(UUID id, String aliasType, String alias)
@@ -228,6 +248,20 @@ public interface EntityManager {
             Class<? extends Entity> entityClass, Results.Level resultsLevel)
             throws Exception;
 
+    /**
+     * Retrieves a set of entities, loading only the specified properties in
+     * addition to the entity uuid and type.
+     * 
+     * @param entityIds
+     *            a list of entity UUIDs.
+     * @param propertyNames
+     *            the names of the properties to load.
+     * @return a list of partially loaded entity objects.
+     * @throws Exception
+     */
+    public Results getPartialEntities(Collection<UUID> entityIds,
+            Set<String> propertyNames) throws Exception;
+
     /**
      * Updates the entity with the properties and values in the Entity Object.
      * 
@@ -238,6 +272,18 @@ public interface EntityManager {
      */
     public void update(Entity entity) throws Exception;
 
+    /**
+     * Updates all of the entities with the properties and values in the Entity
+     * Objects in a single batch write.
+     * 
+     * @param entities
+     *            the Entity objects to update.
+     * 
+     * @throws Exception
+     */
+    public void updateAll(Collection<? extends Entity> entities)
+            throws Exception;
+
     /**
      * Gets the value for a named entity property. Entity properties must be
      * defined in the schema
@@ -716,6 +762,27 @@ public interface EntityManager {
     public Results searchConnectedEntities(EntityRef connectingEntity,
             Query query) throws Exception;
 
+    /**
+     * Follows the hops of a traversal out from the specified entities. The
+     * index rows of all the entities at a hop are read together and only the
+     * entities reached by the last hop are loaded.
+     * <p>
+     * e.g. "get the latest activities of the users I follow"
+     *
+     * @param entityIds
+     *            the entities to start from.
+     * @param traversal
+     *            the connections and collections to follow.
+     * @param resultsLevel
+     *            how much of the entities reached by the last hop to load.
+     * @return the results of the last hop keyed by the entity they were
+     *         reached from, in the order the entities were reached.
+     * @throws Exception
+     *             the exception
+     */
+    public Map<UUID, Results> traverse(List<UUID> entityIds,
+            Traversal traversal, Results.Level resultsLevel) throws Exception;
+
     /**
      * Gets the value for a named connection property. Connection properties are
      * properties associated with a connection.
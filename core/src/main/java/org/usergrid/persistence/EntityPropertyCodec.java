@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence;
+
+import static org.usergrid.utils.JsonUtils.toJsonNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.usergrid.utils.JsonUtils;
+
+/**
+ * Binary encoding of entity property values. Strings, integral numbers,
+ * doubles, booleans and uuids are written as a version byte, a type tag and
+ * the raw value. Everything else is written as a Smile document, as are all
+ * values written before this format existed. Smile documents always start with
+ * the ':)' header, so the first byte tells the two apart and old columns are
+ * read transparently.
+ * 
+ * Decoded values are the same as the ones the Smile round trip produces:
+ * integral numbers come back as longs, and strings that are uuids come back as
+ * uuids.
+ * 
+ * Setting the system property {@value #SMILE_ONLY_PROPERTY} to true writes
+ * Smile for every value, so nodes that can't read this format yet can share a
+ * cluster during an upgrade.
+ */
+public class EntityPropertyCodec {
+
+  public static final String SMILE_ONLY_PROPERTY = "usergrid.property.codec.smile";
+
+  /**
+   * The first byte of every value in this format
+   */
+  public static final byte VERSION = 1;
+
+  static final byte TYPE_STRING = 1;
+  static final byte TYPE_LONG = 2;
+  static final byte TYPE_DOUBLE = 3;
+  static final byte TYPE_TRUE = 4;
+  static final byte TYPE_FALSE = 5;
+  static final byte TYPE_UUID = 6;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final boolean smileOnly = Boolean.getBoolean(SMILE_ONLY_PROPERTY);
+
+  private static final SmileFactory smile = new SmileFactory();
+
+  /**
+   * Encode the property value
+   * 
+   * @return The encoded value, or null if the value is null
+   */
+  public static ByteBuffer encode(Object value) {
+    if (smileOnly) {
+      return encodeSmile(value);
+    }
+
+    if (value instanceof String) {
+      String s = (String) value;
+      UUID uuid = s.length() == 36 ? tryParseUUID(s) : null;
+
+      if (uuid != null) {
+        return encodeUUID(uuid);
+      }
+
+      byte[] utf8 = s.getBytes(UTF8);
+      return (ByteBuffer) header(TYPE_STRING, utf8.length).put(utf8).flip();
+    }
+
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return encodeLong(((Number) value).longValue());
+    }
+
+    if (value instanceof Double) {
+      return (ByteBuffer) header(TYPE_DOUBLE, 8).putDouble((Double) value).flip();
+    }
+
+    if (value instanceof Boolean) {
+      return (ByteBuffer) header((Boolean) value ? TYPE_TRUE : TYPE_FALSE, 0).flip();
+    }
+
+    if (value instanceof UUID) {
+      return encodeUUID((UUID) value);
+    }
+
+    return encodeSmile(value);
+  }
+
+  /**
+   * Decode a property value in either this format or Smile
+   */
+  public static Object decode(ByteBuffer bytes) {
+    if ((bytes == null) || !bytes.hasRemaining()) {
+      return null;
+    }
+
+    int pos = bytes.position();
+
+    if (bytes.get(pos) != VERSION) {
+      return JsonUtils.normalizeJsonTree(JsonUtils.fromByteBuffer(bytes));
+    }
+
+    if (bytes.remaining() < 2) {
+      throw new IllegalArgumentException("Property value is missing its type");
+    }
+
+    byte type = bytes.get(pos + 1);
+    int start = pos + 2;
+    int length = bytes.limit() - start;
+
+    switch (type) {
+    case TYPE_STRING:
+      return decodeString(bytes, start, length);
+    case TYPE_LONG:
+      return decodeLong(bytes, start);
+    case TYPE_DOUBLE:
+      return bytes.getDouble(start);
+    case TYPE_TRUE:
+      return Boolean.TRUE;
+    case TYPE_FALSE:
+      return Boolean.FALSE;
+    case TYPE_UUID:
+      return new UUID(bytes.getLong(start), bytes.getLong(start + 8));
+    default:
+      throw new IllegalArgumentException("Unknown property value type " + type);
+    }
+  }
+
+  /**
+   * Write an encoded property value as JSON. Smile documents are copied token
+   * by token into the generator without building maps or lists, the output is
+   * the same as writing the decoded value.
+   */
+  public static void writeJson(ByteBuffer bytes, JsonGenerator jgen) throws IOException {
+    if ((bytes == null) || !bytes.hasRemaining()) {
+      jgen.writeNull();
+      return;
+    }
+
+    if (isTyped(bytes)) {
+      Object value = decode(bytes);
+
+      if (value instanceof String) {
+        jgen.writeString((String) value);
+      } else if (value instanceof Long) {
+        jgen.writeNumber((Long) value);
+      } else if (value instanceof Double) {
+        jgen.writeNumber((Double) value);
+      } else if (value instanceof Boolean) {
+        jgen.writeBoolean((Boolean) value);
+      } else {
+        jgen.writeString(value.toString());
+      }
+      return;
+    }
+
+    JsonParser parser;
+    if (bytes.hasArray()) {
+      parser = smile.createJsonParser(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    } else {
+      byte[] copy = new byte[bytes.remaining()];
+      bytes.duplicate().get(copy);
+      parser = smile.createJsonParser(copy);
+    }
+
+    try {
+      if (parser.nextToken() == null) {
+        jgen.writeNull();
+      } else {
+        jgen.copyCurrentStructure(parser);
+      }
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * @return True if the value is in this format rather than Smile
+   */
+  public static boolean isTyped(ByteBuffer bytes) {
+    return (bytes != null) && bytes.hasRemaining() && (bytes.get(bytes.position()) == VERSION);
+  }
+
+  private static ByteBuffer encodeSmile(Object value) {
+    return JsonUtils.toByteBuffer(toJsonNode(value));
+  }
+
+  private static ByteBuffer header(byte type, int length) {
+    ByteBuffer bytes = ByteBuffer.allocate(2 + length);
+    bytes.put(VERSION);
+    bytes.put(type);
+    return bytes;
+  }
+
+  private static ByteBuffer encodeUUID(UUID uuid) {
+    ByteBuffer bytes = header(TYPE_UUID, 16);
+    bytes.putLong(uuid.getMostSignificantBits());
+    bytes.putLong(uuid.getLeastSignificantBits());
+    bytes.flip();
+    return bytes;
+  }
+
+  /**
+   * Longs are zig zag encoded varints so small values of either sign take one
+   * or two bytes
+   */
+  private static ByteBuffer encodeLong(long value) {
+    long zigzag = (value << 1) ^ (value >> 63);
+    ByteBuffer bytes = header(TYPE_LONG, 10);
+
+    while ((zigzag & ~0x7FL) != 0) {
+      bytes.put((byte) ((zigzag & 0x7F) | 0x80));
+      zigzag >>>= 7;
+    }
+    bytes.put((byte) zigzag);
+    bytes.flip();
+    return bytes;
+  }
+
+  private static Long decodeLong(ByteBuffer bytes, int start) {
+    long zigzag = 0;
+    int shift = 0;
+
+    for (int i = start; i < bytes.limit(); i++) {
+      byte b = bytes.get(i);
+      zigzag |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+      }
+
+      shift += 7;
+    }
+
+    throw new IllegalArgumentException("Truncated long property value");
+  }
+
+  private static String decodeString(ByteBuffer bytes, int start, int length) {
+    if (bytes.hasArray()) {
+      return new String(bytes.array(), bytes.arrayOffset() + start, length, UTF8);
+    }
+
+    byte[] copy = new byte[length];
+    ByteBuffer dup = bytes.duplicate();
+    dup.position(start);
+    dup.get(copy);
+    return new String(copy, UTF8);
+  }
+
+  private static UUID tryParseUUID(String s) {
+    try {
+      return UUID.fromString(s);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Entity properties backed by the raw column values read from cassandra. A
+ * value is decrypted and decoded the first time it is read and the result
+ * replaces the raw bytes, so properties that are never read are never decoded.
+ * Keys are case insensitive like the maps entities keep their dynamic
+ * properties in.
+ * 
+ * Not thread safe, like the entities that hold it.
+ */
+public class LazyPropertyMap extends AbstractMap<String, Object> {
+
+  private final String entityType;
+  private final TreeMap<String, Object> values = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+
+  private Set<Entry<String, Object>> entrySet;
+
+  /**
+   * @param entityType
+   *          The type of the entity, used to find encrypted properties
+   * @param columns
+   *          The serialized property values by property name
+   */
+  public LazyPropertyMap(String entityType, Map<String, ByteBuffer> columns) {
+    this.entityType = entityType;
+
+    for (Entry<String, ByteBuffer> column : columns.entrySet()) {
+      values.put(column.getKey(), new Encoded(column.getKey(), column.getValue()));
+    }
+  }
+
+  /**
+   * @return True if the property exists and has not been decoded yet
+   */
+  public boolean isEncoded(String propertyName) {
+    return values.get(propertyName) instanceof Encoded;
+  }
+
+  /**
+   * Write a property that hasn't been decoded yet as JSON straight from its
+   * stored bytes, without decoding it.
+   * 
+   * @return False if nothing was written because the property has already
+   *         been decoded or doesn't exist, the caller should write the value
+   *         from {@link #get(Object)} instead
+   */
+  public boolean writeJson(String propertyName, JsonGenerator jgen) throws IOException {
+    Object value = values.get(propertyName);
+
+    if (!(value instanceof Encoded)) {
+      return false;
+    }
+
+    return ((Encoded) value).writeJson(jgen);
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+
+    Object value = values.get(key);
+
+    if (value instanceof Encoded) {
+      value = ((Encoded) value).decode();
+      values.put((String) key, value);
+    }
+
+    return value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return (key instanceof String) && values.containsKey(key);
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    return decoded(values.put(key, value));
+  }
+
+  @Override
+  public Object remove(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+
+    return decoded(values.remove(key));
+  }
+
+  @Override
+  public int size() {
+    return values.size();
+  }
+
+  @Override
+  public void clear() {
+    values.clear();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return values.keySet();
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Entry<String, Object>>() {
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          final Iterator<Entry<String, Object>> entries = values.entrySet().iterator();
+
+          return new Iterator<Entry<String, Object>>() {
+
+            @Override
+            public boolean hasNext() {
+              return entries.hasNext();
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              return new LazyEntry(entries.next());
+            }
+
+            @Override
+            public void remove() {
+              entries.remove();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return values.size();
+        }
+      };
+    }
+
+    return entrySet;
+  }
+
+  private static Object decoded(Object value) {
+    if (value instanceof Encoded) {
+      return ((Encoded) value).decode();
+    }
+    return value;
+  }
+
+  /**
+   * A value that hasn't been read yet
+   */
+  private final class Encoded {
+
+    private final String propertyName;
+    private final ByteBuffer bytes;
+
+    Encoded(String propertyName, ByteBuffer bytes) {
+      this.propertyName = propertyName;
+      this.bytes = bytes;
+    }
+
+    Object decode() {
+      return Schema.deserializeEntityProperty(entityType, propertyName, bytes);
+    }
+
+    boolean writeJson(JsonGenerator jgen) throws IOException {
+      // the id and type aren't stored in the property format
+      if (Schema.PROPERTY_UUID.equals(propertyName) || Schema.PROPERTY_TYPE.equals(propertyName)) {
+        return false;
+      }
+
+      // read a duplicate, ours stays in place for a later decode
+      ByteBuffer value = bytes == null ? null : bytes.duplicate();
+
+      if (Schema.getDefaultSchema().isPropertyEncrypted(entityType, propertyName)) {
+        value = Schema.decrypt(value);
+      }
+
+      EntityPropertyCodec.writeJson(value, jgen);
+      return true;
+    }
+  }
+
+  /**
+   * Decodes the underlying entry's value when it is read and stores the
+   * result back in the entry
+   */
+  private static final class LazyEntry implements Entry<String, Object> {
+
+    private final Entry<String, Object> entry;
+
+    LazyEntry(Entry<String, Object> entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public String getKey() {
+      return entry.getKey();
+    }
+
+    @Override
+    public Object getValue() {
+      Object value = entry.getValue();
+
+      if (value instanceof Encoded) {
+        value = ((Encoded) value).decode();
+        entry.setValue(value);
+      }
+
+      return value;
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      return decoded(entry.setValue(value));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry<?, ?> e = (Entry<?, ?>) o;
+      Object value = getValue();
+      return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      Object value = getValue();
+      return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+
+}
@@ -90,6 +90,7 @@ public class Query {
 
     protected Map<String, String> selectSubjects = new LinkedHashMap<String, String>();
     protected boolean mergeSelectResults = false;
+    protected Set<String> loadProperties;
     protected Level level = Level.ALL_PROPERTIES;
     protected String connection;
     protected List<String> permissions;
@@ -128,6 +129,7 @@ public class Query {
             selectSubjects = q.selectSubjects != null ? new LinkedHashMap<String, String>(
                     q.selectSubjects) : null;
             mergeSelectResults = q.mergeSelectResults;
+            loadProperties = q.loadProperties;
             level = q.level;
             connection = q.connection;
             permissions = q.permissions != null ? new ArrayList<String>(
@@ -615,6 +617,22 @@ public class Query {
         return mergeSelectResults;
     }
 
+    /**
+     * @return The only properties loaded for the entities of the results, or
+     *         null to load whole entities
+     */
+    public Set<String> getLoadProperties() {
+        return loadProperties;
+    }
+
+    /**
+     * Load only these properties of the entities, for callers that read
+     * nothing else of them
+     */
+    public void setLoadProperties(Set<String> loadProperties) {
+        this.loadProperties = loadProperties;
+    }
+
     public Query addSort(String propertyName) {
         if (isBlank(propertyName)) {
             return this;
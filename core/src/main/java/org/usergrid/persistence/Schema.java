@@ -21,7 +21,6 @@ import static org.usergrid.utils.ConversionUtils.string;
 import static org.usergrid.utils.ConversionUtils.uuid;
 import static org.usergrid.utils.InflectionUtils.pluralize;
 import static org.usergrid.utils.InflectionUtils.singularize;
-import static org.usergrid.utils.JsonUtils.toJsonNode;
 import static org.usergrid.utils.MapUtils.hashMap;
 import static org.usergrid.utils.StringUtils.stringOrSubstringAfterLast;
 
@@ -69,6 +68,7 @@ import org.usergrid.persistence.entities.Application;
 import org.usergrid.persistence.exceptions.PropertyTypeConversionException;
 import org.usergrid.persistence.schema.CollectionInfo;
 import org.usergrid.persistence.schema.DictionaryInfo;
+import org.usergrid.persistence.schema.EntityDescriptor;
 import org.usergrid.persistence.schema.EntityInfo;
 import org.usergrid.persistence.schema.PropertyInfo;
 import org.usergrid.utils.InflectionUtils;
@@ -217,10 +217,21 @@ public class Schema {
 
     private final Map<Class<? extends Entity>, Map<String, PropertyDescriptor>> entityClassPropertyToDescriptor = new ConcurrentHashMap<Class<? extends Entity>, Map<String, PropertyDescriptor>>();
 
+    private final Map<Class<? extends Entity>, EntityAccessor> entityClassAccessors = new ConcurrentHashMap<Class<? extends Entity>, EntityAccessor>();
+
     private final Map<Class<? extends Entity>, EntityInfo> registeredEntityClasses = new ConcurrentHashMap<Class<? extends Entity>, EntityInfo>();
 
     Map<String, EntityInfo> entityMap = new TreeMap<String, EntityInfo>(String.CASE_INSENSITIVE_ORDER);;
 
+    /**
+     * Compiled descriptors keyed by the entity type exactly as callers pass it,
+     * so a hit skips normalization. Cleared whenever an entity class is
+     * registered and when it grows past MAX_ENTITY_DESCRIPTORS.
+     */
+    private final Map<String, EntityDescriptor> entityDescriptors = new ConcurrentHashMap<String, EntityDescriptor>();
+
+    private static final int MAX_ENTITY_DESCRIPTORS = 10000;
+
     Map<String, Map<String, Set<CollectionInfo>>> entityContainerCollections = new TreeMap<String, Map<String, Set<CollectionInfo>>>(
             String.CASE_INSENSITIVE_ORDER);
 
@@ -434,6 +445,7 @@ public class Schema {
                 entity.mapCollectors(this, type);
 
                 entityMap.put(type, entity);
+                entityDescriptors.clear();
 
                 allProperties.putAll(entity.getProperties());
 
@@ -447,6 +459,8 @@ public class Schema {
                 }
             }
 
+            entityClassAccessors.put(entityClass, new EntityAccessor(
+                    entityClass, propertyDescriptors, mapper));
             entityClassPropertyToDescriptor.put(entityClass,
                     propertyDescriptors);
             
@@ -534,10 +548,47 @@ public class Schema {
      */
     public EntityInfo getEntityInfo(String entityType) {
 
+        EntityDescriptor descriptor = getEntityDescriptor(entityType);
+        if (descriptor == null) {
+            return null;
+        }
+
+        return descriptor.getEntityInfo();
+    }
+
+    /**
+     * Returns the compiled schema facts for an entity type, compiling them on
+     * first use. Loops over the properties of one entity should look this up
+     * once and ask it instead of calling the per property methods.
+     * 
+     * @param entityType
+     * @return value
+     */
+    public EntityDescriptor getEntityDescriptor(String entityType) {
+
         if (entityType == null) {
             return null;
         }
 
+        EntityDescriptor descriptor = entityDescriptors.get(entityType);
+        if (descriptor != null) {
+            return descriptor;
+        }
+
+        descriptor = EntityDescriptor.compile(createEntityInfo(entityType),
+                defaultCollectionName(entityType));
+
+        if (entityDescriptors.size() >= MAX_ENTITY_DESCRIPTORS) {
+            entityDescriptors.clear();
+        }
+        entityDescriptors.put(entityType, descriptor);
+
+        return descriptor;
+    }
+
+    /** uncached - use getEntityInfo() */
+    private EntityInfo createEntityInfo(String entityType) {
+
         entityType = normalizeEntityType(entityType);
 
         if ("dynamicentity".equalsIgnoreCase(entityType)) {
@@ -714,7 +765,7 @@ public class Schema {
             return true;
         }
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return false;
         }
@@ -724,7 +775,7 @@ public class Schema {
 
     public String aliasProperty(String entityType) {
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return null;
         }
@@ -739,7 +790,7 @@ public class Schema {
      */
     public boolean isPropertyMutable(String entityType, String propertyName) {
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return false;
         }
@@ -749,7 +800,7 @@ public class Schema {
 
     public boolean isPropertyUnique(String entityType, String propertyName) {
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return false;
         }
@@ -759,36 +810,28 @@ public class Schema {
 
     public boolean isPropertyIndexed(String entityType, String propertyName) {
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return true;
         }
 
-        if (entity.hasProperty(propertyName)) {
-            return entity.isPropertyIndexed(propertyName);
-        }
-
-        return true;
+        return entity.isPropertyIndexed(propertyName);
     }
 
     public boolean isPropertyFulltextIndexed(String entityType,
             String propertyName) {
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return true;
         }
 
-        if (entity.hasProperty(propertyName)) {
-            return entity.isPropertyFulltextIndexed(propertyName);
-        }
-
-        return true;
+        return entity.isPropertyFulltextIndexed(propertyName);
     }
 
     public boolean isPropertyTimestamp(String entityType, String propertyName) {
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return false;
         }
@@ -822,7 +865,7 @@ public class Schema {
             return true;
         }
 
-        EntityInfo entity = getEntityInfo(entityType);
+        EntityDescriptor entity = getEntityDescriptor(entityType);
         if (entity == null) {
             return false;
         }
@@ -1678,44 +1721,28 @@ public class Schema {
         return propertyDescriptors.get(property);
     }
 
-    public void setEntityProperty(Entity entity, String property, Object value) {
-        PropertyDescriptor descriptor = getDescriptorForEntityProperty(
-                entity.getClass(), property);
-        if (descriptor != null) {
-            Class<?> cls = descriptor.getPropertyType();
-            if (cls != null) {
-                if ((value == null) || (cls.isAssignableFrom(value.getClass()))) {
-                    try {
-                        descriptor.getWriteMethod().invoke(entity, value);
-                        return;
-                    } catch (Exception e) {
-                        logger.error("Unable to set entity property "
-                                + property, e);
-                    }
-                }
-                try {
-                    descriptor.getWriteMethod().invoke(entity,
-                            mapper.convertValue(value, cls));
-                    return;
-                } catch (Exception e) {
-                    logger.error("Unable to set entity property " + property, e);
-                }
+    /**
+     * @return The generated accessors of a registered entity class, null if
+     *         the class has not been registered
+     */
+    public EntityAccessor getEntityAccessor(Class<? extends Entity> entityClass) {
+        return entityClassAccessors.get(entityClass);
+    }
 
+    public void setEntityProperty(Entity entity, String property, Object value) {
+        EntityAccessor accessor = getEntityAccessor(entity.getClass());
+        if ((accessor != null) && accessor.hasProperty(property)) {
+            if (accessor.setProperty(entity, property, value)) {
+                return;
             }
         }
         entity.setDynamicProperty(property, value);
     }
 
     public Object getEntityProperty(Entity entity, String property) {
-        PropertyDescriptor descriptor = getDescriptorForEntityProperty(
-                entity.getClass(), property);
-        if (descriptor != null) {
-            try {
-                return descriptor.getReadMethod().invoke(entity);
-            } catch (Exception e) {
-                logger.error("Unable to get entity property " + property, e);
-            }
-            return null;
+        EntityAccessor accessor = getEntityAccessor(entity.getClass());
+        if ((accessor != null) && accessor.hasProperty(property)) {
+            return accessor.getProperty(entity, property);
         }
         Map<String, Object> properties = entity.getDynamicProperties();
         if (properties != null) {
@@ -1726,29 +1753,14 @@ public class Schema {
 
     public Map<String, Object> getEntityProperties(Entity entity) {
         Map<String, Object> properties = new LinkedHashMap<String, Object>();
-        Map<String, PropertyDescriptor> propertyDescriptors = entityClassPropertyToDescriptor
-                .get(entity.getClass());
+        EntityAccessor accessor = getEntityAccessor(entity.getClass());
         
-        if(propertyDescriptors == null){
+        if(accessor == null){
           registerEntity(entity.getClass());
-          propertyDescriptors = entityClassPropertyToDescriptor.get(entity.getClass());
+          accessor = getEntityAccessor(entity.getClass());
         }
         
-        for (Entry<String, PropertyDescriptor> propertyEntry : propertyDescriptors
-                .entrySet()) {
-            String property = propertyEntry.getKey();
-            PropertyDescriptor descriptor = propertyEntry.getValue();
-            if (descriptor != null) {
-                try {
-                    Object value = descriptor.getReadMethod().invoke(entity);
-                    if (value != null) {
-                        properties.put(property, value);
-                    }
-                } catch (Exception e) {
-                    logger.error("Unable to get entity property " + property, e);
-                }
-            }
-        }
+        accessor.getProperties(entity, properties);
         Map<String, Object> dynamicProperties = entity.getDynamicProperties();
         if (dynamicProperties != null) {
             properties.putAll(dynamicProperties);
@@ -1830,15 +1842,8 @@ public class Schema {
             }
         }
 
-        Map<String, Object> properties_map = new TreeMap<String, Object>(
-                String.CASE_INSENSITIVE_ORDER);
-        for (Entry<String, ByteBuffer> column : columns.entrySet()) {
-            String propertyName = column.getKey();
-            Object propertyValue = deserializeEntityProperty(entityType,
-                    propertyName, column.getValue());
-            properties_map.put(propertyName, propertyValue);
-        }
-        return properties_map;
+        // values are only decoded, and decrypted, when they are read
+        return new LazyPropertyMap(entityType, columns);
     }
 
     /**
@@ -1858,7 +1863,7 @@ public class Schema {
             if (Schema.getDefaultSchema().isPropertyEncrypted(entityType, propertyName)) {
               bytes = decrypt(bytes);
             }
-            propertyValue = Schema.deserializePropertyValueFromJsonBinary(bytes);
+            propertyValue = EntityPropertyCodec.decode(bytes);
         }
         return propertyValue;
     }
@@ -1871,7 +1876,7 @@ public class Schema {
         } else if (PROPERTY_TYPE.equals(propertyName)) {
             bytes = bytebuffer(string(propertyValue));
         } else {
-            bytes = Schema.serializePropertyValueToJsonBinary(toJsonNode(propertyValue));
+            bytes = EntityPropertyCodec.encode(propertyValue);
             if (Schema.getDefaultSchema().isPropertyEncrypted(entityType, propertyName)) {
               bytes.rewind();
               bytes = encrypt(bytes);
@@ -1896,13 +1901,10 @@ public class Schema {
 
   public boolean isPropertyEncrypted(String entityType, String propertyName) {
 
-    EntityInfo entity = getEntityInfo(entityType);
+    EntityDescriptor entity = getEntityDescriptor(entityType);
     if (entity == null) { return false; }
 
-    PropertyInfo property = entity.getProperty(propertyName);
-    if (property == null) { return false; }
-
-    return property.isEncrypted();
+    return entity.isPropertyEncrypted(propertyName);
   }
 
   private static final byte[] DEFAULT_ENCRYPTION_SEED = "oWyWX?I2kZAhkKb_jQ8SZvjmgkiF4eGSjsfIkhnRetD4Dvtx2J".getBytes();
@@ -1917,8 +1919,8 @@ public class Schema {
       Cipher cipher = Cipher.getInstance("AES");
       cipher.init(Cipher.ENCRYPT_MODE, sKeySpec);
       ByteBuffer encrypted = ByteBuffer.allocate(cipher.getOutputSize(clear.remaining()));
-      cipher.doFinal(clear, encrypted);
-      encrypted.rewind();
+      cipher.doFinal(clear.duplicate(), encrypted);
+      encrypted.flip();
       return encrypted;
     } catch (Exception e) {
       throw new IllegalStateException(e);
@@ -1931,9 +1933,10 @@ public class Schema {
       SecretKeySpec sKeySpec = new SecretKeySpec(getRawKey(encryptionSeed), "AES");
       Cipher cipher = Cipher.getInstance("AES");
       cipher.init(Cipher.DECRYPT_MODE, sKeySpec);
+      // the output size is only an upper bound, the padding is removed
       ByteBuffer decrypted = ByteBuffer.allocate(cipher.getOutputSize(encrypted.remaining()));
-      cipher.doFinal(encrypted, decrypted);
-      decrypted.rewind();
+      cipher.doFinal(encrypted.duplicate(), decrypted);
+      decrypted.flip();
       return decrypted;
     } catch (Exception e) {
       throw new IllegalStateException(e);
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A path of connections and collections to follow out from a set of
+ * entities, e.g. the activities of the users someone follows:
+ * 
+ * <pre>
+ * new Traversal().connected(&quot;following&quot;, &quot;user&quot;).collection(&quot;activities&quot;, 10, true)
+ * </pre>
+ * 
+ * Executed by {@link EntityManager#traverse(List, Traversal, Results.Level)}
+ * with one read of the index rows of all the entities at each hop, only the
+ * entities reached by the last hop are loaded.
+ */
+public class Traversal {
+
+    /**
+     * Most entities followed from one hop to the next, the ids reached past
+     * this are dropped so a hop is never asked to read an unbounded number of
+     * rows
+     */
+    public static final int DEFAULT_MAX_ENTITIES = 1000;
+
+    public enum HopType {
+        CONNECTED, CONNECTING, COLLECTION
+    }
+
+    public static class Hop {
+
+        private final HopType type;
+        private final String name;
+        private final String entityType;
+        private final int limit;
+        private final boolean reversed;
+
+        public Hop(HopType type, String name, String entityType, int limit,
+                boolean reversed) {
+            if (type == null) {
+                throw new IllegalArgumentException("Hop type is required");
+            }
+            if (name == null) {
+                throw new IllegalArgumentException(
+                        "Connection type or collection name is required");
+            }
+            this.type = type;
+            this.name = name;
+            this.entityType = entityType;
+            this.limit = limit > 0 ? limit : Query.MAX_LIMIT;
+            this.reversed = reversed;
+        }
+
+        public HopType getType() {
+            return type;
+        }
+
+        /**
+         * @return The connection type or the collection name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The type of entity to keep, or null for any type. Only
+         *         applied to connections, a collection only holds one type
+         */
+        public String getEntityType() {
+            return entityType;
+        }
+
+        /**
+         * @return The most entities read for each entity at this hop
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        public boolean isReversed() {
+            return reversed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (type == HopType.CONNECTING) {
+                sb.append("connecting/");
+            }
+            sb.append(name);
+            if (entityType != null) {
+                sb.append('/').append(entityType);
+            }
+            return sb.toString();
+        }
+
+    }
+
+    private final List<Hop> hops = new ArrayList<Hop>();
+    private int maxEntities = DEFAULT_MAX_ENTITIES;
+
+    public Traversal() {
+    }
+
+    public Traversal withHop(Hop hop) {
+        hops.add(hop);
+        return this;
+    }
+
+    /**
+     * Follow the connections of the given type made by each entity
+     */
+    public Traversal connected(String connectionType) {
+        return connected(connectionType, null, 0);
+    }
+
+    public Traversal connected(String connectionType, String entityType) {
+        return connected(connectionType, entityType, 0);
+    }
+
+    public Traversal connected(String connectionType, String entityType,
+            int limit) {
+        return withHop(new Hop(HopType.CONNECTED, connectionType, entityType,
+                limit, false));
+    }
+
+    /**
+     * Follow the connections of the given type made to each entity
+     */
+    public Traversal connecting(String connectionType) {
+        return connecting(connectionType, null, 0);
+    }
+
+    public Traversal connecting(String connectionType, String entityType) {
+        return connecting(connectionType, entityType, 0);
+    }
+
+    public Traversal connecting(String connectionType, String entityType,
+            int limit) {
+        return withHop(new Hop(HopType.CONNECTING, connectionType, entityType,
+                limit, false));
+    }
+
+    /**
+     * Read the first limit members of the named collection of each entity
+     */
+    public Traversal collection(String collectionName, int limit,
+            boolean reversed) {
+        return withHop(new Hop(HopType.COLLECTION, collectionName, null, limit,
+                reversed));
+    }
+
+    public List<Hop> getHops() {
+        return Collections.unmodifiableList(hops);
+    }
+
+    public Hop getLastHop() {
+        return hops.isEmpty() ? null : hops.get(hops.size() - 1);
+    }
+
+    public int getMaxEntities() {
+        return maxEntities;
+    }
+
+    public Traversal withMaxEntities(int maxEntities) {
+        this.maxEntities = maxEntities > 0 ? maxEntities
+                : DEFAULT_MAX_ENTITIES;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Hop hop : hops) {
+            sb.append('/').append(hop);
+        }
+        return sb.toString();
+    }
+
+}
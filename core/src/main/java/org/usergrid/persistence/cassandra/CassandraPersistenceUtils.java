@@ -36,6 +36,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -43,6 +44,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
 
 import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
@@ -67,6 +69,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.utils.JsonUtils;
 
+import com.google.common.collect.MapMaker;
+
 /**
  * @author edanuff
  * 
@@ -81,6 +85,10 @@ public class CassandraPersistenceUtils {
 			.getLogger(CassandraPersistenceUtils.class.getPackage().getName()
 					+ ".BATCH");
 
+	/** Tasks to run once a mutator has been executed, keyed by identity */
+	private static final ConcurrentMap<Mutator<?>, List<Runnable>> afterExecute = new MapMaker()
+			.weakKeys().makeMap();
+
 	/**
 	 * 
 	 */
@@ -293,26 +301,7 @@ public class CassandraPersistenceUtils {
 				return obj;
 			}
 		}
-		StringBuilder s = new StringBuilder();
-		for (Object obj : objects) {
-			if (obj instanceof String) {
-				s.append(((String) obj).toLowerCase());
-			} else if (obj instanceof List<?>) {
-				s.append(key(((List<?>) obj).toArray()));
-			} else if (obj instanceof Object[]) {
-				s.append(key((Object[]) obj));
-			} else if (obj != null) {
-				s.append(obj);
-			} else {
-				s.append("*");
-			}
-			
-			s.append(KEY_DELIM);
-		}
-		
-		s.deleteCharAt(s.length()-1);
-		
-		return s.toString();
+		return KeyEncoder.get().appendKey(objects).toKeyString();
 	}
 
 	/**
@@ -326,12 +315,17 @@ public class CassandraPersistenceUtils {
 				return (UUID) obj;
 			}
 		}
-		String keyStr = key(objects).toString();
-		if (keyStr.length() == 0) {
+		if ((objects.length == 1) && (objects[0] instanceof ByteBuffer)) {
+			return UUID.nameUUIDFromBytes(objects[0].toString().getBytes());
+		}
+		KeyEncoder encoder = KeyEncoder.get().appendKey(objects);
+		if (encoder.keyLength() == 0) {
 			return NULL_ID;
 		}
-		UUID uuid = UUID.nameUUIDFromBytes(keyStr.getBytes());
-		logger.debug("Key {} equals UUID {}", keyStr, uuid);
+		UUID uuid = encoder.toKeyID();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Key {} equals UUID {}", encoder.toKeyString(), uuid);
+		}
 		return uuid;
 	}
 
@@ -366,12 +360,46 @@ public class CassandraPersistenceUtils {
 	public static MutationResult batchExecute(Mutator<?> m, int retries) {
 		for (int i = 0; i < retries; i++) {
 			try {
-				return m.execute();
+				return executed(m, m.execute());
 			} catch (Exception e) {
 				logger.error("Unable to execute mutation, retrying...", e);
 			}
 		}
-		return m.execute();
+		return executed(m, m.execute());
+	}
+
+	/**
+	 * Run the task once the mutator has been executed by
+	 * {@link #batchExecute(Mutator, int)}, e.g. to invalidate node local
+	 * caches of what the batch writes. Mutators are weakly referenced, so
+	 * tasks for batches that are never executed are dropped with them.
+	 */
+	public static void runAfterExecute(Mutator<?> m, Runnable task) {
+		List<Runnable> tasks = afterExecute.get(m);
+		if (tasks == null) {
+			tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+			List<Runnable> existing = afterExecute.putIfAbsent(m, tasks);
+			if (existing != null) {
+				tasks = existing;
+			}
+		}
+		tasks.add(task);
+	}
+
+	private static MutationResult executed(Mutator<?> m, MutationResult result) {
+		List<Runnable> tasks = afterExecute.remove(m);
+		if (tasks != null) {
+			synchronized (tasks) {
+				for (Runnable task : tasks) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						logger.error("Unable to run task after mutation", e);
+					}
+				}
+			}
+		}
+		return result;
 	}
 
 	public static Object toStorableValue(Object obj) {
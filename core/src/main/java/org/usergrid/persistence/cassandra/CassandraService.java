@@ -23,6 +23,7 @@ import static me.prettyprint.hector.api.factory.HFactory.createRangeSlicesQuery;
 import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
 import static me.prettyprint.hector.api.factory.HFactory.createVirtualKeyspace;
 import static org.apache.commons.collections.MapUtils.getIntValue;
+import static org.apache.commons.collections.MapUtils.getLongValue;
 import static org.apache.commons.collections.MapUtils.getString;
 import static org.usergrid.persistence.cassandra.ApplicationCF.ENTITY_ID_SETS;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
@@ -44,6 +45,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -57,6 +59,8 @@ import me.prettyprint.cassandra.serializers.LongSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
 import me.prettyprint.cassandra.service.CassandraHostConfigurator;
+import me.prettyprint.cassandra.service.FailoverPolicy;
+import me.prettyprint.cassandra.service.OperationType;
 import me.prettyprint.cassandra.service.ThriftKsDef;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.ConsistencyLevelPolicy;
@@ -76,6 +80,7 @@ import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.ColumnQuery;
 import me.prettyprint.hector.api.query.CountQuery;
 import me.prettyprint.hector.api.query.MultigetSliceQuery;
+import me.prettyprint.hector.api.query.Query;
 import me.prettyprint.hector.api.query.QueryResult;
 import me.prettyprint.hector.api.query.RangeSlicesQuery;
 import me.prettyprint.hector.api.query.SliceQuery;
@@ -87,6 +92,14 @@ import org.usergrid.persistence.IndexBucketLocator;
 import org.usergrid.persistence.IndexBucketLocator.IndexType;
 import org.usergrid.persistence.cassandra.index.IndexBucketScanner;
 import org.usergrid.persistence.cassandra.index.IndexScanner;
+import org.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.usergrid.persistence.cassandra.util.TraceTagManager;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 
 public class CassandraService {
 
@@ -140,6 +153,36 @@ public class CassandraService {
 
   public static final UUID NULL_ID = new UUID(0, 0);
 
+  public static final String APPLICATION_PROPERTY_PREFIX = "cassandra.application.";
+
+  /**
+   * Prefix of the trace operation names of reads, followed by the column family
+   */
+  public static final String CF_OP_PREFIX = "cf:";
+
+  public static final int DEFAULT_KEYSPACE_CACHE_SIZE = 10000;
+
+  /**
+   * Application keyspaces unused for this long are dropped along with their
+   * metrics, in milliseconds
+   */
+  public static final long DEFAULT_KEYSPACE_CACHE_IDLE = 3600000;
+
+  /**
+   * Keyspace handles are immutable once built, so one per application is
+   * shared by every entity and queue manager instead of being rebuilt on each
+   * data access
+   */
+  private LoadingCache<UUID, Keyspace> applicationKeyspaces;
+
+  private Keyspace usergridApplicationKeyspace;
+
+  /**
+   * Splits multigets of more than cassandra.multiget.chunk.size keys into
+   * concurrent reads, null when disabled with a chunk size of 0
+   */
+  private MultigetExecutor multigetExecutor;
+
   public CassandraService(Properties properties, Cluster cluster, CassandraHostConfigurator cassandraHostConfigurator,
       LockManager lockManager) {
     this.properties = properties;
@@ -159,6 +202,42 @@ public class CassandraService {
     accessMap.put("password", properties.getProperty("cassandra.password"));
     systemKeyspace = HFactory.createKeyspace(SYSTEM_KEYSPACE, cluster, consistencyLevelPolicy,
         ON_FAIL_TRY_ALL_AVAILABLE, accessMap);
+    usergridApplicationKeyspace = getKeyspace(STATIC_APPLICATION_KEYSPACE, null);
+    Map<String, String> props = getPropertiesMap();
+    applicationKeyspaces = CacheBuilder.newBuilder()
+        .maximumSize(getIntValue(props, "cassandra.keyspace.cache.size", DEFAULT_KEYSPACE_CACHE_SIZE))
+        .expireAfterAccess(getLongValue(props, "cassandra.keyspace.cache.idle", DEFAULT_KEYSPACE_CACHE_IDLE),
+            TimeUnit.MILLISECONDS).removalListener(new RemovalListener<UUID, Keyspace>() {
+          @Override
+          public void onRemoval(RemovalNotification<UUID, Keyspace> notification) {
+            // keyspaces replaced after a policy change keep their metrics
+            if (notification.wasEvicted() && notification.getValue() instanceof MeteredKeyspace) {
+              ((MeteredKeyspace<?>) notification.getValue()).removeMetrics();
+            }
+          }
+        }).build(new CacheLoader<UUID, Keyspace>() {
+          public Keyspace load(UUID applicationId) {
+            return createApplicationKeyspace(applicationId);
+          }
+        });
+
+    int chunkSize = getIntValue(props, "cassandra.multiget.chunk.size", MultigetExecutor.DEFAULT_CHUNK_SIZE);
+    if (chunkSize > 0) {
+      multigetExecutor = new MultigetExecutor(chunkSize, getIntValue(props, "cassandra.multiget.threads",
+          MultigetExecutor.DEFAULT_THREADS), getLongValue(props, "cassandra.multiget.timeout",
+          MultigetExecutor.DEFAULT_TIMEOUT), getLongValue(props, "cassandra.multiget.hedge.millis",
+          MultigetExecutor.DEFAULT_HEDGE_MILLIS), getIntValue(props, "cassandra.multiget.hedge.percent",
+          MultigetExecutor.DEFAULT_HEDGE_PERCENT));
+    }
+  }
+
+  /**
+   * Stops the multiget threads, reads still running are left to finish
+   */
+  public void destroy() {
+    if (multigetExecutor != null) {
+      multigetExecutor.shutdown();
+    }
   }
 
   public Cluster getCluster() {
@@ -206,6 +285,7 @@ public class CassandraService {
 
   public void setConsistencyLevelPolicy(ConsistencyLevelPolicy consistencyLevelPolicy) {
     this.consistencyLevelPolicy = consistencyLevelPolicy;
+    resetApplicationKeyspaces();
   }
 
   /**
@@ -241,8 +321,134 @@ public class CassandraService {
 
   public Keyspace getApplicationKeyspace(UUID applicationId) {
     assert applicationId != null;
-    Keyspace ko = getKeyspace(keyspaceForApplication(applicationId), prefixForApplication(applicationId));
-    return ko;
+    try {
+      return applicationKeyspaces.get(applicationId);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unable to create keyspace for application " + applicationId, e.getCause());
+    }
+  }
+
+  /**
+   * Drop all cached application keyspace handles, for example after the
+   * consistency or failover settings have changed. New handles are built on
+   * the next access.
+   */
+  public void resetApplicationKeyspaces() {
+    if (applicationKeyspaces != null) {
+      applicationKeyspaces.invalidateAll();
+    }
+  }
+
+  /**
+   * Build the keyspace for the application. The read and write consistency
+   * levels and the failover policy can be overridden per application with the
+   * cassandra.application.&lt;uuid&gt;.readcl, .writecl and .failover
+   * properties. Virtual keyspaces record per application operation metrics.
+   */
+  private Keyspace createApplicationKeyspace(UUID applicationId) {
+    String keyspace = keyspaceForApplication(applicationId);
+    UUID prefix = prefixForApplication(applicationId);
+
+    String propertyPrefix = APPLICATION_PROPERTY_PREFIX + applicationId + ".";
+
+    ConsistencyLevelPolicy policy = consistencyLevelPolicy;
+
+    HConsistencyLevel read = getConsistencyLevel(propertyPrefix + "readcl");
+    HConsistencyLevel write = getConsistencyLevel(propertyPrefix + "writecl");
+
+    if (read != null || write != null) {
+      policy = new ApplicationConsistencyLevelPolicy(consistencyLevelPolicy, read, write);
+    }
+
+    FailoverPolicy failoverPolicy = getFailoverPolicy(propertyPrefix + "failover");
+
+    if (USE_VIRTUAL_KEYSPACES && (prefix != null)) {
+      return new MeteredKeyspace<UUID>(keyspace, prefix, ue, cluster.getConnectionManager(), policy, failoverPolicy,
+          accessMap);
+    }
+
+    return HFactory.createKeyspace(keyspace, cluster, policy, failoverPolicy, accessMap);
+  }
+
+  private HConsistencyLevel getConsistencyLevel(String property) {
+    String value = properties != null ? properties.getProperty(property) : null;
+
+    if (value == null || value.trim().length() == 0) {
+      return null;
+    }
+
+    try {
+      return HConsistencyLevel.valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      logger.warn("Ignoring invalid consistency level {} for {}", value, property);
+      return null;
+    }
+  }
+
+  private FailoverPolicy getFailoverPolicy(String property) {
+    String value = properties != null ? properties.getProperty(property) : null;
+
+    if (value == null || value.trim().length() == 0) {
+      return ON_FAIL_TRY_ALL_AVAILABLE;
+    }
+
+    value = value.trim().toUpperCase();
+
+    if ("FAIL_FAST".equals(value)) {
+      return FailoverPolicy.FAIL_FAST;
+    } else if ("ON_FAIL_TRY_ONE_NEXT_AVAILABLE".equals(value)) {
+      return FailoverPolicy.ON_FAIL_TRY_ONE_NEXT_AVAILABLE;
+    } else if ("ON_FAIL_TRY_ALL_AVAILABLE".equals(value)) {
+      return ON_FAIL_TRY_ALL_AVAILABLE;
+    }
+
+    logger.warn("Ignoring invalid failover policy {} for {}", value, property);
+    return ON_FAIL_TRY_ALL_AVAILABLE;
+  }
+
+  /**
+   * Execute the query, adding its time to the current trace under the name of
+   * the column family so a trace can be broken down per column family
+   */
+  private static <T> QueryResult<T> execute(Query<T> query, Object columnFamily) {
+    TimedOpTag timedOpTag = TraceTagManager.startOp();
+    if (timedOpTag == null) {
+      return query.execute();
+    }
+    boolean success = false;
+    try {
+      QueryResult<T> result = query.execute();
+      success = true;
+      return result;
+    } finally {
+      TraceTagManager.stopOp(timedOpTag, CF_OP_PREFIX + columnFamily, success);
+    }
+  }
+
+  /**
+   * Read the rows of the keys, split into concurrent chunks when there are
+   * many of them. The chunks run on other threads, so their time is added to
+   * the current trace here, as one operation.
+   */
+  private <K, N, V> Rows<K, N, V> multiget(Keyspace ko, Object columnFamily, Collection<K> keys,
+      Serializer<K> keySerializer, MultigetExecutor.RowsReader<K, N, V> reader) throws Exception {
+
+    // a reference copy, small next to the read itself
+    List<K> keyList = new ArrayList<K>(keys);
+
+    if ((multigetExecutor == null) || (keyList.size() <= multigetExecutor.getChunkSize())) {
+      return reader.read(keyList);
+    }
+
+    TimedOpTag timedOpTag = TraceTagManager.startOp();
+    boolean success = false;
+    try {
+      Rows<K, N, V> rows = multigetExecutor.read(ko, keyList, keySerializer, reader);
+      success = true;
+      return rows;
+    } finally {
+      TraceTagManager.stopOp(timedOpTag, CF_OP_PREFIX + columnFamily, success);
+    }
   }
 
   /**
@@ -251,7 +457,7 @@ public class CassandraService {
    * @return
    */
   public Keyspace getUsergridApplicationKeyspace() {
-    return getKeyspace(STATIC_APPLICATION_KEYSPACE, null);
+    return usergridApplicationKeyspace;
   }
 
   public Keyspace getSystemKeyspace() {
@@ -418,7 +624,7 @@ public class CassandraService {
     q.setColumnFamily(columnFamily.toString());
     q.setKey(bytebuffer(key));
     q.setRange(null, null, false, ALL_COUNT);
-    QueryResult<ColumnSlice<N, V>> r = q.execute();
+    QueryResult<ColumnSlice<N, V>> r = execute(q, columnFamily);
     ColumnSlice<N, V> slice = r.get();
     List<HColumn<N, V>> results = slice.getColumns();
 
@@ -502,7 +708,7 @@ public class CassandraService {
      * else { q.setRange(start_bytes, finish_bytes, reversed, count); }
      */
     q.setRange(start_bytes, finish_bytes, reversed, count);
-    QueryResult<ColumnSlice<ByteBuffer, ByteBuffer>> r = q.execute();
+    QueryResult<ColumnSlice<ByteBuffer, ByteBuffer>> r = execute(q, columnFamily);
     ColumnSlice<ByteBuffer, ByteBuffer> slice = r.get();
     List<HColumn<ByteBuffer, ByteBuffer>> results = slice.getColumns();
 
@@ -517,18 +723,15 @@ public class CassandraService {
     return results;
   }
 
-  public Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> multiGetColumns(Keyspace ko, Object columnFamily,
-      List<?> keys, Object start, Object finish, int count, boolean reversed) throws Exception {
+  public Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> multiGetColumns(final Keyspace ko,
+      final Object columnFamily, List<?> keys, Object start, Object finish, final int count, final boolean reversed)
+      throws Exception {
 
     if (db_logger.isDebugEnabled()) {
       db_logger.debug("multiGetColumns cf=" + columnFamily + " keys=" + keys + " start=" + start + " finish=" + finish
           + " count=" + count + " reversed=" + reversed);
     }
 
-    MultigetSliceQuery<ByteBuffer, ByteBuffer, ByteBuffer> q = createMultigetSliceQuery(ko, be, be, be);
-    q.setColumnFamily(columnFamily.toString());
-    q.setKeys(bytebuffers(keys));
-
     ByteBuffer start_bytes = null;
     if (start instanceof DynamicComposite) {
       start_bytes = ((DynamicComposite) start).serialize();
@@ -547,9 +750,20 @@ public class CassandraService {
       finish_bytes = bytebuffer(finish);
     }
 
-    q.setRange(start_bytes, finish_bytes, reversed, count);
-    QueryResult<Rows<ByteBuffer, ByteBuffer, ByteBuffer>> r = q.execute();
-    Rows<ByteBuffer, ByteBuffer, ByteBuffer> rows = r.get();
+    final ByteBuffer range_start = start_bytes;
+    final ByteBuffer range_finish = finish_bytes;
+
+    Rows<ByteBuffer, ByteBuffer, ByteBuffer> rows = multiget(ko, columnFamily, bytebuffers(keys), be,
+        new MultigetExecutor.RowsReader<ByteBuffer, ByteBuffer, ByteBuffer>() {
+          @Override
+          public Rows<ByteBuffer, ByteBuffer, ByteBuffer> read(List<ByteBuffer> chunk) throws Exception {
+            MultigetSliceQuery<ByteBuffer, ByteBuffer, ByteBuffer> q = createMultigetSliceQuery(ko, be, be, be);
+            q.setColumnFamily(columnFamily.toString());
+            q.setKeys(chunk);
+            q.setRange(range_start, range_finish, reversed, count);
+            return execute(q, columnFamily).get();
+          }
+        });
 
     Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results = new LinkedHashMap<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>>();
     for (Row<ByteBuffer, ByteBuffer, ByteBuffer> row : rows) {
@@ -572,19 +786,24 @@ public class CassandraService {
    * @throws Exception
    *           the exception
    */
-  public <K, N, V> Rows<K, N, V> getRows(Keyspace ko, Object columnFamily, Collection<K> keys, Serializer<K> keySerializer,
-      Serializer<N> nameSerializer, Serializer<V> valueSerializer) throws Exception {
+  public <K, N, V> Rows<K, N, V> getRows(final Keyspace ko, final Object columnFamily, Collection<K> keys,
+      final Serializer<K> keySerializer, final Serializer<N> nameSerializer, final Serializer<V> valueSerializer)
+      throws Exception {
 
     if (db_logger.isDebugEnabled()) {
       db_logger.debug("getColumns cf=" + columnFamily + " keys=" + keys);
     }
 
-    MultigetSliceQuery<K, N, V> q = createMultigetSliceQuery(ko, keySerializer, nameSerializer, valueSerializer);
-    q.setColumnFamily(columnFamily.toString());
-    q.setKeys(keys);
-    q.setRange(null, null, false, ALL_COUNT);
-    QueryResult<Rows<K, N, V>> r = q.execute();
-    Rows<K, N, V> results = r.get();
+    Rows<K, N, V> results = multiget(ko, columnFamily, keys, keySerializer, new MultigetExecutor.RowsReader<K, N, V>() {
+      @Override
+      public Rows<K, N, V> read(List<K> chunk) throws Exception {
+        MultigetSliceQuery<K, N, V> q = createMultigetSliceQuery(ko, keySerializer, nameSerializer, valueSerializer);
+        q.setColumnFamily(columnFamily.toString());
+        q.setKeys(chunk);
+        q.setRange(null, null, false, ALL_COUNT);
+        return execute(q, columnFamily).get();
+      }
+    });
 
     if (db_logger.isInfoEnabled()) {
       if (results == null) {
@@ -626,7 +845,7 @@ public class CassandraService {
     // q.setColumnNames(columnNames.toArray(new String[0]));
     q.setColumnNames((N[]) nameSerializer.fromBytesSet(se.toBytesSet(new ArrayList<String>(columnNames))).toArray());
 
-    QueryResult<ColumnSlice<N, V>> r = q.execute();
+    QueryResult<ColumnSlice<N, V>> r = execute(q, columnFamily);
     ColumnSlice<N, V> slice = r.get();
     List<HColumn<N, V>> results = slice.getColumns();
 
@@ -657,19 +876,26 @@ public class CassandraService {
    *           the exception
    */
   @SuppressWarnings("unchecked")
-  public <K, N, V> Rows<K, N, V> getRows(Keyspace ko, Object columnFamily, List<K> keys, Set<String> columnNames,
-      Serializer<K> keySerializer, Serializer<N> nameSerializer, Serializer<V> valueSerializer) throws Exception {
+  public <K, N, V> Rows<K, N, V> getRows(final Keyspace ko, final Object columnFamily, List<K> keys,
+      Set<String> columnNames, final Serializer<K> keySerializer, final Serializer<N> nameSerializer,
+      final Serializer<V> valueSerializer) throws Exception {
 
     if (db_logger.isDebugEnabled()) {
       db_logger.debug("getColumns cf=" + columnFamily + " keys=" + keys + " names=" + columnNames);
     }
 
-    MultigetSliceQuery<K, N, V> q = createMultigetSliceQuery(ko, keySerializer, nameSerializer, valueSerializer);
-    q.setColumnFamily(columnFamily.toString());
-    q.setKeys(keys);
-    q.setColumnNames((N[]) nameSerializer.fromBytesSet(se.toBytesSet(new ArrayList<String>(columnNames))).toArray());
-    QueryResult<Rows<K, N, V>> r = q.execute();
-    Rows<K, N, V> results = r.get();
+    final N[] names = (N[]) nameSerializer.fromBytesSet(se.toBytesSet(new ArrayList<String>(columnNames))).toArray();
+
+    Rows<K, N, V> results = multiget(ko, columnFamily, keys, keySerializer, new MultigetExecutor.RowsReader<K, N, V>() {
+      @Override
+      public Rows<K, N, V> read(List<K> chunk) throws Exception {
+        MultigetSliceQuery<K, N, V> q = createMultigetSliceQuery(ko, keySerializer, nameSerializer, valueSerializer);
+        q.setColumnFamily(columnFamily.toString());
+        q.setKeys(chunk);
+        q.setColumnNames(names);
+        return execute(q, columnFamily).get();
+      }
+    });
 
     if (db_logger.isInfoEnabled()) {
       if (results == null) {
@@ -711,8 +937,8 @@ public class CassandraService {
      */
 
     ColumnQuery<ByteBuffer, N, V> q = HFactory.createColumnQuery(ko, be, nameSerializer, valueSerializer);
-    QueryResult<HColumn<N, V>> r = q.setKey(bytebuffer(key)).setName(column).setColumnFamily(columnFamily.toString())
-        .execute();
+    QueryResult<HColumn<N, V>> r = execute(
+        q.setKey(bytebuffer(key)).setName(column).setColumnFamily(columnFamily.toString()), columnFamily);
     HColumn<N, V> result = r.get();
 
     if (db_logger.isInfoEnabled()) {
@@ -738,8 +964,8 @@ public class CassandraService {
      */
 
     SliceQuery<ByteBuffer, N, V> q = HFactory.createSliceQuery(ko, be, nameSerializer, valueSerializer);
-    QueryResult<ColumnSlice<N, V>> r = q.setKey(bytebuffer(key)).setColumnNames(columns)
-        .setColumnFamily(columnFamily.toString()).execute();
+    QueryResult<ColumnSlice<N, V>> r = execute(
+        q.setKey(bytebuffer(key)).setColumnNames(columns).setColumnFamily(columnFamily.toString()), columnFamily);
     ColumnSlice<N, V> result = r.get();
 
     if (db_logger.isDebugEnabled()) {
@@ -903,7 +1129,7 @@ public class CassandraService {
     q.setColumnFamily(columnFamily.toString());
     q.setKeys(null, null);
     q.setColumnNames(new ByteBuffer[0]);
-    QueryResult<OrderedRows<K, ByteBuffer, ByteBuffer>> r = q.execute();
+    QueryResult<OrderedRows<K, ByteBuffer, ByteBuffer>> r = execute(q, columnFamily);
     OrderedRows<K, ByteBuffer, ByteBuffer> rows = r.get();
 
     Set<K> results = new LinkedHashSet<K>();
@@ -937,7 +1163,7 @@ public class CassandraService {
     q.setColumnFamily(columnFamily.toString());
     q.setKeys(null, null);
     q.setColumnNames(new ByteBuffer[0]);
-    QueryResult<OrderedRows<K, ByteBuffer, ByteBuffer>> r = q.execute();
+    QueryResult<OrderedRows<K, ByteBuffer, ByteBuffer>> r = execute(q, columnFamily);
     OrderedRows<K, ByteBuffer, ByteBuffer> rows = r.get();
 
     List<K> list = new ArrayList<K>();
@@ -1061,7 +1287,7 @@ public class CassandraService {
     cq.setColumnFamily(columnFamily.toString());
     cq.setKey(bytebuffer(key));
     cq.setRange(ByteBuffer.allocate(0), ByteBuffer.allocate(0), 100000000);
-    QueryResult<Integer> r = cq.execute();
+    QueryResult<Integer> r = execute(cq, columnFamily);
     if (r == null) {
       return 0;
     }
@@ -1115,4 +1341,43 @@ public class CassandraService {
 
   }
 
+  /**
+   * Overrides the read and write consistency levels of the cluster wide
+   * policy for a single application. Meta operations and any level that isn't
+   * overridden fall through to the cluster wide policy.
+   */
+  private static class ApplicationConsistencyLevelPolicy implements ConsistencyLevelPolicy {
+
+    private final ConsistencyLevelPolicy delegate;
+    private final HConsistencyLevel read;
+    private final HConsistencyLevel write;
+
+    public ApplicationConsistencyLevelPolicy(ConsistencyLevelPolicy delegate, HConsistencyLevel read,
+        HConsistencyLevel write) {
+      this.delegate = delegate;
+      this.read = read;
+      this.write = write;
+    }
+
+    @Override
+    public HConsistencyLevel get(OperationType op) {
+      HConsistencyLevel level = override(op);
+      return level != null ? level : delegate.get(op);
+    }
+
+    @Override
+    public HConsistencyLevel get(OperationType op, String cfName) {
+      HConsistencyLevel level = override(op);
+      return level != null ? level : delegate.get(op, cfName);
+    }
+
+    private HConsistencyLevel override(OperationType op) {
+      if (op == OperationType.READ) {
+        return read;
+      } else if (op == OperationType.WRITE) {
+        return write;
+      }
+      return null;
+    }
+  }
 }
@@ -645,51 +645,44 @@ public class ConnectionRefImpl implements ConnectionRef {
 	public static UUID getId(EntityRef connectingEntity,
 			ConnectedEntityRef connectedEntity,
 			ConnectedEntityRef... pairedConnections) {
-		UUID uuid = null;
-		try {
-
-			if (connectionsNull(pairedConnections)
-					&& connectionsNull(connectedEntity)) {
-				return connectingEntity.getUuid();
-			}
-
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream(
-					16 + (32 * pairedConnections.length));
-
-			byteStream.write(uuidToBytesNullOk(connectingEntity.getUuid()));
-
-			for (ConnectedEntityRef connection : pairedConnections) {
-				String connectionType = connection.getConnectionType();
-				UUID connectedEntityID = connection.getUuid();
-
-				byteStream.write(ascii(StringUtils.lowerCase(connectionType)));
-				byteStream.write(uuidToBytesNullOk(connectedEntityID));
+		if (connectionsNull(pairedConnections)
+				&& connectionsNull(connectedEntity)) {
+			return connectingEntity.getUuid();
+		}
 
-			}
+		// the refs are read before the encoder is taken, getting the id of a
+		// ref can build another key on this thread
+		UUID connectingEntityID = connectingEntity.getUuid();
 
-			String connectionType = connectedEntity.getConnectionType();
-			if (connectionType == null) {
-				connectionType = NULL_ENTITY_TYPE;
-			}
+		int pairedCount = pairedConnections != null ? pairedConnections.length
+				: 0;
+		String[] pairedTypes = new String[pairedCount];
+		UUID[] pairedIDs = new UUID[pairedCount];
+		for (int i = 0; i < pairedCount; i++) {
+			pairedTypes[i] = pairedConnections[i].getConnectionType();
+			pairedIDs[i] = pairedConnections[i].getUuid();
+		}
 
-			UUID connectedEntityID = connectedEntity.getUuid();
+		String connectionType = connectedEntity.getConnectionType();
+		if (connectionType == null) {
+			connectionType = NULL_ENTITY_TYPE;
+		}
 
-			byteStream.write(ascii(StringUtils.lowerCase(connectionType)));
-			byteStream.write(uuidToBytesNullOk(connectedEntityID));
+		UUID connectedEntityID = connectedEntity.getUuid();
 
-			byte[] raw_id = byteStream.toByteArray();
+		KeyEncoder encoder = KeyEncoder.get();
 
-			// logger.info("raw connection index id: " +
-			// Hex.encodeHexString(raw_id));
+		encoder.appendUUIDBytes(connectingEntityID);
 
-			uuid = UUID.nameUUIDFromBytes(raw_id);
+		for (int i = 0; i < pairedCount; i++) {
+			encoder.appendAsciiLowerCase(pairedTypes[i]);
+			encoder.appendUUIDBytes(pairedIDs[i]);
+		}
 
-			// logger.info("connection index uuid: " + uuid);
+		encoder.appendAsciiLowerCase(connectionType);
+		encoder.appendUUIDBytes(connectedEntityID);
 
-		} catch (IOException e) {
-			logger.error("Unable to create connection UUID", e);
-		}
-		return uuid;
+		return encoder.toNameUUID();
 	}
 
 	/**
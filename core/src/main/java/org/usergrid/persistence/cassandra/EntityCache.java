@@ -0,0 +1,513 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.EntityRef;
+import org.usergrid.persistence.Schema;
+import org.usergrid.persistence.SimpleEntityRef;
+import org.usergrid.utils.ConversionUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+
+/**
+ * Node local cache of entity property rows, keyed by application and entity
+ * id. Entries are immutable snapshots of the raw columns, every read builds a
+ * new entity from them, so cached entities can't be changed by callers.
+ * 
+ * The entity manager invalidates an entity when it queues a property or
+ * dictionary write for it and again when the write is committed. A read only
+ * populates the cache when no invalidation of the entity has happened since
+ * shortly before the read started, so a read racing a write never caches the
+ * old row. Other nodes learn about writes through the
+ * {@link EntityCacheChannel}, if one is configured, and otherwise through the
+ * per type TTLs.
+ * 
+ * Alias lookups are cached next to the entities, keyed by application and
+ * alias row key, including lookups of aliases that don't exist. They are
+ * invalidated the same way, through the alias row key.
+ * 
+ * Disabled unless enabled by configuration.
+ */
+public class EntityCache {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(EntityCache.class);
+
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	public static final long DEFAULT_TTL = 60 * 1000;
+	public static final long DEFAULT_SETTLE_MILLIS = 1000;
+	public static final long DEFAULT_ALIAS_TTL = 60 * 1000;
+	public static final long DEFAULT_MISSING_ALIAS_TTL = 5 * 1000;
+	public static final long DEFAULT_MAX_ALIASES = 100000;
+
+	/**
+	 * Returned by {@link #getAlias(UUID, UUID)} for an alias that is cached as
+	 * not existing
+	 */
+	static final EntityRef MISSING_ALIAS = new SimpleEntityRef((String) null,
+			(UUID) null);
+
+	/** approximate per column overhead of the cached maps and buffers */
+	private static final int COLUMN_OVERHEAD = 96;
+
+	private static final int STRIPES = 1024;
+
+	private boolean enabled = false;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long defaultTtl = DEFAULT_TTL;
+	private long settleMillis = DEFAULT_SETTLE_MILLIS;
+	private Map<String, Long> typeTtls = Collections.emptyMap();
+	private EntityCacheChannel channel;
+	private boolean cacheAliases = true;
+	private long aliasTtl = DEFAULT_ALIAS_TTL;
+	private long missingAliasTtl = DEFAULT_MISSING_ALIAS_TTL;
+	private long maxAliases = DEFAULT_MAX_ALIASES;
+
+	private Cache<Key, Snapshot> cache;
+	private Cache<Key, CachedAlias> aliases;
+
+	/** last invalidation time of the entities hashing to each stripe */
+	private final AtomicLongArray invalidated = new AtomicLongArray(STRIPES);
+
+	private final Meter hits;
+	private final Meter misses;
+	private final Meter invalidations;
+	private final Meter aliasHits;
+	private final Meter aliasMisses;
+
+	public EntityCache() {
+		hits = Metrics.newMeter(EntityCache.class, "hits", "reads",
+				TimeUnit.SECONDS);
+		misses = Metrics.newMeter(EntityCache.class, "misses", "reads",
+				TimeUnit.SECONDS);
+		invalidations = Metrics.newMeter(EntityCache.class, "invalidations",
+				"entities", TimeUnit.SECONDS);
+		aliasHits = Metrics.newMeter(EntityCache.class, "alias-hits",
+				"lookups", TimeUnit.SECONDS);
+		aliasMisses = Metrics.newMeter(EntityCache.class, "alias-misses",
+				"lookups", TimeUnit.SECONDS);
+		Metrics.newGauge(EntityCache.class, "hit-ratio", new Gauge<Double>() {
+			@Override
+			public Double value() {
+				long total = hits.count() + misses.count();
+				return total == 0 ? 0.0 : (double) hits.count() / total;
+			}
+		});
+		Metrics.newGauge(EntityCache.class, "size", new Gauge<Long>() {
+			@Override
+			public Long value() {
+				return cache == null ? 0L : cache.size();
+			}
+		});
+	}
+
+	public void init() {
+		if (!enabled) {
+			return;
+		}
+
+		long maxTtl = defaultTtl;
+		for (Long ttl : typeTtls.values()) {
+			maxTtl = Math.max(maxTtl, ttl);
+		}
+
+		cache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+				.weigher(new Weigher<Key, Snapshot>() {
+					@Override
+					public int weigh(Key key, Snapshot snapshot) {
+						return snapshot.weight;
+					}
+				}).expireAfterWrite(maxTtl, TimeUnit.MILLISECONDS).build();
+
+		if (cacheAliases) {
+			aliases = CacheBuilder.newBuilder().maximumSize(maxAliases)
+					.expireAfterWrite(Math.max(aliasTtl, missingAliasTtl),
+							TimeUnit.MILLISECONDS).build();
+		}
+
+		if (channel != null) {
+			channel.subscribe(this);
+		}
+
+		logger.info("Entity cache enabled, {} bytes, types {}", maxBytes,
+				typeTtls.isEmpty() ? "all" : typeTtls);
+	}
+
+	public boolean isEnabled() {
+		return cache != null;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Upper bound of the approximate size of the cached rows
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * How long an entity is cached for if its type has no TTL of its own
+	 */
+	public void setDefaultTtl(long defaultTtl) {
+		this.defaultTtl = defaultTtl;
+	}
+
+	/**
+	 * How long after an invalidation reads of the entity are not cached, must
+	 * be longer than writes usually take to commit
+	 */
+	public void setSettleMillis(long settleMillis) {
+		this.settleMillis = settleMillis;
+	}
+
+	/**
+	 * Comma separated list of the entity types to cache, each optionally
+	 * followed by a colon and its TTL in milliseconds, for example
+	 * "application:300000,role,group". A TTL of 0 disables caching of the
+	 * type. An empty list caches all types.
+	 */
+	public void setTypes(String types) {
+		Map<String, Long> ttls = new TreeMap<String, Long>(
+				String.CASE_INSENSITIVE_ORDER);
+		for (String type : StringUtils.split(StringUtils.defaultString(types),
+				',')) {
+			type = type.trim();
+			if (type.length() == 0) {
+				continue;
+			}
+			long ttl = -1;
+			int i = type.indexOf(':');
+			if (i >= 0) {
+				ttl = Long.parseLong(type.substring(i + 1).trim());
+				type = type.substring(0, i).trim();
+			}
+			ttls.put(Schema.normalizeEntityType(type), ttl);
+		}
+		typeTtls = ttls;
+	}
+
+	/**
+	 * Whether to cache alias lookups as well, true by default
+	 */
+	public void setCacheAliases(boolean cacheAliases) {
+		this.cacheAliases = cacheAliases;
+	}
+
+	/**
+	 * How long an alias is cached for
+	 */
+	public void setAliasTtl(long aliasTtl) {
+		this.aliasTtl = aliasTtl;
+	}
+
+	/**
+	 * How long the absence of an alias is cached for, kept short since the
+	 * alias may be created on another node
+	 */
+	public void setMissingAliasTtl(long missingAliasTtl) {
+		this.missingAliasTtl = missingAliasTtl;
+	}
+
+	public void setMaxAliases(long maxAliases) {
+		this.maxAliases = maxAliases;
+	}
+
+	public boolean isCachingAliases() {
+		return aliases != null;
+	}
+
+	public void setChannel(EntityCacheChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * @return The TTL of cached entities of the type, 0 if the type isn't
+	 *         cached
+	 */
+	public long getTtl(String entityType) {
+		if (typeTtls.isEmpty()) {
+			return defaultTtl;
+		}
+		Long ttl = typeTtls.get(entityType);
+		if (ttl == null) {
+			return 0;
+		}
+		return ttl < 0 ? defaultTtl : ttl;
+	}
+
+	/**
+	 * @return A copy of the cached columns of the entity or null if it isn't
+	 *         cached
+	 */
+	public Map<String, ByteBuffer> get(UUID applicationId, UUID entityId) {
+		if (cache == null) {
+			return null;
+		}
+
+		Key key = new Key(applicationId, entityId);
+		Snapshot snapshot = cache.getIfPresent(key);
+		if ((snapshot != null)
+				&& (snapshot.expires <= System.currentTimeMillis())) {
+			cache.asMap().remove(key, snapshot);
+			snapshot = null;
+		}
+
+		if (snapshot == null) {
+			misses.mark();
+			return null;
+		}
+
+		hits.mark();
+		return snapshot.copyColumns();
+	}
+
+	/**
+	 * Cache the columns read for an entity
+	 * 
+	 * @param readStarted
+	 *            The time in milliseconds captured before the columns were
+	 *            read
+	 */
+	public void put(UUID applicationId, UUID entityId,
+			Map<String, ByteBuffer> columns, long readStarted) {
+		if ((cache == null) || (columns == null)) {
+			return;
+		}
+
+		ByteBuffer typeColumn = columns.get(Schema.PROPERTY_TYPE);
+		if (typeColumn == null) {
+			return;
+		}
+
+		long ttl = getTtl(Schema.normalizeEntityType(ConversionUtils
+				.string(typeColumn)));
+		if (ttl <= 0) {
+			return;
+		}
+
+		if (invalidated.get(stripe(applicationId, entityId)) >= (readStarted - settleMillis)) {
+			return;
+		}
+
+		cache.put(new Key(applicationId, entityId), new Snapshot(columns,
+				readStarted + ttl));
+	}
+
+	/**
+	 * @return The entity the alias refers to, {@link #MISSING_ALIAS} if the
+	 *         alias is cached as not existing or null if it isn't cached
+	 */
+	public EntityRef getAlias(UUID applicationId, UUID aliasId) {
+		if (aliases == null) {
+			return null;
+		}
+
+		Key key = new Key(applicationId, aliasId);
+		CachedAlias alias = aliases.getIfPresent(key);
+		if ((alias != null) && (alias.expires <= System.currentTimeMillis())) {
+			aliases.asMap().remove(key, alias);
+			alias = null;
+		}
+
+		if (alias == null) {
+			aliasMisses.mark();
+			return null;
+		}
+
+		aliasHits.mark();
+		return alias.ref == null ? MISSING_ALIAS : alias.ref;
+	}
+
+	/**
+	 * Cache the result of an alias lookup
+	 * 
+	 * @param ref
+	 *            The entity the alias refers to, null if it doesn't exist
+	 * @param readStarted
+	 *            The time in milliseconds captured before the alias was read
+	 */
+	public void putAlias(UUID applicationId, UUID aliasId, EntityRef ref,
+			long readStarted) {
+		if (aliases == null) {
+			return;
+		}
+
+		if (invalidated.get(stripe(applicationId, aliasId)) >= (readStarted - settleMillis)) {
+			return;
+		}
+
+		if (ref != null) {
+			ref = new SimpleEntityRef(ref.getType(), ref.getUuid());
+		}
+
+		aliases.put(new Key(applicationId, aliasId), new CachedAlias(ref,
+				readStarted + (ref == null ? missingAliasTtl : aliasTtl)));
+	}
+
+	/**
+	 * Drop the entity on this node and tell the other nodes. Also used for
+	 * alias row keys.
+	 */
+	public void invalidate(UUID applicationId, UUID entityId) {
+		if (cache == null) {
+			return;
+		}
+
+		invalidateLocal(applicationId, entityId);
+
+		if (channel != null) {
+			try {
+				channel.publish(applicationId, entityId);
+			} catch (Exception e) {
+				logger.error("Unable to publish entity cache invalidation", e);
+			}
+		}
+	}
+
+	/**
+	 * Drop the entity on this node only, called by the channel for
+	 * invalidations from other nodes
+	 */
+	public void invalidateLocal(UUID applicationId, UUID entityId) {
+		if (cache == null) {
+			return;
+		}
+
+		invalidated.set(stripe(applicationId, entityId),
+				System.currentTimeMillis());
+		Key key = new Key(applicationId, entityId);
+		cache.invalidate(key);
+		if (aliases != null) {
+			aliases.invalidate(key);
+		}
+		invalidations.mark();
+	}
+
+	public void invalidateAll() {
+		if (cache != null) {
+			cache.invalidateAll();
+		}
+		if (aliases != null) {
+			aliases.invalidateAll();
+		}
+	}
+
+	private static int stripe(UUID applicationId, UUID entityId) {
+		int h = (31 * applicationId.hashCode()) + entityId.hashCode();
+		h ^= (h >>> 16);
+		return h & (STRIPES - 1);
+	}
+
+	private static final class Key {
+		private final UUID applicationId;
+		private final UUID entityId;
+
+		Key(UUID applicationId, UUID entityId) {
+			this.applicationId = applicationId;
+			this.entityId = entityId;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * applicationId.hashCode()) + entityId.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return entityId.equals(other.entityId)
+					&& applicationId.equals(other.applicationId);
+		}
+	}
+
+	private static final class CachedAlias {
+		private final EntityRef ref;
+		private final long expires;
+
+		CachedAlias(EntityRef ref, long expires) {
+			this.ref = ref;
+			this.expires = expires;
+		}
+	}
+
+	private static final class Snapshot {
+		private final Map<String, ByteBuffer> columns;
+		private final long expires;
+		private final int weight;
+
+		Snapshot(Map<String, ByteBuffer> columns, long expires) {
+			Map<String, ByteBuffer> copy = new LinkedHashMap<String, ByteBuffer>(
+					columns.size() * 2);
+			long size = 0;
+			for (Entry<String, ByteBuffer> column : columns.entrySet()) {
+				ByteBuffer value = column.getValue();
+				// values read from thrift are slices of the whole response
+				// frame, so the bytes are copied out rather than keeping the
+				// frame alive for as long as the entity is cached
+				copy.put(column.getKey(), value == null ? null : copyBytes(value));
+				size += COLUMN_OVERHEAD + (2 * column.getKey().length())
+						+ (value == null ? 0 : value.remaining());
+			}
+			this.columns = copy;
+			this.expires = expires;
+			weight = (int) Math.min(size, Integer.MAX_VALUE);
+		}
+
+		Map<String, ByteBuffer> copyColumns() {
+			Map<String, ByteBuffer> copy = new LinkedHashMap<String, ByteBuffer>(
+					columns.size() * 2);
+			for (Entry<String, ByteBuffer> column : columns.entrySet()) {
+				ByteBuffer value = column.getValue();
+				copy.put(column.getKey(), value == null ? null : value.duplicate());
+			}
+			return copy;
+		}
+
+		private static ByteBuffer copyBytes(ByteBuffer value) {
+			byte[] bytes = new byte[value.remaining()];
+			value.duplicate().get(bytes);
+			return ByteBuffer.wrap(bytes);
+		}
+	}
+
+}
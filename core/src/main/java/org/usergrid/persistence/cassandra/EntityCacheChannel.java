@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import java.util.UUID;
+
+/**
+ * Carries entity cache invalidations to the other nodes of the cluster. The
+ * default is local only, a deployment with more than one node that enables
+ * the entity cache should plug in a channel or keep the cache TTLs short.
+ */
+public interface EntityCacheChannel {
+
+	/**
+	 * Start delivering invalidations published by other nodes to the cache
+	 */
+	public void subscribe(EntityCache cache);
+
+	/**
+	 * Tell the other nodes an entity changed
+	 */
+	public void publish(UUID applicationId, UUID entityId);
+
+}
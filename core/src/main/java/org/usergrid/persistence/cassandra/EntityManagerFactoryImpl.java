@@ -406,4 +406,17 @@ ApplicationContextAware {
         this.counterUtils = counterUtils;
     }
 
+    /**
+     * Whether geo searches and removals still cover entries written before
+     * geo buckets were sized by resolution, see
+     * {@link GeoIndexManager#setLegacyBuckets(boolean)}
+     */
+    public void setGeoLegacyBuckets(boolean geoLegacyBuckets) {
+        GeoIndexManager.setLegacyBuckets(geoLegacyBuckets);
+    }
+
+    public void setGeoCellCache(boolean geoCellCache) {
+        GeoIndexManager.setCellCacheEnabled(geoCellCache);
+    }
+
 }
@@ -23,6 +23,7 @@ import static me.prettyprint.hector.api.factory.HFactory.createMutator;
 import static org.apache.commons.lang.StringUtils.capitalize;
 import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.usergrid.locking.LockHelper.getUniqueUpdateLock;
+import static org.usergrid.locking.LockHelper.getUniqueUpdateLocks;
 import static org.usergrid.persistence.Results.fromEntities;
 import static org.usergrid.persistence.Results.Level.REFS;
 import static org.usergrid.persistence.Schema.COLLECTION_ROLES;
@@ -64,10 +65,13 @@ import static org.usergrid.persistence.cassandra.ApplicationCF.ENTITY_UNIQUE;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.addDeleteToMutator;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.addInsertToMutator;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.addPropertyToMutator;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.asMap;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.runAfterExecute;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.toStorableBinaryValue;
 import static org.usergrid.persistence.cassandra.CassandraService.ALL_COUNT;
+import static org.usergrid.persistence.cassandra.util.TraceTagManager.ENTITY_LOAD_OP;
 import static org.usergrid.utils.ClassUtils.cast;
 import static org.usergrid.utils.ConversionUtils.bytebuffer;
 import static org.usergrid.utils.ConversionUtils.bytes;
@@ -88,6 +92,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -96,6 +101,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import me.prettyprint.cassandra.model.IndexedSlicesQuery;
@@ -125,7 +131,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.util.Assert;
+import org.usergrid.changes.ChangeEvent;
+import org.usergrid.changes.ChangeEventBus;
 import org.usergrid.locking.Lock;
+import org.usergrid.locking.exception.UGLockException;
+import org.usergrid.locking.noop.NoOpLockImpl;
 import org.usergrid.mq.Message;
 import org.usergrid.mq.QueueManager;
 import org.usergrid.mq.cassandra.QueueManagerFactoryImpl;
@@ -153,9 +163,12 @@ import org.usergrid.persistence.Schema;
 import org.usergrid.persistence.SimpleCollectionRef;
 import org.usergrid.persistence.SimpleEntityRef;
 import org.usergrid.persistence.SimpleRoleRef;
+import org.usergrid.persistence.Traversal;
 import org.usergrid.persistence.TypedEntity;
 import org.usergrid.persistence.cassandra.CounterUtils.AggregateCounterSelection;
+import org.usergrid.persistence.cassandra.util.TimedOpTag;
 import org.usergrid.persistence.cassandra.util.TraceParticipant;
+import org.usergrid.persistence.cassandra.util.TraceTagManager;
 import org.usergrid.persistence.entities.Application;
 import org.usergrid.persistence.entities.Event;
 import org.usergrid.persistence.entities.Group;
@@ -166,11 +179,14 @@ import org.usergrid.persistence.exceptions.EntityNotFoundException;
 import org.usergrid.persistence.exceptions.RequiredPropertyNotFoundException;
 import org.usergrid.persistence.exceptions.UnexpectedEntityTypeException;
 import org.usergrid.persistence.schema.CollectionInfo;
+import org.usergrid.persistence.schema.EntityDescriptor;
+import org.usergrid.persistence.schema.EntityInfo;
 import org.usergrid.utils.ClassUtils;
 import org.usergrid.utils.CompositeUtils;
 import org.usergrid.utils.UUIDUtils;
 
 import com.google.common.collect.BiMap;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.HashBiMap;
 import com.yammer.metrics.annotation.Metered;
 
@@ -204,6 +220,17 @@ public class EntityManagerImpl implements EntityManager {
 	private CassandraService cass;
     @Resource
 	private CounterUtils counterUtils;
+    @Resource
+	private ChangeEventBus changeEventBus;
+    @Resource
+	private EntityCache entityCache;
+
+	/**
+	 * The entities and aliases each batch writes, dropped from the entity
+	 * cache again once the batch is executed
+	 */
+	private final ConcurrentMap<Mutator<?>, CachedWrites> cachedWrites = new MapMaker()
+			.weakKeys().makeMap();
 
     private boolean skipAggregateCounters;
 
@@ -212,6 +239,11 @@ public class EntityManagerImpl implements EntityManager {
 	public static final UUIDSerializer ue = new UUIDSerializer();
 	public static final LongSerializer le = new LongSerializer();
 
+	/**
+	 * Stands in for locks the caller already holds
+	 */
+	private static final Lock NO_LOCK = new NoOpLockImpl();
+
 	public EntityManagerImpl() {
 	}
 
@@ -309,19 +341,38 @@ public class EntityManagerImpl implements EntityManager {
 	public Mutator<ByteBuffer> batchSetProperty(Mutator<ByteBuffer> batch,
 			EntityRef entity, String propertyName, Object propertyValue,
 			boolean force, boolean noRead, UUID timestampUuid) throws Exception {
+		return batchSetProperty(batch, entity, propertyName, propertyValue,
+				force, noRead, timestampUuid, true);
+	}
+
+	/**
+	 * @param lock
+	 *            false if the caller already holds the locks on the unique and
+	 *            alias values, the lock implementations aren't reentrant
+	 *            across lock instances
+	 */
+	private Mutator<ByteBuffer> batchSetProperty(Mutator<ByteBuffer> batch,
+			EntityRef entity, String propertyName, Object propertyValue,
+			boolean force, boolean noRead, UUID timestampUuid, boolean lock)
+			throws Exception {
 
 		long timestamp = getTimestampInMicros(timestampUuid);
 
+		invalidateCached(batch, entity.getUuid());
+
 		// propertyName = propertyName.toLowerCase();
 
-		boolean entitySchemaHasProperty = getDefaultSchema().hasProperty(
+		Schema defaultSchema = Schema.getDefaultSchema();
+
+		EntityDescriptor descriptor = defaultSchema
+				.getEntityDescriptor(entity.getType());
+
+		boolean entitySchemaHasProperty = defaultSchema.hasProperty(
 				entity.getType(), propertyName);
 
-		propertyValue = getDefaultSchema().validateEntityPropertyValue(
+		propertyValue = defaultSchema.validateEntityPropertyValue(
 				entity.getType(), propertyName, propertyValue);
 
-		Schema defaultSchema = Schema.getDefaultSchema();
-
 		if (PROPERTY_TYPE.equalsIgnoreCase(propertyName)
 				&& (propertyValue != null)) {
 			if ("entity".equalsIgnoreCase(propertyValue.toString())
@@ -337,8 +388,7 @@ public class EntityManagerImpl implements EntityManager {
 		if (entitySchemaHasProperty) {
 
 			if (!force) {
-				if (!defaultSchema.isPropertyMutable(entity.getType(),
-						propertyName)) {
+				if (!descriptor.isPropertyMutable(propertyName)) {
 					return batch;
 				}
 
@@ -352,50 +402,48 @@ public class EntityManagerImpl implements EntityManager {
 			}
 
 			if (!isPropertyValueUniqueForEntity(entity.getUuid(),
-					entity.getType(), propertyName, propertyValue)) {
+					entity.getType(), propertyName, propertyValue, lock)) {
 				throw new DuplicateUniquePropertyExistsException(
 						entity.getType(), propertyName, propertyValue);
 			}
 
-			if (propertyName.equals(defaultSchema.aliasProperty(
-					entity.getType()))) {
-			  Lock lock = getUniqueUpdateLock(cass.getLockManager(), applicationId, propertyValue, entity.getType(), propertyName);
+			if (propertyName.equals(descriptor.getAliasProperty())) {
+			  Lock aliasLock = lock ? getUniqueUpdateLock(cass.getLockManager(), applicationId, propertyValue, entity.getType(), propertyName) : NO_LOCK;
 			  
 			  try{
-  				lock.lock();
+  				aliasLock.lock();
   				deleteAliasesForEntity(batch, entity.getUuid(), timestamp-1);
   				createAlias(batch, applicationId, entity, entity.getType(),
   						string(propertyValue), timestamp);
 			  }finally{
-			    lock.unlock();
+			    aliasLock.unlock();
 			  }
 			}
 
 			/**
 			 * Unique property, load the old value and remove it, check if it's not a duplicate
 			 */
-			if(defaultSchema.getEntityInfo(entity.getType()).isPropertyUnique(propertyName)){
+			if(descriptor.isPropertyUnique(propertyName)){
 			  
-			    Lock lock = getUniqueUpdateLock(cass.getLockManager(),applicationId, propertyValue,
-                        entity.getType(), propertyName);
+			    Lock uniqueLock = lock ? getUniqueUpdateLock(cass.getLockManager(),applicationId, propertyValue,
+                        entity.getType(), propertyName) : NO_LOCK;
 
 			    try {
-            lock.lock();
+            uniqueLock.lock();
             
-            String collectionName = Schema.defaultCollectionName(entity.getType());
+            String collectionName = descriptor.getCollectionName();
 
             uniquePropertyDelete(batch, collectionName, entity.getType(), propertyName, propertyValue, entity.getUuid(), timestamp-1);
             uniquePropertyWrite(batch, collectionName, propertyName, propertyValue, entity.getUuid(), timestamp);
           } finally {
-            lock.unlock();
+            uniqueLock.unlock();
           }
 
 			    
 			}
 		}
 
-		if (getDefaultSchema()
-				.isPropertyIndexed(entity.getType(), propertyName)) {
+		if (descriptor.isPropertyIndexed(propertyName)) {
 			getRelationManager(entity).batchUpdatePropertyIndexes(batch,
 					propertyName, propertyValue, entitySchemaHasProperty,
 					noRead, timestampUuid);
@@ -536,6 +584,8 @@ public class EntityManagerImpl implements EntityManager {
 
 		long timestamp = getTimestampInMicros(timestampUuid);
 
+		invalidateCached(batch, entity.getUuid());
+
 		// dictionaryName = dictionaryName.toLowerCase();
 		if (elementCoValue == null) {
 			elementCoValue = ByteBuffer.allocate(0);
@@ -596,6 +646,17 @@ public class EntityManagerImpl implements EntityManager {
 	public boolean isPropertyValueUniqueForEntity(UUID thisEntity,
 			String entityType, String propertyName, Object propertyValue)
 			throws Exception {
+		return isPropertyValueUniqueForEntity(thisEntity, entityType,
+				propertyName, propertyValue, true);
+	}
+
+	/**
+	 * @param lock
+	 *            false if the caller already holds the lock on the value
+	 */
+	private boolean isPropertyValueUniqueForEntity(UUID thisEntity,
+			String entityType, String propertyName, Object propertyValue,
+			boolean lock) throws Exception {
 
 		if (!getDefaultSchema().isPropertyUnique(entityType, propertyName)) {
 			return true;
@@ -608,11 +669,11 @@ public class EntityManagerImpl implements EntityManager {
 		String collectionName = defaultCollectionName(entityType);
 
 
-    Lock lock = getUniqueUpdateLock(cass.getLockManager(), applicationId, propertyValue, entityType, propertyName);
+    Lock uniqueLock = lock ? getUniqueUpdateLock(cass.getLockManager(), applicationId, propertyValue, entityType, propertyName) : NO_LOCK;
     List<HColumn<ByteBuffer, ByteBuffer>> cols = null;
     
     try {
-      lock.lock();
+      uniqueLock.lock();
 
       Object key = createUniqueIndexKey(collectionName, propertyName, propertyValue);
 
@@ -621,7 +682,7 @@ public class EntityManagerImpl implements EntityManager {
 
     } finally {
 
-      lock.unlock();
+      uniqueLock.unlock();
     }
 
 		//No columns at all, it's unique
@@ -728,6 +789,7 @@ public class EntityManagerImpl implements EntityManager {
 		UUID keyId = CassandraPersistenceUtils.aliasID(ownerId, aliasType,
 				alias);
 
+		invalidateCached(mutator, keyId);
 
 		addInsertToMutator(mutator, ENTITY_ALIASES, keyId, "entityId", entityId,
 				timestamp);
@@ -760,6 +822,7 @@ public class EntityManagerImpl implements EntityManager {
 		cass.deleteRow(cass.getApplicationKeyspace(applicationId),
 				ENTITY_ALIASES, keyId);
 
+		invalidateCachedEntity(keyId);
 	}
 
 	@Override
@@ -778,6 +841,13 @@ public class EntityManagerImpl implements EntityManager {
 		alias = alias.toLowerCase().trim();
 		UUID keyId = CassandraPersistenceUtils.aliasID(ownerId, aliasType,
 				alias);
+
+		EntityRef cached = getCachedAlias(keyId);
+		if (cached != null) {
+			return cached == EntityCache.MISSING_ALIAS ? null : cached;
+		}
+
+		long readStarted = System.currentTimeMillis();
 		Set<String> columnNames = new LinkedHashSet<String>();
 		columnNames.add("entityId");
 		columnNames.add("entityType");
@@ -785,17 +855,20 @@ public class EntityManagerImpl implements EntityManager {
 				cass.getApplicationKeyspace(applicationId), ENTITY_ALIASES,
 				keyId, columnNames, se, be);
 
+		EntityRef aliased = null;
 		if (columns != null && columns.size() > 0) {
 			Map<String, ByteBuffer> cols = CassandraPersistenceUtils
 					.getColumnMap(columns);
 			String entityType = string(cols.get("entityType"));
 			UUID entityId = uuid(cols.get("entityId"), null);
 			if ((entityId != null) && (entityType != null)) {
-				return ref(entityType, entityId);
+				aliased = ref(entityType, entityId);
 			}
 		}
 
-		return null;
+		cacheAlias(keyId, aliased, readStarted);
+
+		return aliased;
 	}
 
 	@Override
@@ -817,19 +890,32 @@ public class EntityManagerImpl implements EntityManager {
 		if (aliases == null) {
 			return null;
 		}
+		Map<String, EntityRef> aliasedEntities = new HashMap<String, EntityRef>();
 		List<UUID> keyIds = new ArrayList<UUID>();
+		boolean resolved = false;
 		for (String alias : aliases) {
 			if (alias != null) {
 				alias = alias.toLowerCase().trim();
 				UUID keyId = CassandraPersistenceUtils.aliasID(ownerId,
 						aliasType, alias);
-				keyIds.add(keyId);
+				resolved = true;
+
+				EntityRef cached = getCachedAlias(keyId);
+				if (cached == null) {
+					keyIds.add(keyId);
+				} else if (cached != EntityCache.MISSING_ALIAS) {
+					aliasedEntities.put(alias, cached);
+				}
 			}
 		}
-		if (keyIds.size() == 0) {
+		if (!resolved) {
 			return null;
 		}
+		if (keyIds.size() == 0) {
+			return aliasedEntities;
+		}
 
+		long readStarted = System.currentTimeMillis();
 		Set<String> columnNames = new LinkedHashSet<String>();
 		columnNames.add("entityId");
 		columnNames.add("entityType");
@@ -838,13 +924,13 @@ public class EntityManagerImpl implements EntityManager {
 				cass.getApplicationKeyspace(applicationId), ENTITY_ALIASES,
 				keyIds, columnNames, ue, se, be);
 
-		Map<String, EntityRef> aliasedEntities = new HashMap<String, EntityRef>();
-		for (Row<UUID, String, ByteBuffer> row : rows) {
-			ColumnSlice<String, ByteBuffer> slice = row.getColumnSlice();
-			if (slice == null) {
-				continue;
-			}
-			List<HColumn<String, ByteBuffer>> columns = slice.getColumns();
+		for (UUID keyId : keyIds) {
+			EntityRef aliased = null;
+			Row<UUID, String, ByteBuffer> row = rows.getByKey(keyId);
+			ColumnSlice<String, ByteBuffer> slice = row == null ? null : row
+					.getColumnSlice();
+			List<HColumn<String, ByteBuffer>> columns = slice == null ? null
+					: slice.getColumns();
 			if (columns != null) {
 				Map<String, ByteBuffer> cols = CassandraPersistenceUtils
 						.getColumnMap(columns);
@@ -853,9 +939,11 @@ public class EntityManagerImpl implements EntityManager {
 				String alias = string(cols.get("alias"));
 				if ((entityId != null) && (entityType != null)
 						&& (alias != null)) {
-					aliasedEntities.put(alias, ref(entityType, entityId));
+					aliased = ref(entityType, entityId);
+					aliasedEntities.put(alias, aliased);
 				}
 			}
+			cacheAlias(keyId, aliased, readStarted);
 		}
 
 		return aliasedEntities;
@@ -889,6 +977,7 @@ public class EntityManagerImpl implements EntityManager {
 		for (UUID alias : aliases) {
 
 		    addDeleteToMutator(mutator, ENTITY_ALIASES, alias, timestamp);
+		    invalidateCached(mutator, alias);
 
 		}
 
@@ -919,6 +1008,94 @@ public class EntityManagerImpl implements EntityManager {
 		return create(entityType, null, properties, importId);
 	}
 
+	@Override
+	@Metered(group="core", name="EntityManager_createEntities")
+	public List<Entity> createEntities(String entityType,
+			List<Map<String, Object>> entitiesProperties) throws Exception {
+		if ((entityType != null)
+				&& (entityType.startsWith(TYPE_ENTITY) || entityType
+						.startsWith("entities"))) {
+			throw new IllegalArgumentException("Invalid entity type");
+		}
+
+		List<Entity> entities = new ArrayList<Entity>();
+
+		if ((entitiesProperties == null) || entitiesProperties.isEmpty()) {
+			return entities;
+		}
+
+		// events are posted to the events queue as they are created, so they
+		// can't be held back in the batch
+		if (Event.ENTITY_TYPE.equals(Schema.normalizeEntityType(entityType))) {
+			for (Map<String, Object> properties : entitiesProperties) {
+				Entity entity = create(entityType, properties);
+				if (entity != null) {
+					entities.add(entity);
+				}
+			}
+			return entities;
+		}
+
+		checkUniqueWithinBatch(entityType, entitiesProperties);
+
+		Keyspace ko = cass.getApplicationKeyspace(applicationId);
+		Mutator<ByteBuffer> m = createMutator(ko, be);
+
+		// the unique values of every entity are locked at once, and held
+		// until they are written
+		List<Map<String, Object>> lockValues = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> properties : entitiesProperties) {
+			lockValues.add(getCreateLockValues(entityType, properties));
+		}
+
+		Lock uniqueLock = getUniqueUpdateLocks(cass.getLockManager(),
+				applicationId, entityType, lockValues);
+		uniqueLock.lock();
+
+		try {
+			// nothing is written until every entity has been validated. Each
+			// entity is timestamped by its own id, so creating it again with
+			// the id as import id writes exactly the same columns
+			for (Map<String, Object> properties : entitiesProperties) {
+				UUID itemId = newTimeUUID();
+				Entity entity = batchCreate(m, null, entityType, null,
+						properties, null, itemId, itemId, null);
+
+				if (entity != null) {
+					entities.add(entity);
+				}
+			}
+
+			batchExecute(m, CassandraService.RETRY_COUNT);
+		} finally {
+			uniqueLock.unlock();
+		}
+
+		// only counted once the entities are written, so entities created
+		// again after a failed batch aren't counted twice. The increments
+		// can't go in the batch, the counter batcher may apply them as soon
+		// as they are added
+		String eType = Schema.normalizeEntityType(entityType);
+		if (!entities.isEmpty() && !TYPE_APPLICATION.equals(eType)) {
+			try {
+				Mutator<ByteBuffer> counters = createMutator(ko, be);
+				batchIncrementEntityCollection(counters,
+						Schema.defaultCollectionName(eType), entities.size(),
+						cass.createTimestamp());
+				batchExecute(counters, CassandraService.RETRY_COUNT);
+			} catch (Exception e) {
+				logger.error("Unable to increment collection counters for "
+						+ entities.size() + " new " + entityType + " entities", e);
+			}
+		}
+
+		for (Entity entity : entities) {
+			publishChange(ChangeEvent.Type.CREATED, entity);
+		}
+
+		return entities;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <A extends TypedEntity> A create(A entity) throws Exception {
@@ -961,20 +1138,104 @@ public class EntityManagerImpl implements EntityManager {
 
 		Keyspace ko = cass.getApplicationKeyspace(applicationId);
 		Mutator<ByteBuffer> m = createMutator(ko, be);
-		A entity = batchCreate(m, entityType, entityClass, properties,
-				importId, timestampUuid);
 
-		batchExecute(m, CassandraService.RETRY_COUNT);
+		// the unique values stay locked until they are written
+		List<Lock> locks = new ArrayList<Lock>();
+		A entity;
+		try {
+			entity = batchCreate(m, m, entityType, entityClass, properties,
+					importId, null, timestampUuid, locks);
+
+			batchExecute(m, CassandraService.RETRY_COUNT);
+		} finally {
+			unlock(locks);
+		}
+
+		publishChange(ChangeEvent.Type.CREATED, entity);
 
 		return entity;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Unique values are checked against the unique index, which doesn't hold
+	 * the values of entities that are still in the batch, so check that no two
+	 * of the new entities share a unique value
+	 */
+	private void checkUniqueWithinBatch(String entityType,
+			List<Map<String, Object>> entitiesProperties)
+			throws DuplicateUniquePropertyExistsException {
+
+		Schema schema = getDefaultSchema();
+		Map<String, Set<Object>> seen = new HashMap<String, Set<Object>>();
+
+		for (Map<String, Object> properties : entitiesProperties) {
+			if (properties == null) {
+				continue;
+			}
+
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				Object propertyValue = property.getValue();
+
+				if ((propertyValue == null)
+						|| !schema.isPropertyUnique(entityType, property.getKey())) {
+					continue;
+				}
+
+				// the unique index key ignores case, so must this
+				String propertyName = property.getKey().toLowerCase();
+				Object indexValue = propertyValue instanceof String ? ((String) propertyValue)
+						.toLowerCase() : propertyValue;
+
+				Set<Object> values = seen.get(propertyName);
+				if (values == null) {
+					values = new HashSet<Object>();
+					seen.put(propertyName, values);
+				}
+
+				if (!values.add(indexValue)) {
+					throw new DuplicateUniquePropertyExistsException(entityType,
+							property.getKey(), propertyValue);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The unique values of the entity are only locked while they are checked
+	 * and added to the batch, not until the batch is executed
+	 */
   @Metered(group = "core", name = "EntityManager_batchCreate")
 	public <A extends Entity> A batchCreate(Mutator<ByteBuffer> m,
 			String entityType, Class<A> entityClass,
 			Map<String, Object> properties, UUID importId, UUID timestampUuid)
 			throws Exception {
+		List<Lock> locks = new ArrayList<Lock>();
+		try {
+			return batchCreate(m, m, entityType, entityClass, properties,
+					importId, null, timestampUuid, locks);
+		} finally {
+			unlock(locks);
+		}
+	}
+
+	/**
+	 * @param counters
+	 *            the batch the collection counters are added to, usually the
+	 *            same as m, or null if the caller counts the entity once it
+	 *            is written
+	 * @param itemId
+	 *            the id of the new entity, or null to create one
+	 * @param locks
+	 *            the lock on the unique and alias values of the entity is
+	 *            added to this list, for the caller to release once the batch
+	 *            is executed. Null if the caller already holds it
+	 */
+	@SuppressWarnings("unchecked")
+	private <A extends Entity> A batchCreate(Mutator<ByteBuffer> m,
+			Mutator<ByteBuffer> counters, String entityType,
+			Class<A> entityClass, Map<String, Object> properties,
+			UUID importId, UUID itemId, UUID timestampUuid, List<Lock> locks)
+			throws Exception {
 
 		String eType = Schema.normalizeEntityType(entityType);
 
@@ -989,7 +1250,9 @@ public class EntityManagerImpl implements EntityManager {
 
 		long timestamp = getTimestampInMicros(timestampUuid);
 
-		UUID itemId = UUIDUtils.newTimeUUID();
+		if (itemId == null) {
+			itemId = UUIDUtils.newTimeUUID();
+		}
 
 		if (is_application) {
 			itemId = applicationId;
@@ -1150,7 +1413,9 @@ public class EntityManagerImpl implements EntityManager {
 				}
 			}
 			Message message = storeEventAsMessage(m, event, timestamp);
-			incrementEntityCollection("events", timestamp);
+			if (counters != null) {
+				batchIncrementEntityCollection(counters, "events", timestamp);
+			}
 
 			entity.setUuid(message.getUuid());
 			return entity;
@@ -1158,6 +1423,29 @@ public class EntityManagerImpl implements EntityManager {
 
 		String aliasName = schema.aliasProperty(entityType);
 		logger.info("Alias property is {}", aliasName);
+
+		/**
+		 * Only lock on the target values. We don't want lock contention if
+		 * another node is trying to set the property do a different value. The
+		 * values of all unique properties are locked at once, rather than one
+		 * lock round trip per property
+		 */
+		EntityInfo entityInfo = schema.getEntityInfo(entity.getType());
+		Map<String, Object> uniqueValues = new HashMap<String, Object>();
+		for (String prop_name : properties.keySet()) {
+			if (entityInfo != null && entityInfo.isPropertyUnique(prop_name)) {
+				uniqueValues.put(prop_name, properties.get(prop_name));
+			}
+		}
+
+		if (locks != null) {
+			Lock uniqueLock = getUniqueUpdateLocks(cass.getLockManager(),
+					applicationId, entityType,
+					getCreateLockValues(entityType, properties));
+			uniqueLock.lock();
+			locks.add(uniqueLock);
+		}
+
 		for (String prop_name : properties.keySet()) {
 
 			Object propertyValue = properties.get(prop_name);
@@ -1167,8 +1455,8 @@ public class EntityManagerImpl implements EntityManager {
 			}
 
 			if (!is_application
-					&& !isPropertyValueUniqueForEntity(applicationId,
-							entityType, prop_name, propertyValue)) {
+					&& !isPropertyValueUniqueForEntity(itemId,
+							entityType, prop_name, propertyValue, false)) {
 				throw new DuplicateUniquePropertyExistsException(entityType,
 						prop_name, propertyValue);
 			}
@@ -1189,58 +1477,85 @@ public class EntityManagerImpl implements EntityManager {
 			}
 
 			 /**
-       * Unique property, load the old value and remove it, check if it's not a duplicate
-       */
-      if (schema.getEntityInfo(entity.getType()).isPropertyUnique(prop_name)) {
-        /**
-         * Only lock on the target values. We don't want lock contention if
-         * another node is trying to set the property do a different value
+         * Unique property, load the old value and remove it, check if it's not a duplicate
          */
-        Lock lock = getUniqueUpdateLock(cass.getLockManager(), applicationId, propertyValue, entityType, prop_name);
-
-        try {
-          lock.lock();
-
+        if (uniqueValues.containsKey(prop_name)) {
           String collectionName = Schema.defaultCollectionName(entityType);
 
           uniquePropertyWrite(m, collectionName, prop_name, propertyValue, itemId, timestamp);
 
-        } finally {
-          lock.unlock();
         }
 
-      }
-
 			entity.setProperty(prop_name, propertyValue);
 
 			batchSetProperty(m, entity, prop_name, propertyValue, true, true,
-					timestampUuid);
+					timestampUuid, false);
 
 		}
 
-		if (!is_application) {
-			incrementEntityCollection(collection_name, timestamp);
+
+		if (!is_application && (counters != null)) {
+			batchIncrementEntityCollection(counters, collection_name, timestamp);
 		}
 
 		return entity;
 	}
 
-	private void incrementEntityCollection(String collection_name,
-			long cassandraTimestamp) {
-		try {
-			incrementAggregateCounters(null, null, null,
-					new String(APPLICATION_COLLECTION + collection_name), ONE_COUNT,
-					cassandraTimestamp);
-		} catch (Exception e) {
-			logger.error("Unable to increment counter application.collection."
-					+ collection_name, e);
+	/**
+	 * @return The values of the unique properties and of the alias property
+	 *         of a new entity, which are locked while it is created
+	 */
+	private Map<String, Object> getCreateLockValues(String entityType,
+			Map<String, Object> properties) {
+		Map<String, Object> values = new HashMap<String, Object>();
+
+		if (properties == null) {
+			return values;
 		}
-		try {
-			incrementAggregateCounters(null, null, null,
-                    APPLICATION_ENTITIES, ONE_COUNT, cassandraTimestamp);
-		} catch (Exception e) {
-			logger.error("Unable to increment counter application.entities", e);
+
+		Schema schema = getDefaultSchema();
+		EntityInfo entityInfo = schema.getEntityInfo(Schema
+				.normalizeEntityType(entityType));
+		String aliasName = Schema.isAssociatedEntityType(entityType) ? null
+				: schema.aliasProperty(entityType);
+
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			if ((entityInfo != null && entityInfo.isPropertyUnique(property
+					.getKey())) || property.getKey().equals(aliasName)) {
+				values.put(property.getKey(), property.getValue());
+			}
 		}
+
+		return values;
+	}
+
+	private void unlock(List<Lock> locks) {
+		for (Lock lock : locks) {
+			try {
+				lock.unlock();
+			} catch (UGLockException e) {
+				logger.error("Unable to release lock", e);
+			}
+		}
+	}
+
+	private void batchIncrementEntityCollection(Mutator<ByteBuffer> m,
+			String collection_name, long cassandraTimestamp) {
+		batchIncrementEntityCollection(m, collection_name, ONE_COUNT,
+				cassandraTimestamp);
+	}
+
+	private void batchIncrementEntityCollection(Mutator<ByteBuffer> m,
+			String collection_name, long count, long cassandraTimestamp) {
+		if (skipAggregateCounters) {
+			return;
+		}
+		counterUtils.batchIncrementAggregateCounters(m, applicationId, null,
+				null, null, null, APPLICATION_COLLECTION + collection_name,
+				count, cassandraTimestamp / 1000, cassandraTimestamp);
+		counterUtils.batchIncrementAggregateCounters(m, applicationId, null,
+				null, null, null, APPLICATION_ENTITIES, count,
+				cassandraTimestamp / 1000, cassandraTimestamp);
 	}
 
 	public void decrementEntityCollection(String collection_name) {
@@ -1393,13 +1708,34 @@ public class EntityManagerImpl implements EntityManager {
 	public <A extends Entity> A getEntity(UUID entityId, 
 			Class<A> entityClass) throws Exception {
 
+		TimedOpTag timedOpTag = TraceTagManager.startOp();
+		boolean success = false;
+		try {
+			A entity = loadEntity(entityId, entityClass);
+			success = true;
+			return entity;
+		} finally {
+			TraceTagManager.stopOp(timedOpTag, ENTITY_LOAD_OP, success);
+		}
+	}
+
+	private <A extends Entity> A loadEntity(UUID entityId,
+			Class<A> entityClass) throws Exception {
+
 		Object entity_key = key(entityId);
 		Map<String, Object> results = null;
 
+		Map<String, ByteBuffer> columns = getCachedColumns(entityId);
+		if (columns == null) {
+			long readStarted = System.currentTimeMillis();
+			columns = asMap(cass.getAllColumns(
+					cass.getApplicationKeyspace(applicationId),
+					ENTITY_PROPERTIES, entity_key));
+			cacheColumns(entityId, columns, readStarted);
+		}
+
 		// if (entityType == null) {
-		results = deserializeEntityProperties(cass.getAllColumns(
-				cass.getApplicationKeyspace(applicationId), ENTITY_PROPERTIES,
-				entity_key));
+		results = deserializeEntityProperties(columns);
 		// } else {
 		// Set<String> columnNames = Schema.getPropertyNames(entityType);
 		// results = getColumns(getApplicationKeyspace(applicationId),
@@ -1458,24 +1794,143 @@ public class EntityManagerImpl implements EntityManager {
 			return entities;
 		}
 
-		Map<UUID, A> resultSet = new LinkedHashMap<UUID, A>();
-
 		Rows<UUID, String, ByteBuffer> results = null;
 
-		// if (entityType == null) {
-		results = cass.getRows(cass.getApplicationKeyspace(applicationId),
-				ENTITY_PROPERTIES, entityIds, ue, se, be);
-		// } else {
-		// Set<String> columnNames = Schema.getPropertyNames(entityType);
-		// results = getRows(getApplicationKeyspace(applicationId),
-		// EntityCF.PROPERTIES,
-		// entityIds, columnNames, ue, se, be);
-		// }
+		TimedOpTag timedOpTag = TraceTagManager.startOp();
+		boolean success = false;
+		try {
+			Map<UUID, Map<String, ByteBuffer>> columns = new HashMap<UUID, Map<String, ByteBuffer>>();
+			Collection<UUID> uncached = entityIds;
+
+			if (isCachingEntities()) {
+				uncached = new ArrayList<UUID>();
+				for (UUID entityId : entityIds) {
+					Map<String, ByteBuffer> cached = getCachedColumns(entityId);
+					if (cached != null) {
+						columns.put(entityId, cached);
+					} else {
+						uncached.add(entityId);
+					}
+				}
+			}
 
-		if (results != null) {
+			if (!uncached.isEmpty()) {
+				long readStarted = System.currentTimeMillis();
+				// if (entityType == null) {
+				results = cass.getRows(
+						cass.getApplicationKeyspace(applicationId),
+						ENTITY_PROPERTIES, uncached, ue, se, be);
+				// } else {
+				// Set<String> columnNames = Schema.getPropertyNames(entityType);
+				// results = getRows(getApplicationKeyspace(applicationId),
+				// EntityCF.PROPERTIES,
+				// entityIds, columnNames, ue, se, be);
+				// }
+
+				for (UUID entityId : uncached) {
+					Map<String, ByteBuffer> row = getColumns(results, entityId);
+					if (row != null) {
+						columns.put(entityId, row);
+						cacheColumns(entityId, row, readStarted);
+					}
+				}
+			}
+
+			entities = getEntitiesFromColumns(columns, entityIds, entityClass);
+			success = true;
+			return entities;
+		} finally {
+			TraceTagManager.stopOp(timedOpTag, ENTITY_LOAD_OP, success);
+		}
+	}
+
+	/**
+	 * Gets the specified list of entities, loading only the specified
+	 * properties. The type and uuid of each entity are always loaded.
+	 *
+	 * @param entityIds
+	 *            the entity ids
+	 * @param propertyNames
+	 *            the property names
+	 * @return the partially loaded entities
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Override
+	@Metered(group="core", name="EntityManager_getPartialEntities")
+	public Results getPartialEntities(Collection<UUID> entityIds,
+			Set<String> propertyNames) throws Exception {
+
+		if ((entityIds == null) || (entityIds.size() == 0)) {
+			return fromEntities(new ArrayList<Entity>());
+		}
+
+		Set<String> column_names = new TreeSet<String>(CASE_INSENSITIVE_ORDER);
+
+		column_names.add(PROPERTY_TYPE);
+		column_names.add(PROPERTY_UUID);
+
+		if (propertyNames != null) {
+			column_names.addAll(propertyNames);
+		}
+
+		Rows<UUID, String, ByteBuffer> results = cass.getRows(
+				cass.getApplicationKeyspace(applicationId), ENTITY_PROPERTIES,
+				new ArrayList<UUID>(entityIds), column_names, ue, se, be);
+
+		return fromEntities(getEntitiesFromRows(results, entityIds, null));
+	}
+
+	/**
+	 * Deserialize the rows into entities, in the order of the entity ids
+	 */
+	private <A extends Entity> List<A> getEntitiesFromRows(
+			Rows<UUID, String, ByteBuffer> results, Collection<UUID> entityIds,
+			Class<A> entityClass) {
+
+		if (results == null) {
+			return new ArrayList<A>();
+		}
+
+		Map<UUID, Map<String, ByteBuffer>> columns = new HashMap<UUID, Map<String, ByteBuffer>>();
+		for (UUID key : entityIds) {
+			Map<String, ByteBuffer> row = getColumns(results, key);
+			if (row != null) {
+				columns.put(key, row);
+			}
+		}
+
+		return getEntitiesFromColumns(columns, entityIds, entityClass);
+	}
+
+	private static Map<String, ByteBuffer> getColumns(
+			Rows<UUID, String, ByteBuffer> results, UUID key) {
+		if (results == null) {
+			return null;
+		}
+		Row<UUID, String, ByteBuffer> row = results.getByKey(key);
+		if ((row == null) || (row.getColumnSlice() == null)) {
+			return null;
+		}
+		return asMap(row.getColumnSlice().getColumns());
+	}
+
+	/**
+	 * Deserialize the columns of each entity into entities, in the order of
+	 * the entity ids
+	 */
+	private <A extends Entity> List<A> getEntitiesFromColumns(
+			Map<UUID, Map<String, ByteBuffer>> columns,
+			Collection<UUID> entityIds, Class<A> entityClass) {
+
+		List<A> entities = new ArrayList<A>();
+
+		Map<UUID, A> resultSet = new LinkedHashMap<UUID, A>();
+
+		if (columns != null) {
 			for (UUID key : entityIds) {
-				Map<String, Object> properties = deserializeEntityProperties(results
-						.getByKey(key));
+				Map<String, Object> properties = deserializeEntityProperties(columns
+						.get(key));
 
 				if (properties == null) {
 					logger.error("Error deserializing entity with key "
@@ -1759,6 +2214,9 @@ public class EntityManagerImpl implements EntityManager {
 		batchUpdateProperties(m, entity, properties, timestampUuid);
 
 		batchExecute(m, CassandraService.RETRY_COUNT);
+
+		invalidateCachedEntity(entity.getUuid());
+		publishChange(ChangeEvent.Type.UPDATED, entity);
 	}
 
   @Metered(group="core",name="EntityManager_deleteEntity")
@@ -1838,6 +2296,119 @@ public class EntityManagerImpl implements EntityManager {
 
 		batchExecute(m, CassandraService.RETRY_COUNT);
 
+		invalidateCachedEntity(entity.getUuid());
+		publishChange(ChangeEvent.Type.DELETED, entity);
+	}
+
+	/**
+	 * Tell any change listeners about a committed write
+	 */
+	private void publishChange(ChangeEvent.Type type, EntityRef entity) {
+		if ((changeEventBus == null) || (entity == null)
+				|| !changeEventBus.hasListeners()) {
+			return;
+		}
+		changeEventBus.publish(applicationId, type,
+				Schema.defaultCollectionName(entity.getType()),
+				entity.getType(), entity.getUuid());
+	}
+
+	private boolean isCachingEntities() {
+		return (entityCache != null) && entityCache.isEnabled();
+	}
+
+	private Map<String, ByteBuffer> getCachedColumns(UUID entityId) {
+		if (!isCachingEntities()) {
+			return null;
+		}
+		return entityCache.get(applicationId, entityId);
+	}
+
+	private void cacheColumns(UUID entityId, Map<String, ByteBuffer> columns,
+			long readStarted) {
+		if (isCachingEntities()) {
+			entityCache.put(applicationId, entityId, columns, readStarted);
+		}
+	}
+
+	private EntityRef getCachedAlias(UUID aliasId) {
+		if (!isCachingEntities()) {
+			return null;
+		}
+		return entityCache.getAlias(applicationId, aliasId);
+	}
+
+	private void cacheAlias(UUID aliasId, EntityRef ref, long readStarted) {
+		if (isCachingEntities()) {
+			entityCache.putAlias(applicationId, aliasId, ref, readStarted);
+		}
+	}
+
+	/**
+	 * Drop an entity or an alias row from the entity cache
+	 */
+	private void invalidateCachedEntity(UUID entityId) {
+		if (isCachingEntities() && (entityId != null)) {
+			entityCache.invalidate(applicationId, entityId);
+		}
+	}
+
+	/**
+	 * Drop an entity or an alias row from the entity cache when a write to it
+	 * is added to the batch, and again once the batch is executed with
+	 * batchExecute, so a read between the two can't keep the old row. Each id
+	 * is invalidated once per batch however many of its columns are written
+	 */
+	private void invalidateCached(Mutator<ByteBuffer> batch, UUID id) {
+		if (!isCachingEntities() || (id == null)) {
+			return;
+		}
+
+		if (batch == null) {
+			entityCache.invalidate(applicationId, id);
+			return;
+		}
+
+		CachedWrites writes = cachedWrites.get(batch);
+		if (writes == null) {
+			CachedWrites created = new CachedWrites();
+			writes = cachedWrites.putIfAbsent(batch, created);
+			if (writes == null) {
+				writes = created;
+				runAfterExecute(batch, created);
+			}
+		}
+
+		if (writes.add(id)) {
+			entityCache.invalidate(applicationId, id);
+		}
+	}
+
+	/**
+	 * The ids written by one batch. Doesn't refer to the batch, which is only
+	 * weakly held as the key of its writes
+	 */
+	private final class CachedWrites implements Runnable {
+
+		private final Set<UUID> ids = new LinkedHashSet<UUID>();
+
+		synchronized boolean add(UUID id) {
+			return ids.add(id);
+		}
+
+		@Override
+		public void run() {
+			// the batch may be reused for more writes after this
+			cachedWrites.values().remove(this);
+
+			List<UUID> written;
+			synchronized (this) {
+				written = new ArrayList<UUID>(ids);
+			}
+			for (UUID id : written) {
+				invalidateCachedEntity(id);
+			}
+		}
 	}
 
 	@Override
@@ -2311,6 +2882,36 @@ public class EntityManagerImpl implements EntityManager {
 		updateProperties(entity.getUuid(), entity.getProperties());
 	}
 
+	@Override
+	@Metered(group="core",name="EntityManager_updateAll")
+	public void updateAll(Collection<? extends Entity> entities)
+			throws Exception {
+
+		if (entities == null || entities.isEmpty()) {
+			return;
+		}
+
+		Keyspace ko = cass.getApplicationKeyspace(applicationId);
+		Mutator<ByteBuffer> m = createMutator(ko, be);
+
+		UUID timestampUuid = newTimeUUID();
+		long modified = getTimestampInMillis(timestampUuid);
+
+		for (Entity entity : entities) {
+			Map<String, Object> properties = entity.getProperties();
+			properties.put(PROPERTY_MODIFIED, modified);
+
+			batchUpdateProperties(m, entity, properties, timestampUuid);
+		}
+
+		batchExecute(m, CassandraService.RETRY_COUNT);
+
+		for (Entity entity : entities) {
+			invalidateCachedEntity(entity.getUuid());
+			publishChange(ChangeEvent.Type.UPDATED, entity);
+		}
+	}
+
 	@Override
 	public Object getProperty(EntityRef entityRef, String propertyName)
 			throws Exception {
@@ -2363,6 +2964,9 @@ public class EntityManagerImpl implements EntityManager {
 				override, false, timestampUuid);
 		batchExecute(batch, CassandraService.RETRY_COUNT);
 
+		invalidateCachedEntity(entity.getUuid());
+		publishChange(ChangeEvent.Type.UPDATED, entity);
+
 	}
 
 	@Override
@@ -3151,6 +3755,14 @@ public class EntityManagerImpl implements EntityManager {
 				query);
 	}
 
+	@Override
+	@Metered(group="core", name="EntityManager_traverse")
+	public Map<UUID, Results> traverse(List<UUID> entityIds,
+			Traversal traversal, Level resultsLevel) throws Exception {
+		return new TraversalProcessor(this, cass, applicationId,
+				indexBucketLocator).traverse(entityIds, traversal, resultsLevel);
+	}
+
 	@Override
 	public Object getAssociatedProperty(
 			AssociatedEntityRef associatedEntityRef, String propertyName)
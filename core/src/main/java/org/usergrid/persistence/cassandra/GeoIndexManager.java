@@ -25,6 +25,7 @@ import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.addIn
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.logBatchOperation;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.runAfterExecute;
 import static org.usergrid.utils.ClassUtils.cast;
 import static org.usergrid.utils.ConversionUtils.bytebuffer;
 import static org.usergrid.utils.StringUtils.stringOrSubstringAfterLast;
@@ -32,12 +33,14 @@ import static org.usergrid.utils.StringUtils.stringOrSubstringBeforeFirst;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.Id;
 
@@ -66,6 +69,9 @@ import com.beoui.geocell.annotations.Latitude;
 import com.beoui.geocell.annotations.Longitude;
 import com.beoui.geocell.model.GeocellQuery;
 import com.beoui.geocell.model.Point;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 
 public class GeoIndexManager {
 
@@ -81,6 +87,87 @@ public class GeoIndexManager {
    */
   public static final int MAX_RESOLUTION = 9;
 
+  /**
+   * Cells at this resolution and finer are stored in a single row. Each
+   * resolution above it spreads a cell over 4 times as many buckets, up to the
+   * number of buckets the {@link IndexBucketLocator} provides. A resolution 7
+   * cell is roughly 2.5km by 1.2km, so even dense cities keep these rows to a
+   * manageable width, while a search at the default resolution reads one row
+   * per cell instead of one row per bucket.
+   */
+  public static final int UNBUCKETED_RESOLUTION = 7;
+
+  /**
+   * Entries written before buckets were sized by resolution sit in whichever
+   * bucket the owner or index key hashed to. While this is on, searches read
+   * every bucket of a cell and removals delete from the old buckets as well,
+   * so those entries keep being found and cleaned up until the application
+   * has been re-indexed.
+   */
+  private static volatile boolean legacyBuckets = true;
+
+  /**
+   * Whether proximity searches share the cells they read through the cell
+   * cache
+   */
+  private static volatile boolean cellCacheEnabled = true;
+
+  /**
+   * Coarser cells hold too many locations to be worth caching
+   */
+  public static final int CACHE_MIN_RESOLUTION = 5;
+
+  /**
+   * The most locations held in the geocell cache across all cells
+   */
+  public static final int CACHE_MAX_LOCATIONS = 100000;
+
+  /**
+   * Cached cells are dropped after this long, which bounds how stale a cell
+   * written on another node can be
+   */
+  public static final int CACHE_EXPIRE_SECONDS = 30;
+
+  /**
+   * The locations read for a geocell, across all of its buckets
+   */
+  private static class CachedCell {
+
+    private final List<EntityLocationRef> locations = new ArrayList<EntityLocationRef>();
+
+    /**
+     * The per row limit the cell was read with
+     */
+    private final int limit;
+
+    /**
+     * True if no bucket row hit the limit, so every location in the cell was
+     * read
+     */
+    private boolean complete = true;
+
+    private CachedCell(int limit) {
+      this.limit = limit;
+    }
+
+    private boolean covers(int count) {
+      return complete || limit >= count;
+    }
+  }
+
+  /**
+   * Hot proximity searches cluster around a few centers, so overlapping
+   * searches share the cells they read. Keyed by application, index and
+   * geocell.
+   */
+  private static final Cache<String, CachedCell> cellCache = CacheBuilder.newBuilder()
+      .maximumWeight(CACHE_MAX_LOCATIONS).weigher(new Weigher<String, CachedCell>() {
+        @Override
+        public int weigh(String key, CachedCell cell) {
+          return cell.locations.size() + 1;
+        }
+      }).expireAfterWrite(CACHE_EXPIRE_SECONDS, TimeUnit.SECONDS).build();
+
   public static class EntityLocationRef implements EntityRef {
 
     @Id
@@ -274,32 +361,130 @@ public class GeoIndexManager {
 
     Set<EntityLocationRef> locations = new LinkedHashSet<EntityLocationRef>();
 
-    List<Object> keys = new ArrayList<Object>();
-
     IndexBucketLocator locator = em.getIndexBucketLocator();
     UUID appId = em.getApplicationId();
 
+    // only the first page of a cell is cached, cursors always go to cassandra
+    boolean cacheable = cellCacheEnabled && startId == null;
+
+    List<Object> keys = new ArrayList<Object>();
+    Map<ByteBuffer, String> keyCells = new LinkedHashMap<ByteBuffer, String>();
+
     for (String geoCell : curGeocellsUnique) {
 
-      // add buckets for each geoCell
+      if (cacheable && isCacheable(geoCell)) {
+        CachedCell cached = cellCache.getIfPresent(getCellCacheKey(appId, key, geoCell));
+        if (cached != null && cached.covers(count)) {
+          locations.addAll(cached.locations);
+          continue;
+        }
+      }
+
+      // add buckets for each geoCell, fine cells only have one
 
-      for (String indexBucket : locator.getBuckets(appId, IndexType.GEO, geoCell)) {
-        keys.add(key(key, DICTIONARY_GEOCELL, geoCell, indexBucket));
+      for (String indexBucket : getReadBuckets(locator, appId, geoCell)) {
+        Object rowKey = key(key, DICTIONARY_GEOCELL, geoCell, indexBucket);
+        keys.add(rowKey);
+        keyCells.put(bytebuffer(rowKey), geoCell);
       }
     }
-    
-    
+
+    if (keys.isEmpty()) {
+      return new ArrayList<EntityLocationRef>(locations);
+    }
+
     DynamicComposite composite = startId == null ? null : new DynamicComposite(startId);
 
     Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> rows = cass.multiGetColumns(
         cass.getApplicationKeyspace(em.getApplicationId()), ENTITY_INDEX, keys, composite, null, count, false);
 
-    for (List<HColumn<ByteBuffer, ByteBuffer>> columns : rows.values()) {
-      addLocationIndexEntries(columns, locations);
+    Map<String, CachedCell> loaded = new LinkedHashMap<String, CachedCell>();
+
+    for (Map.Entry<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> row : rows.entrySet()) {
+      String geoCell = keyCells.get(row.getKey());
+
+      CachedCell cell = loaded.get(geoCell);
+      if (cell == null) {
+        cell = new CachedCell(count);
+        loaded.put(geoCell, cell);
+      }
+
+      List<HColumn<ByteBuffer, ByteBuffer>> columns = row.getValue();
+      if (columns != null && columns.size() >= count) {
+        cell.complete = false;
+      }
+
+      Set<EntityLocationRef> rowLocations = new LinkedHashSet<EntityLocationRef>();
+      addLocationIndexEntries(columns, rowLocations);
+      cell.locations.addAll(rowLocations);
+    }
+
+    for (Map.Entry<String, CachedCell> cell : loaded.entrySet()) {
+      locations.addAll(cell.getValue().locations);
+
+      if (cacheable && isCacheable(cell.getKey())) {
+        cellCache.put(getCellCacheKey(appId, key, cell.getKey()), cell.getValue());
+      }
     }
 
     return new ArrayList<EntityLocationRef>(locations);
-    
+
+  }
+
+  /**
+   * Drop any cached entries for the cells a location is indexed under once
+   * the batch writing it has executed, so a search between queueing and
+   * executing the batch can't keep the old state cached. Writes from other
+   * nodes are only bounded by the expiry.
+   */
+  private static void invalidateCellsAfterExecute(Mutator<ByteBuffer> m, final UUID appId, final Object key,
+      final List<String> cells) {
+    if (!cellCacheEnabled) {
+      return;
+    }
+    runAfterExecute(m, new Runnable() {
+      @Override
+      public void run() {
+        invalidateCells(appId, key, cells);
+      }
+    });
+  }
+
+  /**
+   * Drop any cached entries for the cells
+   */
+  public static void invalidateCells(UUID appId, Object key, List<String> cells) {
+    for (String cell : cells) {
+      if (isCacheable(cell)) {
+        cellCache.invalidate(getCellCacheKey(appId, key, cell));
+      }
+    }
+  }
+
+  /**
+   * Empty the geocell cache
+   */
+  public static void clearCellCache() {
+    cellCache.invalidateAll();
+  }
+
+  public static boolean isCellCacheEnabled() {
+    return cellCacheEnabled;
+  }
+
+  public static void setCellCacheEnabled(boolean cellCacheEnabled) {
+    GeoIndexManager.cellCacheEnabled = cellCacheEnabled;
+    if (!cellCacheEnabled) {
+      clearCellCache();
+    }
+  }
+
+  private static boolean isCacheable(String geoCell) {
+    return geoCell.length() >= CACHE_MIN_RESOLUTION;
+  }
+
+  private static String getCellCacheKey(UUID appId, Object key, String geoCell) {
+    return key(appId, key, DICTIONARY_GEOCELL, geoCell).toString();
   }
 
   public SearchResults<EntityLocationRef> proximitySearchCollection(final EntityRef headEntity, final String collectionName,
@@ -352,6 +537,77 @@ public class GeoIndexManager {
     return locations;
   }
 
+  /**
+   * The number of buckets a cell is spread over, based on its resolution
+   * 
+   * @param geoCell
+   * @param available
+   *          the number of buckets the locator provides
+   * @return
+   */
+  public static int getGeoBucketCount(String geoCell, int available) {
+    int resolution = geoCell.length();
+    if (resolution >= UNBUCKETED_RESOLUTION) {
+      return 1;
+    }
+    // 4^(levels above the unbucketed resolution), capped at what's available
+    int count = 1 << (2 * (UNBUCKETED_RESOLUTION - resolution));
+    if (count <= 0 || count > available) {
+      return available;
+    }
+    return count;
+  }
+
+  /**
+   * All the buckets that can hold entries for the cell
+   */
+  public static List<String> getGeoBuckets(IndexBucketLocator locator, UUID appId, String geoCell) {
+    List<String> buckets = locator.getBuckets(appId, IndexType.GEO, geoCell);
+    return buckets.subList(0, getGeoBucketCount(geoCell, buckets.size()));
+  }
+
+  /**
+   * The bucket the entity is stored in for the cell. Always one of
+   * {@link #getGeoBuckets(IndexBucketLocator, UUID, String)}
+   */
+  public static String getGeoBucket(IndexBucketLocator locator, UUID appId, UUID entityId, String geoCell) {
+    List<String> buckets = getGeoBuckets(locator, appId, geoCell);
+    if (buckets.size() == 1) {
+      return buckets.get(0);
+    }
+    return buckets.get((entityId.hashCode() & Integer.MAX_VALUE) % buckets.size());
+  }
+
+  /**
+   * The buckets a search reads for the cell
+   */
+  public static List<String> getReadBuckets(IndexBucketLocator locator, UUID appId, String geoCell) {
+    if (legacyBuckets) {
+      // new buckets are a subset of these
+      return locator.getBuckets(appId, IndexType.GEO, geoCell);
+    }
+    return getGeoBuckets(locator, appId, geoCell);
+  }
+
+  /**
+   * The buckets a collection entry for the entity is removed from
+   */
+  public static List<String> getDeleteBuckets(IndexBucketLocator locator, UUID appId, UUID entityId, String geoCell) {
+    if (legacyBuckets) {
+      // legacy entries were bucketed by the owner, which isn't known here
+      return locator.getBuckets(appId, IndexType.GEO, geoCell);
+    }
+    return Collections.singletonList(getGeoBucket(locator, appId, entityId, geoCell));
+  }
+
+  public static boolean isLegacyBuckets() {
+    return legacyBuckets;
+  }
+
+  public static void setLegacyBuckets(boolean legacyBuckets) {
+    GeoIndexManager.legacyBuckets = legacyBuckets;
+  }
+
   public static Mutator<ByteBuffer> addLocationEntryInsertionToMutator(Mutator<ByteBuffer> m, Object key,
       EntityLocationRef entry) {
 
@@ -370,28 +626,26 @@ public class GeoIndexManager {
 
   private static Mutator<ByteBuffer> batchAddConnectionIndexEntries(Mutator<ByteBuffer> m, IndexBucketLocator locator,
       UUID appId, String propertyName, String geoCell, UUID[] index_keys, ByteBuffer columnName,
-      ByteBuffer columnValue, long timestamp) {
+      ByteBuffer columnValue, long timestamp, UUID entityId) {
+
+    String indexBucket = getGeoBucket(locator, appId, entityId, geoCell);
 
     // entity_id,prop_name
     Object property_index_key = key(index_keys[ConnectionRefImpl.ALL], INDEX_CONNECTIONS, propertyName,
-        DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.ALL], geoCell));
+        DICTIONARY_GEOCELL, geoCell, indexBucket);
 
     // entity_id,entity_type,prop_name
     Object entity_type_prop_index_key = key(index_keys[ConnectionRefImpl.BY_ENTITY_TYPE], INDEX_CONNECTIONS,
-        propertyName, DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.BY_ENTITY_TYPE], geoCell));
+        propertyName, DICTIONARY_GEOCELL, geoCell, indexBucket);
 
     // entity_id,connection_type,prop_name
     Object connection_type_prop_index_key = key(index_keys[ConnectionRefImpl.BY_CONNECTION_TYPE], INDEX_CONNECTIONS,
-        propertyName, DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.BY_CONNECTION_TYPE], geoCell));
+        propertyName, DICTIONARY_GEOCELL, geoCell, indexBucket);
 
     // entity_id,connection_type,entity_type,prop_name
     Object connection_type_and_entity_type_prop_index_key = key(
         index_keys[ConnectionRefImpl.BY_CONNECTION_AND_ENTITY_TYPE], INDEX_CONNECTIONS, propertyName,
-        DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.BY_CONNECTION_AND_ENTITY_TYPE], geoCell));
+        DICTIONARY_GEOCELL, geoCell, indexBucket);
 
     // composite(property_value,connected_entity_id,connection_type,entity_type,entry_timestamp)
     addInsertToMutator(m, ENTITY_INDEX, property_index_key, columnName, columnValue, timestamp);
@@ -409,6 +663,15 @@ public class GeoIndexManager {
     return m;
   }
 
+  private static void invalidateConnectionCellsAfterExecute(Mutator<ByteBuffer> m, UUID appId, UUID[] index_keys,
+      String propertyName, List<String> cells) {
+    for (UUID indexKey : index_keys) {
+      if (indexKey != null) {
+        invalidateCellsAfterExecute(m, appId, key(indexKey, INDEX_CONNECTIONS, propertyName), cells);
+      }
+    }
+  }
+
   public static void batchStoreLocationInConnectionsIndex(Mutator<ByteBuffer> m, IndexBucketLocator locator,
       UUID appId, UUID[] index_keys, String propertyName, EntityLocationRef location) {
 
@@ -418,8 +681,12 @@ public class GeoIndexManager {
     ByteBuffer columnName = location.getColumnName().serialize();
     ByteBuffer columnValue = location.getColumnValue().serialize();
     long ts = location.getTimestampInMicros();
+
+    invalidateConnectionCellsAfterExecute(m, appId, index_keys, propertyName, cells);
+
     for (String cell : cells) {
-      batchAddConnectionIndexEntries(m, locator, appId, propertyName, cell, index_keys, columnName, columnValue, ts);
+      batchAddConnectionIndexEntries(m, locator, appId, propertyName, cell, index_keys, columnName, columnValue, ts,
+          location.getUuid());
     }
 
     logger.info("Geocells to be saved for Point({} , {} ) are: {}", new Object[]{location.latitude, location.longitude, cells});
@@ -440,46 +707,38 @@ public class GeoIndexManager {
 
   private static Mutator<ByteBuffer> batchDeleteConnectionIndexEntries(Mutator<ByteBuffer> m,
       IndexBucketLocator locator, UUID appId, String propertyName, String geoCell, UUID[] index_keys,
-      ByteBuffer columnName, long timestamp) {
+      ByteBuffer columnName, long timestamp, UUID entityId) {
 
-    // entity_id,prop_name
-    Object property_index_key = key(index_keys[ConnectionRefImpl.ALL], INDEX_CONNECTIONS, propertyName,
-        DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.ALL], geoCell));
+    String indexBucket = getGeoBucket(locator, appId, entityId, geoCell);
 
+    // entity_id,prop_name
     // entity_id,entity_type,prop_name
-    Object entity_type_prop_index_key = key(index_keys[ConnectionRefImpl.BY_ENTITY_TYPE], INDEX_CONNECTIONS,
-        propertyName, DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.BY_ENTITY_TYPE], geoCell));
-
     // entity_id,connection_type,prop_name
-    Object connection_type_prop_index_key = key(index_keys[ConnectionRefImpl.BY_CONNECTION_TYPE], INDEX_CONNECTIONS,
-        propertyName, DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.BY_CONNECTION_TYPE], geoCell));
-
     // entity_id,connection_type,entity_type,prop_name
-    Object connection_type_and_entity_type_prop_index_key = key(
-        index_keys[ConnectionRefImpl.BY_CONNECTION_AND_ENTITY_TYPE], INDEX_CONNECTIONS, propertyName,
-        DICTIONARY_GEOCELL, geoCell,
-        locator.getBucket(appId, IndexType.CONNECTION, index_keys[ConnectionRefImpl.BY_CONNECTION_AND_ENTITY_TYPE], geoCell));
+    for (int i : new int[] { ConnectionRefImpl.ALL, ConnectionRefImpl.BY_ENTITY_TYPE,
+        ConnectionRefImpl.BY_CONNECTION_TYPE, ConnectionRefImpl.BY_CONNECTION_AND_ENTITY_TYPE }) {
 
-    // composite(property_value,connected_entity_id,connection_type,entity_type,entry_timestamp)
-    m.addDeletion(bytebuffer(property_index_key), ENTITY_INDEX.toString(), columnName, ByteBufferSerializer.get(),
-        timestamp);
+      addConnectionEntryDeletionToMutator(m, index_keys[i], propertyName, geoCell, indexBucket, columnName, timestamp);
 
-    // composite(property_value,connected_entity_id,connection_type,entry_timestamp)
-    m.addDeletion(bytebuffer(entity_type_prop_index_key), ENTITY_INDEX.toString(), columnName,
-        ByteBufferSerializer.get(), timestamp);
+      if (legacyBuckets) {
+        // legacy entries were bucketed by the index key
+        String legacyBucket = locator.getBucket(appId, IndexType.CONNECTION, index_keys[i], geoCell);
+        if (!legacyBucket.equals(indexBucket)) {
+          addConnectionEntryDeletionToMutator(m, index_keys[i], propertyName, geoCell, legacyBucket, columnName,
+              timestamp);
+        }
+      }
+    }
 
-    // composite(property_value,connected_entity_id,entity_type,entry_timestamp)
-    m.addDeletion(bytebuffer(connection_type_prop_index_key), ENTITY_INDEX.toString(), columnName,
-        ByteBufferSerializer.get(), timestamp);
+    return m;
+  }
 
-    // composite(property_value,connected_entity_id,entry_timestamp)
-    m.addDeletion(bytebuffer(connection_type_and_entity_type_prop_index_key), ENTITY_INDEX.toString(), columnName,
-        ByteBufferSerializer.get(), timestamp);
+  private static void addConnectionEntryDeletionToMutator(Mutator<ByteBuffer> m, UUID indexKey, String propertyName,
+      String geoCell, String indexBucket, ByteBuffer columnName, long timestamp) {
 
-    return m;
+    Object key = key(indexKey, INDEX_CONNECTIONS, propertyName, DICTIONARY_GEOCELL, geoCell, indexBucket);
+
+    m.addDeletion(bytebuffer(key), ENTITY_INDEX.toString(), columnName, ByteBufferSerializer.get(), timestamp);
   }
 
   public static void batchDeleteLocationInConnectionsIndex(Mutator<ByteBuffer> m, IndexBucketLocator locator,
@@ -492,9 +751,12 @@ public class GeoIndexManager {
 
     long ts = location.getTimestampInMicros();
 
+    invalidateConnectionCellsAfterExecute(m, appId, index_keys, propertyName, cells);
+
     for (String cell : cells) {
 
-      batchDeleteConnectionIndexEntries(m, locator, appId, propertyName, cell, index_keys, columnName, ts);
+      batchDeleteConnectionIndexEntries(m, locator, appId, propertyName, cell, index_keys, columnName, ts,
+          location.getUuid());
     }
 
     logger.info("Geocells to be saved for Point({} , {} ) are: {}", new Object[]{location.latitude, location.longitude, cells});
@@ -506,10 +768,12 @@ public class GeoIndexManager {
     Point p = location.getPoint();
     List<String> cells = GeocellManager.generateGeoCell(p);
 
+    invalidateCellsAfterExecute(m, appId, key, cells);
+
     for (int i = 0; i < MAX_RESOLUTION; i++) {
       String cell = cells.get(i);
 
-      String indexBucket = locator.getBucket(appId, IndexType.GEO, entityId, cell);
+      String indexBucket = getGeoBucket(locator, appId, entityId, cell);
 
       addLocationEntryInsertionToMutator(m, key(key, DICTIONARY_GEOCELL, cell, indexBucket), location);
     }
@@ -527,7 +791,7 @@ public class GeoIndexManager {
     Mutator<ByteBuffer> m = createMutator(ko, ByteBufferSerializer.get());
 
     batchStoreLocationInCollectionIndex(m, em.getIndexBucketLocator(), em.getApplicationId(),
-        key(owner.getUuid(), collectionName, propertyName), owner.getUuid(), location);
+        key(owner.getUuid(), collectionName, propertyName), entityId, location);
 
     batchExecute(m, CassandraService.RETRY_COUNT);
 
@@ -539,12 +803,15 @@ public class GeoIndexManager {
     Point p = location.getPoint();
     List<String> cells = GeocellManager.generateGeoCell(p);
 
-    // delete for every bucket in every resolution
+    invalidateCellsAfterExecute(m, appId, key, cells);
+
+    // the entry lives in exactly one bucket per resolution, unless it's a
+    // legacy entry
     for (int i = 0; i < MAX_RESOLUTION; i++) {
 
       String cell = cells.get(i);
 
-      for (String indexBucket : locator.getBuckets(appId, IndexType.GEO, cell)) {
+      for (String indexBucket : getDeleteBuckets(locator, appId, location.getUuid(), cell)) {
 
         addLocationEntryDeletionToMutator(m, key(key, DICTIONARY_GEOCELL, cell, indexBucket), location);
       }
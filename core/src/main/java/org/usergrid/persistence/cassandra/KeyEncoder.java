@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.KEY_DELIM;
+import static org.usergrid.utils.ConversionUtils.ascii;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Builds row keys and name based key ids in reusable per thread buffers. The
+ * results are identical to building the key string with a StringBuilder,
+ * lowercasing strings with {@link String#toLowerCase()} and hashing with
+ * {@link UUID#nameUUIDFromBytes(byte[])}, but without the intermediate
+ * strings, byte arrays and digests.
+ * 
+ * An encoder is only valid until the next call to {@link #get()} on the same
+ * thread, so everything that goes into a key has to be evaluated before the
+ * encoder is taken. Key elements are converted with toString() while the key
+ * is built, which must not build another key.
+ */
+public final class KeyEncoder {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Lowercasing ascii by hand matches String.toLowerCase() except in
+	 * locales with their own rules for 'I'
+	 */
+	private static final boolean ASCII_LOWERCASE = !"tr".equals(Locale
+			.getDefault().getLanguage())
+			&& !"az".equals(Locale.getDefault().getLanguage());
+
+	private static final ThreadLocal<KeyEncoder> encoders = new ThreadLocal<KeyEncoder>() {
+		@Override
+		protected KeyEncoder initialValue() {
+			return new KeyEncoder();
+		}
+	};
+
+	private final MessageDigest md5;
+	private final byte[] digest = new byte[16];
+
+	private char[] chars = new char[128];
+	private int charLength;
+
+	private byte[] bytes = new byte[128];
+	private int byteLength;
+
+	private KeyEncoder() {
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new InternalError("MD5 not supported");
+		}
+	}
+
+	/**
+	 * @return The empty encoder for this thread
+	 */
+	public static KeyEncoder get() {
+		KeyEncoder encoder = encoders.get();
+		encoder.charLength = 0;
+		encoder.byteLength = 0;
+		return encoder;
+	}
+
+	/**
+	 * Append the elements of a row key, joined by the key delimiter. Strings
+	 * are lowercased, nested lists and arrays are joined the same way and null
+	 * elements are written as '*'.
+	 */
+	public KeyEncoder appendKey(Object... objects) {
+		int start = charLength;
+
+		for (Object obj : objects) {
+			if (obj instanceof String) {
+				appendLowerCase((String) obj);
+			} else if (obj instanceof UUID) {
+				appendUUID((UUID) obj);
+			} else if (obj instanceof List<?>) {
+				appendKey(((List<?>) obj).toArray());
+			} else if (obj instanceof Object[]) {
+				appendKey((Object[]) obj);
+			} else if (obj != null) {
+				appendChars(obj.toString());
+			} else {
+				appendChar('*');
+			}
+
+			appendChar(KEY_DELIM);
+		}
+
+		if (charLength == start) {
+			// same failure as removing the trailing delimiter of an empty key
+			throw new StringIndexOutOfBoundsException(-1);
+		}
+
+		// drop the trailing delimiter
+		charLength--;
+
+		return this;
+	}
+
+	/**
+	 * @return The row key built so far
+	 */
+	public String toKeyString() {
+		return new String(chars, 0, charLength);
+	}
+
+	/**
+	 * @return The length of the row key built so far
+	 */
+	public int keyLength() {
+		return charLength;
+	}
+
+	/**
+	 * @return The name based uuid of the row key, the same as
+	 *         UUID.nameUUIDFromBytes(key.getBytes())
+	 */
+	public UUID toKeyID() {
+		byteLength = 0;
+		ensureBytes(charLength);
+
+		for (int i = 0; i < charLength; i++) {
+			char c = chars[i];
+			if (c >= 0x80) {
+				// leave anything but ascii to the platform encoding
+				byte[] encoded = toKeyString().getBytes();
+				byteLength = 0;
+				appendBytes(encoded, encoded.length);
+				return toNameUUID();
+			}
+			bytes[byteLength++] = (byte) c;
+		}
+
+		return toNameUUID();
+	}
+
+	/**
+	 * Append the 16 bytes of the uuid, or 16 zero bytes if it is null
+	 */
+	public KeyEncoder appendUUIDBytes(UUID uuid) {
+		ensureBytes(byteLength + 16);
+
+		long msb = uuid != null ? uuid.getMostSignificantBits() : 0;
+		long lsb = uuid != null ? uuid.getLeastSignificantBits() : 0;
+
+		for (int i = 7; i >= 0; i--) {
+			bytes[byteLength++] = (byte) (msb >>> (8 * i));
+		}
+		for (int i = 7; i >= 0; i--) {
+			bytes[byteLength++] = (byte) (lsb >>> (8 * i));
+		}
+
+		return this;
+	}
+
+	/**
+	 * Append the string lowercased and encoded as US-ASCII, an empty string
+	 * if it is null
+	 */
+	public KeyEncoder appendAsciiLowerCase(String s) {
+		if (s == null) {
+			return this;
+		}
+
+		int start = byteLength;
+		int length = s.length();
+		ensureBytes(byteLength + length);
+
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if ((c >= 0x80) || !ASCII_LOWERCASE) {
+				// case mapping can depend on the whole string
+				byteLength = start;
+				byte[] encoded = ascii(StringUtils.lowerCase(s));
+				appendBytes(encoded, encoded.length);
+				return this;
+			}
+			bytes[byteLength++] = (byte) lower(c);
+		}
+
+		return this;
+	}
+
+	/**
+	 * @return The name based uuid of the bytes appended so far, the same as
+	 *         UUID.nameUUIDFromBytes()
+	 */
+	public UUID toNameUUID() {
+		md5.reset();
+		md5.update(bytes, 0, byteLength);
+		try {
+			md5.digest(digest, 0, digest.length);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		}
+
+		// version 3 and the IETF variant, as UUID.nameUUIDFromBytes
+		digest[6] &= 0x0f;
+		digest[6] |= 0x30;
+		digest[8] &= 0x3f;
+		digest[8] |= 0x80;
+
+		long msb = 0;
+		long lsb = 0;
+		for (int i = 0; i < 8; i++) {
+			msb = (msb << 8) | (digest[i] & 0xff);
+		}
+		for (int i = 8; i < 16; i++) {
+			lsb = (lsb << 8) | (digest[i] & 0xff);
+		}
+
+		return new UUID(msb, lsb);
+	}
+
+	private void appendLowerCase(String s) {
+		int start = charLength;
+		int length = s.length();
+		ensureChars(charLength + length);
+
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if ((c >= 0x80) || !ASCII_LOWERCASE) {
+				// case mapping can depend on the whole string and change its
+				// length
+				charLength = start;
+				appendChars(s.toLowerCase());
+				return;
+			}
+			chars[charLength++] = lower(c);
+		}
+	}
+
+	private void appendUUID(UUID uuid) {
+		ensureChars(charLength + 36);
+
+		long msb = uuid.getMostSignificantBits();
+		long lsb = uuid.getLeastSignificantBits();
+
+		appendHex(msb >>> 32, 8);
+		chars[charLength++] = '-';
+		appendHex(msb >>> 16, 4);
+		chars[charLength++] = '-';
+		appendHex(msb, 4);
+		chars[charLength++] = '-';
+		appendHex(lsb >>> 48, 4);
+		chars[charLength++] = '-';
+		appendHex(lsb, 12);
+	}
+
+	private void appendHex(long value, int digits) {
+		for (int i = digits - 1; i >= 0; i--) {
+			chars[charLength + i] = HEX[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+		charLength += digits;
+	}
+
+	private void appendChars(String s) {
+		int length = s.length();
+		ensureChars(charLength + length);
+		s.getChars(0, length, chars, charLength);
+		charLength += length;
+	}
+
+	private void appendChar(char c) {
+		ensureChars(charLength + 1);
+		chars[charLength++] = c;
+	}
+
+	private void appendBytes(byte[] b, int length) {
+		ensureBytes(byteLength + length);
+		System.arraycopy(b, 0, bytes, byteLength, length);
+		byteLength += length;
+	}
+
+	private static char lower(char c) {
+		return ((c >= 'A') && (c <= 'Z')) ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	private void ensureChars(int capacity) {
+		if (capacity > chars.length) {
+			char[] grown = new char[Math.max(capacity, chars.length * 2)];
+			System.arraycopy(chars, 0, grown, 0, charLength);
+			chars = grown;
+		}
+	}
+
+	private void ensureBytes(int capacity) {
+		if (capacity > bytes.length) {
+			byte[] grown = new byte[Math.max(capacity, bytes.length * 2)];
+			System.arraycopy(bytes, 0, grown, 0, byteLength);
+			bytes = grown;
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.cassandra.connection.HConnectionManager;
+import me.prettyprint.cassandra.model.ExecutingVirtualKeyspace;
+import me.prettyprint.cassandra.model.ExecutionResult;
+import me.prettyprint.cassandra.model.KeyspaceOperationCallback;
+import me.prettyprint.cassandra.service.FailoverPolicy;
+import me.prettyprint.cassandra.service.Operation;
+import me.prettyprint.hector.api.ConsistencyLevelPolicy;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.exceptions.HectorException;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+/**
+ * Virtual keyspace that records the number, latency and failures of the
+ * operations executed through it. Metrics are scoped by the key prefix, which
+ * for application keyspaces is the application id, so load on the cluster can
+ * be broken down per tenant.
+ */
+public class MeteredKeyspace<E> extends ExecutingVirtualKeyspace<E> {
+
+  private final MetricName operationsName;
+  private final MetricName errorsName;
+  private final Timer operations;
+  private final Meter errors;
+  private final ByteBuffer keyPrefixBytes;
+
+  public MeteredKeyspace(String keyspace, E keyPrefix, Serializer<E> keyPrefixSerializer,
+      HConnectionManager connectionManager, ConsistencyLevelPolicy consistencyLevelPolicy,
+      FailoverPolicy failoverPolicy, Map<String, String> credentials) {
+    super(keyspace, keyPrefix, keyPrefixSerializer, connectionManager, consistencyLevelPolicy, failoverPolicy,
+        credentials);
+
+    keyPrefixBytes = keyPrefixSerializer.toByteBuffer(keyPrefix);
+
+    String scope = String.valueOf(keyPrefix);
+    operationsName = new MetricName(MeteredKeyspace.class, "operations", scope);
+    errorsName = new MetricName(MeteredKeyspace.class, "errors", scope);
+    operations = Metrics.newTimer(operationsName, TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+    errors = Metrics.newMeter(errorsName, "errors", TimeUnit.SECONDS);
+  }
+
+  @Override
+  public <T> ExecutionResult<T> doExecute(KeyspaceOperationCallback<T> koc) throws HectorException {
+    TimerContext context = operations.time();
+    try {
+      return super.doExecute(koc);
+    } catch (HectorException e) {
+      errors.mark();
+      throw e;
+    } finally {
+      context.stop();
+    }
+  }
+
+  @Override
+  public <T> ExecutionResult<T> doExecuteOperation(Operation<T> operation) throws HectorException {
+    TimerContext context = operations.time();
+    try {
+      return super.doExecuteOperation(operation);
+    } catch (HectorException e) {
+      errors.mark();
+      throw e;
+    } finally {
+      context.stop();
+    }
+  }
+
+  public Timer getOperations() {
+    return operations;
+  }
+
+  public Meter getErrors() {
+    return errors;
+  }
+
+  /**
+   * Unregister this keyspace's metrics, called once it's no longer cached so
+   * applications that have gone idle don't keep metrics around forever
+   */
+  public void removeMetrics() {
+    Metrics.defaultRegistry().removeMetric(operationsName);
+    Metrics.defaultRegistry().removeMetric(errorsName);
+  }
+
+  /**
+   * @return The bytes every row key of this keyspace starts with
+   */
+  public ByteBuffer getKeyPrefixBytes() {
+    return keyPrefixBytes.duplicate();
+  }
+}
@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+
+import org.apache.cassandra.dht.BigIntegerToken;
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+/**
+ * Splits multigets of many keys into chunks read concurrently, so one
+ * coordinator doesn't serialize a read of hundreds of rows.
+ * <p>
+ * Keys are ordered by their token before being cut into chunks, so the rows
+ * of a chunk sit on as few replicas as possible. Chunks always run on a
+ * bounded pool with a bounded queue, never on the calling thread, so the
+ * caller keeps watching the timeout. Chunks the queue can't take are offered
+ * again until it can. A chunk still running after the hedge delay is sent
+ * again and the first answer wins. The delay follows the 95th percentile of
+ * recent chunk reads and never goes below the configured minimum. Hedges are
+ * capped at a percentage of the chunks read, and none are sent while chunks
+ * wait for the queue. A failed chunk is retried once. The whole read fails if
+ * a chunk hasn't answered within the timeout.
+ */
+public class MultigetExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(MultigetExecutor.class);
+
+  public static final int DEFAULT_CHUNK_SIZE = 32;
+  public static final int DEFAULT_THREADS = 16;
+  public static final long DEFAULT_TIMEOUT = 10000;
+  public static final long DEFAULT_HEDGE_MILLIS = 50;
+  public static final int DEFAULT_HEDGE_PERCENT = 5;
+
+  /**
+   * Chunks queued per pool thread before submissions are rejected
+   */
+  private static final int QUEUED_PER_THREAD = 64;
+
+  /**
+   * Milliseconds between offers of chunks the queue rejected
+   */
+  private static final long RESUBMIT_MILLIS = 10;
+
+  /**
+   * Chunk reads timed before the hedge delay follows their latency
+   */
+  private static final long MIN_SAMPLES = 100;
+
+  /**
+   * Usergrid keyspaces use the default partitioner, with any other the chunks
+   * are still correct, just spread over more replicas
+   */
+  private static final RandomPartitioner partitioner = new RandomPartitioner();
+
+  /**
+   * Reads the rows of one chunk of keys
+   */
+  public interface RowsReader<K, N, V> {
+    public Rows<K, N, V> read(List<K> keys) throws Exception;
+  }
+
+  private final int chunkSize;
+  private final long timeout;
+  private final long hedgeMillis;
+  private final int hedgePercent;
+  private final ThreadPoolExecutor pool;
+
+  /**
+   * Hedges that may still be sent, in hundredths of a hedge. Each chunk read
+   * adds the hedge percentage, up to one hedge per thread.
+   */
+  private final AtomicLong hedgeBudget = new AtomicLong();
+  private final long maxHedgeBudget;
+
+  private final Timer chunks;
+  private final Meter hedges;
+  private final Meter retries;
+  private final Meter timeouts;
+
+  /**
+   * @param chunkSize
+   *          Most keys read by one multiget
+   * @param threads
+   *          Most chunks read at once across all callers
+   * @param timeout
+   *          Milliseconds to wait for all the chunks of a read
+   * @param hedgeMillis
+   *          Least milliseconds a chunk runs before it is sent again, 0 to
+   *          never hedge
+   * @param hedgePercent
+   *          Most hedges sent, as a percentage of the chunks read, 0 to never
+   *          hedge
+   */
+  public MultigetExecutor(int chunkSize, int threads, long timeout, long hedgeMillis, int hedgePercent) {
+    this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+    this.timeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+    this.hedgeMillis = hedgeMillis;
+    this.hedgePercent = Math.max(0, Math.min(100, hedgePercent));
+
+    threads = threads > 0 ? threads : DEFAULT_THREADS;
+    maxHedgeBudget = threads * 100L;
+
+    pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(threads
+        * QUEUED_PER_THREAD), new ThreadFactoryBuilder().setNameFormat("multiget-%d").setDaemon(true).build(),
+        new ThreadPoolExecutor.AbortPolicy());
+    pool.allowCoreThreadTimeOut(true);
+
+    chunks = Metrics.newTimer(MultigetExecutor.class, "chunks", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    hedges = Metrics.newMeter(MultigetExecutor.class, "hedges", "chunks", TimeUnit.SECONDS);
+    retries = Metrics.newMeter(MultigetExecutor.class, "retries", "chunks", TimeUnit.SECONDS);
+    timeouts = Metrics.newMeter(MultigetExecutor.class, "timeouts", "reads", TimeUnit.SECONDS);
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Read the rows of the keys, in chunks if there are more than the chunk
+   * size. The rows are returned in the order of the keys.
+   */
+  public <K, N, V> Rows<K, N, V> read(Keyspace ko, List<K> keys, Serializer<K> keySerializer,
+      final RowsReader<K, N, V> reader) throws Exception {
+
+    if (keys.size() <= chunkSize) {
+      return reader.read(keys);
+    }
+
+    List<K> unique = new ArrayList<K>(new LinkedHashSet<K>(keys));
+    if (unique.size() <= chunkSize) {
+      return reader.read(unique);
+    }
+
+    final List<List<K>> split = split(ko, unique, keySerializer);
+    int n = split.size();
+
+    CompletionService<Attempt<K, N, V>> completion = new ExecutorCompletionService<Attempt<K, N, V>>(pool);
+    List<Future<Attempt<K, N, V>>> futures = new ArrayList<Future<Attempt<K, N, V>>>(n * 2);
+
+    List<Rows<K, N, V>> results = new ArrayList<Rows<K, N, V>>(Collections.<Rows<K, N, V>> nCopies(n, null));
+    int[] attempts = new int[n];
+    int[] pending = new int[n];
+    long[] started = new long[n];
+
+    // chunks waiting for room in the queue, in the order they are sent
+    LinkedList<Integer> unsent = new LinkedList<Integer>();
+    for (int i = 0; i < n; i++) {
+      attempts[i] = 1;
+      unsent.add(i);
+      earnHedge(hedgePercent);
+    }
+
+    long deadline = System.currentTimeMillis() + timeout;
+    int remaining = n;
+
+    try {
+      while (remaining > 0) {
+        long now = System.currentTimeMillis();
+        if (now >= deadline) {
+          timeouts.mark();
+          throw new TimeoutException("Multiget of " + unique.size() + " keys in " + n + " chunks timed out after "
+              + timeout + "ms");
+        }
+
+        while (!unsent.isEmpty()) {
+          int i = unsent.peek();
+          if (!submit(completion, futures, new Attempt<K, N, V>(i, split.get(i), reader, chunks))) {
+            break;
+          }
+          unsent.poll();
+          pending[i]++;
+          started[i] = now;
+        }
+
+        long hedgeDelay = getHedgeDelay();
+        long wait = deadline - now;
+        if (!unsent.isEmpty()) {
+          wait = Math.min(wait, RESUBMIT_MILLIS);
+        } else if (hedgeDelay > 0) {
+          for (int i = 0; i < n; i++) {
+            if (isHedgeable(i, results, attempts, pending)) {
+              wait = Math.min(wait, Math.max(0, started[i] + hedgeDelay - now));
+            }
+          }
+        }
+
+        Future<Attempt<K, N, V>> future = completion.poll(wait, TimeUnit.MILLISECONDS);
+
+        if (future == null) {
+          // send the chunks running past the hedge delay again, unless the
+          // pool is already behind
+          now = System.currentTimeMillis();
+          for (int i = 0; (hedgeDelay > 0) && unsent.isEmpty() && (i < n); i++) {
+            if (isHedgeable(i, results, attempts, pending) && (now - started[i] >= hedgeDelay) && takeHedge()) {
+              if (!submit(completion, futures, new Attempt<K, N, V>(i, split.get(i), reader, chunks))) {
+                earnHedge(100);
+                break;
+              }
+              hedges.mark();
+              attempts[i]++;
+              pending[i]++;
+            }
+          }
+          continue;
+        }
+
+        Attempt<K, N, V> attempt = future.get();
+        int i = attempt.index;
+        pending[i]--;
+
+        if (results.get(i) != null) {
+          continue;
+        }
+
+        if (attempt.error == null) {
+          results.set(i, attempt.rows);
+          remaining--;
+          continue;
+        }
+
+        // the other attempt may still answer
+        if (pending[i] > 0) {
+          continue;
+        }
+
+        if (attempts[i] > 1) {
+          throw attempt.error;
+        }
+
+        logger.debug("Retrying multiget chunk of {} keys", split.get(i).size(), attempt.error);
+        retries.mark();
+        attempts[i]++;
+        unsent.add(i);
+      }
+    } catch (ExecutionException e) {
+      // attempts catch their own errors
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      for (Future<Attempt<K, N, V>> future : futures) {
+        future.cancel(false);
+      }
+    }
+
+    return merge(unique, results);
+  }
+
+  /**
+   * A chunk with no answer yet, sent once and still running
+   */
+  private static <K, N, V> boolean isHedgeable(int i, List<Rows<K, N, V>> results, int[] attempts, int[] pending) {
+    return (results.get(i) == null) && (attempts[i] == 1) && (pending[i] == 1);
+  }
+
+  /**
+   * Queue an attempt, false when the queue is full
+   */
+  private <K, N, V> boolean submit(CompletionService<Attempt<K, N, V>> completion,
+      List<Future<Attempt<K, N, V>>> futures, Attempt<K, N, V> attempt) {
+    try {
+      futures.add(completion.submit(attempt));
+      return true;
+    } catch (RejectedExecutionException e) {
+      if (pool.isShutdown()) {
+        throw e;
+      }
+      return false;
+    }
+  }
+
+  private void earnHedge(long hundredths) {
+    if (hedgePercent <= 0) {
+      return;
+    }
+    long budget;
+    do {
+      budget = hedgeBudget.get();
+    } while (!hedgeBudget.compareAndSet(budget, Math.min(maxHedgeBudget, budget + hundredths)));
+  }
+
+  private boolean takeHedge() {
+    long budget;
+    do {
+      budget = hedgeBudget.get();
+      if (budget < 100) {
+        return false;
+      }
+    } while (!hedgeBudget.compareAndSet(budget, budget - 100));
+    return true;
+  }
+
+  /**
+   * The 95th percentile of recent chunk reads, at least the configured
+   * minimum
+   */
+  private long getHedgeDelay() {
+    if ((hedgeMillis <= 0) || (hedgePercent <= 0)) {
+      return 0;
+    }
+    if (chunks.count() < MIN_SAMPLES) {
+      return Math.max(hedgeMillis, timeout / 10);
+    }
+    return Math.max(hedgeMillis, (long) chunks.getSnapshot().get95thPercentile());
+  }
+
+  /**
+   * Order the keys by the token of the row key stored in Cassandra, which for
+   * a virtual keyspace starts with the key prefix, and cut them into chunks
+   */
+  <K> List<List<K>> split(Keyspace ko, List<K> keys, Serializer<K> keySerializer) {
+    ByteBuffer prefix = null;
+    if (ko instanceof MeteredKeyspace) {
+      prefix = ((MeteredKeyspace<?>) ko).getKeyPrefixBytes();
+    }
+
+    final Map<K, BigIntegerToken> tokens = new LinkedHashMap<K, BigIntegerToken>();
+    for (K key : keys) {
+      ByteBuffer bytes = keySerializer.toByteBuffer(key);
+      if (prefix != null) {
+        ByteBuffer prefixed = ByteBuffer.allocate(prefix.remaining() + bytes.remaining());
+        prefixed.put(prefix.duplicate()).put(bytes.duplicate());
+        prefixed.rewind();
+        bytes = prefixed;
+      }
+      tokens.put(key, partitioner.getToken(bytes));
+    }
+
+    List<K> ordered = new ArrayList<K>(keys);
+    Collections.sort(ordered, new Comparator<K>() {
+      @Override
+      public int compare(K first, K second) {
+        return tokens.get(first).compareTo(tokens.get(second));
+      }
+    });
+
+    // even chunks, no smaller than they need to be
+    int n = (ordered.size() + chunkSize - 1) / chunkSize;
+    int size = (ordered.size() + n - 1) / n;
+
+    List<List<K>> split = new ArrayList<List<K>>(n);
+    for (int i = 0; i < ordered.size(); i += size) {
+      split.add(new ArrayList<K>(ordered.subList(i, Math.min(ordered.size(), i + size))));
+    }
+    return split;
+  }
+
+  private static <K, N, V> Rows<K, N, V> merge(List<K> keys, List<Rows<K, N, V>> results) {
+    Map<K, Row<K, N, V>> rows = new LinkedHashMap<K, Row<K, N, V>>();
+    Map<K, Row<K, N, V>> found = new LinkedHashMap<K, Row<K, N, V>>();
+    for (Rows<K, N, V> chunk : results) {
+      if (chunk == null) {
+        continue;
+      }
+      for (Row<K, N, V> row : chunk) {
+        found.put(row.getKey(), row);
+      }
+    }
+    for (K key : keys) {
+      Row<K, N, V> row = found.get(key);
+      if (row != null) {
+        rows.put(key, row);
+      }
+    }
+    return new MergedRows<K, N, V>(rows);
+  }
+
+  private static class Attempt<K, N, V> implements Callable<Attempt<K, N, V>> {
+
+    final int index;
+    final List<K> keys;
+    final RowsReader<K, N, V> reader;
+    final Timer timer;
+
+    Rows<K, N, V> rows;
+    Exception error;
+
+    Attempt(int index, List<K> keys, RowsReader<K, N, V> reader, Timer timer) {
+      this.index = index;
+      this.keys = keys;
+      this.reader = reader;
+      this.timer = timer;
+    }
+
+    @Override
+    public Attempt<K, N, V> call() {
+      TimerContext context = timer.time();
+      try {
+        rows = reader.read(keys);
+      } catch (Exception e) {
+        error = e;
+      } finally {
+        context.stop();
+      }
+      return this;
+    }
+  }
+
+  private static class MergedRows<K, N, V> implements Rows<K, N, V> {
+
+    private final Map<K, Row<K, N, V>> rows;
+
+    MergedRows(Map<K, Row<K, N, V>> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public Row<K, N, V> getByKey(K key) {
+      return rows.get(key);
+    }
+
+    @Override
+    public int getCount() {
+      return rows.size();
+    }
+
+    @Override
+    public Iterator<Row<K, N, V>> iterator() {
+      return rows.values().iterator();
+    }
+
+    @Override
+    public String toString() {
+      return "Rows(" + rows.values() + ")";
+    }
+  }
+
+}
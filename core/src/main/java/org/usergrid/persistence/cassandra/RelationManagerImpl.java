@@ -2318,7 +2318,7 @@ public class RelationManagerImpl implements RelationManager {
     QueryProcessor qp = new QueryProcessor(query, collection);
     SearchCollectionVisitor visitor = new SearchCollectionVisitor(query, qp, collection);
 
-    return qp.getResults(em, visitor, new EntityResultsLoader(em));
+    return qp.getResults(em, visitor, new EntityResultsLoader(em, query));
   }
 
   private List<UUID> getUUIDListFromIdIndex(IndexScanner scanner, int size) {
@@ -2518,7 +2518,7 @@ public class RelationManagerImpl implements RelationManager {
     QueryProcessor qp = new QueryProcessor(query, null);
     SearchConnectionVisitor visitor = new SearchConnectionVisitor(query, qp, connectionRef);
 
-    return qp.getResults(em, visitor, new EntityResultsLoader(em));
+    return qp.getResults(em, visitor, new EntityResultsLoader(em, query));
   }
 
   @Override
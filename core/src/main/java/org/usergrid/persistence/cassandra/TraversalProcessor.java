@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import static org.usergrid.persistence.Schema.DICTIONARY_COLLECTIONS;
+import static org.usergrid.persistence.Schema.DICTIONARY_CONNECTED_ENTITIES;
+import static org.usergrid.persistence.Schema.DICTIONARY_CONNECTING_ENTITIES;
+import static org.usergrid.persistence.Schema.TYPE_CONNECTION;
+import static org.usergrid.persistence.cassandra.ApplicationCF.ENTITY_COMPOSITE_DICTIONARIES;
+import static org.usergrid.persistence.cassandra.ApplicationCF.ENTITY_ID_SETS;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.usergrid.utils.ConversionUtils.bytebuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import org.apache.cassandra.db.marshal.UUIDType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.EntityRef;
+import org.usergrid.persistence.IndexBucketLocator;
+import org.usergrid.persistence.IndexBucketLocator.IndexType;
+import org.usergrid.persistence.Results;
+import org.usergrid.persistence.Results.Level;
+import org.usergrid.persistence.SimpleEntityRef;
+import org.usergrid.persistence.Traversal;
+import org.usergrid.persistence.Traversal.Hop;
+import org.usergrid.persistence.Traversal.HopType;
+
+/**
+ * Executes a {@link Traversal}. Each hop reads the connection or collection
+ * index rows of every entity reached by the previous hop with a single
+ * multiget, the ids reached are de-duplicated before the next hop and entities
+ * are only loaded for the last hop, with one read for all of them.
+ * 
+ * A hop over n entities costs one round trip instead of the n lookups made
+ * when each entity is asked for its connections in turn.
+ */
+public class TraversalProcessor {
+
+  private static final Logger logger = LoggerFactory.getLogger(TraversalProcessor.class);
+
+  private static final UUIDSerializer ue = new UUIDSerializer();
+
+  private static final Comparator<HColumn<ByteBuffer, ByteBuffer>> UUID_ORDER = new Comparator<HColumn<ByteBuffer, ByteBuffer>>() {
+
+    @Override
+    public int compare(HColumn<ByteBuffer, ByteBuffer> first, HColumn<ByteBuffer, ByteBuffer> second) {
+      return UUIDType.instance.compare(first.getName(), second.getName());
+    }
+  };
+
+  private static final Comparator<HColumn<ByteBuffer, ByteBuffer>> UUID_REVERSED_ORDER = Collections
+      .reverseOrder(UUID_ORDER);
+
+  private final EntityManagerImpl em;
+  private final CassandraService cass;
+  private final UUID applicationId;
+  private final IndexBucketLocator indexBucketLocator;
+
+  public TraversalProcessor(EntityManagerImpl em, CassandraService cass, UUID applicationId,
+      IndexBucketLocator indexBucketLocator) {
+    this.em = em;
+    this.cass = cass;
+    this.applicationId = applicationId;
+    this.indexBucketLocator = indexBucketLocator;
+  }
+
+  /**
+   * @return The results of the last hop keyed by the entity they were reached
+   *         from
+   */
+  public Map<UUID, Results> traverse(List<UUID> entityIds, Traversal traversal, Level resultsLevel) throws Exception {
+
+    Map<UUID, Results> results = new LinkedHashMap<UUID, Results>();
+
+    List<Hop> hops = traversal.getHops();
+    if ((entityIds == null) || entityIds.isEmpty() || hops.isEmpty()) {
+      return results;
+    }
+
+    List<UUID> owners = new ArrayList<UUID>(new LinkedHashSet<UUID>(entityIds));
+    Map<UUID, List<EntityRef>> reached = null;
+
+    for (int i = 0; i < hops.size(); i++) {
+      Hop hop = hops.get(i);
+
+      reached = readHop(owners, hop);
+
+      logger.debug("Hop {} from {} entities reached {}", new Object[] { hop, owners.size(), reached.size() });
+
+      if (i == (hops.size() - 1)) {
+        break;
+      }
+
+      // the next hop starts from every entity reached, once
+      Set<UUID> next = new LinkedHashSet<UUID>();
+      for (List<EntityRef> refs : reached.values()) {
+        for (EntityRef ref : refs) {
+          if (next.size() >= traversal.getMaxEntities()) {
+            break;
+          }
+          next.add(ref.getUuid());
+        }
+      }
+
+      if (next.isEmpty()) {
+        return results;
+      }
+
+      owners = new ArrayList<UUID>(next);
+    }
+
+    Map<UUID, Entity> entities = null;
+    if (resultsLevel.ordinal() > Level.REFS.ordinal()) {
+      entities = loadEntities(reached);
+    }
+
+    for (Map.Entry<UUID, List<EntityRef>> entry : reached.entrySet()) {
+      List<EntityRef> refs = entry.getValue();
+      Results r = null;
+
+      if (resultsLevel == Level.IDS) {
+        List<UUID> ids = new ArrayList<UUID>(refs.size());
+        for (EntityRef ref : refs) {
+          ids.add(ref.getUuid());
+        }
+        r = Results.fromIdList(ids);
+      } else if (entities == null) {
+        r = Results.fromRefList(refs);
+      } else {
+        List<Entity> list = new ArrayList<Entity>(refs.size());
+        for (EntityRef ref : refs) {
+          Entity entity = entities.get(ref.getUuid());
+          if (entity != null) {
+            list.add(entity);
+          }
+        }
+        r = Results.fromEntities(list);
+        if (resultsLevel == Level.LINKED_PROPERTIES) {
+          r = em.loadEntities(r, resultsLevel, 0);
+        }
+      }
+
+      results.put(entry.getKey(), r);
+    }
+
+    return results;
+  }
+
+  /**
+   * Read the index rows of all the owners for one hop in a single multiget
+   */
+  private Map<UUID, List<EntityRef>> readHop(List<UUID> owners, Hop hop) throws Exception {
+
+    Map<ByteBuffer, UUID> keys = new LinkedHashMap<ByteBuffer, UUID>();
+
+    if (hop.getType() == HopType.COLLECTION) {
+      List<String> buckets = indexBucketLocator.getBuckets(applicationId, IndexType.COLLECTION, hop.getName());
+      for (UUID owner : owners) {
+        Object prefix = key(owner, DICTIONARY_COLLECTIONS, hop.getName());
+        for (String bucket : buckets) {
+          keys.put(bytebuffer(key(prefix, bucket)), owner);
+        }
+      }
+    } else {
+      String dictionary = hop.getType() == HopType.CONNECTED ? DICTIONARY_CONNECTED_ENTITIES
+          : DICTIONARY_CONNECTING_ENTITIES;
+      for (UUID owner : owners) {
+        keys.put(bytebuffer(key(owner, dictionary, hop.getName())), owner);
+      }
+    }
+
+    Keyspace ko = cass.getApplicationKeyspace(applicationId);
+    Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> rows = cass.multiGetColumns(ko,
+        hop.getType() == HopType.COLLECTION ? ENTITY_ID_SETS : ENTITY_COMPOSITE_DICTIONARIES,
+        new ArrayList<ByteBuffer>(keys.keySet()), null, null, hop.getLimit(), hop.isReversed());
+
+    // group the rows by owner, a collection has a row per bucket
+    Map<UUID, List<HColumn<ByteBuffer, ByteBuffer>>> columns = new HashMap<UUID, List<HColumn<ByteBuffer, ByteBuffer>>>();
+    for (Map.Entry<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> row : rows.entrySet()) {
+      UUID owner = keys.get(row.getKey());
+      if ((owner == null) || (row.getValue() == null) || row.getValue().isEmpty()) {
+        continue;
+      }
+      List<HColumn<ByteBuffer, ByteBuffer>> ownerColumns = columns.get(owner);
+      if (ownerColumns == null) {
+        columns.put(owner, new ArrayList<HColumn<ByteBuffer, ByteBuffer>>(row.getValue()));
+      } else {
+        ownerColumns.addAll(row.getValue());
+      }
+    }
+
+    Map<UUID, List<EntityRef>> reached = new LinkedHashMap<UUID, List<EntityRef>>();
+
+    for (UUID owner : owners) {
+      List<HColumn<ByteBuffer, ByteBuffer>> ownerColumns = columns.get(owner);
+      if (ownerColumns == null) {
+        continue;
+      }
+
+      List<EntityRef> refs = null;
+
+      if (hop.getType() == HopType.COLLECTION) {
+        // merge the buckets back into index order
+        Collections.sort(ownerColumns, hop.isReversed() ? UUID_REVERSED_ORDER : UUID_ORDER);
+        refs = new ArrayList<EntityRef>(Math.min(ownerColumns.size(), hop.getLimit()));
+        for (HColumn<ByteBuffer, ByteBuffer> column : ownerColumns) {
+          if (refs.size() >= hop.getLimit()) {
+            break;
+          }
+          refs.add(new SimpleEntityRef(ue.fromByteBuffer(column.getName())));
+        }
+      } else {
+        refs = new ArrayList<EntityRef>(ownerColumns.size());
+        for (HColumn<ByteBuffer, ByteBuffer> column : ownerColumns) {
+          DynamicComposite composite = DynamicComposite.fromByteBuffer(column.getName().duplicate());
+          UUID id = (UUID) composite.get(0);
+          String type = (String) composite.get(1);
+
+          // skip loopbacks and connections to other types of entities
+          if (TYPE_CONNECTION.equalsIgnoreCase(type)
+              || ((hop.getEntityType() != null) && !hop.getEntityType().equals(type))) {
+            continue;
+          }
+          refs.add(new SimpleEntityRef(type, id));
+        }
+      }
+
+      if (!refs.isEmpty()) {
+        reached.put(owner, refs);
+      }
+    }
+
+    return reached;
+  }
+
+  /**
+   * Load everything reached by the last hop with one read
+   */
+  private Map<UUID, Entity> loadEntities(Map<UUID, List<EntityRef>> reached) throws Exception {
+    Set<UUID> ids = new LinkedHashSet<UUID>();
+    for (List<EntityRef> refs : reached.values()) {
+      for (EntityRef ref : refs) {
+        ids.add(ref.getUuid());
+      }
+    }
+
+    Map<UUID, Entity> entities = new HashMap<UUID, Entity>();
+    List<Entity> loaded = em.getEntities(ids, null, null);
+    for (Entity entity : loaded) {
+      entities.put(entity.getUuid(), entity);
+    }
+    return entities;
+  }
+
+}
@@ -29,6 +29,8 @@ import me.prettyprint.hector.api.beans.HColumn;
 
 import org.usergrid.persistence.cassandra.CassandraService;
 import org.usergrid.persistence.cassandra.ConnectionRefImpl;
+import org.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.usergrid.persistence.cassandra.util.TraceTagManager;
 
 import com.yammer.metrics.annotation.Metered;
 
@@ -169,10 +171,16 @@ public class ConnectedIndexScanner implements IndexScanner {
     // Our currently buffered results don't exist or don't have a next. Try to
     // load them again if they're less than the page size
     if (lastResults == null && hasMore) {
+      TimedOpTag timedOpTag = TraceTagManager.startOp();
+      boolean success = false;
       try {
-        return load();
+        boolean loaded = load();
+        success = true;
+        return loaded;
       } catch (Exception e) {
         throw new RuntimeException("Error loading next page of indexbucket scanner", e);
+      } finally {
+        TraceTagManager.stopOp(timedOpTag, TraceTagManager.INDEX_SCAN_OP, success);
       }
     }
 
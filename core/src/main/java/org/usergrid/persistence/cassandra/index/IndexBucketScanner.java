@@ -37,6 +37,8 @@ import org.usergrid.persistence.IndexBucketLocator;
 import org.usergrid.persistence.IndexBucketLocator.IndexType;
 import org.usergrid.persistence.cassandra.ApplicationCF;
 import org.usergrid.persistence.cassandra.CassandraService;
+import org.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.usergrid.persistence.cassandra.util.TraceTagManager;
 
 import com.yammer.metrics.annotation.Metered;
 
@@ -256,10 +258,16 @@ public class IndexBucketScanner implements IndexScanner {
     // Our currently buffered results don't exist or don't have a next. Try to
     // load them again if they're less than the page size
     if (lastResults == null && hasMore) {
+      TimedOpTag timedOpTag = TraceTagManager.startOp();
+      boolean success = false;
       try {
-        return load();
+        boolean loaded = load();
+        success = true;
+        return loaded;
       } catch (Exception e) {
         throw new RuntimeException("Error loading next page of indexbucket scanner", e);
+      } finally {
+        TraceTagManager.stopOp(timedOpTag, TraceTagManager.INDEX_SCAN_OP, success);
       }
     }
 
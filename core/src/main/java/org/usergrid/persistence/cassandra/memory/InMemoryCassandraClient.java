@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.AuthenticationRequest;
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.CounterColumn;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.IndexClause;
+import org.apache.cassandra.thrift.IndexExpression;
+import org.apache.cassandra.thrift.InvalidRequestException;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.NotFoundException;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.usergrid.persistence.cassandra.memory.InMemoryColumnFamily.Cell;
+import org.usergrid.persistence.cassandra.memory.InMemoryColumnFamily.Row;
+
+/**
+ * A thrift client that serves the data operations Hector performs from an
+ * {@link InMemoryStore} instead of a Cassandra node. Only standard column
+ * families are supported, requests against super columns and the calls that
+ * aren't overridden here fail.
+ * 
+ * Consistency levels are ignored, every read sees every completed write.
+ */
+public class InMemoryCassandraClient extends Cassandra.Client {
+
+  private final InMemoryStore store;
+  private String keyspace;
+
+  public InMemoryCassandraClient(InMemoryStore store) {
+    super(null);
+    this.store = store;
+  }
+
+  @Override
+  public void login(AuthenticationRequest auth_request) {
+  }
+
+  @Override
+  public void set_keyspace(String keyspace) throws InvalidRequestException {
+    if (!store.hasKeyspace(keyspace)) {
+      throw new InvalidRequestException(String.format("Keyspace %s does not exist", keyspace));
+    }
+
+    this.keyspace = keyspace;
+  }
+
+  @Override
+  public ColumnOrSuperColumn get(ByteBuffer key, ColumnPath column_path, ConsistencyLevel consistency_level)
+      throws InvalidRequestException, NotFoundException {
+    InMemoryColumnFamily cf = getColumnFamily(column_path.column_family, column_path.super_column);
+
+    if (column_path.column == null) {
+      throw new InvalidRequestException("column is required");
+    }
+
+    Row row = cf.getRow(key);
+    Cell cell = row == null ? null : row.get(column_path.column);
+
+    if (cell == null) {
+      throw new NotFoundException();
+    }
+
+    return toColumn(cf, column_path.column, cell);
+  }
+
+  @Override
+  public List<ColumnOrSuperColumn> get_slice(ByteBuffer key, ColumnParent column_parent, SlicePredicate predicate,
+      ConsistencyLevel consistency_level) throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(column_parent.column_family, column_parent.super_column);
+
+    return slice(cf, cf.getRow(key), predicate);
+  }
+
+  @Override
+  public int get_count(ByteBuffer key, ColumnParent column_parent, SlicePredicate predicate,
+      ConsistencyLevel consistency_level) throws InvalidRequestException {
+    return get_slice(key, column_parent, predicate, consistency_level).size();
+  }
+
+  @Override
+  public Map<ByteBuffer, List<ColumnOrSuperColumn>> multiget_slice(List<ByteBuffer> keys, ColumnParent column_parent,
+      SlicePredicate predicate, ConsistencyLevel consistency_level) throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(column_parent.column_family, column_parent.super_column);
+
+    Map<ByteBuffer, List<ColumnOrSuperColumn>> results = new LinkedHashMap<ByteBuffer, List<ColumnOrSuperColumn>>(
+        keys.size());
+
+    for (ByteBuffer key : keys) {
+      results.put(key, slice(cf, cf.getRow(key), predicate));
+    }
+
+    return results;
+  }
+
+  @Override
+  public Map<ByteBuffer, Integer> multiget_count(List<ByteBuffer> keys, ColumnParent column_parent,
+      SlicePredicate predicate, ConsistencyLevel consistency_level) throws InvalidRequestException {
+    Map<ByteBuffer, Integer> results = new LinkedHashMap<ByteBuffer, Integer>(keys.size());
+
+    for (Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>> entry : multiget_slice(keys, column_parent, predicate,
+        consistency_level).entrySet()) {
+      results.put(entry.getKey(), entry.getValue().size());
+    }
+
+    return results;
+  }
+
+  /**
+   * Rows are returned in unsigned byte order of their keys rather than token
+   * order, and rows without live columns are skipped
+   */
+  @Override
+  public List<KeySlice> get_range_slices(ColumnParent column_parent, SlicePredicate predicate, KeyRange range,
+      ConsistencyLevel consistency_level) throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(column_parent.column_family, column_parent.super_column);
+
+    if (range.start_token != null || range.end_token != null) {
+      throw new InvalidRequestException("Token ranges are not supported, use key ranges");
+    }
+
+    List<KeySlice> results = new ArrayList<KeySlice>(Math.min(range.count, 100));
+
+    for (Map.Entry<ByteBuffer, Row> entry : cf.getRows(range.start_key, range.end_key).entrySet()) {
+      if (results.size() >= range.count) {
+        break;
+      }
+
+      if (!entry.getValue().isLive() || !matches(cf, entry.getValue(), range.row_filter)) {
+        continue;
+      }
+
+      results.add(new KeySlice(entry.getKey().duplicate(), slice(cf, entry.getValue(), predicate)));
+    }
+
+    return results;
+  }
+
+  /**
+   * Secondary indexes aren't maintained, every row from the start key is
+   * scanned and checked against the index expressions
+   */
+  @Override
+  public List<KeySlice> get_indexed_slices(ColumnParent column_parent, IndexClause index_clause,
+      SlicePredicate column_predicate, ConsistencyLevel consistency_level) throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(column_parent.column_family, column_parent.super_column);
+
+    List<KeySlice> results = new ArrayList<KeySlice>(Math.min(index_clause.count, 100));
+
+    for (Map.Entry<ByteBuffer, Row> entry : cf.getRows(index_clause.start_key, null).entrySet()) {
+      if (results.size() >= index_clause.count) {
+        break;
+      }
+
+      if (!matches(cf, entry.getValue(), index_clause.expressions)) {
+        continue;
+      }
+
+      results.add(new KeySlice(entry.getKey().duplicate(), slice(cf, entry.getValue(), column_predicate)));
+    }
+
+    return results;
+  }
+
+  @Override
+  public void insert(ByteBuffer key, ColumnParent column_parent, Column column, ConsistencyLevel consistency_level)
+      throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(column_parent.column_family, column_parent.super_column);
+
+    insert(cf, key, column);
+  }
+
+  @Override
+  public void add(ByteBuffer key, ColumnParent column_parent, CounterColumn column, ConsistencyLevel consistency_level)
+      throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(column_parent.column_family, column_parent.super_column);
+
+    add(cf, key, column);
+  }
+
+  @Override
+  public void remove(ByteBuffer key, ColumnPath column_path, long timestamp, ConsistencyLevel consistency_level)
+      throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(column_path.column_family, column_path.super_column);
+
+    Row row = cf.getOrCreateRow(key);
+
+    if (column_path.column == null) {
+      row.delete(timestamp);
+    } else {
+      row.delete(column_path.column, timestamp);
+    }
+  }
+
+  @Override
+  public void remove_counter(ByteBuffer key, ColumnPath path, ConsistencyLevel consistency_level)
+      throws InvalidRequestException {
+    InMemoryColumnFamily cf = getColumnFamily(path.column_family, path.super_column);
+
+    Row row = cf.getRow(key);
+
+    if (row == null) {
+      return;
+    }
+
+    if (path.column == null) {
+      row.delete(Long.MAX_VALUE);
+    } else {
+      row.removeCounter(path.column);
+    }
+  }
+
+  @Override
+  public void batch_mutate(Map<ByteBuffer, Map<String, List<Mutation>>> mutation_map,
+      ConsistencyLevel consistency_level) throws InvalidRequestException {
+
+    for (Map.Entry<ByteBuffer, Map<String, List<Mutation>>> rowMutations : mutation_map.entrySet()) {
+      ByteBuffer key = rowMutations.getKey();
+
+      for (Map.Entry<String, List<Mutation>> cfMutations : rowMutations.getValue().entrySet()) {
+        InMemoryColumnFamily cf = getColumnFamily(cfMutations.getKey(), null);
+
+        for (Mutation mutation : cfMutations.getValue()) {
+          if (mutation.column_or_supercolumn != null) {
+            ColumnOrSuperColumn cosc = mutation.column_or_supercolumn;
+
+            if (cosc.column != null) {
+              insert(cf, key, cosc.column);
+            } else if (cosc.counter_column != null) {
+              add(cf, key, cosc.counter_column);
+            } else {
+              throw new InvalidRequestException("Super columns are not supported");
+            }
+          }
+
+          if (mutation.deletion != null) {
+            delete(cf, key, mutation.deletion);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void truncate(String cfname) throws InvalidRequestException {
+    getColumnFamily(cfname, null).truncate();
+  }
+
+  @Override
+  public String describe_cluster_name() {
+    return InMemoryCluster.CLUSTER_NAME;
+  }
+
+  @Override
+  public String describe_version() {
+    return InMemoryCluster.THRIFT_VERSION;
+  }
+
+  @Override
+  public String describe_partitioner() {
+    return "org.apache.cassandra.dht.ByteOrderedPartitioner";
+  }
+
+  private InMemoryColumnFamily getColumnFamily(String columnFamily, ByteBuffer superColumn)
+      throws InvalidRequestException {
+    if (keyspace == null) {
+      throw new InvalidRequestException("You have not set a keyspace for this session");
+    }
+
+    if (superColumn != null) {
+      throw new InvalidRequestException("Super columns are not supported");
+    }
+
+    InMemoryColumnFamily cf = store.getColumnFamily(keyspace, columnFamily);
+
+    if (cf == null) {
+      throw new InvalidRequestException(String.format("unconfigured columnfamily %s", columnFamily));
+    }
+
+    return cf;
+  }
+
+  private void insert(InMemoryColumnFamily cf, ByteBuffer key, Column column) throws InvalidRequestException {
+    if (cf.isCounter()) {
+      throw new InvalidRequestException(String.format("Column family %s only holds counters", cf.getDefinition()
+          .getName()));
+    }
+
+    if (column.name == null || column.value == null) {
+      throw new InvalidRequestException("Column name and value are required");
+    }
+
+    cf.getOrCreateRow(key).insert(column.name, column.value, column.timestamp, column.ttl);
+  }
+
+  private void add(InMemoryColumnFamily cf, ByteBuffer key, CounterColumn column) throws InvalidRequestException {
+    if (!cf.isCounter()) {
+      throw new InvalidRequestException(String.format("Column family %s does not hold counters", cf.getDefinition()
+          .getName()));
+    }
+
+    cf.getOrCreateRow(key).add(column.name, column.value);
+  }
+
+  private void delete(InMemoryColumnFamily cf, ByteBuffer key, Deletion deletion) throws InvalidRequestException {
+    if (deletion.super_column != null) {
+      throw new InvalidRequestException("Super columns are not supported");
+    }
+
+    Row row = cf.getOrCreateRow(key);
+
+    // counters have no timestamps, deletes always win
+    long timestamp = cf.isCounter() ? Long.MAX_VALUE : deletion.timestamp;
+
+    if (deletion.predicate == null) {
+      row.delete(timestamp);
+      return;
+    }
+
+    if (deletion.predicate.column_names == null) {
+      throw new InvalidRequestException("Deletion does not yet support SliceRange predicates.");
+    }
+
+    for (ByteBuffer name : deletion.predicate.column_names) {
+      if (cf.isCounter()) {
+        row.removeCounter(name);
+      } else {
+        row.delete(name, timestamp);
+      }
+    }
+  }
+
+  /**
+   * Read the columns selected by the predicate from the row
+   */
+  private List<ColumnOrSuperColumn> slice(InMemoryColumnFamily cf, Row row, SlicePredicate predicate)
+      throws InvalidRequestException {
+    if (row == null) {
+      return new ArrayList<ColumnOrSuperColumn>(0);
+    }
+
+    List<Map.Entry<ByteBuffer, Cell>> cells;
+
+    if (predicate.column_names != null) {
+      cells = row.get(predicate.column_names);
+    } else if (predicate.slice_range != null) {
+      SliceRange range = predicate.slice_range;
+      cells = row.slice(range.start, range.finish, range.reversed, range.count);
+    } else {
+      throw new InvalidRequestException("predicate column_names and slice_range may not both be null");
+    }
+
+    List<ColumnOrSuperColumn> results = new ArrayList<ColumnOrSuperColumn>(cells.size());
+
+    for (Map.Entry<ByteBuffer, Cell> cell : cells) {
+      results.add(toColumn(cf, cell.getKey(), cell.getValue()));
+    }
+
+    return results;
+  }
+
+  /**
+   * Return true if the row satisfies every expression
+   */
+  private boolean matches(InMemoryColumnFamily cf, Row row, List<IndexExpression> expressions) {
+    if (expressions == null) {
+      return true;
+    }
+
+    for (IndexExpression expression : expressions) {
+      Cell cell = row.get(expression.column_name);
+
+      if (cell == null || cf.isCounter()) {
+        return false;
+      }
+
+      Comparator<ByteBuffer> validator = cf.getValidator(expression.column_name);
+      int compare = validator.compare(cell.getValue(), expression.value);
+
+      switch (expression.op) {
+      case EQ:
+        if (compare != 0) {
+          return false;
+        }
+        break;
+      case GT:
+        if (compare <= 0) {
+          return false;
+        }
+        break;
+      case GTE:
+        if (compare < 0) {
+          return false;
+        }
+        break;
+      case LT:
+        if (compare >= 0) {
+          return false;
+        }
+        break;
+      case LTE:
+        if (compare > 0) {
+          return false;
+        }
+        break;
+      default:
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static ColumnOrSuperColumn toColumn(InMemoryColumnFamily cf, ByteBuffer name, Cell cell) {
+    ColumnOrSuperColumn cosc = new ColumnOrSuperColumn();
+
+    if (cf.isCounter()) {
+      cosc.setCounter_column(new CounterColumn(name.duplicate(), cell.getCount()));
+      return cosc;
+    }
+
+    Column column = new Column(name.duplicate());
+    column.setValue(cell.getValue());
+    column.setTimestamp(cell.getTimestamp());
+
+    int ttl = cell.getTtl();
+
+    if (ttl > 0) {
+      column.setTtl(ttl);
+    }
+
+    cosc.setColumn(column);
+
+    return cosc;
+  }
+}
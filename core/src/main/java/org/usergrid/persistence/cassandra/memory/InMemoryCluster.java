@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.memory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.prettyprint.cassandra.connection.HConnectionManager;
+import me.prettyprint.cassandra.service.ThriftCluster;
+import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
+import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
+import me.prettyprint.hector.api.exceptions.HectorException;
+
+/**
+ * A Hector cluster backed entirely by memory. Keyspaces created from it
+ * through HFactory, including virtual keyspaces, read and write an
+ * {@link InMemoryStore}, so persistence, queue, counter and token code runs
+ * unchanged without a Cassandra node. Schema changes apply immediately.
+ * 
+ * Intended for benchmarks and tests: nothing is persisted, rows are ordered by
+ * key bytes instead of token and secondary index queries scan the column
+ * family.
+ */
+public class InMemoryCluster extends ThriftCluster {
+
+  public static final String CLUSTER_NAME = "In Memory Cluster";
+  public static final String THRIFT_VERSION = "19.32.0";
+  static final String HOST = "127.0.0.1:9160";
+
+  private final InMemoryStore store;
+  private final InMemoryConnectionManager connectionManager;
+
+  public InMemoryCluster() {
+    this(CLUSTER_NAME);
+  }
+
+  public InMemoryCluster(String clusterName) {
+    this(clusterName, new InMemoryStore());
+  }
+
+  public InMemoryCluster(String clusterName, InMemoryStore store) {
+    super(clusterName, InMemoryConnectionManager.createConfigurator());
+    this.store = store;
+    this.connectionManager = new InMemoryConnectionManager(clusterName, store);
+  }
+
+  public InMemoryStore getStore() {
+    return store;
+  }
+
+  @Override
+  public HConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  @Override
+  public String describeClusterName() throws HectorException {
+    return CLUSTER_NAME;
+  }
+
+  @Override
+  public String describeThriftVersion() throws HectorException {
+    return THRIFT_VERSION;
+  }
+
+  @Override
+  public Map<String, List<String>> describeSchemaVersions() throws HectorException {
+    Map<String, List<String>> versions = new HashMap<String, List<String>>(1);
+    versions.put(store.getSchemaVersion().toString(), Collections.singletonList(HOST));
+    return versions;
+  }
+
+  @Override
+  public KeyspaceDefinition describeKeyspace(String keyspace) throws HectorException {
+    return store.describeKeyspace(keyspace);
+  }
+
+  @Override
+  public List<KeyspaceDefinition> describeKeyspaces() throws HectorException {
+    return store.describeKeyspaces();
+  }
+
+  @Override
+  public String addKeyspace(KeyspaceDefinition ksdef) throws HectorException {
+    try {
+      store.addKeyspace(ksdef);
+    } catch (IllegalArgumentException e) {
+      throw new HectorException(e.getMessage());
+    }
+
+    return schemaVersion();
+  }
+
+  public String addKeyspace(KeyspaceDefinition ksdef, boolean blockUntilComplete) throws HectorException {
+    return addKeyspace(ksdef);
+  }
+
+  @Override
+  public String dropKeyspace(String keyspace) throws HectorException {
+    try {
+      store.dropKeyspace(keyspace);
+    } catch (IllegalArgumentException e) {
+      throw new HectorException(e.getMessage());
+    }
+
+    return schemaVersion();
+  }
+
+  public String dropKeyspace(String keyspace, boolean waitForSchemaAgreement) throws HectorException {
+    return dropKeyspace(keyspace);
+  }
+
+  @Override
+  public String addColumnFamily(ColumnFamilyDefinition cfdef) throws HectorException {
+    try {
+      store.addColumnFamily(cfdef);
+    } catch (IllegalArgumentException e) {
+      throw new HectorException(e.getMessage());
+    }
+
+    return schemaVersion();
+  }
+
+  @Override
+  public String addColumnFamily(ColumnFamilyDefinition cfdef, boolean waitForSchemaAgreement)
+      throws HectorException {
+    return addColumnFamily(cfdef);
+  }
+
+  @Override
+  public String updateColumnFamily(ColumnFamilyDefinition cfdef) throws HectorException {
+    try {
+      store.updateColumnFamily(cfdef);
+    } catch (IllegalArgumentException e) {
+      throw new HectorException(e.getMessage());
+    }
+
+    return schemaVersion();
+  }
+
+  public String updateColumnFamily(ColumnFamilyDefinition cfdef, boolean waitForSchemaAgreement)
+      throws HectorException {
+    return updateColumnFamily(cfdef);
+  }
+
+  @Override
+  public String dropColumnFamily(String keyspaceName, String columnFamily) throws HectorException {
+    try {
+      store.dropColumnFamily(keyspaceName, columnFamily);
+    } catch (IllegalArgumentException e) {
+      throw new HectorException(e.getMessage());
+    }
+
+    return schemaVersion();
+  }
+
+  public String dropColumnFamily(String keyspaceName, String columnFamily, boolean waitForSchemaAgreement)
+      throws HectorException {
+    return dropColumnFamily(keyspaceName, columnFamily);
+  }
+
+  @Override
+  public void truncate(String keyspaceName, String columnFamily) throws HectorException {
+    try {
+      store.truncate(keyspaceName, columnFamily);
+    } catch (IllegalArgumentException e) {
+      throw new HectorException(e.getMessage());
+    }
+  }
+
+  private String schemaVersion() {
+    return store.getSchemaVersion().toString();
+  }
+}
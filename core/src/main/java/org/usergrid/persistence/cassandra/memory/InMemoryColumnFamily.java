@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import me.prettyprint.hector.api.ddl.ColumnDefinition;
+import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
+
+import org.apache.cassandra.db.marshal.BytesType;
+import org.apache.cassandra.db.marshal.TypeParser;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rows of a single column family. Columns are kept sorted with the
+ * comparator declared on the column family definition, so slices over
+ * DynamicComposite columns come back in the same order Cassandra returns them.
+ * Rows are kept in unsigned byte order of their keys.
+ * 
+ * Writes follow Cassandra's timestamp rules: a write only replaces a column or
+ * tombstone with an older or equal timestamp, and a row deletion hides every
+ * column written at or before the deletion time.
+ */
+public class InMemoryColumnFamily {
+
+  private static final Logger logger = LoggerFactory.getLogger(InMemoryColumnFamily.class);
+
+  /**
+   * Unsigned byte order, used for row keys and as the fallback comparator
+   */
+  public static final Comparator<ByteBuffer> BYTES = new Comparator<ByteBuffer>() {
+    @Override
+    public int compare(ByteBuffer o1, ByteBuffer o2) {
+      return ByteBufferUtil.compareUnsigned(o1, o2);
+    }
+  };
+
+  private final ColumnFamilyDefinition definition;
+  private final Comparator<ByteBuffer> comparator;
+  private final boolean counter;
+  private final Map<ByteBuffer, Comparator<ByteBuffer>> validators = new HashMap<ByteBuffer, Comparator<ByteBuffer>>();
+
+  private final ConcurrentSkipListMap<ByteBuffer, Row> rows = new ConcurrentSkipListMap<ByteBuffer, Row>(BYTES);
+
+  public InMemoryColumnFamily(ColumnFamilyDefinition definition) {
+    this.definition = definition;
+
+    String comparatorName = definition.getComparatorType().getClassName();
+
+    if (definition.getComparatorTypeAlias() != null) {
+      comparatorName += definition.getComparatorTypeAlias();
+    }
+
+    comparator = getType(comparatorName);
+
+    counter = definition.getDefaultValidationClass() != null
+        && definition.getDefaultValidationClass().endsWith("CounterColumnType");
+
+    if (definition.getColumnMetadata() != null) {
+      for (ColumnDefinition column : definition.getColumnMetadata()) {
+        validators.put(column.getName(), getType(column.getValidationClass()));
+      }
+    }
+  }
+
+  /**
+   * Get the cassandra type for the comparator or validator name, byte order if
+   * the name can't be parsed
+   * 
+   * @param name
+   * @return
+   */
+  private static Comparator<ByteBuffer> getType(String name) {
+    if (name == null) {
+      return BytesType.instance;
+    }
+
+    try {
+      return TypeParser.parse(name);
+    } catch (Exception e) {
+      logger.warn("Unable to parse type {}, using byte order", name, e);
+      return BytesType.instance;
+    }
+  }
+
+  public ColumnFamilyDefinition getDefinition() {
+    return definition;
+  }
+
+  /**
+   * @return True if this column family holds counters
+   */
+  public boolean isCounter() {
+    return counter;
+  }
+
+  public Comparator<ByteBuffer> getComparator() {
+    return comparator;
+  }
+
+  /**
+   * Get the comparator for the values of the column, byte order if the column
+   * has no metadata
+   * 
+   * @param name
+   * @return
+   */
+  public Comparator<ByteBuffer> getValidator(ByteBuffer name) {
+    Comparator<ByteBuffer> validator = validators.get(name);
+    return validator == null ? BytesType.instance : validator;
+  }
+
+  /**
+   * Get the row, null if it doesn't exist
+   * 
+   * @param key
+   * @return
+   */
+  public Row getRow(ByteBuffer key) {
+    return rows.get(key);
+  }
+
+  /**
+   * Get the row, creating it if it doesn't exist
+   * 
+   * @param key
+   * @return
+   */
+  public Row getOrCreateRow(ByteBuffer key) {
+    Row row = rows.get(key);
+
+    if (row != null) {
+      return row;
+    }
+
+    key = ByteBufferUtil.clone(key);
+    row = new Row();
+
+    Row existing = rows.putIfAbsent(key, row);
+
+    return existing == null ? row : existing;
+  }
+
+  /**
+   * Get the rows with keys between start and finish inclusive. Empty bounds
+   * are unbounded
+   * 
+   * @param start
+   * @param finish
+   * @return
+   */
+  public NavigableMap<ByteBuffer, Row> getRows(ByteBuffer start, ByteBuffer finish) {
+    NavigableMap<ByteBuffer, Row> range = rows;
+
+    if (start != null && start.hasRemaining()) {
+      range = range.tailMap(start, true);
+    }
+
+    if (finish != null && finish.hasRemaining()) {
+      range = range.headMap(finish, true);
+    }
+
+    return range;
+  }
+
+  /**
+   * Remove every row
+   */
+  public void truncate() {
+    rows.clear();
+  }
+
+  /**
+   * A single row of sorted columns
+   */
+  public class Row {
+
+    private final ConcurrentSkipListMap<ByteBuffer, Cell> columns = new ConcurrentSkipListMap<ByteBuffer, Cell>(
+        comparator);
+
+    /**
+     * Columns written at or before this time are deleted
+     */
+    private long deletedAt = Long.MIN_VALUE;
+
+    /**
+     * Write the column if it is newer than what we hold
+     * 
+     * @param name
+     * @param value
+     * @param timestamp
+     * @param ttl
+     *          Time to live in seconds, 0 for never
+     */
+    public synchronized void insert(ByteBuffer name, ByteBuffer value, long timestamp, int ttl) {
+      if (timestamp <= deletedAt) {
+        return;
+      }
+
+      Cell existing = columns.get(name);
+
+      // on a tie the tombstone wins
+      if (existing != null
+          && (existing.timestamp > timestamp || (existing.timestamp == timestamp && existing.deleted))) {
+        return;
+      }
+
+      long expiration = ttl > 0 ? System.currentTimeMillis() + ttl * 1000L : 0;
+
+      columns.put(ByteBufferUtil.clone(name), new Cell(ByteBufferUtil.clone(value), timestamp, expiration, false));
+    }
+
+    /**
+     * Add to the counter column
+     * 
+     * @param name
+     * @param value
+     */
+    public synchronized void add(ByteBuffer name, long value) {
+      Cell existing = columns.get(name);
+      long total = existing == null || existing.deleted ? value : existing.count + value;
+
+      columns.put(ByteBufferUtil.clone(name), new Cell(total));
+    }
+
+    /**
+     * Delete the column if the deletion is newer than the column
+     * 
+     * @param name
+     * @param timestamp
+     */
+    public synchronized void delete(ByteBuffer name, long timestamp) {
+      Cell existing = columns.get(name);
+
+      if (existing != null && existing.timestamp > timestamp) {
+        return;
+      }
+
+      columns.put(ByteBufferUtil.clone(name), new Cell(null, timestamp, 0, true));
+    }
+
+    /**
+     * Delete every column written at or before the timestamp
+     * 
+     * @param timestamp
+     */
+    public synchronized void delete(long timestamp) {
+      deletedAt = Math.max(deletedAt, timestamp);
+
+      for (Map.Entry<ByteBuffer, Cell> entry : columns.entrySet()) {
+        if (entry.getValue().timestamp <= deletedAt) {
+          columns.remove(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+
+    /**
+     * Remove the counter column
+     * 
+     * @param name
+     */
+    public synchronized void removeCounter(ByteBuffer name) {
+      columns.remove(name);
+    }
+
+    /**
+     * Get the live column, null if it doesn't exist or is deleted
+     * 
+     * @param name
+     * @return
+     */
+    public Cell get(ByteBuffer name) {
+      Cell cell = columns.get(name);
+      return cell != null && cell.isLive(System.currentTimeMillis()) ? cell : null;
+    }
+
+    /**
+     * Get the live columns with the given names in comparator order
+     * 
+     * @param names
+     * @return
+     */
+    public List<Map.Entry<ByteBuffer, Cell>> get(List<ByteBuffer> names) {
+      long now = System.currentTimeMillis();
+
+      Map<ByteBuffer, Cell> found = new TreeMap<ByteBuffer, Cell>(comparator);
+
+      for (ByteBuffer name : names) {
+        Cell cell = columns.get(name);
+
+        if (cell != null && cell.isLive(now)) {
+          found.put(name, cell);
+        }
+      }
+
+      return new ArrayList<Map.Entry<ByteBuffer, Cell>>(found.entrySet());
+    }
+
+    /**
+     * Get up to count live columns between start and finish inclusive. When
+     * reversed, start is the high end of the range and columns are returned in
+     * descending order. Empty bounds are unbounded.
+     * 
+     * @param start
+     * @param finish
+     * @param reversed
+     * @param count
+     * @return
+     */
+    public List<Map.Entry<ByteBuffer, Cell>> slice(ByteBuffer start, ByteBuffer finish, boolean reversed, int count) {
+      if (count <= 0) {
+        return Collections.emptyList();
+      }
+
+      boolean hasStart = start != null && start.hasRemaining();
+      boolean hasFinish = finish != null && finish.hasRemaining();
+
+      NavigableMap<ByteBuffer, Cell> range;
+
+      if (reversed) {
+        range = hasStart ? columns.headMap(start, true).descendingMap() : columns.descendingMap();
+      } else {
+        range = hasStart ? columns.tailMap(start, true) : columns;
+      }
+
+      long now = System.currentTimeMillis();
+      List<Map.Entry<ByteBuffer, Cell>> results = new ArrayList<Map.Entry<ByteBuffer, Cell>>(Math.min(count, 100));
+
+      for (Map.Entry<ByteBuffer, Cell> entry : range.entrySet()) {
+        if (hasFinish) {
+          int compare = comparator.compare(entry.getKey(), finish);
+
+          if (reversed ? compare < 0 : compare > 0) {
+            break;
+          }
+        }
+
+        if (!entry.getValue().isLive(now)) {
+          continue;
+        }
+
+        results.add(entry);
+
+        if (results.size() == count) {
+          break;
+        }
+      }
+
+      return results;
+    }
+
+    /**
+     * @return True if the row holds at least one live column
+     */
+    public boolean isLive() {
+      long now = System.currentTimeMillis();
+
+      for (Cell cell : columns.values()) {
+        if (cell.isLive(now)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * A column value or tombstone
+   */
+  public static class Cell {
+
+    private final ByteBuffer value;
+    private final long timestamp;
+    private final long expiration;
+    private final boolean deleted;
+    private final long count;
+
+    private Cell(ByteBuffer value, long timestamp, long expiration, boolean deleted) {
+      this.value = value;
+      this.timestamp = timestamp;
+      this.expiration = expiration;
+      this.deleted = deleted;
+      this.count = 0;
+    }
+
+    private Cell(long count) {
+      this.value = null;
+      this.timestamp = Long.MIN_VALUE;
+      this.expiration = 0;
+      this.deleted = false;
+      this.count = count;
+    }
+
+    private boolean isLive(long now) {
+      return !deleted && (expiration == 0 || expiration > now);
+    }
+
+    /**
+     * @return A copy of the value that is safe to hand to the caller
+     */
+    public ByteBuffer getValue() {
+      return value.duplicate();
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * @return The remaining time to live in seconds, 0 if the column doesn't
+     *         expire
+     */
+    public int getTtl() {
+      if (expiration == 0) {
+        return 0;
+      }
+
+      return (int) Math.max(1, (expiration - System.currentTimeMillis() + 999) / 1000);
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+}
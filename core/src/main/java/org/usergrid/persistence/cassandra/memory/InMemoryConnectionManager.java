@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.memory;
+
+import me.prettyprint.cassandra.connection.HConnectionManager;
+import me.prettyprint.cassandra.service.CassandraHost;
+import me.prettyprint.cassandra.service.CassandraHostConfigurator;
+import me.prettyprint.cassandra.service.Operation;
+import me.prettyprint.hector.api.exceptions.HectorException;
+
+/**
+ * Runs every Hector operation against an {@link InMemoryStore} instead of
+ * borrowing a connection from a host pool. Virtual keyspace operations wrap
+ * the client they are given, so key prefixing works unchanged.
+ */
+public class InMemoryConnectionManager extends HConnectionManager {
+
+  private final InMemoryStore store;
+  private final CassandraHost host;
+
+  public InMemoryConnectionManager(String clusterName, InMemoryStore store) {
+    super(clusterName, createConfigurator());
+    this.store = store;
+    this.host = new CassandraHost(InMemoryCluster.HOST);
+  }
+
+  /**
+   * A configurator that never opens a connection. Pools open a third of their
+   * max active connections up front, which is none for a max of 1, and no
+   * hosts are discovered or retried
+   * 
+   * @return
+   */
+  static CassandraHostConfigurator createConfigurator() {
+    CassandraHostConfigurator configurator = new CassandraHostConfigurator(InMemoryCluster.HOST);
+    configurator.setMaxActive(1);
+    configurator.setAutoDiscoverHosts(false);
+    configurator.setRetryDownedHosts(false);
+    configurator.setUseHostTimeoutTracker(false);
+    return configurator;
+  }
+
+  @Override
+  public void operateWithFailover(Operation<?> op) throws HectorException {
+    InMemoryCassandraClient client = new InMemoryCassandraClient(store);
+
+    try {
+      if (op.keyspaceName != null) {
+        client.set_keyspace(op.keyspaceName);
+      }
+
+      op.executeAndSetResult(client, host);
+    } catch (HectorException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HectorException(e);
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.prettyprint.cassandra.service.ThriftKsDef;
+import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
+import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
+
+/**
+ * The keyspaces and column families of an in memory cluster
+ */
+public class InMemoryStore {
+
+  private final ConcurrentHashMap<String, KeyspaceStore> keyspaces = new ConcurrentHashMap<String, KeyspaceStore>();
+
+  private volatile UUID schemaVersion = UUID.randomUUID();
+
+  /**
+   * @return The version of the schema, changes on every schema update
+   */
+  public UUID getSchemaVersion() {
+    return schemaVersion;
+  }
+
+  /**
+   * Get the column family, null if the keyspace or column family doesn't exist
+   * 
+   * @param keyspace
+   * @param columnFamily
+   * @return
+   */
+  public InMemoryColumnFamily getColumnFamily(String keyspace, String columnFamily) {
+    if (keyspace == null) {
+      return null;
+    }
+
+    KeyspaceStore ks = keyspaces.get(keyspace);
+
+    if (ks == null) {
+      return null;
+    }
+
+    return ks.columnFamilies.get(columnFamily);
+  }
+
+  public boolean hasKeyspace(String keyspace) {
+    return keyspaces.containsKey(keyspace);
+  }
+
+  /**
+   * Get the definition of the keyspace and its column families, null if it
+   * doesn't exist
+   * 
+   * @param keyspace
+   * @return
+   */
+  public KeyspaceDefinition describeKeyspace(String keyspace) {
+    KeyspaceStore ks = keyspaces.get(keyspace);
+
+    if (ks == null) {
+      return null;
+    }
+
+    List<ColumnFamilyDefinition> cfDefs = new ArrayList<ColumnFamilyDefinition>(ks.columnFamilies.size());
+
+    for (InMemoryColumnFamily cf : ks.columnFamilies.values()) {
+      cfDefs.add(cf.getDefinition());
+    }
+
+    ThriftKsDef ksDef = new ThriftKsDef(ks.definition.getName(), ks.definition.getStrategyClass(),
+        ks.definition.getReplicationFactor(), cfDefs);
+    ksDef.setStrategyOptions(ks.definition.getStrategyOptions());
+
+    return ksDef;
+  }
+
+  public List<KeyspaceDefinition> describeKeyspaces() {
+    List<KeyspaceDefinition> ksDefs = new ArrayList<KeyspaceDefinition>(keyspaces.size());
+
+    for (String keyspace : keyspaces.keySet()) {
+      KeyspaceDefinition ksDef = describeKeyspace(keyspace);
+
+      if (ksDef != null) {
+        ksDefs.add(ksDef);
+      }
+    }
+
+    return ksDefs;
+  }
+
+  /**
+   * Add the keyspace and any column families it defines
+   * 
+   * @param ksDef
+   */
+  public void addKeyspace(KeyspaceDefinition ksDef) {
+    KeyspaceStore ks = new KeyspaceStore(ksDef);
+
+    if (keyspaces.putIfAbsent(ksDef.getName(), ks) != null) {
+      throw new IllegalArgumentException(String.format("Keyspace %s already exists", ksDef.getName()));
+    }
+
+    if (ksDef.getCfDefs() != null) {
+      for (ColumnFamilyDefinition cfDef : ksDef.getCfDefs()) {
+        addColumnFamily(cfDef);
+      }
+    }
+
+    schemaVersion = UUID.randomUUID();
+  }
+
+  public void dropKeyspace(String keyspace) {
+    if (keyspaces.remove(keyspace) == null) {
+      throw new IllegalArgumentException(String.format("Keyspace %s does not exist", keyspace));
+    }
+
+    schemaVersion = UUID.randomUUID();
+  }
+
+  /**
+   * Add the column family to its keyspace
+   * 
+   * @param cfDef
+   */
+  public void addColumnFamily(ColumnFamilyDefinition cfDef) {
+    KeyspaceStore ks = getKeyspace(cfDef.getKeyspaceName());
+
+    if (ks.columnFamilies.putIfAbsent(cfDef.getName(), new InMemoryColumnFamily(cfDef)) != null) {
+      throw new IllegalArgumentException(String.format("Column family %s already exists in keyspace %s",
+          cfDef.getName(), cfDef.getKeyspaceName()));
+    }
+
+    schemaVersion = UUID.randomUUID();
+  }
+
+  /**
+   * Replace the definition of the column family. Unlike Cassandra the rows of
+   * the column family are discarded
+   * 
+   * @param cfDef
+   */
+  public void updateColumnFamily(ColumnFamilyDefinition cfDef) {
+    KeyspaceStore ks = getKeyspace(cfDef.getKeyspaceName());
+
+    if (ks.columnFamilies.replace(cfDef.getName(), new InMemoryColumnFamily(cfDef)) == null) {
+      throw new IllegalArgumentException(String.format("Column family %s does not exist in keyspace %s",
+          cfDef.getName(), cfDef.getKeyspaceName()));
+    }
+
+    schemaVersion = UUID.randomUUID();
+  }
+
+  public void dropColumnFamily(String keyspace, String columnFamily) {
+    if (getKeyspace(keyspace).columnFamilies.remove(columnFamily) == null) {
+      throw new IllegalArgumentException(String.format("Column family %s does not exist in keyspace %s",
+          columnFamily, keyspace));
+    }
+
+    schemaVersion = UUID.randomUUID();
+  }
+
+  public void truncate(String keyspace, String columnFamily) {
+    InMemoryColumnFamily cf = getColumnFamily(keyspace, columnFamily);
+
+    if (cf == null) {
+      throw new IllegalArgumentException(String.format("Column family %s does not exist in keyspace %s",
+          columnFamily, keyspace));
+    }
+
+    cf.truncate();
+  }
+
+  private KeyspaceStore getKeyspace(String keyspace) {
+    KeyspaceStore ks = keyspaces.get(keyspace);
+
+    if (ks == null) {
+      throw new IllegalArgumentException(String.format("Keyspace %s does not exist", keyspace));
+    }
+
+    return ks;
+  }
+
+  private static class KeyspaceStore {
+
+    private final KeyspaceDefinition definition;
+    private final ConcurrentHashMap<String, InMemoryColumnFamily> columnFamilies = new ConcurrentHashMap<String, InMemoryColumnFamily>();
+
+    private KeyspaceStore(KeyspaceDefinition definition) {
+      this.definition = definition;
+    }
+  }
+}
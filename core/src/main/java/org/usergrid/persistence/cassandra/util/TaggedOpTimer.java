@@ -10,6 +10,12 @@ import me.prettyprint.cassandra.connection.HOpTimer;
  */
 public class TaggedOpTimer implements HOpTimer {
 
+    /**
+     * Prefix of the names given to Hector operations so they are grouped
+     * together in a trace breakdown
+     */
+    public static final String CASSANDRA_OP_PREFIX = "cassandra:";
+
     private TraceTagManager traceTagManager;
 
     public TaggedOpTimer(TraceTagManager traceTagManager) {
@@ -26,7 +32,7 @@ public class TaggedOpTimer implements HOpTimer {
     public void stop(Object timedOpTag, String opTagName, boolean success) {
         if ( timedOpTag instanceof TimedOpTag ) {
             TimedOpTag t = ((TimedOpTag)timedOpTag);
-            t.stopAndApply(opTagName, success);
+            t.stopAndApply(CASSANDRA_OP_PREFIX + opTagName, success);
             traceTagManager.addTimer(t);
         }
     }
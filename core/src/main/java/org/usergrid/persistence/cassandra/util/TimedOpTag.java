@@ -16,7 +16,9 @@ public class TimedOpTag {
     private final UUID opTag;
     private final String traceTagName;
     private String tagName;
+    private final long startNanos = System.nanoTime();
     private long elapsed = 0;
+    private long elapsedMicros = -1;
     private boolean status;
 
     private TimedOpTag(TraceTag trace) {
@@ -43,6 +45,9 @@ public class TimedOpTag {
             // extract from uuid and calculate
             elapsed = System.currentTimeMillis() - UUIDUtils.getTimestampInMillis(opTag);
         }
+        if (elapsedMicros < 0) {
+            elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+        }
         if ( tName != null ) {
             this.tagName = tName;
             this.status = opStatus;
@@ -58,6 +63,15 @@ public class TimedOpTag {
         return elapsed;
     }
 
+    /**
+     * Elapsed time of this op in microseconds, measured with the high
+     * resolution timer so that fast Cassandra operations don't round to zero.
+     * @return
+     */
+    public long getElapsedMicros() {
+        return elapsedMicros < 0 ? 0 : elapsedMicros;
+    }
+
     /**
      * The start time of this operation as represented by the timestamp embedded in
      * the type-1 UUID of the opTag property
@@ -0,0 +1,67 @@
+package org.usergrid.persistence.cassandra.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size ring buffer of the most recent finished traces. Only the
+ * summary of each trace is kept, so the memory used is bounded by the
+ * capacity and the number of distinct operation names.
+ */
+public class TraceBuffer {
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private final AtomicReferenceArray<Map<String, Object>> traces;
+    private final AtomicLong total = new AtomicLong();
+
+    public TraceBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceBuffer(int capacity) {
+        traces = new AtomicReferenceArray<Map<String, Object>>(Math.max(1, capacity));
+    }
+
+    /**
+     * Add the trace, replacing the oldest one once the buffer is full
+     * @param traceTag
+     */
+    public void add(TraceTag traceTag) {
+        long index = total.getAndIncrement();
+        traces.set((int) (index % traces.length()), traceTag.toMap());
+    }
+
+    /**
+     * The buffered traces, newest first
+     * @return
+     */
+    public List<Map<String, Object>> getTraces() {
+        long last = total.get();
+        int size = (int) Math.min(last, traces.length());
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(size);
+        for (long i = last - 1; i >= last - size; i--) {
+            Map<String, Object> trace = traces.get((int) (i % traces.length()));
+            if (trace != null) {
+                result.add(trace);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The number of traces added since startup, including those that have
+     * since been overwritten
+     * @return
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    public int getCapacity() {
+        return traces.length();
+    }
+}
@@ -2,6 +2,8 @@ package org.usergrid.persistence.cassandra.util;
 
 import java.util.*;
 
+import org.usergrid.utils.UUIDUtils;
+
 /**
  * @author zznate
  */
@@ -12,6 +14,9 @@ public class TraceTag implements Iterable<TimedOpTag> {
     private final String traceName;
     private final List<TimedOpTag> timedOps;
     private final boolean metered;
+    private final Map<String, OpSummary> summaries;
+    private final long startNanos;
+    private long elapsedMicros = -1;
 
     private TraceTag(UUID tag, String name, boolean metered) {
         this.tag = tag;
@@ -24,6 +29,8 @@ public class TraceTag implements Iterable<TimedOpTag> {
                 .append(this.name)
                 .toString();
         timedOps = new ArrayList<TimedOpTag>();
+        summaries = new TreeMap<String, OpSummary>();
+        startNanos = System.nanoTime();
     }
 
     public static TraceTag getInstance(UUID tag, String name) {
@@ -38,8 +45,101 @@ public class TraceTag implements Iterable<TimedOpTag> {
         return traceName;
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public UUID getTag() {
+        return tag;
+    }
+
+    /**
+     * The start time of this trace in milliseconds as represented by the
+     * timestamp embedded in the type-1 UUID of the tag
+     * @return
+     */
+    public long getStart() {
+        return UUIDUtils.getTimestampInMillis(tag);
+    }
+
     public void add(TimedOpTag timedOpTag) {
         timedOps.add(timedOpTag);
+        record(timedOpTag.getTagName(), timedOpTag.getElapsedMicros(), timedOpTag.getOpSuccessful());
+    }
+
+    /**
+     * Add an operation to the per operation summary without keeping the
+     * operation itself. The summary survives {@link #removeOps()}, so it
+     * covers the whole trace even when ops have been flushed.
+     * @param opName
+     * @param elapsedMicros
+     * @param success
+     */
+    public void record(String opName, long elapsedMicros, boolean success) {
+        String key = (opName != null ? opName : "unknown");
+        OpSummary summary = summaries.get(key);
+        if (summary == null) {
+            summary = new OpSummary();
+            summaries.put(key, summary);
+        }
+        summary.add(elapsedMicros, success);
+    }
+
+    /**
+     * Per operation name count, error count and total time, sorted by name
+     * @return
+     */
+    public Map<String, OpSummary> getSummaries() {
+        return Collections.unmodifiableMap(summaries);
+    }
+
+    /**
+     * Mark the end of the trace. Only the first call has an effect.
+     */
+    public void stop() {
+        if (elapsedMicros < 0) {
+            elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+        }
+    }
+
+    /**
+     * Total time of the trace in microseconds. If the trace has not been
+     * stopped yet this is the time so far.
+     * @return
+     */
+    public long getElapsedMicros() {
+        return elapsedMicros < 0 ? (System.nanoTime() - startNanos) / 1000 : elapsedMicros;
+    }
+
+    /**
+     * A compact, single line breakdown of the trace suitable for a response
+     * header, e.g. <code>total=5300us; cassandra:READ=4/3100us; lock:wait=1/20us</code>
+     * @return
+     */
+    public String toBreakdown() {
+        StringBuilder sb = new StringBuilder("total=").append(getElapsedMicros()).append("us");
+        for (Map.Entry<String, OpSummary> entry : summaries.entrySet()) {
+            sb.append("; ").append(entry.getKey()).append("=").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The trace and its summaries as a map for JSON rendering
+     * @return
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("id", tag);
+        map.put("name", name);
+        map.put("start", getStart());
+        map.put("elapsedMicros", getElapsedMicros());
+        Map<String, Object> ops = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, OpSummary> entry : summaries.entrySet()) {
+            ops.put(entry.getKey(), entry.getValue().toMap());
+        }
+        map.put("ops", ops);
+        return map;
     }
 
     public boolean getMetered() {
@@ -70,4 +170,46 @@ public class TraceTag implements Iterable<TimedOpTag> {
     public void removeOps() {
         timedOps.clear();
     }
+
+    /**
+     * Aggregate of all the operations with the same name in a trace
+     */
+    public static class OpSummary {
+        private int count;
+        private int errors;
+        private long elapsedMicros;
+
+        void add(long elapsed, boolean success) {
+            count++;
+            elapsedMicros += elapsed;
+            if (!success) {
+                errors++;
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        public long getElapsedMicros() {
+            return elapsedMicros;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("count", count);
+            map.put("errors", errors);
+            map.put("elapsedMicros", elapsedMicros);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return count + "/" + elapsedMicros + "us" + (errors > 0 ? "/" + errors + "err" : "");
+        }
+    }
 }
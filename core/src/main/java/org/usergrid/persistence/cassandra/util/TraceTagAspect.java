@@ -1,6 +1,7 @@
 package org.usergrid.persistence.cassandra.util;
 
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,7 +19,7 @@ public class TraceTagAspect {
     private TraceTagManager traceTagManager;
 
     public Object applyTrace(ProceedingJoinPoint pjp) throws Throwable {
-        String tagName = pjp.toLongString();
+        String tagName = getTagName(pjp);
         logger.debug("Applyng trace on {}", tagName);
         TimedOpTag timedOpTag = traceTagManager.timerInstance();
         boolean success = true;
@@ -34,4 +35,20 @@ public class TraceTagAspect {
         }
 
     }
+
+    /**
+     * Name the operation after the {@link TraceParticipant#name()} if one was
+     * given, otherwise after the method, so that all calls of the same method
+     * are grouped in the trace breakdown.
+     */
+    private String getTagName(ProceedingJoinPoint pjp) {
+        if (pjp.getSignature() instanceof MethodSignature) {
+            TraceParticipant participant = ((MethodSignature) pjp.getSignature()).getMethod()
+                    .getAnnotation(TraceParticipant.class);
+            if (participant != null && participant.name().length() > 0) {
+                return participant.name();
+            }
+        }
+        return "entity:" + pjp.getSignature().getName();
+    }
 }
@@ -7,6 +7,8 @@ import org.usergrid.utils.UUIDUtils;
 
 import javax.annotation.Resource;
 
+import java.util.Random;
+
 /**
  * Keeps the TraceTag as a ThreadLocal
  * @author zznate
@@ -14,6 +16,21 @@ import javax.annotation.Resource;
 public class TraceTagManager {
     private Logger logger = LoggerFactory.getLogger(TraceTagManager.class);
 
+    /**
+     * Operation name for time spent waiting to acquire a lock
+     */
+    public static final String LOCK_WAIT_OP = "lock:wait";
+
+    /**
+     * Operation name for loading a page of index entries
+     */
+    public static final String INDEX_SCAN_OP = "index:scan";
+
+    /**
+     * Operation name for loading entities and their properties
+     */
+    public static final String ENTITY_LOAD_OP = "entity:load";
+
     private static ThreadLocal<TraceTag> localTraceTag = new ThreadLocal<TraceTag>();
 
     private boolean traceEnabled;
@@ -24,6 +41,10 @@ public class TraceTagManager {
 
     private int flushAtOpCount = 100;
 
+    private double sampleRate = 1.0;
+
+    private final Random random = new Random();
+
     @Resource
     private TraceTagReporter traceTagReporter;
 
@@ -81,6 +102,58 @@ public class TraceTagManager {
         this.explicitOnly = explicitOnly;
     }
 
+    /**
+     * The fraction of requests to trace when {@link #getTraceEnabled()} is
+     * true and the caller did not explicitly ask for a trace. The default of
+     * 1.0 traces everything.
+     * @return
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Returns true if tracing is enabled and this request falls within the
+     * sample rate
+     * @return
+     */
+    public boolean shouldSample() {
+        return traceEnabled && (sampleRate >= 1.0 || random.nextDouble() < sampleRate);
+    }
+
+    /**
+     * Start timing an operation on the current thread's trace. Returns null
+     * without allocating anything if there is no trace in progress, so
+     * callers on hot paths pay only for a ThreadLocal lookup.
+     * @return
+     */
+    public static TimedOpTag startOp() {
+        TraceTag traceTag = localTraceTag.get();
+        return traceTag != null ? TimedOpTag.instance(traceTag) : null;
+    }
+
+    /**
+     * Stop an operation started with {@link #startOp()} and add it to the
+     * summary of the current trace. Does nothing if timedOpTag is null.
+     * @param timedOpTag
+     * @param opName
+     * @param success
+     */
+    public static void stopOp(TimedOpTag timedOpTag, String opName, boolean success) {
+        if (timedOpTag == null) {
+            return;
+        }
+        timedOpTag.stopAndApply(opName, success);
+        TraceTag traceTag = localTraceTag.get();
+        if (traceTag != null) {
+            traceTag.record(opName, timedOpTag.getElapsedMicros(), success);
+        }
+    }
+
     /**
      * Get the tag from a ThreadLocal. Will return null if no tag is attached.
      * @return
@@ -16,18 +16,24 @@
 package org.usergrid.persistence.query.ir.result;
 
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.Query;
 import org.usergrid.persistence.Results;
 
 /**
+ * Loads the entities for the ids returned by a query. If the query has load
+ * properties, only those properties are loaded.
+ * 
  * @author tnine
  *
  */
 public class EntityResultsLoader implements ResultsLoader {
 
   private EntityManager em;
+  private Set<String> propertyNames;
   
   /**
    * 
@@ -36,11 +42,23 @@ public class EntityResultsLoader implements ResultsLoader {
     this.em = em;
   }
 
+  public EntityResultsLoader(EntityManager em, Query query) {
+    this.em = em;
+
+    if (query != null) {
+      propertyNames = query.getLoadProperties();
+    }
+  }
+
   /* (non-Javadoc)
    * @see org.usergrid.persistence.query.ir.result.ResultsLoader#getResults(java.util.List)
    */
   @Override
   public Results getResults(List<UUID> entityIds) throws Exception {
+    if (propertyNames != null) {
+      return em.getPartialEntities(entityIds, propertyNames);
+    }
+
     return em.get(entityIds);
   }
 
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.schema;
+
+import java.util.Map;
+
+/**
+ * Immutable, precompiled view of an {@link EntityInfo}. Every property of the
+ * type gets an ordinal, the facts the write and read paths ask about are packed
+ * into one flag word per ordinal and names are resolved case insensitively
+ * through an open addressed table that is sized to be collision free whenever
+ * possible, so a lookup is one hash and one compare without allocating.
+ */
+public class EntityDescriptor {
+
+	public static final int INDEXED = 1;
+	public static final int FULLTEXT_INDEXED = 1 << 1;
+	public static final int UNIQUE = 1 << 2;
+	public static final int MUTABLE = 1 << 3;
+	public static final int REQUIRED = 1 << 4;
+	public static final int BASIC = 1 << 5;
+	public static final int TIMESTAMP = 1 << 6;
+	public static final int ENCRYPTED = 1 << 7;
+	public static final int ALIAS = 1 << 8;
+
+	/**
+	 * Largest table tried while looking for a size without collisions, as a
+	 * multiple of the smallest one
+	 */
+	private static final int MAX_TABLE_GROWTH = 8;
+
+	private final EntityInfo info;
+	private final String type;
+	private final String collectionName;
+	private final String aliasProperty;
+
+	private final String[] names;
+	private final PropertyInfo[] properties;
+	private final int[] flags;
+
+	/** slot to ordinal + 1, 0 is an empty slot */
+	private final int[] table;
+	private final int mask;
+
+	private EntityDescriptor(EntityInfo info, String collectionName) {
+		this.info = info;
+		type = info.getType();
+		this.collectionName = collectionName;
+		aliasProperty = info.getAliasProperty();
+
+		Map<String, PropertyInfo> props = info.getProperties();
+		int size = props.size();
+		names = new String[size];
+		properties = new PropertyInfo[size];
+		flags = new int[size];
+
+		int ordinal = 0;
+		for (Map.Entry<String, PropertyInfo> entry : props.entrySet()) {
+			names[ordinal] = entry.getKey();
+			properties[ordinal] = entry.getValue();
+			flags[ordinal] = flagsOf(info, entry.getKey(), entry.getValue());
+			ordinal++;
+		}
+
+		int[] hashes = new int[size];
+		for (int i = 0; i < size; i++) {
+			hashes[i] = hashIgnoreCase(names[i]);
+		}
+
+		int min = tableSize(size);
+		int length = min;
+		while ((length < (min * MAX_TABLE_GROWTH))
+				&& !isCollisionFree(hashes, length - 1)) {
+			length <<= 1;
+		}
+		if (!isCollisionFree(hashes, length - 1)) {
+			length = min;
+		}
+
+		table = new int[length];
+		mask = length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = spread(hashes[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+
+	/**
+	 * @param info
+	 *            The entity info to compile, must not be modified afterwards
+	 * @param collectionName
+	 *            The default collection name of the type
+	 */
+	public static EntityDescriptor compile(EntityInfo info,
+			String collectionName) {
+		return new EntityDescriptor(info, collectionName);
+	}
+
+	private static int flagsOf(EntityInfo info, String name,
+			PropertyInfo property) {
+		int f = 0;
+		if (info.isPropertyIndexed(name)) {
+			f |= INDEXED;
+		}
+		if (info.isPropertyFulltextIndexed(name)) {
+			f |= FULLTEXT_INDEXED;
+		}
+		if (info.isPropertyRequired(name)) {
+			f |= REQUIRED;
+		}
+		if (info.isPropertyBasic(name)) {
+			f |= BASIC;
+		}
+		if (property.isUnique()) {
+			f |= UNIQUE;
+		}
+		if (property.isMutable()) {
+			f |= MUTABLE;
+		}
+		if (property.isTimestamp()) {
+			f |= TIMESTAMP;
+		}
+		if (property.isEncrypted()) {
+			f |= ENCRYPTED;
+		}
+		if (property.isAliasProperty()) {
+			f |= ALIAS;
+		}
+		return f;
+	}
+
+	private static int tableSize(int size) {
+		int length = 2;
+		while (length < (size * 2)) {
+			length <<= 1;
+		}
+		return length;
+	}
+
+	private static boolean isCollisionFree(int[] hashes, int mask) {
+		boolean[] used = new boolean[mask + 1];
+		for (int hash : hashes) {
+			int slot = spread(hash) & mask;
+			if (used[slot]) {
+				return false;
+			}
+			used[slot] = true;
+		}
+		return true;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Same as lower casing the name and taking its hash code, without the
+	 * copy. Names that only differ by case hash the same.
+	 */
+	private static int hashIgnoreCase(String name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			h = (31 * h)
+					+ Character.toLowerCase(Character.toUpperCase(name
+							.charAt(i)));
+		}
+		return h;
+	}
+
+	/**
+	 * @return The ordinal of the property or -1 if the type doesn't define it
+	 */
+	public int ordinal(String propertyName) {
+		if (propertyName == null) {
+			return -1;
+		}
+		int slot = spread(hashIgnoreCase(propertyName)) & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (names[entry - 1].equalsIgnoreCase(propertyName)) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The flags of the property, 0 if the type doesn't define it
+	 */
+	public int getFlags(String propertyName) {
+		int ordinal = ordinal(propertyName);
+		return ordinal < 0 ? 0 : flags[ordinal];
+	}
+
+	public int getFlags(int ordinal) {
+		return flags[ordinal];
+	}
+
+	public String getName(int ordinal) {
+		return names[ordinal];
+	}
+
+	public PropertyInfo getProperty(int ordinal) {
+		return properties[ordinal];
+	}
+
+	public PropertyInfo getProperty(String propertyName) {
+		int ordinal = ordinal(propertyName);
+		return ordinal < 0 ? null : properties[ordinal];
+	}
+
+	public int getPropertyCount() {
+		return names.length;
+	}
+
+	public boolean hasProperty(String propertyName) {
+		return ordinal(propertyName) >= 0;
+	}
+
+	/**
+	 * @return True if the property has all of the given flags
+	 */
+	public boolean is(String propertyName, int flag) {
+		return (getFlags(propertyName) & flag) == flag;
+	}
+
+	/**
+	 * Properties the type doesn't define are indexed
+	 */
+	public boolean isPropertyIndexed(String propertyName) {
+		int ordinal = ordinal(propertyName);
+		return ordinal < 0 || ((flags[ordinal] & INDEXED) != 0);
+	}
+
+	/**
+	 * Properties the type doesn't define are fulltext indexed
+	 */
+	public boolean isPropertyFulltextIndexed(String propertyName) {
+		int ordinal = ordinal(propertyName);
+		return ordinal < 0 || ((flags[ordinal] & FULLTEXT_INDEXED) != 0);
+	}
+
+	public boolean isPropertyUnique(String propertyName) {
+		return is(propertyName, UNIQUE);
+	}
+
+	public boolean isPropertyMutable(String propertyName) {
+		return is(propertyName, MUTABLE);
+	}
+
+	public boolean isPropertyRequired(String propertyName) {
+		return is(propertyName, REQUIRED);
+	}
+
+	public boolean isPropertyTimestamp(String propertyName) {
+		return is(propertyName, TIMESTAMP);
+	}
+
+	public boolean isPropertyEncrypted(String propertyName) {
+		return is(propertyName, ENCRYPTED);
+	}
+
+	public EntityInfo getEntityInfo() {
+		return info;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getCollectionName() {
+		return collectionName;
+	}
+
+	public String getAliasProperty() {
+		return aliasProperty;
+	}
+
+	@Override
+	public String toString() {
+		return "EntityDescriptor [type=" + type + ", properties="
+				+ names.length + ", slots=" + table.length + "]";
+	}
+
+}
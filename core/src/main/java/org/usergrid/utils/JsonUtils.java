@@ -199,6 +199,17 @@ public class JsonUtils {
 		return map;
 	}
 
+	/**
+	 * The value as {@link #toJsonMap(Object)} returns it for a property, with
+	 * uuids, dates and beans nested in maps and lists converted the same way
+	 */
+	public static Object toJsonValue(Object obj) {
+		if (obj == null) {
+			return null;
+		}
+		return mapper.convertValue(obj, Object.class);
+	}
+
 	private static UUID tryConvertToUUID(Object o) {
 		if (o instanceof String) {
 			String s = (String) o;
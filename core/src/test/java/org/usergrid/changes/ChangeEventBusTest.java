@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.changes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.usergrid.utils.UUIDUtils.newTimeUUID;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ChangeEventBusTest {
+
+	UUID applicationId = newTimeUUID();
+
+	@Test
+	public void coalesceBurst() {
+		UUID first = newTimeUUID();
+		UUID second = newTimeUUID();
+
+		List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+		events.add(event(ChangeEvent.Type.CREATED, first));
+		events.add(event(ChangeEvent.Type.UPDATED, second));
+		events.add(event(ChangeEvent.Type.UPDATED, first));
+		events.add(event(ChangeEvent.Type.UPDATED, second));
+		events.add(event(ChangeEvent.Type.DELETED, second));
+
+		List<ChangeEvent> coalesced = ChangeEventBus.coalesce(events);
+
+		assertEquals(2, coalesced.size());
+		assertEquals(first, coalesced.get(0).getUuid());
+		assertEquals(ChangeEvent.Type.CREATED, coalesced.get(0).getType());
+		assertEquals(second, coalesced.get(1).getUuid());
+		assertEquals(ChangeEvent.Type.DELETED, coalesced.get(1).getType());
+	}
+
+	@Test
+	public void dispatchToListener() throws Exception {
+		ChangeEventBus bus = new ChangeEventBus();
+		bus.setCoalesceMillis(100);
+
+		final List<ChangeEvent> received = new ArrayList<ChangeEvent>();
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		// nothing is queued until someone listens
+		bus.publish(event(ChangeEvent.Type.CREATED, newTimeUUID()));
+
+		bus.addListener(new ChangeListener() {
+			@Override
+			public void onChanges(List<ChangeEvent> events) {
+				received.addAll(events);
+				latch.countDown();
+			}
+		});
+
+		UUID uuid = newTimeUUID();
+		for (int i = 0; i < 10; i++) {
+			bus.publish(event(ChangeEvent.Type.UPDATED, uuid));
+		}
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, received.size());
+		assertEquals(uuid, received.get(0).getUuid());
+
+		bus.destroy();
+	}
+
+	@Test
+	public void dropWhenFull() {
+		ChangeEventBus bus = new ChangeEventBus();
+		bus.setQueueSize(5);
+		bus.setCoalesceMillis(10000);
+
+		bus.addListener(new ChangeListener() {
+			@Override
+			public void onChanges(List<ChangeEvent> events) {
+			}
+		});
+
+		for (int i = 0; i < 20; i++) {
+			bus.publish(event(ChangeEvent.Type.CREATED, newTimeUUID()));
+		}
+
+		assertTrue(bus.getDroppedCount() >= 14);
+
+		bus.destroy();
+	}
+
+	private ChangeEvent event(ChangeEvent.Type type, UUID uuid) {
+		return new ChangeEvent(applicationId, type, "users", "user", uuid);
+	}
+
+}
@@ -18,6 +18,7 @@ package org.usergrid.locking.cassandra;
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -152,6 +153,41 @@ public class HectorLockManagerTest extends AbstractPersistenceTest {
     assertTrue(locked);
   }
 
+  /**
+   * Locks two paths with one lease and checks that both are held until it is
+   * released
+   */
+  @Test
+  public void testMultiLock() throws InterruptedException, ExecutionException, UGLockException {
+
+    final UUID application = UUID.randomUUID();
+    final UUID entity = UUID.randomUUID();
+    final UUID entity2 = UUID.randomUUID();
+
+    Lock lock = manager.createMultiLock(application, Arrays.asList(entity.toString(), entity2.toString()));
+    lock.lock();
+
+    assertFalse(lockInDifferentThread(application, entity));
+    assertFalse(lockInDifferentThread(application, entity2));
+
+    lock.unlock();
+
+    assertTrue(lockInDifferentThread(application, entity));
+    assertTrue(lockInDifferentThread(application, entity2));
+
+    // a path that is already held blocks the whole lease
+    Lock single = manager.createLock(application, entity2.toString());
+    single.lock();
+
+    assertFalse(lock.tryLock(0, TimeUnit.MILLISECONDS));
+    assertTrue(lockInDifferentThread(application, entity));
+
+    single.unlock();
+
+    assertTrue(lock.tryLock(0, TimeUnit.MILLISECONDS));
+    lock.unlock();
+  }
+
   /**
    * Acquires a lock in a different thread.
    * 
@@ -131,6 +131,40 @@ public class LockTestSingleNode {
 		assertTrue(locked);
 	}
 
+    /**
+     * Lock entries only exist while a lock is held, so unused paths don't
+     * accumulate
+     */
+    @Test
+	public void testLockEviction() throws InterruptedException, ExecutionException, UGLockException {
+
+		final UUID application = UUID.randomUUID();
+		final UUID entity = UUID.randomUUID();
+
+		SingleNodeLockManagerImpl singleNode = (SingleNodeLockManagerImpl) manager;
+
+		Lock lock = manager.createLock(application, entity.toString());
+		assertEquals(0, singleNode.getActiveLockCount());
+
+		lock.lock();
+		lock.lock();
+		assertEquals(1, singleNode.getActiveLockCount());
+
+		// a failed attempt from another thread doesn't leave anything behind
+		assertFalse(lockInDifferentThread(application, entity));
+		assertEquals(1, singleNode.getActiveLockCount());
+
+		lock.unlock();
+		assertEquals(1, singleNode.getActiveLockCount());
+
+		lock.unlock();
+		assertEquals(0, singleNode.getActiveLockCount());
+
+		// the lock can be used again after its entry was removed
+		assertTrue(lockInDifferentThread(application, entity));
+		assertEquals(0, singleNode.getActiveLockCount());
+	}
+
     /**
      * Acquires a lock in a different thread.
      * @param application
@@ -16,9 +16,13 @@
 package org.usergrid.mq;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -28,7 +32,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.AbstractPersistenceTest;
 import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.exceptions.TransactionNotFoundException;
 import org.usergrid.utils.JsonUtils;
+import org.usergrid.utils.UUIDUtils;
 
 public class MessagesTest extends AbstractPersistenceTest {
 
@@ -230,4 +236,56 @@ public class MessagesTest extends AbstractPersistenceTest {
 		}
 	}
 
+	@Test
+	public void testRenewTransactions() throws Exception {
+
+		UUID applicationId = createApplication("testOrganization",
+				"testRenewTransactions");
+		assertNotNull(applicationId);
+
+		QueueManager qm = geQueueManagerFactory()
+				.getQueueManager(applicationId);
+
+		for (int i = 0; i < 3; i++) {
+			Message message = new Message();
+			message.setStringProperty("foo", "bar" + i);
+			qm.postToQueue("/foo/renew", message);
+		}
+
+		QueueQuery query = new QueueQuery().withTimeout(30000);
+		query.setLimit(3);
+
+		QueueResults messages = qm.getFromQueue("/foo/renew", query);
+		assertEquals(3, messages.size());
+
+		List<UUID> transactions = new ArrayList<UUID>();
+
+		for (Message message : messages.getMessages()) {
+			transactions.add(message.getTransaction());
+		}
+
+		// a transaction that's gone can't be renewed
+		qm.deleteTransaction("/foo/renew", transactions.get(0), null);
+		transactions.add(UUIDUtils.newTimeUUID());
+
+		Map<UUID, UUID> renewed = qm.renewTransactions("/foo/renew",
+				transactions, new QueueQuery().withTimeout(30000));
+
+		assertEquals(2, renewed.size());
+		assertNotNull(renewed.get(transactions.get(1)));
+		assertNotNull(renewed.get(transactions.get(2)));
+		assertFalse(renewed.get(transactions.get(1)).equals(
+				renewed.get(transactions.get(2))));
+
+		// the old transactions are replaced by the new ones
+		try {
+			qm.renewTransaction("/foo/renew", transactions.get(1), null);
+			fail("Renewed transaction should have been removed");
+		} catch (TransactionNotFoundException e) {
+		}
+
+		assertNotNull(qm.renewTransaction("/foo/renew",
+				renewed.get(transactions.get(1)), null));
+	}
+
 }
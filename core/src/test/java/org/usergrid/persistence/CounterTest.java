@@ -17,10 +17,13 @@ package org.usergrid.persistence;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 import static org.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -32,6 +35,7 @@ import org.usergrid.cassandra.CassandraRunner;
 import org.usergrid.persistence.entities.Event;
 import org.usergrid.persistence.entities.Group;
 import org.usergrid.persistence.entities.User;
+import org.usergrid.persistence.exceptions.DuplicateUniquePropertyExistsException;
 import org.usergrid.utils.JsonUtils;
 
 import com.usergrid.count.AbstractBatcher;
@@ -89,6 +93,54 @@ public class CounterTest extends AbstractPersistenceTest {
 		assertEquals(new Long(0), counters.get("application.collection.users"));
 	}
 
+	@Test
+	public void testCreateEntitiesCountsOnlyWrittenBatches() throws Exception {
+
+		logger.info("CounterTest.testCreateEntitiesCountsOnlyWrittenBatches");
+
+		UUID applicationId = createApplication("testOrganization", "testCountersBatch");
+		assertNotNull(applicationId);
+
+		EntityManager em = emf.getEntityManager(applicationId);
+		assertNotNull(em);
+
+		Map<String, Object> userProperties = new HashMap<String, Object>();
+		userProperties.put("username", "batch-existing");
+		em.create("user", userProperties);
+
+		Map<String, Long> counters = em.getEntityCounters(applicationId);
+		assertEquals(new Long(1), counters.get("application.collection.users"));
+
+		// the second user fails validation after the first is in the batch
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+		for (String username : new String[] { "batch-new", "batch-existing" }) {
+			Map<String, Object> properties = new HashMap<String, Object>();
+			properties.put("username", username);
+			batch.add(properties);
+		}
+
+		try {
+			em.createEntities("user", batch);
+			fail("Existing username in the batch should be rejected");
+		} catch (DuplicateUniquePropertyExistsException e) {
+			// expected
+		}
+
+		counters = em.getEntityCounters(applicationId);
+		assertEquals(new Long(1), counters.get("application.collection.users"));
+
+		batch = new ArrayList<Map<String, Object>>();
+		for (String username : new String[] { "batch-new", "batch-other" }) {
+			Map<String, Object> properties = new HashMap<String, Object>();
+			properties.put("username", username);
+			batch.add(properties);
+		}
+		em.createEntities("user", batch);
+
+		counters = em.getEntityCounters(applicationId);
+		assertEquals(new Long(3), counters.get("application.collection.users"));
+	}
+
 	@Test
 	public void testCounters() throws Exception {
 		logger.info("CounterTest.testCounters");
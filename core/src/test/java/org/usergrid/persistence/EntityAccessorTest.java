@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.persistence.entities.User;
+import org.usergrid.utils.UUIDUtils;
+
+public class EntityAccessorTest {
+
+  private final Schema schema = Schema.getDefaultSchema();
+
+  @Test
+  public void getAndSet() {
+    EntityAccessor accessor = schema.getEntityAccessor(User.class);
+    UUID id = UUIDUtils.newTimeUUID();
+
+    User user = new User();
+    assertTrue(accessor.setProperty(user, "uuid", id));
+    assertTrue(accessor.setProperty(user, "username", "edanuff"));
+    assertTrue(accessor.setProperty(user, "activated", true));
+
+    assertEquals(id, user.getUuid());
+    assertEquals("edanuff", user.getUsername());
+    assertEquals("edanuff", accessor.getProperty(user, "username"));
+    assertEquals(Boolean.TRUE, accessor.getProperty(user, "activated"));
+
+    Map<String, Object> properties = new LinkedHashMap<String, Object>();
+    accessor.getProperties(user, properties);
+    assertEquals(id, properties.get("uuid"));
+    assertEquals("edanuff", properties.get("username"));
+    assertFalse(properties.containsKey("email"));
+  }
+
+  @Test
+  public void converts() {
+    EntityAccessor accessor = schema.getEntityAccessor(User.class);
+    UUID id = UUIDUtils.newTimeUUID();
+
+    User user = new User();
+    assertTrue(accessor.setProperty(user, "uuid", id.toString()));
+    assertTrue(accessor.setProperty(user, "created", 42));
+    assertTrue(accessor.setProperty(user, "activated", "true"));
+    assertTrue(accessor.setProperty(user, "username", 42L));
+
+    assertEquals(id, user.getUuid());
+    assertEquals(Long.valueOf(42), user.getCreated());
+    assertEquals(Boolean.TRUE, user.getActivated());
+    assertEquals("42", user.getUsername());
+  }
+
+  @Test
+  public void dynamicProperties() {
+    EntityAccessor accessor = schema.getEntityAccessor(User.class);
+
+    User user = new User();
+    assertFalse(accessor.hasProperty("favoritecolor"));
+    assertFalse(accessor.setProperty(user, "favoritecolor", "blue"));
+    assertNull(accessor.getProperty(user, "favoritecolor"));
+
+    schema.setEntityProperty(user, "favoritecolor", "blue");
+    assertEquals("blue", schema.getEntityProperty(user, "favoritecolor"));
+    assertEquals("blue", schema.getEntityProperties(user).get("favoritecolor"));
+  }
+
+  @Test
+  public void conversionTable() {
+    assertEquals(Long.valueOf(7), EntityAccessor.convert(7, Long.class));
+    assertEquals(Integer.valueOf(7), EntityAccessor.convert(7L, Integer.class));
+    assertEquals(Double.valueOf(7), EntityAccessor.convert(7, Double.class));
+    assertEquals("7", EntityAccessor.convert(7, String.class));
+    assertEquals(Boolean.FALSE, EntityAccessor.convert("FALSE", Boolean.class));
+    assertNull(EntityAccessor.convert("maybe", Boolean.class));
+    assertNull(EntityAccessor.convert(new Object(), Long.class));
+  }
+
+  /**
+   * Numbers that don't fit the type are left to the mapper instead of being
+   * wrapped
+   */
+  @Test
+  public void conversionRanges() {
+    assertEquals(Integer.valueOf(Integer.MIN_VALUE), EntityAccessor.convert((long) Integer.MIN_VALUE, Integer.class));
+    assertNull(EntityAccessor.convert(1L << 40, Integer.class));
+    assertNull(EntityAccessor.convert(1L << 31, Integer.class));
+    assertNull(EntityAccessor.convert(40000, Short.class));
+    assertNull(EntityAccessor.convert(-129, Byte.class));
+    assertEquals(Byte.valueOf((byte) -128), EntityAccessor.convert(-128L, Byte.class));
+    assertNull(EntityAccessor.convert(1e19, Long.class));
+    assertNull(EntityAccessor.convert(Double.NaN, Integer.class));
+    assertNull(EntityAccessor.convert(BigInteger.ONE.shiftLeft(64), Long.class));
+    assertEquals(Long.valueOf(Long.MAX_VALUE), EntityAccessor.convert(BigInteger.valueOf(Long.MAX_VALUE), Long.class));
+  }
+
+}
@@ -19,6 +19,7 @@ import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -359,4 +360,87 @@ public class EntityConnectionsTest extends AbstractPersistenceTest {
 
   }
 
+  @Test
+  public void testTraversal() throws Exception {
+    UUID applicationId = createApplication("entityConnectionsTest", "testTraversal");
+    assertNotNull(applicationId);
+
+    EntityManager em = emf.getEntityManager(applicationId);
+    assertNotNull(em);
+
+    Entity me = createUser(em, "me");
+    Entity friend = createUser(em, "friend");
+    Entity other = createUser(em, "other");
+
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("name", "4peaks");
+    Entity fourpeaks = em.create("restaurant", data);
+
+    em.createConnection(me, "following", friend);
+    em.createConnection(me, "following", other);
+    em.createConnection(me, "following", fourpeaks);
+    em.createConnection(friend, "following", other);
+
+    Entity first = createActivity(em, friend, "first");
+    Entity second = createActivity(em, friend, "second");
+    Entity third = createActivity(em, other, "third");
+
+    // one hop, only users
+    Map<UUID, Results> reached = em.traverse(Arrays.asList(me.getUuid()),
+        new Traversal().connected("following", "user"), Level.REFS);
+
+    assertEquals(1, reached.size());
+    List<UUID> ids = reached.get(me.getUuid()).getIds();
+    assertEquals(2, ids.size());
+    assertTrue(ids.contains(friend.getUuid()));
+    assertTrue(ids.contains(other.getUuid()));
+
+    // backwards, other is followed by both
+    reached = em.traverse(Arrays.asList(other.getUuid()), new Traversal().connecting("following"), Level.IDS);
+    assertEquals(2, reached.get(other.getUuid()).size());
+
+    // the activities of everyone I follow, newest first
+    reached = em.traverse(Arrays.asList(me.getUuid()),
+        new Traversal().connected("following", "user").collection("activities", 10, true), Level.ALL_PROPERTIES);
+
+    assertEquals(2, reached.size());
+
+    List<Entity> activities = reached.get(friend.getUuid()).getEntities();
+    assertEquals(2, activities.size());
+    assertEquals(second.getUuid(), activities.get(0).getUuid());
+    assertEquals("second", activities.get(0).getProperty("content"));
+    assertEquals(first.getUuid(), activities.get(1).getUuid());
+
+    activities = reached.get(other.getUuid()).getEntities();
+    assertEquals(1, activities.size());
+    assertEquals(third.getUuid(), activities.get(0).getUuid());
+
+    // limited per owner
+    reached = em.traverse(Arrays.asList(friend.getUuid(), other.getUuid()),
+        new Traversal().collection("activities", 1, true), Level.IDS);
+    assertEquals(second.getUuid(), reached.get(friend.getUuid()).getId());
+    assertEquals(third.getUuid(), reached.get(other.getUuid()).getId());
+
+    // nothing to follow
+    reached = em.traverse(Arrays.asList(fourpeaks.getUuid()),
+        new Traversal().connected("following").collection("activities", 10, true), Level.ALL_PROPERTIES);
+    assertTrue(reached.isEmpty());
+  }
+
+  private Entity createUser(EntityManager em, String username) throws Exception {
+    User user = new User();
+    user.setUsername(username);
+    user.setEmail(username + "@usergrid.com");
+    return em.create(user);
+  }
+
+  private Entity createActivity(EntityManager em, Entity user, String content) throws Exception {
+    Map<String, Object> properties = new LinkedHashMap<String, Object>();
+    properties.put("verb", "post");
+    properties.put("content", content);
+    Entity activity = em.create("activity", properties);
+    em.addToCollection(user, "activities", activity);
+    return activity;
+  }
+
 }
@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.Results.Level;
 import org.usergrid.persistence.entities.Group;
 import org.usergrid.persistence.entities.User;
+import org.usergrid.persistence.exceptions.DuplicateUniquePropertyExistsException;
 import org.usergrid.utils.UUIDUtils;
 
 public class EntityManagerTest extends AbstractPersistenceTest {
@@ -581,5 +582,78 @@ public class EntityManagerTest extends AbstractPersistenceTest {
         
         
 
+    }
+
+    @Test
+    public void testCreateEntitiesAndPartialGet() throws Exception {
+        UUID applicationId = createApplication("testOrganization",
+                "testCreateEntitiesAndPartialGet");
+        assertNotNull(applicationId);
+
+        EntityManager em = emf.getEntityManager(applicationId);
+        assertNotNull(em);
+
+        List<Map<String, Object>> entitiesProperties = new ArrayList<Map<String, Object>>();
+
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            properties.put("name", "batchthing" + i);
+            properties.put("index", i);
+            properties.put("color", "blue");
+            entitiesProperties.add(properties);
+        }
+
+        List<Entity> created = em.createEntities("batchthing",
+                entitiesProperties);
+        assertEquals(10, created.size());
+
+        List<UUID> ids = new ArrayList<UUID>();
+        for (Entity entity : created) {
+            ids.add(entity.getUuid());
+        }
+
+        Results results = em.getPartialEntities(ids,
+                Collections.singleton("index"));
+
+        int i = 0;
+        for (Entity thing : results) {
+            assertEquals("wrong type", "batchthing", thing.getType());
+            assertEquals(ids.get(i), thing.getUuid());
+            assertEquals(i, ((Number) thing.getProperty("index")).intValue());
+            assertNull("unselected property should not be loaded",
+                    thing.getProperty("color"));
+            i++;
+        }
+
+        assertEquals(10, i);
+    }
+
+    @Test
+    public void testCreateEntitiesDuplicateInBatch() throws Exception {
+        UUID applicationId = createApplication("testOrganization",
+                "testCreateEntitiesDuplicateInBatch");
+        assertNotNull(applicationId);
+
+        EntityManager em = emf.getEntityManager(applicationId);
+        assertNotNull(em);
+
+        List<Map<String, Object>> entitiesProperties = new ArrayList<Map<String, Object>>();
+
+        for (String username : new String[] { "batchuser", "otheruser",
+                "BatchUser" }) {
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            properties.put("username", username);
+            entitiesProperties.add(properties);
+        }
+
+        try {
+            em.createEntities("user", entitiesProperties);
+            fail("Duplicate username in the batch should be rejected");
+        } catch (DuplicateUniquePropertyExistsException e) {
+            assertEquals("username", e.getPropertyName());
+        }
+
+        assertNull("nothing in the batch should be written",
+                em.getAlias("user", "otheruser"));
     }
 }
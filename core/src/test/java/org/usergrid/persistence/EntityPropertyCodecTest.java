@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.usergrid.utils.JsonUtils.toJsonNode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.junit.Test;
+import org.usergrid.utils.JsonUtils;
+import org.usergrid.utils.MapUtils;
+import org.usergrid.utils.UUIDUtils;
+
+public class EntityPropertyCodecTest {
+
+  private static final Object[] VALUES = { "", "edanuff", "San Francisco \u00e9\u4e2d", 0, 1, -1, 125, Integer.MAX_VALUE,
+      Long.MIN_VALUE, Long.MAX_VALUE, (short) 7, (byte) -3, 0.0d, -1.5d, Double.MAX_VALUE, true, false,
+      UUIDUtils.newTimeUUID(), UUID.randomUUID().toString(), "not-a-uuid-but-exactly-36-characters",
+      Arrays.asList(1, "b", 3.5d), MapUtils.map("a", "b"), 1.5f };
+
+  /**
+   * Every value must decode to exactly what the Smile round trip produced
+   */
+  @Test
+  public void matchesSmile() {
+    for (Object value : VALUES) {
+      Object smile = JsonUtils.normalizeJsonTree(JsonUtils.fromByteBuffer(JsonUtils.toByteBuffer(toJsonNode(value))));
+      Object typed = EntityPropertyCodec.decode(EntityPropertyCodec.encode(value));
+
+      assertEquals("Value " + value, smile, typed);
+    }
+  }
+
+  @Test
+  public void readsSmile() {
+    for (Object value : VALUES) {
+      ByteBuffer smile = JsonUtils.toByteBuffer(toJsonNode(value));
+
+      assertFalse(EntityPropertyCodec.isTyped(smile));
+      assertEquals(JsonUtils.normalizeJsonTree(JsonUtils.fromByteBuffer(smile.duplicate())),
+          EntityPropertyCodec.decode(smile));
+    }
+  }
+
+  @Test
+  public void scalarsAreTyped() {
+    assertTrue(EntityPropertyCodec.isTyped(EntityPropertyCodec.encode("edanuff")));
+    assertTrue(EntityPropertyCodec.isTyped(EntityPropertyCodec.encode(125L)));
+    assertTrue(EntityPropertyCodec.isTyped(EntityPropertyCodec.encode(UUIDUtils.newTimeUUID())));
+    assertFalse(EntityPropertyCodec.isTyped(EntityPropertyCodec.encode(MapUtils.map("a", "b"))));
+
+    // version, type and one byte of value
+    assertEquals(3, EntityPropertyCodec.encode(-1).remaining());
+    assertEquals(18, EntityPropertyCodec.encode(UUIDUtils.newTimeUUID()).remaining());
+  }
+
+  /**
+   * Decrypted values must end where the plain value ended, not at the end of
+   * the last cipher block
+   */
+  @Test
+  public void decodesEncrypted() {
+    for (Object value : VALUES) {
+      ByteBuffer encrypted = Schema.encrypt(EntityPropertyCodec.encode(value));
+      ByteBuffer decrypted = Schema.decrypt(encrypted);
+
+      assertEquals("Value " + value, EntityPropertyCodec.decode(EntityPropertyCodec.encode(value)),
+          EntityPropertyCodec.decode(decrypted));
+      assertEquals(EntityPropertyCodec.encode(value).remaining(), decrypted.remaining());
+
+      // the encrypted column can be read again
+      assertEquals(decrypted, Schema.decrypt(encrypted));
+    }
+  }
+
+  /**
+   * Values inside a larger buffer, as they are when read from a thrift
+   * response
+   */
+  @Test
+  public void decodesSlices() {
+    ByteBuffer encoded = EntityPropertyCodec.encode("edanuff");
+    ByteBuffer wrapper = ByteBuffer.allocate(encoded.remaining() + 8);
+    wrapper.position(4);
+    wrapper.put(encoded);
+    wrapper.position(4);
+    wrapper.limit(wrapper.capacity() - 4);
+
+    assertEquals("edanuff", EntityPropertyCodec.decode(wrapper.slice()));
+    assertEquals("edanuff", EntityPropertyCodec.decode(wrapper));
+  }
+
+  /**
+   * JSON written from heap, direct, sliced and decrypted buffers must be the
+   * same
+   */
+  @Test
+  public void writesJsonFromAnyBuffer() throws IOException {
+    for (Object value : VALUES) {
+      ByteBuffer encoded = EntityPropertyCodec.encode(value);
+      String json = json(encoded);
+
+      ByteBuffer direct = ByteBuffer.allocateDirect(encoded.remaining());
+      direct.put(encoded.duplicate()).flip();
+      assertEquals("Value " + value, json, json(direct));
+
+      ByteBuffer wrapper = ByteBuffer.allocate(encoded.remaining() + 8);
+      wrapper.position(4);
+      wrapper.put(encoded.duplicate());
+      wrapper.position(4);
+      wrapper.limit(wrapper.capacity() - 4);
+      assertEquals("Value " + value, json, json(wrapper.slice()));
+
+      assertEquals("Value " + value, json, json(Schema.decrypt(Schema.encrypt(encoded))));
+    }
+  }
+
+  private static String json(ByteBuffer bytes) throws IOException {
+    StringWriter out = new StringWriter();
+    JsonGenerator jgen = new JsonFactory().createJsonGenerator(out);
+    EntityPropertyCodec.writeJson(bytes, jgen);
+    jgen.close();
+    return out.toString();
+  }
+
+}
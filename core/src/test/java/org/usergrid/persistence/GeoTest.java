@@ -17,6 +17,7 @@ package org.usergrid.persistence;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -29,8 +30,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.cassandra.GeoIndexManager;
 import org.usergrid.persistence.cassandra.GeoIndexManager.EntityLocationRef;
+import org.usergrid.persistence.cassandra.SimpleIndexBucketLocatorImpl;
 import org.usergrid.utils.MapUtils;
 
+import com.beoui.geocell.GeocellManager;
 import com.beoui.geocell.SearchResults;
 import com.beoui.geocell.model.Point;
 
@@ -309,6 +312,57 @@ public class GeoTest extends AbstractPersistenceTest {
     assertEquals(numEntities, count);
   }
 
+  @Test
+  public void testGeoBuckets() throws Exception {
+    UUID applicationId = UUID.randomUUID();
+    IndexBucketLocator locator = new SimpleIndexBucketLocatorImpl();
+
+    List<String> cells = GeocellManager.generateGeoCell(new Point(37.776753, -122.407846));
+
+    // fine cells are a single row, coarse ones spread over more buckets
+    assertEquals(1, GeoIndexManager.getGeoBuckets(locator, applicationId, cells.get(8)).size());
+    assertEquals(1, GeoIndexManager.getGeoBuckets(locator, applicationId, cells.get(6)).size());
+    assertEquals(4, GeoIndexManager.getGeoBuckets(locator, applicationId, cells.get(5)).size());
+    assertEquals(64, GeoIndexManager.getGeoBuckets(locator, applicationId, cells.get(3)).size());
+    assertEquals(100, GeoIndexManager.getGeoBuckets(locator, applicationId, cells.get(0)).size());
+
+    // an entity always lands in one of the buckets that are read
+    for (int i = 0; i < 100; i++) {
+      UUID entityId = UUID.randomUUID();
+      for (String cell : cells) {
+        String bucket = GeoIndexManager.getGeoBucket(locator, applicationId, entityId, cell);
+        assertTrue(GeoIndexManager.getGeoBuckets(locator, applicationId, cell).contains(bucket));
+      }
+    }
+  }
+
+  @Test
+  public void testLegacyGeoBuckets() throws Exception {
+    UUID applicationId = UUID.randomUUID();
+    UUID entityId = UUID.randomUUID();
+    IndexBucketLocator locator = new SimpleIndexBucketLocatorImpl();
+
+    String cell = GeocellManager.generateGeoCell(new Point(37.776753, -122.407846)).get(8);
+    String bucket = GeoIndexManager.getGeoBucket(locator, applicationId, entityId, cell);
+
+    boolean legacy = GeoIndexManager.isLegacyBuckets();
+    try {
+      // legacy entries can be in any bucket
+      GeoIndexManager.setLegacyBuckets(true);
+      assertEquals(100, GeoIndexManager.getReadBuckets(locator, applicationId, cell).size());
+      assertEquals(100, GeoIndexManager.getDeleteBuckets(locator, applicationId, entityId, cell).size());
+      assertTrue(GeoIndexManager.getReadBuckets(locator, applicationId, cell).contains(bucket));
+      assertTrue(GeoIndexManager.getDeleteBuckets(locator, applicationId, entityId, cell).contains(bucket));
+
+      GeoIndexManager.setLegacyBuckets(false);
+      assertEquals(1, GeoIndexManager.getReadBuckets(locator, applicationId, cell).size());
+      assertEquals(1, GeoIndexManager.getDeleteBuckets(locator, applicationId, entityId, cell).size());
+      assertEquals(bucket, GeoIndexManager.getDeleteBuckets(locator, applicationId, entityId, cell).get(0));
+    } finally {
+      GeoIndexManager.setLegacyBuckets(legacy);
+    }
+  }
+
   public Map<String, Object> getLocation(double latitude, double longitude) throws Exception {
     Map<String, Object> latlong = new LinkedHashMap<String, Object>();
     latlong.put("latitude", latitude);
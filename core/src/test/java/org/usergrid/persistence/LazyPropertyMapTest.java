@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.usergrid.persistence.Schema.serializeEntityProperty;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.persistence.entities.User;
+import org.usergrid.utils.MapUtils;
+import org.usergrid.utils.UUIDUtils;
+
+public class LazyPropertyMapTest {
+
+  private Map<String, ByteBuffer> columns(String type, UUID id, Object... nameValues) {
+    Map<String, ByteBuffer> columns = new LinkedHashMap<String, ByteBuffer>();
+    columns.put(Schema.PROPERTY_TYPE, serializeEntityProperty(type, Schema.PROPERTY_TYPE, type));
+    columns.put(Schema.PROPERTY_UUID, serializeEntityProperty(type, Schema.PROPERTY_UUID, id));
+
+    for (int i = 0; i < nameValues.length; i += 2) {
+      String name = (String) nameValues[i];
+      columns.put(name, serializeEntityProperty(type, name, nameValues[i + 1]));
+    }
+
+    return columns;
+  }
+
+  @Test
+  public void decodesOnRead() {
+    UUID id = UUIDUtils.newTimeUUID();
+    LazyPropertyMap properties = new LazyPropertyMap("thing", columns("thing", id, "color", "blue", "size", 5,
+        "location", MapUtils.map("city", "San Francisco")));
+
+    assertEquals(5, properties.size());
+    assertTrue(properties.isEncoded("color"));
+    assertTrue(properties.containsKey("COLOR"));
+    assertTrue(properties.isEncoded("color"));
+
+    assertEquals("blue", properties.get("Color"));
+    assertFalse(properties.isEncoded("color"));
+    assertTrue(properties.isEncoded("size"));
+
+    assertEquals(id, properties.get(Schema.PROPERTY_UUID));
+    assertEquals(5L, properties.remove("size"));
+    assertNull(properties.get("size"));
+
+    assertEquals(MapUtils.map("city", "San Francisco"), new LinkedHashMap<String, Object>(properties).get("location"));
+    assertFalse(properties.isEncoded("location"));
+  }
+
+  @Test
+  public void entityKeepsUnreadProperties() {
+    UUID id = UUIDUtils.newTimeUUID();
+    Map<String, Object> properties = Schema.deserializeEntityProperties(columns("user", id, "username", "edanuff",
+        "favorite", "blue"));
+
+    User user = new User();
+    user.setUuid(id);
+    user.setProperties(properties);
+
+    // bean properties are set on the entity, the rest are still encoded
+    assertEquals("edanuff", user.getUsername());
+    assertTrue(user.getDynamicProperties() instanceof LazyPropertyMap);
+    assertFalse(user.getDynamicProperties().containsKey("username"));
+    assertTrue(((LazyPropertyMap) user.getDynamicProperties()).isEncoded("favorite"));
+
+    assertEquals("blue", user.getProperty("favorite"));
+    assertEquals("blue", user.getProperties().get("favorite"));
+  }
+
+}
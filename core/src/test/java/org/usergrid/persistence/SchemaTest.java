@@ -20,12 +20,16 @@ import static org.usergrid.utils.JsonUtils.mapToFormattedJsonString;
 import io.baas.Simple;
 
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.entities.SampleEntity;
+import org.usergrid.persistence.schema.EntityDescriptor;
+import org.usergrid.persistence.schema.EntityInfo;
+import org.usergrid.persistence.schema.PropertyInfo;
 
 public class SchemaTest {
 
@@ -89,4 +93,50 @@ public class SchemaTest {
 				.getEntityJsonSchema("test")));
 	}
 
+	@Test
+	public void testEntityDescriptors() throws Exception {
+		Schema schema = Schema.getDefaultSchema();
+
+		for (String entityType : new String[] { "user", "Users", "application",
+				"activity", "thing" }) {
+			EntityDescriptor descriptor = schema.getEntityDescriptor(entityType);
+			EntityInfo info = descriptor.getEntityInfo();
+
+			Assert.assertSame(descriptor, schema.getEntityDescriptor(entityType));
+			Assert.assertEquals(Schema.defaultCollectionName(entityType),
+					descriptor.getCollectionName());
+			Assert.assertEquals(info.getAliasProperty(),
+					descriptor.getAliasProperty());
+			Assert.assertEquals(info.getProperties().size(),
+					descriptor.getPropertyCount());
+
+			for (Map.Entry<String, PropertyInfo> entry : info.getProperties()
+					.entrySet()) {
+				for (String name : new String[] { entry.getKey(),
+						entry.getKey().toUpperCase() }) {
+					PropertyInfo property = entry.getValue();
+					Assert.assertSame(property, descriptor.getProperty(name));
+					Assert.assertEquals(info.isPropertyIndexed(name),
+							descriptor.isPropertyIndexed(name));
+					Assert.assertEquals(info.isPropertyFulltextIndexed(name),
+							descriptor.isPropertyFulltextIndexed(name));
+					Assert.assertEquals(info.isPropertyRequired(name),
+							descriptor.isPropertyRequired(name));
+					Assert.assertEquals(property.isUnique(),
+							descriptor.isPropertyUnique(name));
+					Assert.assertEquals(property.isMutable(),
+							descriptor.isPropertyMutable(name));
+					Assert.assertEquals(property.isEncrypted(),
+							descriptor.isPropertyEncrypted(name));
+				}
+			}
+
+			Assert.assertFalse(descriptor.hasProperty("notaproperty"));
+			Assert.assertTrue(descriptor.isPropertyIndexed("notaproperty"));
+			Assert.assertFalse(descriptor.isPropertyUnique("notaproperty"));
+			Assert.assertFalse(descriptor.isPropertyMutable("notaproperty"));
+			Assert.assertEquals(-1, descriptor.ordinal(null));
+		}
+	}
+
 }
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.usergrid.utils.ConversionUtils.bytebuffer;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.usergrid.persistence.EntityRef;
+import org.usergrid.persistence.Schema;
+import org.usergrid.persistence.SimpleEntityRef;
+import org.usergrid.utils.UUIDUtils;
+
+public class EntityCacheTest {
+
+  private final UUID applicationId = UUIDUtils.newTimeUUID();
+
+  private EntityCache cache;
+
+  @Before
+  public void setup() {
+    cache = new EntityCache();
+    cache.setEnabled(true);
+    cache.setTypes("role, group:0, application:5000");
+    cache.init();
+  }
+
+  private Map<String, ByteBuffer> columns(String type, UUID id) {
+    Map<String, ByteBuffer> columns = new LinkedHashMap<String, ByteBuffer>();
+    columns.put(Schema.PROPERTY_TYPE, bytebuffer(type));
+    columns.put(Schema.PROPERTY_UUID, bytebuffer(id));
+    columns.put("name", bytebuffer("admin"));
+    return columns;
+  }
+
+  @Test
+  public void cachesConfiguredTypes() {
+    UUID role = UUIDUtils.newTimeUUID();
+    UUID group = UUIDUtils.newTimeUUID();
+    UUID user = UUIDUtils.newTimeUUID();
+    long now = System.currentTimeMillis();
+
+    cache.put(applicationId, role, columns("role", role), now);
+    cache.put(applicationId, group, columns("group", group), now);
+    cache.put(applicationId, user, columns("user", user), now);
+
+    assertNotNull(cache.get(applicationId, role));
+    assertNull(cache.get(applicationId, group));
+    assertNull(cache.get(applicationId, user));
+    assertNull(cache.get(UUIDUtils.newTimeUUID(), role));
+
+    assertEquals(EntityCache.DEFAULT_TTL, cache.getTtl("role"));
+    assertEquals(5000, cache.getTtl("application"));
+    assertEquals(0, cache.getTtl("group"));
+  }
+
+  @Test
+  public void returnsCopies() {
+    UUID role = UUIDUtils.newTimeUUID();
+    cache.put(applicationId, role, columns("role", role), System.currentTimeMillis());
+
+    Map<String, ByteBuffer> first = cache.get(applicationId, role);
+    first.get("name").get();
+    first.remove("name");
+
+    Map<String, ByteBuffer> second = cache.get(applicationId, role);
+    assertTrue(second.containsKey("name"));
+    assertEquals(5, second.get("name").remaining());
+  }
+
+  @Test
+  public void copiesValuesOutOfFrame() {
+    UUID role = UUIDUtils.newTimeUUID();
+    Map<String, ByteBuffer> columns = columns("role", role);
+
+    // a value that is a slice of a larger read buffer
+    ByteBuffer frame = ByteBuffer.allocate(1024);
+    frame.position(100);
+    frame.put(bytebuffer("admin"));
+    frame.position(100);
+    frame.limit(105);
+    columns.put("name", frame.slice());
+
+    cache.put(applicationId, role, columns, System.currentTimeMillis());
+
+    ByteBuffer name = cache.get(applicationId, role).get("name");
+    assertEquals(5, name.remaining());
+    assertEquals(5, name.capacity());
+    assertEquals(bytebuffer("admin"), name);
+  }
+
+  @Test
+  public void invalidates() {
+    UUID role = UUIDUtils.newTimeUUID();
+    cache.put(applicationId, role, columns("role", role), System.currentTimeMillis());
+    cache.invalidate(applicationId, role);
+    assertNull(cache.get(applicationId, role));
+  }
+
+  @Test
+  public void skipsReadsRacingWrites() {
+    UUID role = UUIDUtils.newTimeUUID();
+    long readStarted = System.currentTimeMillis();
+
+    cache.invalidate(applicationId, role);
+    cache.put(applicationId, role, columns("role", role), readStarted);
+    assertNull(cache.get(applicationId, role));
+
+    // a read that starts well after the write settled is cached again
+    cache.put(applicationId, role, columns("role", role), readStarted + EntityCache.DEFAULT_SETTLE_MILLIS + 1000);
+    assertNotNull(cache.get(applicationId, role));
+  }
+
+  @Test
+  public void disabled() {
+    EntityCache disabled = new EntityCache();
+    disabled.init();
+    assertFalse(disabled.isEnabled());
+
+    UUID role = UUIDUtils.newTimeUUID();
+    disabled.put(applicationId, role, columns("role", role), System.currentTimeMillis());
+    assertNull(disabled.get(applicationId, role));
+    disabled.invalidate(applicationId, role);
+  }
+
+  @Test
+  public void cachesAliases() {
+    UUID user = UUIDUtils.newTimeUUID();
+    UUID bob = CassandraPersistenceUtils.aliasID(applicationId, "user", "bob");
+    UUID alice = CassandraPersistenceUtils.aliasID(applicationId, "user", "alice");
+    long now = System.currentTimeMillis();
+
+    assertNull(cache.getAlias(applicationId, bob));
+
+    cache.putAlias(applicationId, bob, new SimpleEntityRef("user", user), now);
+    cache.putAlias(applicationId, alice, null, now);
+
+    EntityRef ref = cache.getAlias(applicationId, bob);
+    assertEquals(user, ref.getUuid());
+    assertEquals("user", ref.getType());
+    assertSame(EntityCache.MISSING_ALIAS, cache.getAlias(applicationId, alice));
+
+    cache.invalidate(applicationId, alice);
+    assertNull(cache.getAlias(applicationId, alice));
+    assertNotNull(cache.getAlias(applicationId, bob));
+  }
+
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.keyID;
+import static org.usergrid.utils.ConversionUtils.ascii;
+import static org.usergrid.utils.ConversionUtils.uuidToBytesNullOk;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+import org.usergrid.persistence.ConnectedEntityRef;
+import org.usergrid.persistence.SimpleEntityRef;
+import org.usergrid.utils.UUIDUtils;
+
+/**
+ * Checks the encoder against the string building and hashing it replaced, row
+ * keys and ids must not change
+ */
+public class KeyEncoderTest {
+
+  private static final UUID ID = UUIDUtils.newTimeUUID();
+
+  private static final Object[][] KEYS = { { ID }, { "Users" }, { ID, "users", "Username", "EdAnuff" },
+      { ID, null, 42L, 7 }, { ID, Arrays.asList("Connections", UUID.randomUUID()), "Owns" },
+      { ID, new Object[] { "A", new Object[] { "B", null } }, "c" }, { "" }, { "", "" },
+      { ID, "\u00DCn\u00EFc\u00F6d\u00E9 Stra\u00DFe", "\u039F\u0394\u039F\u03A3" }, { ID, "\u0130stanbul", "\u00DF" }, { ID, Arrays.asList(ID) },
+      { "a:b", true, 1.5d } };
+
+  @Test
+  public void sameKeys() {
+    for (Object[] objects : KEYS) {
+      assertEquals(Arrays.deepToString(objects), legacyKey(objects), key(objects));
+    }
+  }
+
+  @Test
+  public void sameKeyIds() {
+    for (Object[] objects : KEYS) {
+      assertEquals(Arrays.deepToString(objects), legacyKeyID(objects), keyID(objects));
+    }
+  }
+
+  @Test
+  public void sameConnectionIds() {
+    UUID connecting = UUIDUtils.newTimeUUID();
+    UUID connected = UUIDUtils.newTimeUUID();
+    UUID paired = UUIDUtils.newTimeUUID();
+
+    ConnectedEntityRef[][] pairs = { {}, { new ConnectedEntityRefImpl("Likes", null, paired) },
+        { new ConnectedEntityRefImpl(null, null, null), new ConnectedEntityRefImpl("\u00D6WNS", null, paired) } };
+
+    for (ConnectedEntityRef[] refs : pairs) {
+      for (String type : new String[] { "owns", "Owns", null, "\u00DCn\u00EFc\u00F6d\u00E9" }) {
+        ConnectedEntityRef target = new ConnectedEntityRefImpl(type, null, connected);
+        SimpleEntityRef source = new SimpleEntityRef("user", connecting);
+
+        assertEquals(legacyId(source.getUuid(), target, refs),
+            ConnectionRefImpl.getId(source, target, refs));
+      }
+    }
+  }
+
+  /**
+   * Refs whose ids are built from keys of their own mustn't overwrite the
+   * connection id being built
+   */
+  @Test
+  public void nestedConnectionIds() {
+    final UUID connecting = UUIDUtils.newTimeUUID();
+    UUID connected = UUIDUtils.newTimeUUID();
+    final UUID paired = UUIDUtils.newTimeUUID();
+
+    SimpleEntityRef source = new SimpleEntityRef("user", connecting) {
+      @Override
+      public UUID getUuid() {
+        keyID(connecting, "source", StringUtils.repeat("X", 200));
+        return connecting;
+      }
+    };
+    ConnectedEntityRef[] refs = { new ConnectedEntityRefImpl("Likes", null, paired) {
+      @Override
+      public UUID getUuid() {
+        keyID(paired, "paired");
+        return paired;
+      }
+    } };
+    ConnectedEntityRef target = new ConnectedEntityRefImpl("owns", null, connected);
+
+    assertEquals(legacyId(connecting, target, refs), ConnectionRefImpl.getId(source, target, refs));
+  }
+
+  /**
+   * Many keys in a row on one thread reuse the same buffers
+   */
+  @Test
+  public void reused() {
+    String big = StringUtils.repeat("X", 1000);
+    assertEquals(legacyKey(ID, big), key(ID, big));
+    assertEquals(legacyKey(ID, "small"), key(ID, "small"));
+    assertEquals(legacyKeyID(ID, big), keyID(ID, big));
+    assertEquals(legacyKeyID(ID, "small"), keyID(ID, "small"));
+  }
+
+  private static Object legacyKey(Object... objects) {
+    if (objects.length == 1) {
+      Object obj = objects[0];
+      if ((obj instanceof UUID) || (obj instanceof ByteBuffer)) {
+        return obj;
+      }
+    }
+    StringBuilder s = new StringBuilder();
+    for (Object obj : objects) {
+      if (obj instanceof String) {
+        s.append(((String) obj).toLowerCase());
+      } else if (obj instanceof List<?>) {
+        s.append(legacyKey(((List<?>) obj).toArray()));
+      } else if (obj instanceof Object[]) {
+        s.append(legacyKey((Object[]) obj));
+      } else if (obj != null) {
+        s.append(obj);
+      } else {
+        s.append("*");
+      }
+      s.append(':');
+    }
+    s.deleteCharAt(s.length() - 1);
+    return s.toString();
+  }
+
+  private static UUID legacyKeyID(Object... objects) {
+    if (objects.length == 1) {
+      Object obj = objects[0];
+      if (obj instanceof UUID) {
+        return (UUID) obj;
+      }
+    }
+    String keyStr = legacyKey(objects).toString();
+    if (keyStr.length() == 0) {
+      return CassandraPersistenceUtils.NULL_ID;
+    }
+    return UUID.nameUUIDFromBytes(keyStr.getBytes());
+  }
+
+  private static UUID legacyId(UUID connecting, ConnectedEntityRef connected, ConnectedEntityRef... paired) {
+    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    try {
+      byteStream.write(uuidToBytesNullOk(connecting));
+      for (ConnectedEntityRef connection : paired) {
+        byteStream.write(ascii(StringUtils.lowerCase(connection.getConnectionType())));
+        byteStream.write(uuidToBytesNullOk(connection.getUuid()));
+      }
+      String connectionType = connected.getConnectionType();
+      if (connectionType == null) {
+        connectionType = ConnectionRefImpl.NULL_ENTITY_TYPE;
+      }
+      byteStream.write(ascii(StringUtils.lowerCase(connectionType)));
+      byteStream.write(uuidToBytesNullOk(connected.getUuid()));
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return UUID.nameUUIDFromBytes(byteStream.toByteArray());
+  }
+
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MultigetExecutorTest {
+
+  private final MultigetExecutor executor = new MultigetExecutor(4, 4, 5000, 0, 0);
+
+  @After
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void splitsEvenly() {
+    List<String> keys = keys(10);
+    List<List<String>> split = executor.split(null, keys, StringSerializer.get());
+
+    assertEquals(3, split.size());
+    Set<String> all = new HashSet<String>();
+    for (List<String> chunk : split) {
+      assertTrue(chunk.size() <= 4);
+      all.addAll(chunk);
+    }
+    assertEquals(new HashSet<String>(keys), all);
+  }
+
+  @Test
+  public void mergesInKeyOrder() throws Exception {
+    List<String> keys = keys(50);
+    keys.add(keys.get(0));
+
+    final AtomicInteger reads = new AtomicInteger();
+    Rows<String, String, String> rows = executor.read(null, keys, StringSerializer.get(),
+        new MultigetExecutor.RowsReader<String, String, String>() {
+          @Override
+          public Rows<String, String, String> read(List<String> chunk) throws Exception {
+            assertTrue(chunk.size() <= 4);
+            reads.incrementAndGet();
+            return rows(chunk);
+          }
+        });
+
+    assertEquals(13, reads.get());
+    assertEquals(50, rows.getCount());
+    int i = 0;
+    for (Row<String, String, String> row : rows) {
+      assertEquals(keys.get(i++), row.getKey());
+    }
+  }
+
+  @Test
+  public void retriesFailedChunk() throws Exception {
+    final AtomicInteger failures = new AtomicInteger();
+    Rows<String, String, String> rows = executor.read(null, keys(20), StringSerializer.get(),
+        new MultigetExecutor.RowsReader<String, String, String>() {
+          @Override
+          public Rows<String, String, String> read(List<String> chunk) throws Exception {
+            if (failures.getAndIncrement() == 0) {
+              throw new IllegalStateException("first chunk fails once");
+            }
+            return rows(chunk);
+          }
+        });
+
+    assertEquals(20, rows.getCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failsAfterRetry() throws Exception {
+    executor.read(null, keys(20), StringSerializer.get(), new MultigetExecutor.RowsReader<String, String, String>() {
+      @Override
+      public Rows<String, String, String> read(List<String> chunk) throws Exception {
+        throw new IllegalStateException("always fails");
+      }
+    });
+  }
+
+  @Test
+  public void hedgesSlowChunk() throws Exception {
+    MultigetExecutor hedging = new MultigetExecutor(4, 4, 5000, 10, 100);
+    final CountDownLatch stuck = new CountDownLatch(1);
+    final AtomicInteger reads = new AtomicInteger();
+    try {
+      long start = System.currentTimeMillis();
+      Rows<String, String, String> rows = hedging.read(null, keys(20), StringSerializer.get(),
+          new MultigetExecutor.RowsReader<String, String, String>() {
+            @Override
+            public Rows<String, String, String> read(List<String> chunk) throws Exception {
+              if (reads.getAndIncrement() == 0) {
+                stuck.await(10, TimeUnit.SECONDS);
+              }
+              return rows(chunk);
+            }
+          });
+
+      // before any latency is known the hedge delay is a tenth of the timeout
+      assertTrue(System.currentTimeMillis() - start < 2500);
+      assertEquals(20, rows.getCount());
+      assertEquals(6, reads.get());
+    } finally {
+      stuck.countDown();
+      hedging.shutdown();
+    }
+  }
+
+  @Test
+  public void capsHedges() throws Exception {
+    MultigetExecutor capped = new MultigetExecutor(4, 4, 500, 10, 0);
+    final CountDownLatch stuck = new CountDownLatch(1);
+    final AtomicInteger reads = new AtomicInteger();
+    try {
+      capped.read(null, keys(20), StringSerializer.get(), new MultigetExecutor.RowsReader<String, String, String>() {
+        @Override
+        public Rows<String, String, String> read(List<String> chunk) throws Exception {
+          if (reads.getAndIncrement() == 0) {
+            stuck.await(10, TimeUnit.SECONDS);
+          }
+          return rows(chunk);
+        }
+      });
+      fail("slow chunk without hedges should time out");
+    } catch (TimeoutException e) {
+      assertEquals(5, reads.get());
+    } finally {
+      stuck.countDown();
+      capped.shutdown();
+    }
+  }
+
+  @Test
+  public void timesOutWhilePoolIsBusy() throws Exception {
+    // one thread, the other chunks wait in the queue rather than on the caller
+    MultigetExecutor busy = new MultigetExecutor(4, 1, 200, 0, 0);
+    final CountDownLatch stuck = new CountDownLatch(1);
+    long start = System.currentTimeMillis();
+    try {
+      busy.read(null, keys(20), StringSerializer.get(), new MultigetExecutor.RowsReader<String, String, String>() {
+        @Override
+        public Rows<String, String, String> read(List<String> chunk) throws Exception {
+          stuck.await(10, TimeUnit.SECONDS);
+          return rows(chunk);
+        }
+      });
+      fail("blocked chunks should time out");
+    } catch (TimeoutException e) {
+      assertTrue(System.currentTimeMillis() - start < 2000);
+    } finally {
+      stuck.countDown();
+      busy.shutdown();
+    }
+  }
+
+  private static List<String> keys(int count) {
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      keys.add("key" + i);
+    }
+    return keys;
+  }
+
+  private static Rows<String, String, String> rows(List<String> keys) {
+    final Map<String, Row<String, String, String>> rows = new LinkedHashMap<String, Row<String, String, String>>();
+    for (final String key : keys) {
+      rows.put(key, new Row<String, String, String>() {
+        @Override
+        public String getKey() {
+          return key;
+        }
+
+        @Override
+        public ColumnSlice<String, String> getColumnSlice() {
+          return null;
+        }
+      });
+    }
+    return new Rows<String, String, String>() {
+      @Override
+      public Row<String, String, String> getByKey(String key) {
+        return rows.get(key);
+      }
+
+      @Override
+      public int getCount() {
+        return rows.size();
+      }
+
+      @Override
+      public Iterator<Row<String, String, String>> iterator() {
+        return rows.values().iterator();
+      }
+    };
+  }
+
+}
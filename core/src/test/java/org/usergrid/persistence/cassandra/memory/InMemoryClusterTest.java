@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.memory;
+
+import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createCounterColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createCounterSliceQuery;
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.getCfDefs;
+import static org.usergrid.persistence.cassandra.CassandraService.be;
+import static org.usergrid.persistence.cassandra.CassandraService.se;
+import static org.usergrid.persistence.cassandra.CassandraService.ue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.HCounterColumn;
+import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
+import me.prettyprint.hector.api.ddl.ComparatorType;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.usergrid.persistence.cassandra.ApplicationCF;
+
+public class InMemoryClusterTest {
+
+  private static final String KEYSPACE = "InMemoryTest";
+  private static final String SIMPLE_CF = "Simple";
+
+  private InMemoryCluster cluster;
+  private Keyspace ko;
+
+  @Before
+  public void setup() {
+    cluster = new InMemoryCluster();
+
+    List<ColumnFamilyDefinition> cfDefs = getCfDefs(ApplicationCF.class, KEYSPACE);
+    cfDefs.add(HFactory.createColumnFamilyDefinition(KEYSPACE, SIMPLE_CF, ComparatorType.BYTESTYPE));
+
+    cluster.addKeyspace(HFactory.createKeyspaceDefinition(KEYSPACE, "org.apache.cassandra.locator.SimpleStrategy", 1,
+        cfDefs));
+
+    ko = HFactory.createKeyspace(KEYSPACE, cluster);
+  }
+
+  @Test
+  public void schema() {
+    assertNotNull(cluster.describeKeyspace(KEYSPACE));
+    assertNull(cluster.describeKeyspace("missing"));
+    assertEquals(1, cluster.describeSchemaVersions().size());
+    assertEquals(ApplicationCF.values().length + 1, cluster.describeKeyspace(KEYSPACE).getCfDefs().size());
+  }
+
+  @Test
+  public void writeSliceDelete() {
+    Mutator<String> m = createMutator(ko, se);
+    m.addInsertion("row", SIMPLE_CF, createColumn("b", "2", se, se));
+    m.addInsertion("row", SIMPLE_CF, createColumn("c", "3", se, se));
+    m.addInsertion("row", SIMPLE_CF, createColumn("a", "1", se, se));
+    m.execute();
+
+    assertEquals("abc", names(slice("row", false)));
+    assertEquals("cba", names(slice("row", true)));
+
+    m = createMutator(ko, se);
+    m.addDeletion("row", SIMPLE_CF, "b", se);
+    m.execute();
+
+    assertEquals("ac", names(slice("row", false)));
+
+    // a write older than the row deletion is ignored
+    long timestamp = ko.createClock();
+
+    m = createMutator(ko, se);
+    m.addDeletion("row", SIMPLE_CF, null, se, timestamp);
+    m.execute();
+
+    m = createMutator(ko, se);
+    m.addInsertion("row", SIMPLE_CF, createColumn("d", "4", timestamp - 1, se, se));
+    m.execute();
+
+    assertEquals("", names(slice("row", false)));
+
+    m = createMutator(ko, se);
+    m.addInsertion("row", SIMPLE_CF, createColumn("d", "4", timestamp + 1, se, se));
+    m.execute();
+
+    assertEquals("d", names(slice("row", false)));
+  }
+
+  @Test
+  public void dynamicCompositeOrder() {
+    String cf = ApplicationCF.ENTITY_INDEX.toString();
+
+    Mutator<String> m = createMutator(ko, se);
+
+    for (long value : new long[] { 10, -5, 2 }) {
+      m.addInsertion("row", cf, createColumn(DynamicComposite.toByteBuffer(value), ByteBuffer.allocate(0), be, be));
+    }
+
+    m.execute();
+
+    List<Object> values = new ArrayList<Object>();
+
+    for (HColumn<ByteBuffer, ByteBuffer> col : createSliceQuery(ko, se, be, be).setColumnFamily(cf).setKey("row")
+        .setRange(null, null, false, 10).execute().get().getColumns()) {
+      values.add(DynamicComposite.fromByteBuffer(col.getName()).get(0));
+    }
+
+    // signed long order, not byte order
+    assertEquals(-5L, values.get(0));
+    assertEquals(2L, values.get(1));
+    assertEquals(10L, values.get(2));
+  }
+
+  @Test
+  public void virtualKeyspaces() {
+    Keyspace first = HFactory.createVirtualKeyspace(KEYSPACE, UUID.randomUUID(), ue, cluster);
+    Keyspace second = HFactory.createVirtualKeyspace(KEYSPACE, UUID.randomUUID(), ue, cluster);
+
+    Mutator<String> m = createMutator(first, se);
+    m.addInsertion("row", SIMPLE_CF, createColumn("a", "1", se, se));
+    m.execute();
+
+    assertEquals(1, createSliceQuery(first, se, se, se).setColumnFamily(SIMPLE_CF).setKey("row")
+        .setRange(null, null, false, 10).execute().get().getColumns().size());
+    assertTrue(createSliceQuery(second, se, se, se).setColumnFamily(SIMPLE_CF).setKey("row")
+        .setRange(null, null, false, 10).execute().get().getColumns().isEmpty());
+  }
+
+  @Test
+  public void counters() {
+    String cf = ApplicationCF.ENTITY_COUNTERS.toString();
+
+    Mutator<String> m = createMutator(ko, se);
+    m.addCounter("row", cf, createCounterColumn("hits", 5L));
+    m.addCounter("row", cf, createCounterColumn("hits", 3L));
+    m.execute();
+
+    List<HCounterColumn<String>> counters = createCounterSliceQuery(ko, se, se).setColumnFamily(cf).setKey("row")
+        .setRange(null, null, false, 10).execute().get().getColumns();
+
+    assertEquals(1, counters.size());
+    assertEquals(8L, counters.get(0).getValue().longValue());
+  }
+
+  private List<HColumn<String, String>> slice(String key, boolean reversed) {
+    return createSliceQuery(ko, se, se, se).setColumnFamily(SIMPLE_CF).setKey(key).setRange(null, null, reversed, 10)
+        .execute().get().getColumns();
+  }
+
+  private static String names(List<HColumn<String, String>> columns) {
+    StringBuilder names = new StringBuilder();
+
+    for (HColumn<String, String> column : columns) {
+      names.append(column.getName());
+    }
+
+    return names.toString();
+  }
+}
@@ -4,8 +4,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author zznate
  */
@@ -33,4 +37,46 @@ public class TraceTagUnitTest {
         assertEquals(timedOpTag, traceTag.iterator().next());
         traceTagManager.detach();
     }
+
+    @Test
+    public void summarizeOps() throws Exception {
+        assertNull(TraceTagManager.startOp());
+
+        TraceTag traceTag = traceTagManager.create("testtag2");
+        traceTagManager.attach(traceTag);
+
+        TraceTagManager.stopOp(TraceTagManager.startOp(), TraceTagManager.LOCK_WAIT_OP, true);
+        TraceTagManager.stopOp(TraceTagManager.startOp(), TraceTagManager.LOCK_WAIT_OP, false);
+        taggedOpTimer.stop(taggedOpTimer.start(), "READ", true);
+
+        // summaries survive a flush of the ops
+        traceTag.removeOps();
+        traceTagManager.detach();
+        traceTag.stop();
+
+        Map<String, TraceTag.OpSummary> summaries = traceTag.getSummaries();
+        assertEquals(2, summaries.size());
+        assertEquals(2, summaries.get(TraceTagManager.LOCK_WAIT_OP).getCount());
+        assertEquals(1, summaries.get(TraceTagManager.LOCK_WAIT_OP).getErrors());
+        assertEquals(1, summaries.get(TaggedOpTimer.CASSANDRA_OP_PREFIX + "READ").getCount());
+        assertTrue(traceTag.toBreakdown().startsWith("total="));
+        assertTrue(traceTag.toBreakdown().contains("; lock:wait=2/"));
+    }
+
+    @Test
+    public void bufferKeepsNewest() throws Exception {
+        TraceBuffer traceBuffer = new TraceBuffer(2);
+
+        for (int i = 0; i < 3; i++) {
+            TraceTag traceTag = traceTagManager.create("trace" + i);
+            traceTag.stop();
+            traceBuffer.add(traceTag);
+        }
+
+        List<Map<String, Object>> traces = traceBuffer.getTraces();
+        assertEquals(2, traces.size());
+        assertEquals("trace2", traces.get(0).get("name"));
+        assertEquals("trace1", traces.get(1).get("name"));
+        assertEquals(3, traceBuffer.getTotal());
+    }
 }
@@ -15,11 +15,20 @@
  ******************************************************************************/
 package org.usergrid.mongo;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.shiro.mgt.SessionsSecurityManager;
 import org.apache.shiro.subject.Subject;
 import org.apache.shiro.subject.support.SubjectThreadState;
 import org.apache.shiro.util.ThreadState;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
@@ -28,10 +37,18 @@ import org.slf4j.LoggerFactory;
 import org.usergrid.management.ManagementService;
 import org.usergrid.mongo.protocol.Message;
 import org.usergrid.mongo.protocol.OpCrud;
+import org.usergrid.mongo.protocol.OpKillCursors;
 import org.usergrid.mongo.protocol.OpReply;
 import org.usergrid.persistence.EntityManagerFactory;
 import org.usergrid.services.ServiceManagerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
 
 	private static final Logger logger = LoggerFactory
@@ -44,9 +61,38 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
 
 	Subject subject = null;
 
+	private static final AtomicLong cursorIdCounter = new AtomicLong();
+
+	/**
+	 * Idle cursors of all connections are swept by one shared thread, so
+	 * abandoned cursors don't wait for the next lookup to be removed
+	 */
+	private static final ScheduledExecutorService cursorReaper = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("mongo-cursor-reaper").setDaemon(true)
+					.build());
+
+	private final long cursorTimeout;
+
+	private final Cache<Long, MongoCursor> cursors;
+
+	/**
+	 * Cursors the client opened with the NoCursorTimeout flag, kept until
+	 * they are killed or the connection closes
+	 */
+	private final Map<Long, MongoCursor> pinnedCursors = new ConcurrentHashMap<Long, MongoCursor>();
+
+	private final ScheduledFuture<?> reaperTask;
+
 	public MongoChannelHandler(EntityManagerFactory emf,
 			ServiceManagerFactory smf, ManagementService management,
 			SessionsSecurityManager securityManager) {
+		this(emf, smf, management, securityManager, MongoCursor.DEFAULT_TIMEOUT);
+	}
+
+	public MongoChannelHandler(EntityManagerFactory emf,
+			ServiceManagerFactory smf, ManagementService management,
+			SessionsSecurityManager securityManager, long cursorTimeout) {
 		super();
 
 		logger.info("Starting new client connection...");
@@ -58,6 +104,28 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
 		if (securityManager != null) {
 			subject = new Subject.Builder(securityManager).buildSubject();
 		}
+
+		this.cursorTimeout = cursorTimeout;
+		cursors = CacheBuilder.newBuilder()
+				.expireAfterAccess(cursorTimeout, TimeUnit.MILLISECONDS)
+				.removalListener(new RemovalListener<Long, MongoCursor>() {
+					@Override
+					public void onRemoval(
+							RemovalNotification<Long, MongoCursor> notification) {
+						if (notification.getCause() == RemovalCause.EXPIRED) {
+							logger.info("Timing out idle cursor {}",
+									notification.getValue());
+						}
+					}
+				}).build();
+
+		long sweep = Math.max(1, cursorTimeout / 10);
+		reaperTask = cursorReaper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				expireCursors();
+			}
+		}, sweep, sweep, TimeUnit.MILLISECONDS);
 	}
 
 	public EntityManagerFactory getEmf() {
@@ -76,6 +144,60 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
 		return securityManager;
 	}
 
+	public long getCursorTimeout() {
+		return cursorTimeout;
+	}
+
+	/**
+	 * Register the cursor with this connection and assign it a cursor id
+	 * 
+	 * @return The id the client should use in subsequent OP_GET_MORE messages
+	 */
+	public long registerCursor(MongoCursor cursor) {
+		long cursorId = cursorIdCounter.incrementAndGet();
+		cursor.setCursorId(cursorId);
+		if (cursor.isTimeoutEnabled()) {
+			cursors.put(cursorId, cursor);
+		} else {
+			pinnedCursors.put(cursorId, cursor);
+		}
+
+		logger.debug("Registered cursor {}", cursor);
+
+		return cursorId;
+	}
+
+	/**
+	 * Get the open cursor with the given id
+	 * 
+	 * @return The cursor or null if it doesn't exist or has timed out
+	 */
+	public MongoCursor getCursor(long cursorId) {
+		MongoCursor cursor = cursors.getIfPresent(cursorId);
+		if (cursor == null) {
+			cursor = pinnedCursors.get(cursorId);
+		}
+		return cursor;
+	}
+
+	public void closeCursor(long cursorId) {
+		MongoCursor cursor = cursors.asMap().remove(cursorId);
+		if (cursor == null) {
+			cursor = pinnedCursors.remove(cursorId);
+		}
+
+		if (cursor != null) {
+			logger.debug("Closed cursor {}", cursor);
+		}
+	}
+
+	/**
+	 * Remove all cursors that haven't been used within the cursor timeout
+	 */
+	public void expireCursors() {
+		cursors.cleanUp();
+	}
+
 	@Override
 	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
 
@@ -119,6 +241,15 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
 
 	}
 
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+			throws Exception {
+		reaperTask.cancel(false);
+		cursors.invalidateAll();
+		pinnedCursors.clear();
+		super.channelClosed(ctx, e);
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
 		logger.warn("Unexpected exception from downstream.", e.getCause());
@@ -130,6 +261,14 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
 	    if(message instanceof OpCrud){
 	        return ((OpCrud)message).doOp(this, ctx, e);
 	    }
+
+	    //the client doesn't expect a reply to a kill cursors message
+	    if(message instanceof OpKillCursors){
+	        for(Long cursorId : ((OpKillCursors)message).getCursorIDs()){
+	            closeCursor(cursorId);
+	        }
+	        return null;
+	    }
 	        
 		OpReply reply = new OpReply(message);
 		return reply;
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mongo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.Query;
+import org.usergrid.persistence.Results;
+
+/**
+ * A server side cursor over a usergrid collection query. Wraps the usergrid
+ * {@link Results} cursor so that OP_GET_MORE can continue a scan from where
+ * the previous reply stopped instead of re-running the query from the start.
+ *
+ * Cursors are owned by a single {@link MongoChannelHandler} and are not
+ * thread safe.
+ */
+public class MongoCursor {
+
+    /**
+     * Same idle timeout the mongo server uses
+     */
+    public static final long DEFAULT_TIMEOUT = 10 * 60 * 1000;
+
+    private final UUID applicationId;
+    private final String collectionName;
+    private final Query query;
+    private final boolean timeoutEnabled;
+
+    private long cursorId;
+    private List<Entity> page = Collections.emptyList();
+    private int pageIndex = 0;
+    private String nextCursor;
+    private boolean started = false;
+    private int position = 0;
+
+    /**
+     * @param applicationId
+     *            The application the collection belongs to
+     * @param collectionName
+     *            The name of the collection to scan
+     * @param query
+     *            The query to execute. The query limit is used as the page
+     *            size when reading from usergrid
+     * @param timeoutEnabled
+     *            False if the client asked for a cursor that never times out
+     */
+    public MongoCursor(UUID applicationId, String collectionName, Query query,
+            boolean timeoutEnabled) {
+        this.applicationId = applicationId;
+        this.collectionName = collectionName;
+        this.query = query;
+        this.timeoutEnabled = timeoutEnabled;
+    }
+
+    public long getCursorId() {
+        return cursorId;
+    }
+
+    void setCursorId(long cursorId) {
+        this.cursorId = cursorId;
+    }
+
+    public UUID getApplicationId() {
+        return applicationId;
+    }
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * @return The number of documents returned or skipped so far. Used as the
+     *         startingFrom value of the reply
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Skip the next count entities.
+     *
+     * @return The number of entities actually skipped
+     */
+    public int skip(EntityManager em, int count) throws Exception {
+        int skipped = 0;
+
+        while (skipped < count && hasNext(em)) {
+            int available = Math.min(page.size() - pageIndex, count - skipped);
+            pageIndex += available;
+            skipped += available;
+        }
+
+        position += skipped;
+
+        return skipped;
+    }
+
+    /**
+     * Read up to count entities from the cursor, loading the next page from
+     * usergrid if the current one has been consumed
+     */
+    public List<Entity> next(EntityManager em, int count) throws Exception {
+        List<Entity> batch = new ArrayList<Entity>(count);
+
+        while (batch.size() < count && hasNext(em)) {
+            batch.add(page.get(pageIndex++));
+        }
+
+        position += batch.size();
+
+        return batch;
+    }
+
+    /**
+     * @return True if all pages have been loaded and all entities consumed
+     */
+    public boolean isExhausted() {
+        return started && pageIndex >= page.size() && nextCursor == null;
+    }
+
+    /**
+     * @return False if the client asked for a cursor that never times out
+     */
+    public boolean isTimeoutEnabled() {
+        return timeoutEnabled;
+    }
+
+    /**
+     * Returns true if there is at least one entity left in the current page,
+     * loading the next page if required
+     */
+    private boolean hasNext(EntityManager em) throws Exception {
+        if (pageIndex < page.size()) {
+            return true;
+        }
+
+        if (started && nextCursor == null) {
+            return false;
+        }
+
+        query.setCursor(nextCursor);
+
+        Results results = em.searchCollection(em.getApplicationRef(),
+                collectionName, query);
+
+        started = true;
+        page = results.getEntities();
+        pageIndex = 0;
+        nextCursor = results.getCursor();
+
+        // nothing came back, don't follow the cursor any further
+        if (page.isEmpty()) {
+            nextCursor = null;
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MongoCursor [cursorId=" + cursorId + ", applicationId="
+                + applicationId + ", collectionName=" + collectionName
+                + ", position=" + position + "]";
+    }
+
+}
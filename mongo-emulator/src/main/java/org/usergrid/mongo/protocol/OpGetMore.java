@@ -21,10 +21,18 @@ import java.nio.ByteBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.usergrid.mongo.MongoChannelHandler;
+import org.usergrid.mongo.MongoCursor;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.security.shiro.utils.SubjectUtils;
 
 public class OpGetMore extends OpCrud {
 
+	private static final Logger logger = LoggerFactory
+			.getLogger(OpGetMore.class);
+
 	int numberToReturn;
 	long cursorID;
 
@@ -87,7 +95,41 @@ public class OpGetMore extends OpCrud {
     @Override
     public OpReply doOp(MongoChannelHandler handler, ChannelHandlerContext ctx,
             MessageEvent messageEvent) {
-        return new OpReply(this);
+        OpReply reply = new OpReply(this);
+
+        MongoCursor cursor = handler.getCursor(cursorID);
+
+        // the cursor has timed out, been killed or never existed
+        if (cursor == null
+                || !cursor.getCollectionName().equals(getCollectionName())
+                || !SubjectUtils.getSubject().isAuthenticated()) {
+            logger.info("Cursor {} not found", cursorID);
+            reply.setResponseFlags(OpReply.CURSOR_NOT_FOUND);
+            return reply;
+        }
+
+        int count = numberToReturn > 0 ? numberToReturn
+                : OpQuery.DEFAULT_BATCH_SIZE;
+
+        EntityManager em = handler.getEmf().getEntityManager(
+                cursor.getApplicationId());
+
+        try {
+            reply.setStartingFrom(cursor.getPosition());
+            reply.addEntities(cursor.next(em, count));
+        } catch (Exception ex) {
+            logger.error("Unable to read from cursor " + cursorID, ex);
+            handler.closeCursor(cursorID);
+            return reply;
+        }
+
+        if (cursor.isExhausted()) {
+            handler.closeCursor(cursorID);
+        } else {
+            reply.setCursorID(cursorID);
+        }
+
+        return reply;
     }
 
     /* (non-Javadoc)
@@ -15,11 +15,14 @@
  ******************************************************************************/
 package org.usergrid.mongo.protocol;
 
+import static org.usergrid.persistence.Schema.PROPERTY_UUID;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import org.bson.BSONObject;
 import org.bson.BasicBSONObject;
@@ -136,21 +139,40 @@ public class OpInsert extends OpCrud {
        
         EntityManager em = handler.getEmf().getEntityManager(application.getId());
         
+        List<Map<String, Object>> entitiesProperties = new ArrayList<Map<String, Object>>(documents.size());
         
         for(BSONObject document: documents){
-            try {
-                //special case to serialize mongo ObjectId if required
-                Object id = document.get("_id");
-                
-                if(id instanceof ObjectId){
-                    document.put("_id", ((ObjectId)id).toStringMongod());
+            //special case to serialize mongo ObjectId if required
+            Object id = document.get("_id");
+            
+            if(id instanceof ObjectId){
+                document.put("_id", ((ObjectId)id).toStringMongod());
+            }
+            
+            entitiesProperties.add(document.toMap());
+        }
+        
+        try {
+            em.createEntities(getCollectionName(), entitiesProperties);
+        } catch (Exception e) {
+            //insert each document on it's own so the valid documents are still
+            //saved. Documents that were given an id by the batch are created
+            //again with the same id, so any part of the batch that was written
+            //is overwritten rather than duplicated
+            logger.info("Unable to insert mongo documents as a batch, inserting individually", e);
+            
+            for(Map<String, Object> properties : entitiesProperties){
+                try {
+                    Object uuid = properties.get(PROPERTY_UUID);
+                    if(uuid instanceof UUID){
+                        em.create((UUID)uuid, getCollectionName(), properties);
+                    } else {
+                        em.create(getCollectionName(), properties);
+                    }
+                } catch (Exception e1) {
+                    logger.error("Unable to insert mongo document {}", properties, e1);
+                    ctx.setAttachment(e1);
                 }
-                
-                em.create(getCollectionName(), document.toMap());
-               
-            } catch (Exception e) {
-                logger.error("Unable to insert mongo document {}", document, e);
-                ctx.setAttachment(e);
             }
         }
         
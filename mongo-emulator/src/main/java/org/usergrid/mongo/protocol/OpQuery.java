@@ -16,9 +16,9 @@
 package org.usergrid.mongo.protocol;
 
 import static org.apache.commons.collections.MapUtils.getIntValue;
-import static org.usergrid.utils.JsonUtils.toJsonMap;
 import static org.usergrid.utils.MapUtils.entry;
 import static org.usergrid.utils.MapUtils.map;
+import static org.usergrid.utils.StringUtils.stringOrSubstringBeforeFirst;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.Stack;
+import java.util.TreeSet;
 
 import org.antlr.runtime.ClassicToken;
 import org.apache.shiro.authc.AuthenticationException;
@@ -35,7 +36,6 @@ import org.apache.shiro.subject.Subject;
 import org.bson.BSONObject;
 import org.bson.BasicBSONObject;
 import org.bson.types.BasicBSONList;
-import org.bson.types.ObjectId;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -45,14 +45,13 @@ import org.slf4j.LoggerFactory;
 import org.usergrid.management.ApplicationInfo;
 import org.usergrid.management.UserInfo;
 import org.usergrid.mongo.MongoChannelHandler;
+import org.usergrid.mongo.MongoCursor;
 import org.usergrid.mongo.commands.MongoCommand;
 import org.usergrid.mongo.query.MongoQueryParser;
 import org.usergrid.mongo.utils.BSONUtils;
-import org.usergrid.persistence.Entity;
 import org.usergrid.persistence.EntityManager;
 import org.usergrid.persistence.Identifier;
 import org.usergrid.persistence.Query;
-import org.usergrid.persistence.Results;
 import org.usergrid.persistence.Schema;
 import org.usergrid.persistence.Query.SortDirection;
 import org.usergrid.persistence.query.tree.AndOperand;
@@ -71,6 +70,16 @@ public class OpQuery extends OpCrud {
 
     private static final Logger logger = LoggerFactory.getLogger(OpQuery.class);
 
+    /**
+     * Number of documents in a batch when the client doesn't specify one
+     */
+    public static final int DEFAULT_BATCH_SIZE = 30;
+
+    /**
+     * Query flag to keep the cursor open regardless of idle time
+     */
+    public static final int NO_CURSOR_TIMEOUT = 1 << 4;
+
     int flags;
     int numberToSkip;
     int numberToReturn;
@@ -390,50 +399,46 @@ public class OpQuery extends OpCrud {
             return reply;
         }
         
-        int count = getNumberToReturn();
-        if (count <= 0) {
-            count = 30;
+        // a negative number or 1 means return a single batch and close the
+        // cursor
+        int count = Math.abs(getNumberToReturn());
+        boolean singleBatch = getNumberToReturn() < 0 || count == 1;
+        if (count == 0) {
+            count = DEFAULT_BATCH_SIZE;
         }
         
         EntityManager em = handler.getEmf().getEntityManager(
                 application.getId());
         
         try {
-            Results results = null;
-            Query q = MongoQueryParser.toNativeQuery(query, returnFieldSelector, numberToReturn);
-            if (q != null) {
-                results = em.searchCollection(em.getApplicationRef(),
-                        getCollectionName(), q);
-
-            } else {
-                results = em.getCollection(em.getApplicationRef(),
-                        getCollectionName(), null, count,
-                        Results.Level.ALL_PROPERTIES, false);
+            Query q = MongoQueryParser.toNativeQuery(query, returnFieldSelector, count);
+            if (q == null) {
+                q = new Query();
+                q.setLimit(count);
             }
-            if (!results.isEmpty()) {
-                for (Entity entity : results.getEntities()) {
-                    
-                    Object savedId = entity.getProperty("_id");
-                    Object mongoId = null;
-                    
-                    //try to parse it into an ObjectId
-                    if(savedId == null){
-                        mongoId = entity.getUuid();
-                    }else{
-                        try{
-                            mongoId = new ObjectId(savedId.toString());
-                        //it's not a mongo Id, use it as is
-                        }catch(IllegalArgumentException iae){
-                            mongoId = savedId;
-                        }
-                    }
-                    
-                    reply.addDocument(map(
-                            entry("_id", mongoId),
-                            toJsonMap(entity),
-                            entry(Schema.PROPERTY_UUID, entity.getUuid()
-                                    .toString())));
+
+            // only load the selected properties instead of the whole entity
+            if (isInclusionSelector(returnFieldSelector)) {
+                Set<String> properties = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+                for (String field : returnFieldSelector.keySet()) {
+                    properties.add(stringOrSubstringBeforeFirst(field, '.'));
                 }
+                properties.add("_id");
+                q.setLoadProperties(properties);
+            }
+
+            MongoCursor cursor = new MongoCursor(application.getId(),
+                    getCollectionName(), q, (flags & NO_CURSOR_TIMEOUT) == 0);
+
+            if (numberToSkip > 0) {
+                cursor.skip(em, numberToSkip);
+            }
+
+            reply.setStartingFrom(cursor.getPosition());
+            reply.addEntities(cursor.next(em, count));
+
+            if (!singleBatch && !cursor.isExhausted()) {
+                reply.setCursorID(handler.registerCursor(cursor));
             }
         } catch (Exception ex) {
             logger.error("Unable to retrieve collections", ex);
@@ -441,6 +446,30 @@ public class OpQuery extends OpCrud {
         return reply;
     }
 
+    /**
+     * Returns true if the field selector only includes fields. Exclusions
+     * still require the whole entity to be loaded
+     */
+    private static boolean isInclusionSelector(BSONObject fieldSelector) {
+        if (fieldSelector == null || fieldSelector.keySet().isEmpty()) {
+            return false;
+        }
+
+        for (String field : fieldSelector.keySet()) {
+            Object include = fieldSelector.get(field);
+
+            if (include instanceof Number) {
+                if (((Number) include).intValue() == 0) {
+                    return false;
+                }
+            } else if (!Boolean.TRUE.equals(include)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
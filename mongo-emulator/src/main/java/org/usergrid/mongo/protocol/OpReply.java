@@ -16,7 +16,7 @@
 package org.usergrid.mongo.protocol;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -26,10 +26,19 @@ import org.bson.BSONObject;
 import org.bson.BasicBSONObject;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.usergrid.mongo.utils.BSONUtils;
+import org.usergrid.mongo.utils.EntityDocument;
+import org.usergrid.persistence.Entity;
 
 public class OpReply extends Message {
 
+	/**
+	 * Response flag set when an OP_GET_MORE references a cursor that doesn't
+	 * exist
+	 */
+	public static final int CURSOR_NOT_FOUND = 1;
+
 	int responseFlags = 8;
 	long cursorID;
 	int startingFrom;
@@ -100,8 +109,19 @@ public class OpReply extends Message {
 		documents.add(b);
 		numberReturned = documents.size();
 	}
-	
-	
+
+	/**
+	 * Add the entities as documents, using the saved mongo _id if present
+	 */
+	public void addEntities(List<Entity> entities) {
+		for (Entity entity : entities) {
+			addEntity(entity);
+		}
+	}
+
+	public void addEntity(Entity entity) {
+		addDocument(new EntityDocument(entity));
+	}
 
 	@Override
 	public void decode(ChannelBuffer buffer) throws IOException {
@@ -118,15 +138,20 @@ public class OpReply extends Message {
 		}
 	}
 
+	/**
+	 * Documents are encoded straight into a dynamic buffer and the message
+	 * length is patched in once they have all been written
+	 */
 	@Override
 	public ChannelBuffer encode(ChannelBuffer buffer) {
-		int l = 36; // (9 ints * 4 bytes)
+		if (buffer == null) {
+			buffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN,
+					36 + documents.size() * 256);
+		}
 
-		List<ByteBuffer> encodedDocuments = encodeDocuments(documents);
-		l += buffersSize(encodedDocuments);
-		numberReturned = encodedDocuments.size();
+		int start = buffer.writerIndex();
 
-		messageLength = l;
+		numberReturned = documents.size();
 
 		buffer = super.encode(buffer);
 
@@ -135,10 +160,13 @@ public class OpReply extends Message {
 		buffer.writeInt(startingFrom);
 		buffer.writeInt(numberReturned);
 
-		for (ByteBuffer d : encodedDocuments) {
-			buffer.writeBytes(d);
+		for (BSONObject d : documents) {
+			BSONUtils.encode(d, buffer);
 		}
 
+		messageLength = buffer.writerIndex() - start;
+		buffer.setInt(start, messageLength);
+
 		return buffer;
 	}
 
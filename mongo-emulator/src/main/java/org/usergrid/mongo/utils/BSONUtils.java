@@ -17,8 +17,10 @@ package org.usergrid.mongo.utils;
 
 import org.bson.BSONDecoder;
 import org.bson.BSONEncoder;
+import org.bson.BSONObject;
 import org.bson.BasicBSONDecoder;
 import org.bson.BasicBSONEncoder;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 public class BSONUtils {
 
@@ -30,6 +32,21 @@ public class BSONUtils {
 		return _staticDecoder.get();
 	}
 
+	/**
+	 * Encode the document directly into the buffer at its writer index
+	 * 
+	 * @return The number of bytes written
+	 */
+	public static int encode(BSONObject document, ChannelBuffer buffer) {
+		BSONEncoder encoder = encoder();
+		encoder.set(new ChannelBufferOutputBuffer(buffer));
+		try {
+			return encoder.putObject(document);
+		} finally {
+			encoder.done();
+		}
+	}
+
 	static ThreadLocal<BSONEncoder> _staticEncoder = new ThreadLocal<BSONEncoder>() {
 		@Override
 		protected BSONEncoder initialValue() {
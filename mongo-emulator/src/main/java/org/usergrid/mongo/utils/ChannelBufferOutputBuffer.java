@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mongo.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.bson.io.OutputBuffer;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Adapts a netty {@link ChannelBuffer} to the bson {@link OutputBuffer} so
+ * documents can be encoded straight into the outgoing message without an
+ * intermediate byte array per document. Positions are relative to the writer
+ * index of the channel buffer when the adapter was created.
+ */
+public class ChannelBufferOutputBuffer extends OutputBuffer {
+
+	private final ChannelBuffer buffer;
+	private final int start;
+	private int size = 0;
+
+	public ChannelBufferOutputBuffer(ChannelBuffer buffer) {
+		this.buffer = buffer;
+		start = buffer.writerIndex();
+	}
+
+	@Override
+	public void write(byte[] b) {
+		buffer.writeBytes(b);
+		updateSize();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		buffer.writeBytes(b, off, len);
+		updateSize();
+	}
+
+	@Override
+	public void write(int b) {
+		buffer.writeByte(b);
+		updateSize();
+	}
+
+	@Override
+	public int getPosition() {
+		return buffer.writerIndex() - start;
+	}
+
+	/**
+	 * The encoder only moves backwards to patch in document lengths, so the
+	 * bytes after the position are still valid and we can move the writer
+	 * index freely
+	 */
+	@Override
+	public void setPosition(int position) {
+		buffer.writerIndex(start + position);
+	}
+
+	@Override
+	public void seekEnd() {
+		setPosition(size);
+	}
+
+	@Override
+	public void seekStart() {
+		setPosition(0);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private void updateSize() {
+		size = Math.max(size, getPosition());
+	}
+
+	@Override
+	public int pipe(OutputStream out) throws IOException {
+		int size = size();
+		buffer.getBytes(start, out, size);
+		return size;
+	}
+
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mongo.utils;
+
+import static org.usergrid.utils.JsonUtils.toJsonValue;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bson.BSONObject;
+import org.bson.types.ObjectId;
+import org.usergrid.persistence.Entity;
+
+/**
+ * A read only {@link BSONObject} view of an entity. The encoder reads the
+ * entity properties directly instead of copying them into a new document
+ * first.
+ */
+public class EntityDocument implements BSONObject {
+
+	private final Entity entity;
+	private final Map<String, Object> properties;
+
+	public EntityDocument(Entity entity) {
+		this.entity = entity;
+		properties = entity.getProperties();
+	}
+
+	public Entity getEntity() {
+		return entity;
+	}
+
+	/**
+	 * Use the saved mongo _id if present, otherwise the entity uuid
+	 */
+	private Object getMongoId() {
+		Object savedId = properties.get("_id");
+
+		if (savedId == null) {
+			return entity.getUuid();
+		}
+
+		// try to parse it into an ObjectId
+		try {
+			return new ObjectId(savedId.toString());
+			// it's not a mongo Id, use it as is
+		} catch (IllegalArgumentException iae) {
+			return savedId;
+		}
+	}
+
+	@Override
+	public Object get(String key) {
+		if ("_id".equals(key)) {
+			return getMongoId();
+		}
+
+		Object value = properties.get(key);
+
+		// values are returned as in the json representation, which only
+		// needs a conversion for values that aren't json types already
+		if ((value == null) || (value instanceof String)
+				|| (value instanceof Boolean) || (value instanceof Integer)
+				|| (value instanceof Double)) {
+			return value;
+		}
+
+		if (value instanceof UUID) {
+			return value.toString();
+		}
+
+		return toJsonValue(value);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		Set<String> keys = new LinkedHashSet<String>(properties.size() + 1);
+		keys.add("_id");
+		keys.addAll(properties.keySet());
+		return keys;
+	}
+
+	@Override
+	public boolean containsField(String key) {
+		return "_id".equals(key) || properties.containsKey(key);
+	}
+
+	@Override
+	@Deprecated
+	public boolean containsKey(String key) {
+		return containsField(key);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Map toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (String key : keySet()) {
+			map.put(key, get(key));
+		}
+		return map;
+	}
+
+	@Override
+	public Object put(String key, Object v) {
+		throw new UnsupportedOperationException("Entity documents are read only");
+	}
+
+	@Override
+	public void putAll(BSONObject o) {
+		throw new UnsupportedOperationException("Entity documents are read only");
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void putAll(Map m) {
+		throw new UnsupportedOperationException("Entity documents are read only");
+	}
+
+	@Override
+	public Object removeField(String key) {
+		throw new UnsupportedOperationException("Entity documents are read only");
+	}
+
+	@Override
+	public String toString() {
+		return toMap().toString();
+	}
+
+}
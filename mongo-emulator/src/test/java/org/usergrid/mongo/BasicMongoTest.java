@@ -340,4 +340,46 @@ public class BasicMongoTest extends AbstractMongoTest {
         assertEquals(0, results.size());
 
     }
+
+    @Test
+    public void cursorTest() throws Exception {
+
+        DB db = getDb();
+
+        int count = 75;
+
+        List<DBObject> docs = new ArrayList<DBObject>(count);
+
+        for (int i = 0; i < count; i++) {
+            BasicDBObject doc = new BasicDBObject();
+
+            doc.put("index", i);
+
+            docs.add(doc);
+        }
+
+        WriteResult result = db.getCollection("cursortests").insert(docs);
+
+        assertNull(result.getLastError().getErrorMessage());
+
+        // use a batch size smaller than the collection so the driver has to
+        // issue get more requests against the server side cursor
+        DBCursor cursor = db.getCollection("cursortests").find().skip(5)
+                .batchSize(10);
+
+        int read = 0;
+
+        while (cursor.hasNext()) {
+            int index = new BasicDBObject(cursor.next().toMap())
+                    .getInt("index");
+
+            assertEquals(read + 5, index);
+
+            read++;
+        }
+
+        assertEquals(count - 5, read);
+
+        cursor.close();
+    }
 }
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.introspect.AnnotatedMethod;
+import org.codehaus.jackson.map.introspect.BasicBeanDescription;
+import org.codehaus.jackson.map.ser.AnyGetterWriter;
+import org.codehaus.jackson.map.ser.BeanSerializerBuilder;
+import org.codehaus.jackson.map.ser.BeanSerializerModifier;
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.LazyPropertyMap;
+
+/**
+ * Writes the dynamic properties of entities loaded from cassandra by
+ * transcoding each stored value straight into the response, rather than
+ * decoding it into maps and lists and serializing those. Properties that have
+ * already been read are written as usual.
+ */
+public class EntitySerializerModifier extends BeanSerializerModifier {
+
+	@Override
+	public BeanSerializerBuilder updateBuilder(SerializationConfig config,
+			BasicBeanDescription beanDesc, BeanSerializerBuilder builder) {
+		if (Entity.class.isAssignableFrom(beanDesc.getBeanClass())) {
+			AnnotatedMethod anyGetter = beanDesc.findAnyGetter();
+			if (anyGetter != null) {
+				builder.setAnyGetter(new EntityPropertiesWriter(anyGetter));
+			}
+		}
+		return builder;
+	}
+
+	/**
+	 * Replaces the map serializer Jackson uses for the entity's any getter
+	 */
+	static class EntityPropertiesWriter extends AnyGetterWriter {
+
+		public EntityPropertiesWriter(AnnotatedMethod anyGetter) {
+			super(anyGetter, null);
+		}
+
+		@Override
+		public void getAndSerialize(Object bean, JsonGenerator jgen,
+				SerializerProvider provider) throws Exception {
+			Map<String, Object> properties = ((Entity) bean)
+					.getDynamicProperties();
+
+			if (properties == null) {
+				return;
+			}
+
+			if (properties instanceof LazyPropertyMap) {
+				LazyPropertyMap lazy = (LazyPropertyMap) properties;
+				for (String name : lazy.keySet()) {
+					jgen.writeFieldName(name);
+					if (!lazy.writeJson(name, jgen)) {
+						provider.defaultSerializeValue(lazy.get(name), jgen);
+					}
+				}
+				return;
+			}
+
+			for (Entry<String, Object> entry : properties.entrySet()) {
+				provider.defaultSerializeField(entry.getKey(),
+						entry.getValue(), jgen);
+			}
+		}
+
+		@Override
+		public void resolve(SerializerProvider provider) {
+			// values are serialized through the provider, nothing to resolve
+		}
+	}
+
+}
@@ -24,6 +24,7 @@ import org.codehaus.jackson.jaxrs.Annotations;
 import org.codehaus.jackson.jaxrs.MapperConfigurator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.ser.BeanSerializerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
@@ -44,8 +45,11 @@ public class JacksonCustomMapperProvider implements
 
 	public JacksonCustomMapperProvider() {
 		logger.info("JacksonCustomMapperProvider installed");
-		_mapperConfig = new MapperConfigurator(new ObjectMapper(),
-				BASIC_ANNOTATIONS);
+		ObjectMapper mapper = new ObjectMapper();
+		// stream stored entity properties into the response
+		mapper.setSerializerFactory(BeanSerializerFactory.instance
+				.withSerializerModifier(new EntitySerializerModifier()));
+		_mapperConfig = new MapperConfigurator(mapper, BASIC_ANNOTATIONS);
 		_mapperConfig.setAnnotationsToUse(BASIC_ANNOTATIONS);
 		// do configuration of mapper here
 		_mapperConfig
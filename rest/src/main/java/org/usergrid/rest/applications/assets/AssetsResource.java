@@ -18,12 +18,16 @@ import org.usergrid.rest.applications.ApplicationResource;
 import org.usergrid.rest.applications.ServiceResource;
 import org.usergrid.rest.security.annotations.RequireApplicationAccess;
 import org.usergrid.services.assets.data.AssetUtils;
+import org.usergrid.services.assets.data.BinaryRegion;
 import org.usergrid.services.assets.data.BinaryStore;
 import org.usergrid.utils.StringUtils;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.util.Date;
 import java.util.Map;
 import java.util.UUID;
@@ -38,6 +42,10 @@ public class AssetsResource extends ServiceResource {
 
   private Logger logger = LoggerFactory.getLogger(AssetsResource.class);
 
+  // not defined in Response.Status until JAX-RS 2.0
+  private static final int PARTIAL_CONTENT = 206;
+  private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
   @Autowired
   private BinaryStore binaryStore;
 
@@ -88,7 +96,7 @@ public class AssetsResource extends ServiceResource {
     Asset asset = em.get(assetId, Asset.class);
 
     binaryStore.write(getApplicationId(), asset, uploadedInputStream);
-    em.update(asset);
+    saveWritten(em, asset);
     return Response.status(200).build();
   }
 
@@ -115,13 +123,28 @@ public class AssetsResource extends ServiceResource {
 
     binaryStore.write(getApplicationId(), asset, uploadedInputStream);
     logger.info("uploadDataStream written, returning response");
-    em.update(asset);
+    saveWritten(em, asset);
     return Response.status(200).build();
   }
 
+  /**
+   * Save the asset after its data was written, and let the binary store release
+   * the data the asset referred to before only once it is saved
+   */
+  private void saveWritten(EntityManager em, Asset asset) throws Exception {
+    try {
+      em.update(asset);
+    } catch (Exception e) {
+      binaryStore.rollback(getApplicationId(), asset);
+      throw e;
+    }
+    binaryStore.commit(getApplicationId(), asset);
+  }
+
   @GET
   @Path("{entityId: [A-Fa-f0-9]{8}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{12}}/data")
   public Response findAsset(@Context UriInfo ui,
+                                   @Context Request request,
                                    @QueryParam("callback") @DefaultValue("callback") String callback,
                                    @PathParam("entityId") PathSegment entityId,
                                    @HeaderParam("range") String range,
@@ -133,8 +156,21 @@ public class AssetsResource extends ServiceResource {
     EntityManager em = emf.getEntityManager(getApplicationId());
 
     Asset asset = em.get(assetId, Asset.class);
+    if ( asset == null ) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
 
-    // return a 302 if not modified
+    // return a 304 if the client already has this version, handles If-None-Match
+    EntityTag eTag = null;
+    if ( asset.getProperty(AssetUtils.E_TAG) != null ) {
+      eTag = new EntityTag((String)asset.getProperty(AssetUtils.E_TAG));
+      Response.ResponseBuilder notModified = request.evaluatePreconditions(eTag);
+      if ( notModified != null ) {
+        return notModified.build();
+      }
+    }
+
+    // return a 304 if not modified
     Date moded = AssetUtils.fromIfModifiedSince(modifiedSince);
     if ( moded != null ) {
       if ( asset.getModified() - moded.getTime() < 0 ) {
@@ -142,28 +178,65 @@ public class AssetsResource extends ServiceResource {
       }
     }
 
-    InputStream is;
-    if ( StringUtils.isBlank(range) ) {
-      is = binaryStore.read(getApplicationId(), asset);
-    } else {
-      // TODO range parser
-      is = binaryStore.read(getApplicationId(), asset);
-    }
-    if ( is == null ) {
-      return Response.status(Response.Status.NOT_FOUND).build();
+    // ranges are only honored when we know how big the asset is
+    long[] byteRange = null;
+    Object contentLength = asset.getProperty(AssetUtils.CONTENT_LENGTH);
+    if ( StringUtils.isNotBlank(range) && contentLength instanceof Number ) {
+      long totalLength = ((Number)contentLength).longValue();
+      byteRange = AssetUtils.parseRange(range, totalLength);
+      if ( byteRange != null && byteRange[0] >= totalLength ) {
+        logger.info("Range {} can not be satisfied for asset of length {}", range, totalLength);
+        return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header("Content-Range", "bytes */" + totalLength).build();
+      }
     }
 
-    logger.info("AssetResource.findAsset read inputStream, composing response");
-    Response.ResponseBuilder responseBuilder = Response.ok(is)
+    final UUID applicationId = getApplicationId();
+    final Asset found = asset;
+    final long offset = byteRange == null ? 0 : byteRange[0];
+    final long length = byteRange == null ? Long.MAX_VALUE : byteRange[1] - byteRange[0] + 1;
+    final long expectedLength = contentLength instanceof Number
+            ? Math.min(length, ((Number)contentLength).longValue() - offset) : -1;
+
+    // the region is only opened once the body is written and is closed when it's sent, so
+    // nothing is left open when the body is never written, e.g. for HEAD or aborted requests
+    StreamingOutput output = new StreamingOutput() {
+      @Override
+      public void write(OutputStream os) throws IOException {
+        BinaryRegion region = binaryStore.readRegion(applicationId, found, offset, length);
+        if ( region == null ) {
+          throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        try {
+          if ( expectedLength >= 0 && region.getLength() != expectedLength ) {
+            throw new IOException("Asset " + found.getUuid() + " has " + region.getLength()
+                    + " bytes in range, expected " + expectedLength);
+          }
+          region.transferTo(Channels.newChannel(os));
+        } finally {
+          region.close();
+        }
+      }
+    };
+
+    logger.info("AssetResource.findAsset composing response");
+    Response.ResponseBuilder responseBuilder;
+    if ( byteRange != null ) {
+      logger.info("Range header was not blank, sending back Content-Range");
+      responseBuilder = Response.status(PARTIAL_CONTENT)
+              .header("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + contentLength);
+    } else {
+      responseBuilder = Response.ok();
+    }
+    responseBuilder.entity(output)
             .type(asset.getProperty("content-type").toString())
-            .lastModified(new Date(asset.getModified()));
-    if ( asset.getProperty(AssetUtils.E_TAG) != null ) {
-      responseBuilder.tag((String)asset.getProperty(AssetUtils.E_TAG));
+            .lastModified(new Date(asset.getModified()))
+            .header("Accept-Ranges", "bytes");
+    if ( expectedLength >= 0 ) {
+      responseBuilder.header("Content-Length", expectedLength);
     }
-    if ( StringUtils.isNotBlank(range)) {
-      logger.info("Range header was not blank, sending back Content-Range");
-      // TODO build content range header if needed
-      //responseBuilder.header("Content-Range", );
+    if ( eTag != null ) {
+      responseBuilder.tag(eTag);
     }
     return responseBuilder.build();
   }
@@ -61,6 +61,7 @@ public class MeteringFilter implements ContainerRequestFilter,
 	Properties properties;
 	ManagementService management;
   UsergridSystemMonitor usergridSystemMonitor;
+  TenantMetrics tenantMetrics;
   final Counter activeRequests;
   final Timer requestTimer;
 
@@ -100,6 +101,11 @@ public class MeteringFilter implements ContainerRequestFilter,
     this.usergridSystemMonitor = usergridSystemMonitor;
   }
 
+  @Autowired
+  public void setTenantMetrics(TenantMetrics tenantMetrics) {
+    this.tenantMetrics = tenantMetrics;
+  }
+
   @Override
 	public ContainerRequest filter(ContainerRequest request) {
 
@@ -132,6 +138,16 @@ public class MeteringFilter implements ContainerRequestFilter,
       usergridSystemMonitor.maybeLogPayload(time,
               "path", httpServletRequest.getRequestURI(),
               "applicationId", applicationId);
+
+      Long read = (Long) httpServletRequest
+          .getAttribute("application.request.upload");
+
+      if (tenantMetrics != null) {
+        RequestTenant tenant = (RequestTenant) httpServletRequest
+            .getAttribute(RequestTenant.ATTRIBUTE);
+        tenantMetrics.record(tenant, time, read != null ? read : 0, written);
+      }
+
 			if (applicationId != null) {
 
 				Map<String, Long> counters = new HashMap<String, Long>();
@@ -142,8 +158,6 @@ public class MeteringFilter implements ContainerRequestFilter,
 					counters.put("application.request.time", time);
 				}
 
-				Long read = (Long) httpServletRequest
-						.getAttribute("application.request.upload");
 				if ((read != null) && (read > 0)) {
 					logger.info("Application: {}, received {} bytes", applicationId, written);
 					counters.put("application.request.upload", read);
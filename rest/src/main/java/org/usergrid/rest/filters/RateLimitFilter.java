@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest.filters;
+
+import static org.usergrid.utils.JsonUtils.mapToJsonString;
+import static org.usergrid.utils.MapUtils.hashMap;
+import static org.usergrid.utils.UUIDUtils.tryGetUUID;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.shiro.subject.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.usergrid.management.ApplicationInfo;
+import org.usergrid.management.ManagementService;
+import org.usergrid.persistence.Identifier;
+import org.usergrid.security.shiro.principals.ApplicationPrincipal;
+import org.usergrid.security.shiro.principals.OrganizationPrincipal;
+import org.usergrid.security.shiro.principals.UserPrincipal;
+import org.usergrid.security.shiro.utils.SubjectUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+
+/**
+ * Rejects requests with a 429 once the caller or the application as a whole
+ * exceeds its token bucket. Runs after the security filters, so that the
+ * buckets are keyed on the authenticated principal and the application id
+ * rather than on anything the caller can vary freely. Anonymous and guest
+ * requests share a bucket per client address. Also resolves the
+ * {@link RequestTenant} of every request for the {@link MeteringFilter}, only
+ * applications that exist are counted.
+ */
+@Component
+public class RateLimitFilter implements ContainerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    @Context
+    protected HttpServletRequest httpServletRequest;
+
+    private TenantMetrics tenantMetrics;
+    private ManagementService management;
+
+    private boolean enabled = false;
+    private double rate = 100;
+    private double burst = 200;
+    private double applicationRate = 1000;
+    private double applicationBurst = 2000;
+
+    private final Cache<String, TokenBucket> buckets = CacheBuilder.newBuilder().maximumSize(100000)
+            .expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+    // application path segments to applications, absent if there is none
+    private final Cache<String, Optional<ApplicationInfo>> applications = CacheBuilder.newBuilder()
+            .maximumSize(10000).expireAfterWrite(1, TimeUnit.MINUTES).build();
+
+    public RateLimitFilter() {
+        logger.info("RateLimitFilter is installed");
+    }
+
+    @Autowired
+    public void setProperties(Properties properties) {
+        enabled = Boolean.parseBoolean(properties.getProperty("usergrid.rest.ratelimit.enabled", "false"));
+        rate = Double.parseDouble(properties.getProperty("usergrid.rest.ratelimit.rate", "100"));
+        burst = Double.parseDouble(properties.getProperty("usergrid.rest.ratelimit.burst", "200"));
+        applicationRate = Double.parseDouble(properties.getProperty("usergrid.rest.ratelimit.application.rate",
+                "1000"));
+        applicationBurst = Double.parseDouble(properties.getProperty("usergrid.rest.ratelimit.application.burst",
+                "2000"));
+    }
+
+    @Autowired
+    public void setTenantMetrics(TenantMetrics tenantMetrics) {
+        this.tenantMetrics = tenantMetrics;
+    }
+
+    @Autowired
+    public void setManagementService(ManagementService management) {
+        this.management = management;
+    }
+
+    @Override
+    public ContainerRequest filter(ContainerRequest request) {
+        RequestTenant tenant = resolveTenant(RequestTenant.fromPath(request.getPath(true)));
+        httpServletRequest.setAttribute(RequestTenant.ATTRIBUTE, tenant);
+
+        if (!enabled || tenant == null) {
+            return request;
+        }
+
+        String application = tenant.getApplication();
+
+        // the caller first, so that a single client over its limit doesn't
+        // use up the tokens of the application
+        acquire(tenant, application + "|" + getPrincipalKey(), rate, burst);
+        acquire(tenant, application, applicationRate, applicationBurst);
+
+        return request;
+    }
+
+    private void acquire(RequestTenant tenant, String key, final double rate, final double burst) {
+        TokenBucket bucket;
+        try {
+            bucket = buckets.get(key, new Callable<TokenBucket>() {
+                @Override
+                public TokenBucket call() {
+                    return new TokenBucket(rate, burst);
+                }
+            });
+        } catch (ExecutionException e) {
+            logger.error("Unable to create rate limit bucket for {}", key, e);
+            return;
+        }
+
+        if (!bucket.tryAcquire()) {
+            tenantMetrics.reject(tenant);
+            logger.debug("Rate limit exceeded for {}", key);
+            throw new WebApplicationException(Response
+                    .status(SC_TOO_MANY_REQUESTS)
+                    .header("Retry-After", bucket.getRetryAfterSeconds())
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(mapToJsonString(hashMap("error", "rate_limit_exceeded").map("error_description",
+                            "Too many requests for application " + tenant.getApplication()))).build());
+        }
+    }
+
+    /**
+     * @return The tenant keyed by application id, or null if the path doesn't
+     *         name an application that exists
+     */
+    private RequestTenant resolveTenant(RequestTenant tenant) {
+        if (tenant == null || tenant.getApplication() == null || management == null) {
+            return null;
+        }
+
+        final String application = tenant.getApplication();
+        try {
+            return RequestTenant.fromApplication(applications.get(application,
+                    new Callable<Optional<ApplicationInfo>>() {
+                        @Override
+                        public Optional<ApplicationInfo> call() throws Exception {
+                            UUID applicationId = tryGetUUID(application);
+                            Identifier identifier = applicationId != null ? Identifier.fromUUID(applicationId)
+                                    : Identifier.fromName(application);
+                            return Optional.fromNullable(management.getApplicationInfo(identifier));
+                        }
+                    }).orNull());
+        } catch (ExecutionException e) {
+            logger.error("Unable to resolve application {}", application, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The authenticated user, application or organization, or the
+     *         client address for anonymous and guest requests
+     */
+    private String getPrincipalKey() {
+        Subject subject = SubjectUtils.getSubject();
+        Object principal = subject != null ? subject.getPrincipal() : null;
+
+        if (principal instanceof UserPrincipal) {
+            return "user:" + ((UserPrincipal) principal).getUser().getUuid();
+        }
+        if (principal instanceof ApplicationPrincipal) {
+            return "application:" + ((ApplicationPrincipal) principal).getApplicationId();
+        }
+        if (principal instanceof OrganizationPrincipal) {
+            return "organization:" + ((OrganizationPrincipal) principal).getOrganizationId();
+        }
+
+        return "address:" + httpServletRequest.getRemoteAddr();
+    }
+
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest.filters;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.usergrid.management.ApplicationInfo;
+
+/**
+ * The organization and application a REST request is addressed to. The
+ * {@link #fromPath(String)} form is taken from the request path alone, so an
+ * application addressed by id and by name has two different keys and the
+ * names may not exist. The {@link RateLimitFilter} resolves it to the
+ * application id with {@link #fromApplication(ApplicationInfo)} before it is
+ * used for metering or rate limiting.
+ */
+public class RequestTenant {
+
+    public static final String ATTRIBUTE = "org.usergrid.rest.filters.RequestTenant";
+
+    private static final Pattern UUID_PATTERN = Pattern
+            .compile("[A-Fa-f0-9]{8}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{12}");
+
+    private static final Set<String> SYSTEM_PATHS = new HashSet<String>();
+    private static final Set<String> APPLICATION_PATHS = new HashSet<String>();
+    private static final Set<String> ORGANIZATION_PATHS = new HashSet<String>();
+
+    static {
+        SYSTEM_PATHS.add("management");
+        SYSTEM_PATHS.add("system");
+        SYSTEM_PATHS.add("status");
+        SYSTEM_PATHS.add("lb-status");
+        SYSTEM_PATHS.add("docs");
+        APPLICATION_PATHS.add("applications");
+        APPLICATION_PATHS.add("apps");
+        ORGANIZATION_PATHS.add("organizations");
+        ORGANIZATION_PATHS.add("orgs");
+        ORGANIZATION_PATHS.add("o");
+    }
+
+    private final String organization;
+    private final String application;
+
+    public RequestTenant(String organization, String application) {
+        this.organization = organization;
+        this.application = application;
+    }
+
+    /**
+     * @return The organization name or id, or null if the path only names an
+     *         application id
+     */
+    public String getOrganization() {
+        return organization;
+    }
+
+    /**
+     * @return The application id, or "organization/application" for
+     *         applications addressed by name. Null for organization level
+     *         requests
+     */
+    public String getApplication() {
+        return application;
+    }
+
+    /**
+     * Parse the tenant from a request path relative to the root resource.
+     *
+     * @return The tenant, or null for system and management requests
+     */
+    public static RequestTenant fromPath(String path) {
+        if (path == null) {
+            return null;
+        }
+
+        String[] segments = path.split("/");
+        int i = 0;
+
+        while (i < segments.length && segments[i].length() == 0) {
+            i++;
+        }
+
+        if (i >= segments.length) {
+            return null;
+        }
+
+        String first = segments[i].toLowerCase();
+
+        if (SYSTEM_PATHS.contains(first)) {
+            return null;
+        }
+
+        if (APPLICATION_PATHS.contains(first)) {
+            if (i + 1 < segments.length && isUuid(segments[i + 1])) {
+                return new RequestTenant(null, segments[i + 1].toLowerCase());
+            }
+            return null;
+        }
+
+        if (ORGANIZATION_PATHS.contains(first)) {
+            i++;
+            if (i >= segments.length) {
+                return null;
+            }
+        }
+
+        String organization = segments[i].toLowerCase();
+        String application = i + 1 < segments.length ? segments[i + 1].toLowerCase() : null;
+
+        if (isUuid(organization) && (application == null || !isUuid(application))) {
+            // a bare application id
+            return new RequestTenant(null, organization);
+        }
+
+        if (application != null && APPLICATION_PATHS.contains(application)) {
+            application = i + 2 < segments.length ? segments[i + 2].toLowerCase() : null;
+        }
+
+        if (application == null || application.length() == 0) {
+            return new RequestTenant(organization, null);
+        }
+
+        if (isUuid(application)) {
+            return new RequestTenant(organization, application);
+        }
+
+        return new RequestTenant(organization, organization + "/" + application);
+    }
+
+    /**
+     * The tenant of an existing application, keyed by the application id.
+     *
+     * @return The tenant, or null if there is no application
+     */
+    public static RequestTenant fromApplication(ApplicationInfo application) {
+        if (application == null || application.getId() == null) {
+            return null;
+        }
+
+        String organization = null;
+        String name = application.getName();
+        if (name != null && name.indexOf('/') > 0) {
+            organization = name.substring(0, name.indexOf('/')).toLowerCase();
+        }
+
+        return new RequestTenant(organization, application.getId().toString());
+    }
+
+    private static boolean isUuid(String segment) {
+        return segment.length() == 36 && UUID_PATTERN.matcher(segment).matches();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTenant [organization=" + organization + ", application=" + application + "]";
+    }
+
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest.filters;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * Per organization and per application request metrics. Each tenant gets a
+ * request and rejection meter and histograms of latency and payload sizes.
+ * Tenants are resolved to existing applications by the {@link RateLimitFilter}
+ * after authentication, so a scan of random paths isn't counted at all. The
+ * number of tenants tracked is still bounded, once the limit is reached any
+ * new tenant is counted under {@link #OTHER}.
+ */
+@Component
+public class TenantMetrics {
+
+    public static final String OTHER = "_other";
+
+    public static final int DEFAULT_MAX_TENANTS = 500;
+
+    private final ConcurrentHashMap<String, TenantStats> tenants = new ConcurrentHashMap<String, TenantStats>();
+
+    private int maxTenants = DEFAULT_MAX_TENANTS;
+
+    @Autowired
+    public void setProperties(Properties properties) {
+        String max = properties.getProperty("usergrid.rest.metrics.tenants.max");
+        if (max != null && max.trim().length() > 0) {
+            maxTenants = Integer.parseInt(max.trim());
+        }
+    }
+
+    public void setMaxTenants(int maxTenants) {
+        this.maxTenants = maxTenants;
+    }
+
+    /**
+     * Record a completed request against its organization and application
+     *
+     * @param time
+     *            Request time in milliseconds, negative if unknown
+     * @param upload
+     *            Bytes received
+     * @param download
+     *            Bytes sent
+     */
+    public void record(RequestTenant tenant, long time, long upload, long download) {
+        if (tenant == null) {
+            return;
+        }
+        if (tenant.getOrganization() != null) {
+            getStats("org." + tenant.getOrganization()).record(time, upload, download);
+        }
+        if (tenant.getApplication() != null) {
+            getStats("app." + tenant.getApplication()).record(time, upload, download);
+        }
+    }
+
+    /**
+     * Record a request rejected by the rate limiter
+     */
+    public void reject(RequestTenant tenant) {
+        if (tenant == null) {
+            return;
+        }
+        if (tenant.getOrganization() != null) {
+            getStats("org." + tenant.getOrganization()).rejected.mark();
+        }
+        if (tenant.getApplication() != null) {
+            getStats("app." + tenant.getApplication()).rejected.mark();
+        }
+    }
+
+    /**
+     * @return The current values for every tracked tenant, sorted by key
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, TenantStats> entry : tenants.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return snapshot;
+    }
+
+    TenantStats getStats(String key) {
+        TenantStats stats = tenants.get(key);
+        if (stats != null) {
+            return stats;
+        }
+
+        if (tenants.size() >= maxTenants) {
+            key = OTHER;
+            stats = tenants.get(key);
+            if (stats != null) {
+                return stats;
+            }
+        }
+
+        stats = new TenantStats(key);
+        TenantStats existing = tenants.putIfAbsent(key, stats);
+        return existing != null ? existing : stats;
+    }
+
+    static class TenantStats {
+
+        final Meter requests;
+        final Meter rejected;
+        final Histogram latency;
+        final Histogram upload;
+        final Histogram download;
+
+        TenantStats(String scope) {
+            // uniform samples are a fixed size array, much smaller than the
+            // biased samples a Timer would keep for each tenant
+            requests = Metrics.newMeter(new MetricName(TenantMetrics.class, "requests", scope), "requests",
+                    TimeUnit.SECONDS);
+            rejected = Metrics.newMeter(new MetricName(TenantMetrics.class, "rejected", scope), "requests",
+                    TimeUnit.SECONDS);
+            latency = Metrics.newHistogram(new MetricName(TenantMetrics.class, "latency", scope), false);
+            upload = Metrics.newHistogram(new MetricName(TenantMetrics.class, "upload", scope), false);
+            download = Metrics.newHistogram(new MetricName(TenantMetrics.class, "download", scope), false);
+        }
+
+        void record(long time, long up, long down) {
+            requests.mark();
+            if (time >= 0) {
+                latency.update(time);
+            }
+            upload.update(Math.max(0, up));
+            download.update(Math.max(0, down));
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("requests", requests.count());
+            map.put("requestsPerSecond", requests.oneMinuteRate());
+            map.put("rejected", rejected.count());
+            map.put("latencyMean", latency.mean());
+            map.put("latency99", latency.getSnapshot().get99thPercentile());
+            map.put("uploadMean", upload.mean());
+            map.put("downloadMean", download.mean());
+            return map;
+        }
+    }
+
+}
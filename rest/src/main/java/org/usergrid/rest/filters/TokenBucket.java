@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest.filters;
+
+/**
+ * Token bucket that refills continuously at a fixed rate up to its capacity.
+ * Each request takes one token, so the capacity is the largest burst allowed
+ * after a quiet period.
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double tokensPerSecond, double capacity) {
+        this(tokensPerSecond, capacity, System.nanoTime());
+    }
+
+    TokenBucket(double tokensPerSecond, double capacity, long now) {
+        this.tokensPerNano = tokensPerSecond / 1000000000d;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Take a token if one is available
+     *
+     * @return False if the bucket is empty and the request should be rejected
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire(long now) {
+        refill(now);
+
+        if (tokens < 1) {
+            return false;
+        }
+
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * @return The number of whole seconds until the next token is available,
+     *         at least 1, for use in a Retry-After header
+     */
+    public synchronized long getRetryAfterSeconds() {
+        if (tokensPerNano <= 0) {
+            return 1;
+        }
+        double missing = Math.max(0, 1 - tokens);
+        return Math.max(1, (long) Math.ceil(missing / tokensPerNano / 1000000000d));
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+
+}
@@ -8,16 +8,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.usergrid.persistence.cassandra.util.TraceBuffer;
 import org.usergrid.persistence.cassandra.util.TraceTag;
 import org.usergrid.persistence.cassandra.util.TraceTagManager;
 import org.usergrid.persistence.cassandra.util.TraceTagReporter;
+import org.usergrid.security.shiro.utils.SubjectUtils;
 import org.usergrid.utils.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Context;
 
 /**
- * Attach and detach trace tags at start and end of request scopes
+ * Attach and detach trace tags at start and end of request scopes. A request
+ * is traced if it sends an XX-TRACE-ID header, or if tracing is enabled and
+ * the request falls within the sample rate. The trace breaks down the time
+ * spent per column family, so only system admins get it back in the
+ * X-Usergrid-Trace header. Sampled traces and the traces system admins ask
+ * for are kept in the {@link TraceBuffer} for browsing through
+ * management/metrics/traces, traces anyone else asks for are dropped.
  *
  * @author zznate
  */
@@ -26,10 +34,19 @@ public class TracingFilter implements ContainerRequestFilter, ContainerResponseF
 
     private Logger logger = LoggerFactory.getLogger(TracingFilter.class);
 
+    public static final String TRACE_ID_HEADER = "XX-TRACE-ID";
+
+    public static final String TRACE_RESPONSE_HEADER = "X-Usergrid-Trace";
+
+    /** Request property set when the trace was asked for through the header */
+    private static final String EXPLICIT_TRACE_PROPERTY = TracingFilter.class.getName() + ".explicit";
+
     @Autowired
     private TraceTagManager traceTagManager;
     @Autowired
     private TraceTagReporter traceTagReporter;
+    @Autowired
+    private TraceBuffer traceBuffer;
 
 
     @Context
@@ -41,16 +58,20 @@ public class TracingFilter implements ContainerRequestFilter, ContainerResponseF
             return request;
         }
         String traceId;
-        if ( traceTagManager.getExplicitOnly() ) {
-            // if we are set in explicit mode and the header is not present, leave.
-            String id = httpServletRequest.getHeader("XX-TRACE-ID");
-            if (StringUtils.isBlank(id)) {
-                return request;
-            }
+        String id = httpServletRequest.getHeader(TRACE_ID_HEADER);
+        if ( !StringUtils.isBlank(id) ) {
             traceId = id.concat("-REST-").concat(request.getPath(true));
+            request.getProperties().put(EXPLICIT_TRACE_PROPERTY, Boolean.TRUE);
+        } else if ( traceTagManager.getExplicitOnly() || !traceTagManager.shouldSample() ) {
+            // if we are set in explicit mode and the header is not present, leave.
+            return request;
         } else {
             traceId = "TRACE-".concat(request.getPath(true));
         }
+        if ( traceTagManager.isActive() ) {
+            // left behind by a request on this thread that never reached the response filter
+            logger.warn("Discarding unfinished trace {}", traceTagManager.detach());
+        }
         TraceTag traceTag = traceTagManager.create(traceId);
         traceTagManager.attach(traceTag);
 
@@ -61,7 +82,17 @@ public class TracingFilter implements ContainerRequestFilter, ContainerResponseF
     public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
         if ( traceTagManager.isActive() ) {
             TraceTag traceTag = traceTagManager.detach();
+            traceTag.stop();
+            // the subject is only known once the security filters have run
+            boolean serviceAdmin = SubjectUtils.isServiceAdmin();
+            if ( Boolean.TRUE.equals(request.getProperties().get(EXPLICIT_TRACE_PROPERTY)) && !serviceAdmin ) {
+                return response;
+            }
+            if ( serviceAdmin ) {
+                response.getHttpHeaders().putSingle(TRACE_RESPONSE_HEADER, traceTag.toBreakdown());
+            }
             traceTagReporter.report(traceTag);
+            traceBuffer.add(traceTag);
         }
         return response;
     }
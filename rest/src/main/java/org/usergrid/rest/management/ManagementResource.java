@@ -57,6 +57,7 @@ import org.usergrid.management.exceptions.DisabledAdminUserException;
 import org.usergrid.management.exceptions.UnactivatedAdminUserException;
 import org.usergrid.rest.AbstractContextResource;
 import org.usergrid.rest.exceptions.RedirectionException;
+import org.usergrid.rest.management.metrics.MetricsResource;
 import org.usergrid.rest.management.organizations.OrganizationsResource;
 import org.usergrid.rest.management.users.UsersResource;
 import org.usergrid.security.oauth.AccessInfo;
@@ -119,6 +120,11 @@ public class ManagementResource extends AbstractContextResource {
         return getSubResource(UsersResource.class);
     }
 
+    @Path("metrics")
+    public MetricsResource getMetrics() {
+        return getSubResource(MetricsResource.class);
+    }
+
     @GET
     @Path("me")
     public Response getAccessTokenLight(@Context UriInfo ui, @HeaderParam("Authorization") String authorization,
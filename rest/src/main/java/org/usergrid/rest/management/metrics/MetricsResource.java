@@ -1,14 +1,20 @@
 package org.usergrid.rest.management.metrics;
 
 import com.sun.jersey.api.json.JSONWithPadding;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
+import org.usergrid.persistence.cassandra.util.TraceBuffer;
 import org.usergrid.rest.AbstractContextResource;
 import org.usergrid.rest.ApiResponse;
+import org.usergrid.rest.filters.TenantMetrics;
+import org.usergrid.rest.security.annotations.RequireSystemAccess;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Context;
@@ -21,6 +27,12 @@ import javax.ws.rs.core.Context;
 @Produces({ MediaType.APPLICATION_JSON })
 public class MetricsResource extends AbstractContextResource {
 
+  @Autowired
+  private TraceBuffer traceBuffer;
+
+  @Autowired
+  private TenantMetrics tenantMetrics;
+
   public MetricsResource() {
 
   }
@@ -35,4 +47,40 @@ public class MetricsResource extends AbstractContextResource {
     return new JSONWithPadding(response);
   }
 
+  /**
+   * The most recent request traces, newest first
+   */
+  @RequireSystemAccess
+  @GET
+  @Path("traces")
+  public JSONWithPadding getTraces(@Context UriInfo ui,
+      @QueryParam("callback") @DefaultValue("callback") String callback) {
+
+    ApiResponse response = createApiResponse();
+    response.setAction("get traces");
+    response.setProperty("total", traceBuffer.getTotal());
+    response.setProperty("capacity", traceBuffer.getCapacity());
+    response.setData(traceBuffer.getTraces());
+    response.setSuccess();
+
+    return new JSONWithPadding(response, callback);
+  }
+
+  /**
+   * Request metrics per organization and application
+   */
+  @RequireSystemAccess
+  @GET
+  @Path("tenants")
+  public JSONWithPadding getTenantMetrics(@Context UriInfo ui,
+      @QueryParam("callback") @DefaultValue("callback") String callback) {
+
+    ApiResponse response = createApiResponse();
+    response.setAction("get tenant metrics");
+    response.setData(tenantMetrics.snapshot());
+    response.setSuccess();
+
+    return new JSONWithPadding(response, callback);
+  }
+
 }
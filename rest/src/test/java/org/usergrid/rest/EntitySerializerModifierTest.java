@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.usergrid.persistence.Schema.serializeEntityProperty;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.usergrid.persistence.DynamicEntity;
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.LazyPropertyMap;
+import org.usergrid.persistence.Schema;
+import org.usergrid.persistence.entities.User;
+import org.usergrid.utils.MapUtils;
+import org.usergrid.utils.UUIDUtils;
+
+public class EntitySerializerModifierTest {
+
+  private final ObjectMapper streaming = new JacksonCustomMapperProvider().getContext(ApiResponse.class);
+  private final ObjectMapper plain = new ObjectMapper();
+
+  private Map<String, ByteBuffer> columns(String type, UUID id) {
+    Map<String, Object> values = new LinkedHashMap<String, Object>();
+    values.put(Schema.PROPERTY_TYPE, type);
+    values.put(Schema.PROPERTY_UUID, id);
+    values.put("username", "edanuff");
+    values.put("age", 42);
+    values.put("rating", 4.5d);
+    values.put("activated", true);
+    values.put("friend", UUIDUtils.newTimeUUID().toString());
+    values.put("address", MapUtils.map("city", "San Francisco", "zip", 94107));
+    values.put("tags", Arrays.asList("a", 2, Arrays.asList(3.5d, false)));
+
+    Map<String, ByteBuffer> columns = new LinkedHashMap<String, ByteBuffer>();
+    for (Map.Entry<String, Object> value : values.entrySet()) {
+      columns.put(value.getKey(), serializeEntityProperty(type, value.getKey(), value.getValue()));
+    }
+    return columns;
+  }
+
+  private Entity load(String type, UUID id, Entity entity) {
+    entity.setUuid(id);
+    entity.setProperties(Schema.deserializeEntityProperties(columns(type, id)));
+    return entity;
+  }
+
+  @Test
+  public void sameJson() throws Exception {
+    UUID id = UUIDUtils.newTimeUUID();
+
+    Entity streamed = load("thing", id, new DynamicEntity("thing", id));
+    Entity decoded = load("thing", id, new DynamicEntity("thing", id));
+
+    String json = streaming.writeValueAsString(streamed);
+
+    // nothing was decoded to write the response
+    assertTrue(((LazyPropertyMap) streamed.getDynamicProperties()).isEncoded("address"));
+
+    assertEquals(plain.readTree(plain.writeValueAsString(decoded)), streaming.readTree(json));
+  }
+
+  @Test
+  public void sameJsonAfterRead() throws Exception {
+    UUID id = UUIDUtils.newTimeUUID();
+
+    Entity streamed = load("user", id, new User());
+    Entity decoded = load("user", id, new User());
+
+    // a property that has been read, and changed, is written from its value
+    streamed.setProperty("rating", 5.0d);
+    decoded.setProperty("rating", 5.0d);
+
+    assertEquals(plain.readTree(plain.writeValueAsString(decoded)),
+        streaming.readTree(streaming.writeValueAsString(streamed)));
+  }
+
+}
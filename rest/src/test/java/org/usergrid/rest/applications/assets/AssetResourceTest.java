@@ -18,6 +18,8 @@ import org.slf4j.LoggerFactory;
 import org.usergrid.rest.AbstractRestTest;
 import org.usergrid.rest.applications.utils.UserRepo;
 
+import com.sun.jersey.api.client.ClientResponse;
+
 /**
  * @author zznate
  */
@@ -58,6 +60,18 @@ public class AssetResourceTest extends AbstractRestTest {
     byte[] foundData = IOUtils.toByteArray(is);
     assertEquals(7979, foundData.length);
 
+    ClientResponse rangeResponse = resource().path("/test-organization/test-app/assets/" + id.toString() + "/data")
+                    .queryParam("access_token", access_token)
+                    .header("Range", "bytes=100-199")
+                    .get(ClientResponse.class);
+
+    assertEquals(206, rangeResponse.getStatus());
+    assertEquals("bytes 100-199/7979", rangeResponse.getHeaders().getFirst("Content-Range"));
+    byte[] rangeData = IOUtils.toByteArray(rangeResponse.getEntityInputStream());
+    assertEquals(100, rangeData.length);
+    assertEquals(data[100], rangeData[0]);
+    assertEquals(data[199], rangeData[99]);
+
     node = resource().path("/test-organization/test-app/assets/my/clean/path")
                         .queryParam("access_token", access_token)
                         .accept(MediaType.APPLICATION_JSON_TYPE)
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.management.ApplicationInfo;
+
+public class RateLimitTest {
+
+    private static final String APP_ID = "5a1a7c30-0bd6-11e2-8b07-12313d2e35e1";
+    private static final String ORG_ID = "4b3e5a10-0bd6-11e2-8b07-12313d2e35e1";
+
+    @Test
+    public void tenantFromPath() {
+        assertNull(RequestTenant.fromPath("management/orgs"));
+        assertNull(RequestTenant.fromPath("system/database/setup"));
+        assertNull(RequestTenant.fromPath(""));
+
+        RequestTenant tenant = RequestTenant.fromPath("MyOrg/MyApp/users/fred");
+        assertEquals("myorg", tenant.getOrganization());
+        assertEquals("myorg/myapp", tenant.getApplication());
+
+        tenant = RequestTenant.fromPath("/organizations/myorg/apps/myapp/users");
+        assertEquals("myorg", tenant.getOrganization());
+        assertEquals("myorg/myapp", tenant.getApplication());
+
+        tenant = RequestTenant.fromPath(APP_ID + "/users");
+        assertNull(tenant.getOrganization());
+        assertEquals(APP_ID, tenant.getApplication());
+
+        tenant = RequestTenant.fromPath(ORG_ID + "/" + APP_ID + "/users");
+        assertEquals(ORG_ID, tenant.getOrganization());
+        assertEquals(APP_ID, tenant.getApplication());
+
+        tenant = RequestTenant.fromPath("applications/" + APP_ID);
+        assertNull(tenant.getOrganization());
+        assertEquals(APP_ID, tenant.getApplication());
+
+        tenant = RequestTenant.fromPath("myorg");
+        assertEquals("myorg", tenant.getOrganization());
+        assertNull(tenant.getApplication());
+    }
+
+    @Test
+    public void tenantFromApplication() {
+        assertNull(RequestTenant.fromApplication(null));
+
+        RequestTenant tenant = RequestTenant.fromApplication(new ApplicationInfo(UUID.fromString(APP_ID),
+                "MyOrg/MyApp"));
+        assertEquals("myorg", tenant.getOrganization());
+        assertEquals(APP_ID, tenant.getApplication());
+
+        tenant = RequestTenant.fromApplication(new ApplicationInfo(UUID.fromString(APP_ID), "myapp"));
+        assertNull(tenant.getOrganization());
+        assertEquals(APP_ID, tenant.getApplication());
+    }
+
+    @Test
+    public void tokenBucket() {
+        long second = 1000000000L;
+
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+
+        // the full burst is available at once
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        assertEquals(1, bucket.getRetryAfterSeconds());
+
+        // refills at 2 per second
+        assertTrue(bucket.tryAcquire(second / 2));
+        assertFalse(bucket.tryAcquire(second / 2));
+
+        // never beyond the capacity
+        assertTrue(bucket.tryAcquire(100 * second));
+        assertTrue(bucket.tryAcquire(100 * second));
+        assertTrue(bucket.tryAcquire(100 * second));
+        assertFalse(bucket.tryAcquire(100 * second));
+    }
+
+    @Test
+    public void tenantMetricsBounded() {
+        TenantMetrics metrics = new TenantMetrics();
+        metrics.setMaxTenants(2);
+
+        metrics.record(new RequestTenant("a", "a/one"), 10, 0, 100);
+        metrics.record(new RequestTenant("b", "b/two"), 10, 0, 100);
+
+        assertEquals(3, metrics.snapshot().size());
+        assertTrue(metrics.snapshot().containsKey("org.a"));
+        assertTrue(metrics.snapshot().containsKey("app.a/one"));
+        assertTrue(metrics.snapshot().containsKey(TenantMetrics.OTHER));
+    }
+}
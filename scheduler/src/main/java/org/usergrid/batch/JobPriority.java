@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.batch;
+
+/**
+ * Priority of a scheduled job. Each priority has its own set of queue shards
+ * and the scheduler drains them in declaration order, so a backlog of low
+ * priority work never delays a high priority job that is due.
+ * 
+ */
+public enum JobPriority {
+
+  HIGH, NORMAL, LOW;
+
+  /**
+   * @return The queue path segment for this priority
+   */
+  public String getQueueName() {
+    return name().toLowerCase();
+  }
+
+  /**
+   * Parse the priority stored on the job data. Unknown or missing values are
+   * treated as {@link #NORMAL}
+   * 
+   * @param priority
+   * @return
+   */
+  public static JobPriority fromString(String priority) {
+    if (priority == null) {
+      return NORMAL;
+    }
+
+    try {
+      return valueOf(priority.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      return NORMAL;
+    }
+  }
+}
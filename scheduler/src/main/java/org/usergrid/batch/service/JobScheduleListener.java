@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.batch.service;
+
+/**
+ * Notified when a job is placed on a job queue so the local runtime can fire
+ * it on time rather than waiting for its next poll
+ * 
+ */
+public interface JobScheduleListener {
+
+  /**
+   * A job has been scheduled to fire at the given time
+   * 
+   * @param fireTime
+   *          The time the job is due in milliseconds since epoch
+   */
+  public void jobScheduled(long fireTime);
+}
@@ -4,9 +4,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,10 +37,17 @@ import com.yammer.metrics.annotation.Timed;
  * @author zznate
  * @author tnine
  */
-public class JobSchedulerService extends AbstractScheduledService {
+public class JobSchedulerService extends AbstractScheduledService implements JobScheduleListener {
 
   protected static final long DEFAULT_DELAY = 1000;
   protected static final long ERROR_DELAY = 10000;
+
+  /**
+   * Granularity and size of the timer wheel used to fire jobs that are due
+   * before the next poll
+   */
+  protected static final long WHEEL_TICK = 100;
+  protected static final int WHEEL_SIZE = 512;
   protected static final List<JobDescriptor> EMPTY = Collections.unmodifiableList(new ArrayList<JobDescriptor>(0));
 
   private static final Logger logger = LoggerFactory.getLogger(JobSchedulerService.class);
@@ -53,15 +63,55 @@ public class JobSchedulerService extends AbstractScheduledService {
 
   private ListeningScheduledExecutorService service;
 
+  private TimerWheel timerWheel;
+  private ExecutorService wakeupExecutor;
+
+  /**
+   * Set when a wakeup fetch is queued but hasn't started yet, collapses
+   * wakeups for jobs due on the same tick into a single fetch
+   */
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+  /**
+   * Only one fetch loop runs at a time, whether triggered by the poll or a
+   * wakeup
+   */
+  private final ReentrantLock fetchLock = new ReentrantLock();
+
+  private final Runnable fetchTask = new Runnable() {
+    @Override
+    public void run() {
+      wakeupPending.set(false);
+      fetchJobs();
+    }
+  };
+
+  private final Runnable wakeupTask = new Runnable() {
+    @Override
+    public void run() {
+      if (wakeupPending.compareAndSet(false, true)) {
+        wakeupExecutor.execute(fetchTask);
+      }
+    }
+  };
+
   public JobSchedulerService() {
   }
 
   @Timed(name = "BulkJobScheduledService_runOneIteration", group = "scheduler", durationUnit = TimeUnit.MILLISECONDS, rateUnit = TimeUnit.MINUTES)
   @Override
   protected void runOneIteration() throws Exception {
+    logger.info("running iteration...");
+    fetchJobs();
+  }
+
+  /**
+   * Fire the jobs that are due until we run out of jobs
+   */
+  private void fetchJobs() {
+    fetchLock.lock();
 
     try {
-      logger.info("running iteration...");
       List<JobDescriptor> activeJobs = null;
 
       // run until there are no more active jobs
@@ -98,8 +148,28 @@ public class JobSchedulerService extends AbstractScheduledService {
       }
     } catch (Throwable t) {
       logger.error("Something really bad happened!  Scheduler run failed", t);
+    } finally {
+      fetchLock.unlock();
+    }
+
+  }
+
+  /**
+   * Jobs that are due before the next poll are placed on the timer wheel so
+   * they are fetched when they fire instead of up to one interval late. The
+   * queue only hands out messages that are already due, so the wheel triggers
+   * a fetch rather than holding the job itself
+   * 
+   * @see
+   * org.usergrid.batch.service.JobScheduleListener#jobScheduled(long)
+   */
+  @Override
+  public void jobScheduled(long fireTime) {
+    if (!isRunning() || fireTime - System.currentTimeMillis() > interval) {
+      return;
     }
 
+    timerWheel.schedule(fireTime, wakeupTask);
   }
 
   /*
@@ -237,6 +307,9 @@ public class JobSchedulerService extends AbstractScheduledService {
   protected void startUp() throws Exception {
     service = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(workerSize));
     capacitySemaphore = new Semaphore(workerSize);
+    wakeupExecutor = Executors.newSingleThreadExecutor();
+    timerWheel = new TimerWheel(WHEEL_TICK, WHEEL_SIZE);
+    timerWheel.start();
     super.startUp();
   }
 
@@ -247,6 +320,8 @@ public class JobSchedulerService extends AbstractScheduledService {
    */
   @Override
   protected void shutDown() throws Exception {
+    timerWheel.stop();
+    wakeupExecutor.shutdown();
     service.shutdown();
     super.shutDown();
   }
@@ -17,6 +17,7 @@ package org.usergrid.batch.service;
 
 import java.util.UUID;
 
+import org.usergrid.batch.JobPriority;
 import org.usergrid.persistence.Query;
 import org.usergrid.persistence.Results;
 import org.usergrid.persistence.entities.JobData;
@@ -43,6 +44,19 @@ public interface SchedulerService {
    */
   public JobData createJob(String jobName, long fireTime, JobData jobData);
 
+  /**
+   * Create a new job with the given priority. Jobs of a higher priority that
+   * are due are always run before due jobs of a lower priority
+   * 
+   * @param jobName The name of the job
+   * @param fireTime The time to fire in milliseconds since epoch
+   * @param priority The priority of the job
+   * @param jobData The data to pass to the job
+   * 
+   * @return The newly created job data.  The job data uuid is the job id
+   */
+  public JobData createJob(String jobName, long fireTime, JobPriority priority, JobData jobData);
+
   /**
    * Delete the job.
    * 
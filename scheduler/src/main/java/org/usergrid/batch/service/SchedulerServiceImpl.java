@@ -18,10 +18,25 @@ package org.usergrid.batch.service;
 import static org.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,10 +44,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.Assert;
 import org.usergrid.batch.JobExecution;
 import org.usergrid.batch.JobExecution.Status;
+import org.usergrid.batch.JobPriority;
 import org.usergrid.batch.JobRuntime;
 import org.usergrid.batch.JobRuntimeException;
 import org.usergrid.batch.repository.JobAccessor;
 import org.usergrid.batch.repository.JobDescriptor;
+import org.usergrid.locking.Lock;
+import org.usergrid.locking.LockManager;
+import org.usergrid.locking.exception.UGLockException;
 import org.usergrid.mq.Message;
 import org.usergrid.mq.QueueManager;
 import org.usergrid.mq.QueueManagerFactory;
@@ -48,6 +67,12 @@ import org.usergrid.persistence.entities.JobData;
 import org.usergrid.persistence.entities.JobStat;
 import org.usergrid.persistence.exceptions.TransactionNotFoundException;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
 /**
  * Should be referenced by services as a SchedulerService instance. Only the
  * internal job runtime should refer to this as a JobAccessor
@@ -76,11 +101,58 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
 
   private static final String DEFAULT_QUEUE_NAME = "/jobs";
 
+  private static final int DEFAULT_SHARD_COUNT = 4;
+
+  private static final long DEFAULT_HEARTBEAT_INTERVAL = 1000;
+
+  private static final long DEFAULT_IDLE_SHARD_INTERVAL = 10000;
+
   private QueueManagerFactory qmf;
   private EntityManagerFactory emf;
+  private LockManager lockManager;
+  private JobScheduleListener scheduleListener;
 
   private String jobQueueName = DEFAULT_QUEUE_NAME;
 
+  /**
+   * The number of queues each priority is spread across. Every runtime node
+   * claims a shard before reading it so nodes drain different shards instead
+   * of contending on a single queue
+   */
+  private int shardCount = DEFAULT_SHARD_COUNT;
+
+  /**
+   * Rotates the first shard we read so no shard is starved when capacity is
+   * used up before all shards are visited
+   */
+  private final AtomicInteger shardOffset = new AtomicInteger();
+
+  /**
+   * Hands out shards to new jobs round robin
+   */
+  private final AtomicInteger nextShard = new AtomicInteger();
+
+  /**
+   * How long in milliseconds a queue that was read empty is skipped, so idle
+   * polls don't claim and read every shard. The queue is still read when a
+   * job posted from this runtime comes due, jobs posted from other runtimes
+   * can wait up to this long. Default is 10000, 0 reads every queue on every
+   * poll
+   */
+  private long idleShardInterval = DEFAULT_IDLE_SHARD_INTERVAL;
+
+  /**
+   * When each queue that was last read empty can be read again, keyed by
+   * queue path
+   */
+  private final ConcurrentHashMap<String, Long> idleShards = new ConcurrentHashMap<String, Long>();
+
+  /**
+   * Fire times of the jobs this runtime posted that haven't come due yet,
+   * keyed by queue path. A queue is never skipped past one of them
+   */
+  private final ConcurrentHashMap<String, ConcurrentSkipListSet<Long>> localFireTimes = new ConcurrentHashMap<String, ConcurrentSkipListSet<Long>>();
+
   private QueueManager qm;
   private EntityManager em;
 
@@ -90,6 +162,41 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
    */
   private long jobTimeout = 30000;
 
+  /**
+   * How often in milliseconds requested heartbeats are renewed and job stats
+   * are written. Default is 1000
+   */
+  private long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+
+  /**
+   * The lease of every transaction this runtime holds, keyed by transaction id
+   */
+  private final Map<UUID, Lease> leases = new ConcurrentHashMap<UUID, Lease>();
+
+  /**
+   * Job stats waiting to be written, keyed by stat id so repeated saves of the
+   * same job collapse into one write
+   */
+  private final ConcurrentHashMap<UUID, JobStat> pendingStats = new ConcurrentHashMap<UUID, JobStat>();
+
+  /**
+   * Job operations on a transaction take the read lock, the sweep takes the
+   * write lock so no transaction is renewed while its job is acknowledging it
+   */
+  private final ReadWriteLock transactionLock = new ReentrantReadWriteLock();
+
+  private ScheduledExecutorService sweeper;
+
+  private final Timer bookkeepingTimer = Metrics.newTimer(SchedulerServiceImpl.class, "bookkeeping",
+      TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+  private final Timer sweepTimer = Metrics.newTimer(SchedulerServiceImpl.class, "sweep", TimeUnit.MILLISECONDS,
+      TimeUnit.SECONDS);
+  private final Histogram heartbeatBatchSize = Metrics.newHistogram(SchedulerServiceImpl.class, "heartbeat_batch_size");
+  private final Histogram statBatchSize = Metrics.newHistogram(SchedulerServiceImpl.class, "stat_batch_size");
+
+  private final AtomicLong bookkeepingNanos = new AtomicLong();
+  private final AtomicLong finishedJobs = new AtomicLong();
+
   /**
    * 
    */
@@ -105,15 +212,31 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
    */
   @Override
   public JobData createJob(String jobName, long fireTime, JobData jobData) {
+    return createJob(jobName, fireTime, JobPriority.fromString(jobData == null ? null : jobData.getPriority()), jobData);
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see
+   * org.usergrid.batch.service.SchedulerService#createJob(java.lang.String,
+   * long, org.usergrid.batch.JobPriority,
+   * org.usergrid.persistence.entities.JobData)
+   */
+  @Override
+  public JobData createJob(String jobName, long fireTime, JobPriority priority, JobData jobData) {
     Assert.notNull(jobName, "jobName is required");
+    Assert.notNull(priority, "priority is required");
     Assert.notNull(jobData, "jobData is required");
 
     try {
       jobData.setJobName(jobName);
+      jobData.setPriority(priority.toString());
+      jobData.setShard(nextShard());
       JobData job = em.create(jobData);
       JobStat stat = em.create(new JobStat(jobName, job.getUuid()));
 
-      scheduleJob(jobName, fireTime, job.getUuid(), stat.getUuid());
+      scheduleJob(jobName, fireTime, job, stat.getUuid());
 
       return job;
 
@@ -128,24 +251,79 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
    * 
    * @param fireTime
    * @param jobName
-   * @param jobDataId
+   * @param jobData
    */
-  private void scheduleJob(String jobName, long fireTime, UUID jobDataId, UUID jobStatId) {
+  private void scheduleJob(String jobName, long fireTime, JobData jobData, UUID jobStatId) {
     Assert.notNull(jobName, "jobName is required");
     Assert.isTrue(fireTime > -1, "fireTime must be positive");
-    Assert.notNull(jobDataId, "jobDataId is required");
+    Assert.notNull(jobData, "jobData is required");
     Assert.notNull(jobStatId, "jobStatId is required");
 
     Message message = new Message();
     message.setTimestamp(fireTime);
     message.setStringProperty(JOB_NAME, jobName);
-    message.setProperty(JOB_ID, jobDataId);
+    message.setProperty(JOB_ID, jobData.getUuid());
     message.setProperty(STATS_ID, jobStatId);
 
-    qm.postToQueue(jobQueueName, message);
+    // a job left on a shard that no longer exists moves to one that is read,
+    // the caller saves the job data
+    if (jobData.getPriority() != null && (jobData.getShard() == null || jobData.getShard() >= shardCount)) {
+      jobData.setShard(nextShard());
+    }
+
+    String queuePath = getQueuePath(jobData);
+
+    qm.postToQueue(queuePath, message);
+
+    if (idleShardInterval > 0) {
+      addLocalFireTime(queuePath, fireTime);
+    }
+
+    if (scheduleListener != null) {
+      scheduleListener.jobScheduled(fireTime);
+    }
 
   }
 
+  /**
+   * Get the queue the job is scheduled on. The shard is stored with the job,
+   * so a job is always posted to and acknowledged from the same queue even if
+   * the shard count changes in between. Jobs created before priorities
+   * existed have no priority and remain on the base job queue
+   * 
+   * @param jobData
+   * @return
+   */
+  private String getQueuePath(JobData jobData) {
+    if (jobData.getPriority() == null) {
+      return jobQueueName;
+    }
+
+    Integer shard = jobData.getShard();
+
+    // scheduled before the shard was stored, it was hashed by job id
+    if (shard == null) {
+      shard = (jobData.getUuid().hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+
+    return getQueuePath(JobPriority.fromString(jobData.getPriority()), shard);
+  }
+
+  private int nextShard() {
+    return (nextShard.getAndIncrement() & Integer.MAX_VALUE) % shardCount;
+  }
+
+  /**
+   * Get the queue path for the shard of the given priority
+   * 
+   * @param priority
+   * @param shard
+   * @return
+   */
+  private String getQueuePath(JobPriority priority, int shard) {
+    return jobQueueName + "/" + priority.getQueueName() + "/" + shard;
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -172,13 +350,181 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
    */
   @Override
   public List<JobDescriptor> getJobs(int size) {
+    TimerContext timer = bookkeepingTimer.time();
+    long start = System.nanoTime();
+
+    try {
+      return readJobs(size);
+    } finally {
+      timer.stop();
+      bookkeepingNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Read up to size jobs, highest priority first
+   * 
+   * @param size
+   * @return
+   */
+  private List<JobDescriptor> readJobs(int size) {
+    List<JobDescriptor> results = new ArrayList<JobDescriptor>(size);
+
+    int offset = shardOffset.getAndIncrement() & Integer.MAX_VALUE;
+
+    // drain every shard of a priority before moving to the next priority
+    for (JobPriority priority : JobPriority.values()) {
+      for (int i = 0; i < shardCount && results.size() < size; i++) {
+        readShard(getQueuePath(priority, (offset + i) % shardCount), size - results.size(), results);
+      }
+    }
+
+    // jobs scheduled before priorities existed
+    if (results.size() < size && !isIdle(jobQueueName)) {
+      readQueue(jobQueueName, size - results.size(), results);
+    }
+
+    return results;
+  }
+
+  /**
+   * Read from the shard if no other runtime is currently reading it. If the
+   * shard is claimed we skip it, the other runtime is draining it for us
+   * 
+   * @param queuePath
+   * @param size
+   * @param results
+   */
+  private void readShard(String queuePath, int size, List<JobDescriptor> results) {
+    if (isIdle(queuePath)) {
+      return;
+    }
+
+    if (lockManager == null) {
+      readQueue(queuePath, size, results);
+      return;
+    }
+
+    Lock lock = null;
+
+    try {
+      lock = lockManager.createLock(MANAGEMENT_APPLICATION_ID, "scheduler", queuePath);
+
+      if (!lock.tryLock(0, TimeUnit.MILLISECONDS)) {
+        logger.debug("Shard {} is claimed by another runtime, skipping", queuePath);
+        return;
+      }
+    } catch (UGLockException e) {
+      logger.warn("Unable to claim shard {}, skipping", queuePath, e);
+      return;
+    }
+
+    try {
+      readQueue(queuePath, size, results);
+    } finally {
+      try {
+        lock.unlock();
+      } catch (UGLockException e) {
+        logger.error("Unable to release shard {}", queuePath, e);
+      }
+    }
+  }
+
+  /**
+   * True if the queue was read empty recently enough to skip it
+   * 
+   * @param queuePath
+   * @return
+   */
+  private boolean isIdle(String queuePath) {
+    Long idleUntil = idleShards.get(queuePath);
+
+    if (idleUntil == null) {
+      return false;
+    }
+
+    if (idleUntil > System.currentTimeMillis()) {
+      return true;
+    }
+
+    idleShards.remove(queuePath, idleUntil);
+    return false;
+  }
+
+  /**
+   * Skip the queue until the idle interval passes or a job posted to it from
+   * this runtime comes due, whichever is first
+   * 
+   * @param queuePath
+   */
+  private void markIdle(String queuePath) {
+    long now = System.currentTimeMillis();
+    long idleUntil = now + idleShardInterval;
+
+    ConcurrentSkipListSet<Long> fireTimes = localFireTimes.get(queuePath);
+
+    if (fireTimes != null) {
+      // these were due before the read, so it has seen them
+      fireTimes.headSet(now, true).clear();
+
+      Long next = fireTimes.ceiling(now);
+
+      if (next != null && next < idleUntil) {
+        idleUntil = next;
+      }
+    }
+
+    idleShards.put(queuePath, idleUntil);
+  }
+
+  /**
+   * Remember the fire time of a job posted to the queue, and make sure the
+   * queue is read again by then
+   * 
+   * @param queuePath
+   * @param fireTime
+   */
+  private void addLocalFireTime(String queuePath, long fireTime) {
+    ConcurrentSkipListSet<Long> fireTimes = localFireTimes.get(queuePath);
+
+    if (fireTimes == null) {
+      fireTimes = new ConcurrentSkipListSet<Long>();
+      ConcurrentSkipListSet<Long> existing = localFireTimes.putIfAbsent(queuePath, fireTimes);
+
+      if (existing != null) {
+        fireTimes = existing;
+      }
+    }
+
+    fireTimes.add(fireTime);
+
+    Long idleUntil = idleShards.get(queuePath);
+
+    if (idleUntil != null && idleUntil > fireTime) {
+      idleShards.remove(queuePath, idleUntil);
+    }
+  }
+
+  /**
+   * Read up to size jobs from the queue into results
+   * 
+   * @param queuePath
+   * @param size
+   * @param results
+   */
+  private void readQueue(String queuePath, int size, List<JobDescriptor> results) {
     QueueQuery query = new QueueQuery();
     query.setTimeout(jobTimeout);
     query.setLimit(size);
 
-    QueueResults jobs = qm.getFromQueue(jobQueueName, query);
+    // the transactions expire no later than a timeout from before the read
+    long expiration = System.currentTimeMillis() + jobTimeout;
 
-    List<JobDescriptor> results = new ArrayList<JobDescriptor>(jobs.size());
+    QueueResults jobs = qm.getFromQueue(queuePath, query);
+
+    if (jobs.getMessages().isEmpty() && idleShardInterval > 0) {
+      markIdle(queuePath);
+    }
 
     for (Message job : jobs.getMessages()) {
 
@@ -189,7 +535,7 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
       try {
         JobData data = em.get(jobUuid, JobData.class);
 
-        JobStat stats = em.get(statsUuid, JobStat.class);
+        JobStat stats = getStats(statsUuid);
 
         /**
          * no job data, which is required even if empty to signal the job should
@@ -197,7 +543,7 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
          */
         if (data == null || stats == null) {
           logger.info("Received job with data id '{}' from the queue, but no data was found.  Dropping job", jobUuid);
-          qm.deleteTransaction(jobQueueName, job.getTransaction(), null);
+          qm.deleteTransaction(queuePath, job.getTransaction(), null);
 
           if (data != null) {
             em.delete(data);
@@ -210,6 +556,8 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
           continue;
         }
 
+        leases.put(job.getTransaction(), new Lease(expiration));
+
         results.add(new JobDescriptor(jobName, job.getUuid(), job.getTransaction(), data, stats, this));
 
       } catch (Exception e) {
@@ -223,20 +571,45 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
       }
 
     }
-
-    return results;
   }
 
+  /**
+   * If the current transaction outlives the next sweep the renewal is left to
+   * the sweep, which renews all requested heartbeats in one batch. Otherwise
+   * the transaction is renewed immediately
+   * 
+   * @see org.usergrid.batch.service.JobRuntimeService#heartbeat(org.usergrid.batch.JobRuntime, long)
+   */
   @Override
   public void heartbeat(JobRuntime execution, long delay) {
+    TimerContext timer = bookkeepingTimer.time();
+    long start = System.nanoTime();
+
+    transactionLock.readLock().lock();
+
     try {
-      UUID newId = qm.renewTransaction(jobQueueName, execution.getTransactionId(),
+      UUID transactionId = execution.getTransactionId();
+      Lease lease = leases.get(transactionId);
+
+      if (lease != null && lease.expiration - System.currentTimeMillis() > heartbeatInterval * 2) {
+        lease.request(execution, delay);
+        return;
+      }
+
+      UUID newId = qm.renewTransaction(getQueuePath(execution.getExecution().getJobData()), transactionId,
           new QueueQuery().withTimeout(delay));
 
+      leases.remove(transactionId);
+      leases.put(newId, new Lease(System.currentTimeMillis() + delay));
+
       execution.setTransactionId(newId);
     } catch (TransactionNotFoundException e) {
       logger.error("Could not renew transaction", e);
       throw new JobRuntimeException("Could not renew transaction during heartbeat", e);
+    } finally {
+      transactionLock.readLock().unlock();
+      timer.stop();
+      bookkeepingNanos.addAndGet(System.nanoTime() - start);
     }
   }
 
@@ -273,13 +646,18 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
     JobStat stat = bulkJobExecution.getJobStats();
 
     Status jobStatus = bulkJobExecution.getStatus();
-    
+
+    TimerContext timer = bookkeepingTimer.time();
+    long start = System.nanoTime();
+
+    transactionLock.readLock().lock();
+
     try {
 
       // we're done. Mark the transaction as complete and delete the job info
       if (jobStatus == Status.COMPLETED) {
         logger.info("Job {} is complete", data.getJobName());
-        qm.deleteTransaction(jobQueueName, bulkJobExecution.getTransactionId(), null);
+        qm.deleteTransaction(getQueuePath(data), bulkJobExecution.getTransactionId(), null);
         em.delete(data);
       }
       
@@ -287,22 +665,38 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
       // running again and save it for querying later
       else if (jobStatus == Status.DEAD) {
         logger.warn("Job {} is dead.  Removing", data.getJobName());
-        qm.deleteTransaction(jobQueueName, bulkJobExecution.getTransactionId(), null);
+        qm.deleteTransaction(getQueuePath(data), bulkJobExecution.getTransactionId(), null);
         em.update(data);
       }
       
-      // update the job for the next run
-      else {
+      // update the job for the next run. A job that has just started has only
+      // changed its stats
+      else if (jobStatus != Status.IN_PROGRESS) {
         em.update(data);
       }
-      
-      logger.info("Updating stats for job {}", data.getJobName());
-      
-      em.update(stat);
+
+      // no more heartbeats will come for this transaction
+      if (jobStatus != Status.IN_PROGRESS) {
+        leases.remove(bulkJobExecution.getTransactionId());
+        finishedJobs.incrementAndGet();
+      }
+
+      // the run count incremented on start is what marks a job that keeps
+      // failing as dead, so it has to survive this node going down
+      if (jobStatus == Status.IN_PROGRESS || jobStatus == Status.DEAD) {
+        writeStats(stat);
+      } else {
+        logger.debug("Queueing stats update for job {}", data.getJobName());
+        pendingStats.put(stat.getUuid(), stat);
+      }
       
     } catch (Exception e) {
       // should never happen
       throw new JobRuntimeException(String.format("Unable to delete job data with id %s", data.getUuid()), e);
+    } finally {
+      transactionLock.readLock().unlock();
+      timer.stop();
+      bookkeepingNanos.addAndGet(System.nanoTime() - start);
     }
 
   }
@@ -337,29 +731,38 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
     JobData data = execution.getJobData();
     JobStat stat = execution.getJobStats();
 
+    transactionLock.readLock().lock();
+
     try {
 
+      leases.remove(execution.getTransactionId());
+
       // if it's a dead status, it's failed too many times, just kill the job
       if (execution.getStatus() == Status.DEAD) {
-        qm.deleteTransaction(jobQueueName, execution.getTransactionId(), null);
+        qm.deleteTransaction(getQueuePath(data), execution.getTransactionId(), null);
         em.update(data);
-        em.update(stat);
+        writeStats(stat);
         return;
       }
 
+      // rescheduling can move the job to another shard
+      String queuePath = getQueuePath(data);
+
       // re-schedule the job to run again in the future
-      scheduleJob(execution.getJobName(), System.currentTimeMillis() + delay, data.getUuid(), stat.getUuid());
+      scheduleJob(execution.getJobName(), System.currentTimeMillis() + delay, data, stat.getUuid());
 
       // delete the pending transaction
-      qm.deleteTransaction(jobQueueName, execution.getTransactionId(), null);
+      qm.deleteTransaction(queuePath, execution.getTransactionId(), null);
 
       // update the data for the next run
 
       em.update(data);
-      em.update(stat);
+      pendingStats.put(stat.getUuid(), stat);
     } catch (Exception e) {
       // should never happen
       throw new JobRuntimeException(String.format("Unable to delete job data with id %s", data.getUuid()), e);
+    } finally {
+      transactionLock.readLock().unlock();
     }
 
   }
@@ -369,6 +772,9 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
    */
   @Override
   public JobStat getStatsForJob(String jobName, UUID jobId) throws Exception {
+    // make sure we read our own writes
+    flushStats();
+
     EntityManager em = emf.getEntityManager(MANAGEMENT_APPLICATION_ID);
     
     
@@ -385,11 +791,206 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
     return null;
   }
 
+  /**
+   * Renew every requested heartbeat in one batch per queue, drop the leases of
+   * transactions that have expired and write the pending job stats
+   */
+  public void sweep() {
+    TimerContext timer = sweepTimer.time();
+    long start = System.nanoTime();
+
+    try {
+      renewLeases();
+      flushStats();
+    } catch (Throwable t) {
+      logger.error("Unable to sweep job transactions", t);
+    } finally {
+      timer.stop();
+      bookkeepingNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Renew the transactions of every lease with a requested heartbeat
+   */
+  private void renewLeases() {
+    transactionLock.writeLock().lock();
+
+    try {
+      long now = System.currentTimeMillis();
+
+      // queue path -> timeout -> transaction id -> lease
+      Map<String, Map<Long, Map<UUID, Lease>>> requested = new HashMap<String, Map<Long, Map<UUID, Lease>>>();
+
+      for (Iterator<Entry<UUID, Lease>> it = leases.entrySet().iterator(); it.hasNext();) {
+        Entry<UUID, Lease> entry = it.next();
+        Lease lease = entry.getValue();
+
+        if (lease.expiration < now) {
+          it.remove();
+          continue;
+        }
+
+        if (lease.runtime == null) {
+          continue;
+        }
+
+        String queuePath = getQueuePath(lease.runtime.getExecution().getJobData());
+
+        Map<Long, Map<UUID, Lease>> byTimeout = requested.get(queuePath);
+
+        if (byTimeout == null) {
+          byTimeout = new HashMap<Long, Map<UUID, Lease>>();
+          requested.put(queuePath, byTimeout);
+        }
+
+        Map<UUID, Lease> batch = byTimeout.get(lease.timeout);
+
+        if (batch == null) {
+          batch = new HashMap<UUID, Lease>();
+          byTimeout.put(lease.timeout, batch);
+        }
+
+        batch.put(entry.getKey(), lease);
+      }
+
+      for (Entry<String, Map<Long, Map<UUID, Lease>>> queue : requested.entrySet()) {
+        for (Entry<Long, Map<UUID, Lease>> timeout : queue.getValue().entrySet()) {
+          renewLeases(queue.getKey(), timeout.getKey(), timeout.getValue());
+        }
+      }
+    } finally {
+      transactionLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Renew all the leases on the queue with the given timeout
+   * 
+   * @param queuePath
+   * @param timeout
+   * @param batch
+   */
+  private void renewLeases(String queuePath, long timeout, Map<UUID, Lease> batch) {
+    heartbeatBatchSize.update(batch.size());
+
+    long expiration = System.currentTimeMillis() + timeout;
+    Map<UUID, UUID> renewed;
+
+    try {
+      renewed = qm.renewTransactions(queuePath, batch.keySet(), new QueueQuery().withTimeout(timeout));
+    } catch (Exception e) {
+      // the leases are left as they are and retried on the next sweep
+      logger.error("Unable to renew {} transactions on queue {}", new Object[] { batch.size(), queuePath, e });
+      return;
+    }
+
+    for (Entry<UUID, Lease> entry : batch.entrySet()) {
+      Lease lease = leases.remove(entry.getKey());
+      UUID newId = renewed.get(entry.getKey());
+
+      if (newId == null) {
+        logger.warn("Transaction {} on queue {} no longer exists, unable to renew", entry.getKey(), queuePath);
+        continue;
+      }
+
+      lease.runtime.setTransactionId(newId);
+      leases.put(newId, new Lease(expiration));
+    }
+  }
+
+  /**
+   * Get the stats of a job, the pending update if there is one since it's
+   * newer than what is stored
+   * 
+   * @param statsUuid
+   * @return
+   * @throws Exception
+   */
+  private JobStat getStats(UUID statsUuid) throws Exception {
+    JobStat stats = pendingStats.get(statsUuid);
+
+    if (stats != null) {
+      return stats;
+    }
+
+    return em.get(statsUuid, JobStat.class);
+  }
+
+  /**
+   * Write the stats now instead of with the next sweep
+   * 
+   * @param stat
+   * @throws Exception
+   */
+  private void writeStats(JobStat stat) throws Exception {
+    em.update(stat);
+    pendingStats.remove(stat.getUuid(), stat);
+  }
+
+  /**
+   * Write all pending job stats in a single batch. Stats stay pending until
+   * they're written so reads never fall back to an older stored copy
+   */
+  private void flushStats() {
+    if (pendingStats.isEmpty()) {
+      return;
+    }
+
+    List<JobStat> stats = new ArrayList<JobStat>(pendingStats.values());
+
+    statBatchSize.update(stats.size());
+
+    try {
+      em.updateAll(stats);
+    } catch (Exception e) {
+      logger.error("Unable to write {} job stats, retrying on the next sweep", stats.size(), e);
+      return;
+    }
+
+    // don't drop a newer update of the same stat
+    for (JobStat stat : stats) {
+      pendingStats.remove(stat.getUuid(), stat);
+    }
+  }
+
   @PostConstruct
   public void init() {
     qm = qmf.getQueueManager(CassandraService.MANAGEMENT_APPLICATION_ID);
     em = emf.getEntityManager(CassandraService.MANAGEMENT_APPLICATION_ID);
 
+    Metrics.newGauge(SchedulerServiceImpl.class, "bookkeeping_micros_per_job", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        long jobs = finishedJobs.get();
+        return jobs == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(bookkeepingNanos.get()) / jobs;
+      }
+    });
+
+    sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "SchedulerSweep");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    sweeper.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        sweep();
+      }
+    }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void destroy() {
+    if (sweeper != null) {
+      sweeper.shutdown();
+    }
+
+    flushStats();
   }
 
   /**
@@ -410,6 +1011,52 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
     this.emf = emf;
   }
 
+  /**
+   * @param lockManager
+   *          the lockManager used to claim queue shards
+   */
+  @Autowired
+  public void setLockManager(LockManager lockManager) {
+    this.lockManager = lockManager;
+  }
+
+  /**
+   * @param scheduleListener
+   *          the listener to notify when a job is scheduled
+   */
+  public void setScheduleListener(JobScheduleListener scheduleListener) {
+    this.scheduleListener = scheduleListener;
+  }
+
+  /**
+   * @param shardCount
+   *          the number of queue shards per priority
+   */
+  public void setShardCount(int shardCount) {
+    Assert.isTrue(shardCount > 0, "shardCount must be positive");
+    this.shardCount = shardCount;
+  }
+
+  /**
+   * @param heartbeatInterval
+   *          how often in milliseconds heartbeats are renewed and job stats
+   *          written
+   */
+  public void setHeartbeatInterval(long heartbeatInterval) {
+    Assert.isTrue(heartbeatInterval > 0, "heartbeatInterval must be positive");
+    this.heartbeatInterval = heartbeatInterval;
+  }
+
+  /**
+   * @param idleShardInterval
+   *          how long in milliseconds a queue that was read empty is skipped,
+   *          0 to read every queue on every poll
+   */
+  public void setIdleShardInterval(long idleShardInterval) {
+    Assert.isTrue(idleShardInterval >= 0, "idleShardInterval must not be negative");
+    this.idleShardInterval = idleShardInterval;
+  }
+
   /**
    * @param jobQueueName
    *          the jobQueueName to set
@@ -426,4 +1073,31 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
     this.jobTimeout = timeout;
   }
 
+  /**
+   * The lease we hold on a job transaction
+   */
+  private static class Lease {
+
+    /**
+     * When the transaction times out
+     */
+    private final long expiration;
+
+    /**
+     * The execution that requested a heartbeat and the timeout it requested,
+     * null if no heartbeat is pending
+     */
+    private volatile JobRuntime runtime;
+    private volatile long timeout;
+
+    private Lease(long expiration) {
+      this.expiration = expiration;
+    }
+
+    private void request(JobRuntime runtime, long timeout) {
+      this.timeout = timeout;
+      this.runtime = runtime;
+    }
+  }
+
 }
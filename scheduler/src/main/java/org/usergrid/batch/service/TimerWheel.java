@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.batch.service;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A hashed timer wheel. Scheduling and expiring a task are constant time
+ * regardless of how many tasks are pending, at the cost of firing tasks with
+ * tick granularity. Tasks are run on the wheel thread and must be short, hand
+ * any real work off to an executor.
+ * 
+ */
+public class TimerWheel {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+  private final long tickMillis;
+  private final LinkedList<Timeout>[] slots;
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+  private volatile boolean running = false;
+  private Thread worker;
+  private long startTime;
+  private long tick;
+
+  /**
+   * @param tickMillis
+   *          The granularity of the wheel in milliseconds
+   * @param wheelSize
+   *          The number of slots in the wheel
+   */
+  @SuppressWarnings("unchecked")
+  public TimerWheel(long tickMillis, int wheelSize) {
+    Assert.isTrue(tickMillis > 0, "tickMillis must be positive");
+    Assert.isTrue(wheelSize > 0, "wheelSize must be positive");
+
+    this.tickMillis = tickMillis;
+    this.slots = new LinkedList[wheelSize];
+
+    for (int i = 0; i < wheelSize; i++) {
+      slots[i] = new LinkedList<Timeout>();
+    }
+  }
+
+  /**
+   * Run the task once the deadline has passed. Deadlines in the past fire on
+   * the next tick
+   * 
+   * @param deadline
+   *          The time in milliseconds since epoch
+   * @param task
+   */
+  public void schedule(long deadline, Runnable task) {
+    Assert.notNull(task, "task is required");
+    pending.add(new Timeout(deadline, task));
+  }
+
+  /**
+   * @return The number of tasks that have not yet fired
+   */
+  public synchronized int size() {
+    int size = pending.size();
+
+    for (LinkedList<Timeout> slot : slots) {
+      size += slot.size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Start the wheel thread
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+
+    running = true;
+    startTime = System.currentTimeMillis();
+    tick = 0;
+
+    worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        turn();
+      }
+    }, "TimerWheel");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Stop the wheel thread. Pending tasks are discarded
+   */
+  public void stop() {
+    Thread toJoin;
+
+    synchronized (this) {
+      running = false;
+      toJoin = worker;
+      worker = null;
+    }
+
+    if (toJoin == null) {
+      return;
+    }
+
+    toJoin.interrupt();
+
+    try {
+      toJoin.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    synchronized (this) {
+      pending.clear();
+
+      for (LinkedList<Timeout> slot : slots) {
+        slot.clear();
+      }
+    }
+  }
+
+  private void turn() {
+    while (running) {
+      long nextTick = startTime + (tick + 1) * tickMillis;
+      long sleep = nextTick - System.currentTimeMillis();
+
+      if (sleep > 0) {
+        try {
+          Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+
+      tick++;
+
+      for (Runnable task : expire()) {
+        try {
+          task.run();
+        } catch (Throwable t) {
+          logger.error("Timer task failed", t);
+        }
+      }
+    }
+  }
+
+  /**
+   * Place pending timeouts in their slot and remove the expired timeouts from
+   * the current slot
+   */
+  private synchronized LinkedList<Runnable> expire() {
+    Timeout timeout;
+
+    while ((timeout = pending.poll()) != null) {
+      // never place a timeout behind the current tick
+      long deadlineTick = Math.max(tick, (timeout.deadline - startTime + tickMillis - 1) / tickMillis);
+
+      timeout.rounds = (deadlineTick - tick) / slots.length;
+      slots[(int) (deadlineTick % slots.length)].add(timeout);
+    }
+
+    LinkedList<Runnable> expired = new LinkedList<Runnable>();
+
+    for (Iterator<Timeout> it = slots[(int) (tick % slots.length)].iterator(); it.hasNext();) {
+      timeout = it.next();
+
+      if (timeout.rounds > 0) {
+        timeout.rounds--;
+        continue;
+      }
+
+      it.remove();
+      expired.add(timeout.task);
+    }
+
+    return expired;
+  }
+
+  private static class Timeout {
+    private final long deadline;
+    private final Runnable task;
+    private long rounds;
+
+    private Timeout(long deadline, Runnable task) {
+      this.deadline = deadline;
+      this.task = task;
+    }
+  }
+}
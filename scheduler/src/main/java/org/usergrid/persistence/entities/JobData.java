@@ -30,7 +30,11 @@ public class JobData extends TypedEntity {
   @EntityProperty(required = true, basic = true, indexed = true)
   private String jobName;
 
- 
+  @EntityProperty(basic = true, indexed = false)
+  private String priority;
+
+  @EntityProperty(basic = true, indexed = false)
+  private Integer shard;
 
   /**
    * @param jobName
@@ -56,6 +60,38 @@ public class JobData extends TypedEntity {
     this.jobName = jobName;
   }
 
+  /**
+   * @return the priority of the job, null if it was scheduled before job
+   *         priorities existed
+   */
+  public String getPriority() {
+    return priority;
+  }
+
+  /**
+   * @param priority
+   *          the priority to set
+   */
+  public void setPriority(String priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * @return the queue shard of its priority the job is scheduled on, null if
+   *         it was scheduled before shards were stored with the job
+   */
+  public Integer getShard() {
+    return shard;
+  }
+
+  /**
+   * @param shard
+   *          the shard to set
+   */
+  public void setShard(Integer shard) {
+    this.shard = shard;
+  }
+
   
 
 }
@@ -0,0 +1,98 @@
+package org.usergrid.batch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TimerWheelUnitTest {
+
+  @Test
+  public void firesAfterDeadline() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel(10, 8);
+    wheel.start();
+
+    try {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final long deadline = System.currentTimeMillis() + 200;
+      final long[] fired = new long[1];
+
+      wheel.schedule(deadline, new Runnable() {
+        @Override
+        public void run() {
+          fired[0] = System.currentTimeMillis();
+          latch.countDown();
+        }
+      });
+
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+      // the deadline is further out than one turn of the wheel
+      assertTrue(fired[0] >= deadline);
+      assertEquals(0, wheel.size());
+    } finally {
+      wheel.stop();
+    }
+  }
+
+  @Test
+  public void firesInDeadlineOrder() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel(10, 4);
+    wheel.start();
+
+    try {
+      final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+      final CountDownLatch latch = new CountDownLatch(3);
+      long now = System.currentTimeMillis();
+
+      wheel.schedule(now + 150, record(order, 3, latch));
+      wheel.schedule(now + 20, record(order, 1, latch));
+      // past deadlines fire on the next tick
+      wheel.schedule(now - 1000, record(order, 0, latch));
+
+      assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+      assertEquals(0, order.get(0).intValue());
+      assertEquals(1, order.get(1).intValue());
+      assertEquals(3, order.get(2).intValue());
+    } finally {
+      wheel.stop();
+    }
+  }
+
+  @Test
+  public void stopDiscardsPending() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel(10, 4);
+    wheel.start();
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    wheel.schedule(System.currentTimeMillis() + 60000, new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+
+    wheel.stop();
+
+    assertEquals(0, wheel.size());
+    assertFalse(latch.await(50, TimeUnit.MILLISECONDS));
+  }
+
+  private static Runnable record(final List<Integer> order, final int value, final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        order.add(value);
+        latch.countDown();
+      }
+    };
+  }
+}
@@ -27,6 +27,8 @@ import org.usergrid.persistence.Identifier;
 import org.usergrid.persistence.entities.Application;
 import org.usergrid.persistence.entities.Group;
 import org.usergrid.persistence.entities.User;
+import org.usergrid.security.AuthPrincipalInfo;
+import org.usergrid.security.AuthPrincipalType;
 import org.usergrid.security.oauth.AccessInfo;
 import org.usergrid.security.shiro.PrincipalCredentialsToken;
 import org.usergrid.services.ServiceResults;
@@ -184,6 +186,10 @@ public interface ManagementService {
 	public ServiceResults getApplicationMetadata(UUID applicationId)
 			throws Exception;
 
+	public AuthPrincipalInfo getPrincipalFromAccessToken(String token,
+			String expected_token_type,
+			AuthPrincipalType expected_principal_type) throws Exception;
+
 	public BiMap<UUID, String> getApplicationsForOrganization(
 			UUID organizationId) throws Exception;
 
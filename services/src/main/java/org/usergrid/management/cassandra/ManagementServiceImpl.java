@@ -1209,6 +1209,7 @@ public class ManagementServiceImpl implements ManagementService {
     tokens.removeTokens(principal);
   }
 
+  @Override
   public AuthPrincipalInfo getPrincipalFromAccessToken(String token, String expected_token_type,
       AuthPrincipalType expected_principal_type) throws Exception {
 
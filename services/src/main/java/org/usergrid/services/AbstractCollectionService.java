@@ -31,6 +31,7 @@ import org.usergrid.persistence.Query;
 import org.usergrid.persistence.Results;
 import org.usergrid.persistence.Results.Level;
 import org.usergrid.persistence.Schema;
+import org.usergrid.persistence.Traversal;
 import org.usergrid.persistence.exceptions.UnexpectedEntityTypeException;
 import org.usergrid.services.ServiceResults.Type;
 import org.usergrid.services.exceptions.ForbiddenServiceOperationException;
@@ -40,6 +41,11 @@ public class AbstractCollectionService extends AbstractService {
 
   private static final Logger logger = LoggerFactory.getLogger(AbstractCollectionService.class);
 
+  /**
+   * Entities returned when a collection is read without a query
+   */
+  private static final int COLLECTION_PAGE_SIZE = 10;
+
   public AbstractCollectionService() {
     // addSet("indexes");
     declareMetadataType("indexes");
@@ -239,7 +245,7 @@ public class AbstractCollectionService extends AbstractService {
       return getItemsByQuery(context, new Query());
     }
 
-    int count = 10;
+    int count = COLLECTION_PAGE_SIZE;
     Results r = em.getCollection(context.getOwner(), context.getCollectionName(), null, count, Level.ALL_PROPERTIES,
         isCollectionReversed(context));
 
@@ -252,6 +258,46 @@ public class AbstractCollectionService extends AbstractService {
     return new ServiceResults(this, context, Type.COLLECTION, r, null, null);
   }
 
+  @Override
+  public ServiceResults getCollections(List<ServiceContext> contexts) throws Exception {
+
+    // only requests that would each reach getCollection below
+    if (!isDeclaredBy(AbstractService.class, "invokeCollection", ServiceContext.class)
+        || !isDeclaredBy(AbstractCollectionService.class, "getCollection", ServiceContext.class)) {
+      return null;
+    }
+
+    ServiceContext first = contexts.get(0);
+    boolean reversed = isCollectionReversed(first);
+
+    for (ServiceContext context : contexts) {
+      if (context.isByQuery() || context.isByName() || context.isByUuid()) {
+        return null;
+      }
+      // sorted collections are read through the query path, one at a time
+      if (getCollectionSort(context) != null) {
+        return null;
+      }
+      // the traversal reads the same collection of every owner
+      if (!first.getCollectionName().equals(context.getCollectionName())
+          || (isCollectionReversed(context) != reversed)) {
+        return null;
+      }
+    }
+
+    List<UUID> owners = new ArrayList<UUID>(contexts.size());
+    for (ServiceContext context : contexts) {
+      checkPermissionsForCollection(context);
+      owners.add(context.getOwner().getUuid());
+    }
+
+    Traversal traversal = new Traversal().collection(first.getCollectionName(), COLLECTION_PAGE_SIZE, reversed);
+
+    Map<UUID, Results> reached = em.traverse(owners, traversal, Level.ALL_PROPERTIES);
+
+    return mergeCollections(contexts, reached, Type.COLLECTION);
+  }
+
   @Override
   public ServiceResults putItemById(ServiceContext context, UUID id) throws Exception {
 
@@ -21,11 +21,15 @@ import static org.usergrid.utils.ClassUtils.cast;
 import static org.usergrid.utils.InflectionUtils.pluralize;
 import static org.usergrid.utils.ListUtils.dequeue;
 import static org.usergrid.utils.ListUtils.initCopy;
+import static org.usergrid.utils.ListUtils.isEmpty;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import org.apache.commons.lang.ObjectUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.ConnectionRef;
@@ -36,6 +40,7 @@ import org.usergrid.persistence.Query;
 import org.usergrid.persistence.Results;
 import org.usergrid.persistence.Results.Level;
 import org.usergrid.persistence.Schema;
+import org.usergrid.persistence.Traversal;
 import org.usergrid.services.ServiceParameter.IdParameter;
 import org.usergrid.services.ServiceParameter.NameParameter;
 import org.usergrid.services.ServiceParameter.QueryParameter;
@@ -187,6 +192,60 @@ public class AbstractConnectionsService extends AbstractService {
 		return new ServiceResults(this, context, Type.CONNECTION, r, null, null);
 	}
 
+	@Override
+	public ServiceResults getCollections(List<ServiceContext> contexts)
+			throws Exception {
+
+		// backwards connections aren't combined
+		if (connecting()) {
+			return null;
+		}
+
+		// only requests that would each reach getItemsByQuery below
+		if (!isDeclaredBy(AbstractService.class, "invokeItemsWithQuery",
+				ServiceContext.class, Query.class)
+				|| !isDeclaredBy(AbstractConnectionsService.class,
+						"getItemsByQuery", ServiceContext.class, Query.class)) {
+			return null;
+		}
+
+		Query firstQuery = contexts.get(0).getQuery();
+		if (firstQuery == null) {
+			return null;
+		}
+		String cType = firstQuery.getConnectionType();
+		String eType = firstQuery.getEntityType();
+
+		List<UUID> owners = new ArrayList<UUID>(contexts.size());
+		for (ServiceContext context : contexts) {
+			Query query = context.getQuery();
+			if (!context.isByQuery() || query.hasQueryPredicates()
+					|| query.hasSortPredicates()
+					|| !isEmpty(query.getIdentifiers())
+					|| (query.getConnectionType() == null)) {
+				return null;
+			}
+			// the traversal follows the same connection from every owner
+			if (!cType.equals(query.getConnectionType())
+					|| !ObjectUtils.equals(eType, query.getEntityType())) {
+				return null;
+			}
+			owners.add(context.getOwner().getUuid());
+		}
+
+		for (ServiceContext context : contexts) {
+			checkPermissionsForCollection(context);
+		}
+
+		Traversal traversal = new Traversal().connected(cType, eType,
+				Query.MAX_LIMIT);
+
+		Map<UUID, Results> reached = em.traverse(owners, traversal,
+				Level.ALL_PROPERTIES);
+
+		return mergeCollections(contexts, reached, Type.CONNECTION);
+	}
+
 	@Override
 	public ServiceResults getItemById(ServiceContext context, UUID id)
 			throws Exception {
@@ -484,6 +484,38 @@ public abstract class AbstractService implements Service {
     return invoke(context);
   }
 
+  @Override
+  public ServiceResults invoke(ServiceAction action, List<ServiceRequest> requests, ServiceResults previousResults,
+      ServicePayload payload) throws Exception {
+
+    // only plain reads of the whole collection are combined
+    if ((action != ServiceAction.GET) || (requests.size() < 2)
+        || !isDeclaredBy(AbstractService.class, "invoke", ServiceAction.class, ServiceRequest.class,
+            ServiceResults.class, ServicePayload.class)
+        || !isDeclaredBy(AbstractService.class, "invoke", ServiceContext.class)) {
+      return null;
+    }
+
+    List<ServiceContext> contexts = new ArrayList<ServiceContext>(requests.size());
+    for (ServiceRequest request : requests) {
+      if (request.hasParameters() || request.isReturnsTree()) {
+        return null;
+      }
+      ServiceContext context = getContext(action, request, previousResults, payload);
+      if (context == null) {
+        return null;
+      }
+      // anything invoke(context) would hand to another handler
+      if ((checkForServiceMetadata(context) != null) || (checkForServiceCommand(context) != null)
+          || (checkForEntityDictionaries(context) != null) || (checkForEntityCommands(context) != null)) {
+        return null;
+      }
+      contexts.add(context);
+    }
+
+    return getCollections(contexts);
+  }
+
   /**
    * Create context from parameter queue. Returns context containing a query
    * object that represents the parameters in the queue. Remaining parameters
@@ -678,6 +710,50 @@ public abstract class AbstractService implements Service {
     throw new ServiceResourceNotFoundException(context);
   }
 
+  /**
+   * Get the collection of every owner in one pass, returns null if this
+   * service reads them one at a time
+   */
+  public ServiceResults getCollections(List<ServiceContext> contexts) throws Exception {
+    return null;
+  }
+
+  /**
+   * @return true if the service doesn't override the method below the given
+   *         class, so a combined read doesn't skip anything the service does
+   *         for a single request
+   */
+  protected boolean isDeclaredBy(Class<?> declaringClass, String methodName, Class<?>... parameterTypes) {
+    try {
+      return getClass().getMethod(methodName, parameterTypes).getDeclaringClass() == declaringClass;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Build the results of each context from the entities reached from its
+   * owner and merge them the same way as separately invoked requests
+   */
+  protected ServiceResults mergeCollections(List<ServiceContext> contexts, Map<UUID, Results> reached, Type type)
+      throws Exception {
+    ServiceResults results = null;
+    for (ServiceContext context : contexts) {
+      Results r = reached.get(context.getOwner().getUuid());
+      if (r == null) {
+        r = new Results();
+      }
+      importEntities(context, r);
+      ServiceResults rs = new ServiceResults(this, context, type, r, null, null);
+      if (results == null) {
+        results = rs;
+      } else {
+        results.merge(rs);
+      }
+    }
+    return results;
+  }
+
   public ServiceResults putItemById(ServiceContext context, UUID id) throws Exception {
     return getItemById(context, id);
   }
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.usergrid.services;
 
+import java.util.List;
 import java.util.UUID;
 
 import org.usergrid.persistence.Entity;
@@ -36,6 +37,15 @@ public interface Service {
 			ServiceResults previousResults, ServicePayload payload)
 			throws Exception;
 
+	/**
+	 * Invoke the same request made for each of the owners reached by the
+	 * previous request at once. Returns null if the requests can't be combined
+	 * and have to be invoked one at a time.
+	 */
+	public ServiceResults invoke(ServiceAction action,
+			List<ServiceRequest> requests, ServiceResults previousResults,
+			ServicePayload payload) throws Exception;
+
 	public Entity getEntity(ServiceRequest request, UUID uuid) throws Exception;
 
 	public Entity getEntity(ServiceRequest request, String name)
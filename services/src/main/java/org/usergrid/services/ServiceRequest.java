@@ -248,6 +248,31 @@ public class ServiceRequest {
 
 			return previousResults;
 		} else {
+			// if the next requests all make the same call to the same
+			// service, see if it can read them together instead of once per
+			// owner
+			ServiceRequest first = requests.get(0);
+			boolean combinable = true;
+			for (ServiceRequest request : requests) {
+				if ((request.action != first.action)
+						|| (request.payload != first.payload)
+						|| (first.serviceName == null)
+						|| !first.serviceName.equals(request.serviceName)) {
+					combinable = false;
+					break;
+				}
+			}
+
+			Service s = combinable ? services.getService(first.serviceName)
+					: null;
+			if (s != null) {
+				ServiceResults rs = s.invoke(first.action, requests,
+						previousResults, first.payload);
+				if (rs != null) {
+					return rs;
+				}
+			}
+
 			ServiceResults aggregate_results = null;
 
 			for (ServiceRequest request : requests) {
@@ -15,14 +15,18 @@
  ******************************************************************************/
 package org.usergrid.services.assets;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.EntityRef;
 import org.usergrid.services.AbstractPathBasedColllectionService;
+import org.usergrid.services.ServiceAction;
 import org.usergrid.services.ServiceContext;
 import org.usergrid.services.ServiceResults;
+import org.usergrid.services.assets.data.AssetUtils;
 
 public class AssetsService extends AbstractPathBasedColllectionService {
 
@@ -34,6 +38,28 @@ public class AssetsService extends AbstractPathBasedColllectionService {
     declareServiceCommands("data");
 	}
 
+  /**
+   * The content hash locates the asset's data in the binary store and is only
+   * set when data is uploaded, so clients can't write it
+   */
+  @Override
+  public ServiceResults invoke(ServiceContext context) throws Exception {
+    if ( (context.getPayload() != null)
+        && ((context.getAction() == ServiceAction.POST) || (context.getAction() == ServiceAction.PUT)) ) {
+      Iterator<Map<String, Object>> i = context.getPayload().payloadIterator();
+      while ( i.hasNext() ) {
+        Iterator<String> names = i.next().keySet().iterator();
+        while ( names.hasNext() ) {
+          if ( AssetUtils.CONTENT_HASH.equalsIgnoreCase(names.next()) ) {
+            logger.info("Ignoring client supplied {}", AssetUtils.CONTENT_HASH);
+            names.remove();
+          }
+        }
+      }
+    }
+    return super.invoke(context);
+  }
+
   @Override
   public ServiceResults getEntityCommand(ServiceContext context, List<EntityRef> refs, String command) throws Exception {
     logger.info("handling command: {}", command);
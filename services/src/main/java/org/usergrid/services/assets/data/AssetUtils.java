@@ -23,6 +23,9 @@ public class AssetUtils {
   public static final String CONTENT_DISPOSITION = "content-disposition";
   public static final String E_TAG = "etag";
   public static final String CHECKSUM = "checksum";
+  public static final String CONTENT_HASH = "content-hash";
+
+  private static final String BYTES_UNIT = "bytes=";
 
   /**
    * Returns the key for the bucket in the following form:
@@ -37,6 +40,48 @@ public class AssetUtils {
     return appId.toString().concat("/").concat(asset.getUuid().toString());
   }
 
+  /**
+   * Returns the key for content addressed data in the following form:
+   * blobs/[hash chars 0-1]/[hash chars 2-3]/[hash]. The two directory levels keep
+   * the number of entries per directory small.
+   * @param contentHash the hex encoded hash of the content
+   * @return
+   */
+  public static String buildContentKey(String contentHash) {
+    Preconditions.checkArgument(isContentHash(contentHash), "The hash provided to buildContentKey was not a SHA-256 hex digest");
+    return "blobs/" + contentHash.substring(0,2) + "/" + contentHash.substring(2,4) + "/" + contentHash;
+  }
+
+  /**
+   * Returns the key for content addressed data of an application in the following form:
+   * [appId]/blobs/[hash chars 0-1]/[hash chars 2-3]/[hash]. Content is only shared
+   * between the assets of one application.
+   * @param appId
+   * @param contentHash the hex encoded hash of the content
+   * @return
+   */
+  public static String buildContentKey(UUID appId, String contentHash) {
+    Preconditions.checkArgument(appId != null, "The appId provided to buildContentKey was null");
+    return appId.toString().concat("/").concat(buildContentKey(contentHash));
+  }
+
+  /**
+   * @param contentHash
+   * @return true if the value is a lower case hex encoded SHA-256 hash
+   */
+  public static boolean isContentHash(String contentHash) {
+    if ( contentHash == null || contentHash.length() != 64 ) {
+      return false;
+    }
+    for ( int i = 0; i < contentHash.length(); i++ ) {
+      char c = contentHash.charAt(i);
+      if ( !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Attempt to parse the Date from a Date-based header, primarily If-Modified-Since
    * @param headerValue
@@ -54,6 +99,53 @@ public class AssetUtils {
     return moded;
   }
 
+  /**
+   * Parse a single byte range from a Range header, eg. "bytes=0-499", "bytes=500-"
+   * or "bytes=-500". Returns the inclusive first and last byte positions with the
+   * last position clamped to the end of the asset. Returns null if the header is
+   * blank, malformed or asks for multiple ranges, in which case the whole asset
+   * should be sent. If the first position is at or beyond totalLength the range
+   * can not be satisfied.
+   * @param headerValue
+   * @param totalLength
+   * @return
+   */
+  public static long[] parseRange(String headerValue, long totalLength) {
+    if ( StringUtils.isBlank(headerValue) ) {
+      return null;
+    }
+    String value = headerValue.trim();
+    if ( !value.startsWith(BYTES_UNIT) || value.indexOf(',') >= 0 ) {
+      return null;
+    }
+    value = value.substring(BYTES_UNIT.length()).trim();
+    int dash = value.indexOf('-');
+    if ( dash < 0 ) {
+      return null;
+    }
+    String first = value.substring(0, dash).trim();
+    String last = value.substring(dash + 1).trim();
+    try {
+      // suffix range, the final n bytes
+      if ( first.isEmpty() ) {
+        long suffix = Long.parseLong(last);
+        if ( suffix <= 0 ) {
+          return new long[] { totalLength, totalLength };
+        }
+        return new long[] { Math.max(totalLength - suffix, 0), totalLength - 1 };
+      }
+      long start = Long.parseLong(first);
+      long end = last.isEmpty() ? totalLength - 1 : Long.parseLong(last);
+      if ( start < 0 || end < start ) {
+        return null;
+      }
+      return new long[] { start, Math.min(end, totalLength - 1) };
+    } catch (NumberFormatException nfe) {
+      logger.error("Could not parse Range header: " + headerValue);
+    }
+    return null;
+  }
+
   /***
    * The following yanked from org.apache.http.impl.cookie.DateUtils, Apache 2.0 License
    ***/
@@ -0,0 +1,36 @@
+package org.usergrid.services.assets.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A contiguous range of the binary data of an asset, as returned by
+ * {@link BinaryStore#readRegion(java.util.UUID, org.usergrid.persistence.entities.Asset, long, long)}.
+ * The region must be closed once it has been transferred.
+ */
+public interface BinaryRegion extends Closeable {
+
+  /**
+   * @return the position of the first byte of the region in the asset
+   */
+  long getOffset();
+
+  /**
+   * @return the number of bytes in the region, clamped to the end of the asset
+   */
+  long getLength();
+
+  /**
+   * @return the size of the complete asset
+   */
+  long getTotalLength();
+
+  /**
+   * Write the bytes of the region to the target channel.
+   * @param target
+   * @return the number of bytes written
+   * @throws IOException
+   */
+  long transferTo(WritableByteChannel target) throws IOException;
+}
@@ -15,5 +15,33 @@ public interface BinaryStore {
 
   InputStream read(UUID appId, Asset asset, long offset, long length);
 
+  /**
+   * Open the range of the asset's data starting at offset. The length is
+   * clamped to the end of the asset, so Long.MAX_VALUE reads to the end.
+   * @param appId
+   * @param asset
+   * @param offset
+   * @param length
+   * @return the region or null if the asset data could not be found
+   */
+  BinaryRegion readRegion(UUID appId, Asset asset, long offset, long length);
+
   void delete(UUID appId, Asset asset);
+
+  /**
+   * Called once the asset has been saved after a write. Stores that share data
+   * between assets release the data the asset referred to before the write
+   * here, so a failed save never loses data the saved asset still refers to.
+   * @param appId
+   * @param asset
+   */
+  void commit(UUID appId, Asset asset);
+
+  /**
+   * Called instead of {@link #commit(UUID, Asset)} when the asset could not be
+   * saved after a write, releasing the data written for it.
+   * @param appId
+   * @param asset
+   */
+  void rollback(UUID appId, Asset asset);
 }
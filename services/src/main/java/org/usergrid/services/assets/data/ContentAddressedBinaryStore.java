@@ -0,0 +1,443 @@
+package org.usergrid.services.assets.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.entities.Asset;
+
+/**
+ * A {@link BinaryStore} on the local file system that stores each distinct
+ * content of an application once, keyed by its SHA-256 hash, with a reference
+ * count per blob. Content is never shared between applications. The hash, size
+ * and mime type are all computed in a single pass over the upload. Small
+ * uploads are held in memory while hashing so a duplicate upload never touches
+ * the disk; larger uploads are spooled to a temp file next to the blobs and
+ * moved into place if the content is new.
+ * <p>
+ * The hash is kept on the asset as the "content-hash" property, and also
+ * used as the checksum and etag. A hash that isn't a SHA-256 hex digest is
+ * never used as a path. Assets without a content hash are read from the
+ * {@link LocalFileBinaryStore} layout so existing repositories keep working.
+ * <p>
+ * A write adds a reference to the new content straight away, but the content
+ * the asset referred to before is only released by {@link #commit(UUID, Asset)}
+ * once the asset is saved. Reference counts are changed under a file lock, so
+ * several nodes can share a repository, and replaced with a rename. A crash
+ * can leave a count too high, which only keeps a blob on disk, but never too
+ * low.
+ */
+public class ContentAddressedBinaryStore implements BinaryStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(ContentAddressedBinaryStore.class);
+
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final String REFS_SUFFIX = ".refs";
+  private static final String LOCKS_DIR = "blobs/locks";
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int MIME_HEAD_SIZE = 64 * 1024;
+  private static final int LOCK_STRIPES = 64;
+
+  private String reposLocation = FileUtils.getTempDirectoryPath();
+
+  private int memoryThreshold = (int)FileUtils.ONE_MB;
+
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  /**
+   * The hash each written but not yet committed asset referred to before the
+   * write, keyed by app, asset and new hash
+   */
+  private final ConcurrentMap<String, String> pending = new ConcurrentHashMap<String, String>();
+
+  public ContentAddressedBinaryStore() {
+    for ( int i = 0; i < LOCK_STRIPES; i++ ) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Control where to store the file repository. In the system's temp dir
+   * by default.
+   * @param reposLocation
+   */
+  public void setReposLocation(String reposLocation) {
+    this.reposLocation = reposLocation;
+  }
+
+  public String getReposLocation() {
+    return reposLocation;
+  }
+
+  /**
+   * Uploads up to this size are hashed in memory, larger ones are spooled to disk.
+   * @param memoryThreshold
+   */
+  public void setMemoryThreshold(int memoryThreshold) {
+    this.memoryThreshold = memoryThreshold;
+  }
+
+  public int getMemoryThreshold() {
+    return memoryThreshold;
+  }
+
+  @Override
+  public void write(UUID appId, Asset asset, InputStream inputStream) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+    }
+
+    ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    byte[] head = new byte[MIME_HEAD_SIZE];
+    int headLength = 0;
+    long size = 0;
+    File spool = null;
+    OutputStream os = null;
+
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int n;
+      while ( (n = inputStream.read(buffer)) != -1 ) {
+        digest.update(buffer, 0, n);
+        size += n;
+
+        if ( headLength < MIME_HEAD_SIZE ) {
+          int copy = Math.min(n, MIME_HEAD_SIZE - headLength);
+          System.arraycopy(buffer, 0, head, headLength, copy);
+          headLength += copy;
+        }
+
+        if ( os == null && size > memoryThreshold ) {
+          // too big to keep in memory, spool what we have so far to disk
+          spool = File.createTempFile("upload", ".tmp", tempDir());
+          os = new FileOutputStream(spool);
+          memory.writeTo(os);
+          memory = null;
+        }
+
+        if ( os != null ) {
+          os.write(buffer, 0, n);
+        } else {
+          memory.write(buffer, 0, n);
+        }
+      }
+      IOUtils.closeQuietly(os);
+      os = null;
+
+      String hash = Hex.encodeHexString(digest.digest());
+      String previousHash = contentHash(asset);
+
+      if ( !hash.equals(previousHash) ) {
+        File blob = blob(appId, hash);
+        synchronized ( lock(hash) ) {
+          FileLock fileLock = lockFile(hash);
+          try {
+            long refs = readRefs(blob);
+            if ( refs == 0 || !blob.exists() ) {
+              storeBlob(blob, spool, memory);
+              spool = null;
+              refs = 0;
+            }
+            writeRefs(blob, refs + 1);
+          } finally {
+            unlockFile(fileLock);
+          }
+        }
+        pending.put(pendingKey(appId, asset, hash), previousHash != null ? previousHash : "");
+      }
+
+      asset.setProperty(AssetUtils.CONTENT_HASH, hash);
+      asset.setProperty(AssetUtils.CHECKSUM, hash);
+      asset.setProperty(AssetUtils.E_TAG, hash);
+      asset.setProperty(AssetUtils.CONTENT_LENGTH, size);
+
+      AssetMimeHandler.get().getMimeType(asset, Arrays.copyOf(head, headLength));
+
+    } catch (IOException e) {
+      throw new RuntimeException("Could not write asset " + asset.getUuid(), e);
+    } finally {
+      IOUtils.closeQuietly(os);
+      if ( spool != null ) {
+        FileUtils.deleteQuietly(spool);
+      }
+    }
+  }
+
+  /**
+   * Release the content the asset referred to before the last write
+   */
+  @Override
+  public void commit(UUID appId, Asset asset) {
+    String hash = contentHash(asset);
+    if ( hash == null ) {
+      return;
+    }
+    String previousHash = pending.remove(pendingKey(appId, asset, hash));
+    if ( previousHash == null || previousHash.length() == 0 ) {
+      return;
+    }
+    try {
+      release(appId, previousHash);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not release previous content of asset " + asset.getUuid(), e);
+    }
+  }
+
+  /**
+   * Release the content written for the asset, the content it referred to
+   * before the write is still referenced
+   */
+  @Override
+  public void rollback(UUID appId, Asset asset) {
+    String hash = contentHash(asset);
+    if ( hash == null || pending.remove(pendingKey(appId, asset, hash)) == null ) {
+      return;
+    }
+    try {
+      release(appId, hash);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not release written content of asset " + asset.getUuid(), e);
+    }
+  }
+
+  @Override
+  public InputStream read(UUID appId, Asset asset) {
+    return read(appId, asset, 0, Long.MAX_VALUE);
+  }
+
+  @Override
+  public InputStream read(UUID appId, Asset asset, long offset, long length) {
+    File file = path(appId, asset);
+    if ( file == null ) {
+      return null;
+    }
+    FileInputStream fis = null;
+    try {
+      fis = new FileInputStream(file);
+      if ( offset > 0 ) {
+        fis.getChannel().position(offset);
+      }
+      return new BufferedInputStream(new BoundedInputStream(fis, length));
+    } catch (FileNotFoundException fnfe) {
+      return null;
+    } catch (IOException ioe) {
+      IOUtils.closeQuietly(fis);
+      throw new RuntimeException("Could not read asset " + asset.getUuid(), ioe);
+    }
+  }
+
+  @Override
+  public BinaryRegion readRegion(UUID appId, Asset asset, long offset, long length) {
+    File file = path(appId, asset);
+    if ( file == null || !file.isFile() ) {
+      return null;
+    }
+    try {
+      return new FileBinaryRegion(file, offset, length);
+    } catch (IOException ioe) {
+      throw new RuntimeException("Could not read asset " + asset.getUuid(), ioe);
+    }
+  }
+
+  /**
+   * Drops the asset's reference to its content. The content is deleted once
+   * no assets refer to it.
+   *
+   * @param asset
+   */
+  @Override
+  public void delete(UUID appId, Asset asset) {
+    if ( asset.getProperty(AssetUtils.CONTENT_HASH) == null ) {
+      File file = new File(reposLocation, AssetUtils.buildAssetKey(appId, asset));
+      if ( file.exists() && !file.isDirectory() ) {
+        FileUtils.deleteQuietly(file);
+      }
+      return;
+    }
+    String hash = contentHash(asset);
+    if ( hash == null ) {
+      return;
+    }
+    try {
+      release(appId, hash);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not delete asset " + asset.getUuid(), e);
+    }
+  }
+
+  /**
+   * The number of assets of the application referring to the content with the
+   * given hash
+   * @param appId
+   * @param hash
+   * @return
+   * @throws IOException
+   */
+  public long getReferenceCount(UUID appId, String hash) throws IOException {
+    synchronized ( lock(hash) ) {
+      return readRefs(blob(appId, hash));
+    }
+  }
+
+  private void release(UUID appId, String hash) throws IOException {
+    File blob = blob(appId, hash);
+    synchronized ( lock(hash) ) {
+      FileLock fileLock = lockFile(hash);
+      try {
+        long refs = readRefs(blob) - 1;
+        if ( refs <= 0 ) {
+          FileUtils.deleteQuietly(blob);
+          FileUtils.deleteQuietly(refsFile(blob));
+        } else {
+          writeRefs(blob, refs);
+        }
+      } finally {
+        unlockFile(fileLock);
+      }
+    }
+  }
+
+  private void storeBlob(File blob, File spool, ByteArrayOutputStream memory) throws IOException {
+    FileUtils.forceMkdir(blob.getParentFile());
+    if ( spool != null ) {
+      // same file system, so this is a rename rather than a copy
+      if ( !spool.renameTo(blob) ) {
+        FileUtils.copyFile(spool, blob);
+        FileUtils.deleteQuietly(spool);
+      }
+    } else {
+      FileUtils.writeByteArrayToFile(blob, memory.toByteArray());
+    }
+  }
+
+  private long readRefs(File blob) throws IOException {
+    File refs = refsFile(blob);
+    if ( !refs.exists() ) {
+      return 0;
+    }
+    return Long.parseLong(FileUtils.readFileToString(refs).trim());
+  }
+
+  /**
+   * Write the count next to the old one and rename it into place, so the count
+   * is either the old or the new value
+   */
+  private void writeRefs(File blob, long refs) throws IOException {
+    File target = refsFile(blob);
+    File tmp = new File(target.getPath() + ".tmp");
+    FileUtils.writeStringToFile(tmp, Long.toString(refs));
+    if ( !tmp.renameTo(target) ) {
+      // rename doesn't replace an existing file on every platform
+      FileUtils.deleteQuietly(target);
+      FileUtils.moveFile(tmp, target);
+    }
+  }
+
+  private int stripe(String hash) {
+    return (hash.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+  }
+
+  private Object lock(String hash) {
+    return locks[stripe(hash)];
+  }
+
+  /**
+   * Lock the stripe of the hash against other processes sharing the
+   * repository. Must be called holding {@link #lock(String)}, a second lock
+   * of the same file from this process would fail.
+   */
+  private FileLock lockFile(String hash) throws IOException {
+    File file = new File(reposLocation, LOCKS_DIR + "/" + stripe(hash));
+    FileUtils.forceMkdir(file.getParentFile());
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      return raf.getChannel().lock();
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private void unlockFile(FileLock fileLock) {
+    try {
+      fileLock.release();
+    } catch (IOException e) {
+      logger.warn("Could not release content lock", e);
+    } finally {
+      IOUtils.closeQuietly(fileLock.channel());
+    }
+  }
+
+  private File refsFile(File blob) {
+    return new File(blob.getPath() + REFS_SUFFIX);
+  }
+
+  private File blob(UUID appId, String hash) {
+    return new File(reposLocation, AssetUtils.buildContentKey(appId, hash));
+  }
+
+  private File tempDir() throws IOException {
+    File tmp = new File(reposLocation, "blobs/tmp");
+    FileUtils.forceMkdir(tmp);
+    return tmp;
+  }
+
+  private String pendingKey(UUID appId, Asset asset, String hash) {
+    return appId + "/" + asset.getUuid() + "/" + hash;
+  }
+
+  /**
+   * @return the asset's content hash, or null if it has none or it isn't a
+   *         valid hash
+   */
+  private String contentHash(Asset asset) {
+    Object hash = asset.getProperty(AssetUtils.CONTENT_HASH);
+    if ( hash == null ) {
+      return null;
+    }
+    if ( !(hash instanceof String) || !AssetUtils.isContentHash((String)hash) ) {
+      logger.warn("Ignoring invalid content hash of asset {}", asset.getUuid());
+      return null;
+    }
+    return (String)hash;
+  }
+
+  /**
+   * @return the file holding the asset's data, or null if its content hash is
+   *         invalid
+   */
+  private File path(UUID appId, Asset asset) {
+    if ( asset.getProperty(AssetUtils.CONTENT_HASH) == null ) {
+      return new File(reposLocation, AssetUtils.buildAssetKey(appId, asset));
+    }
+    String hash = contentHash(asset);
+    if ( hash == null ) {
+      return null;
+    }
+    return blob(appId, hash);
+  }
+
+}
@@ -0,0 +1,61 @@
+package org.usergrid.services.assets.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link BinaryRegion} of a local file. Uses {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * so the JVM can hand the copy to the operating system (sendfile or a mapped
+ * region) instead of moving the bytes through heap buffers.
+ */
+public class FileBinaryRegion implements BinaryRegion {
+
+  private final FileChannel channel;
+  private final long offset;
+  private final long length;
+  private final long totalLength;
+
+  public FileBinaryRegion(File file, long offset, long length) throws IOException {
+    channel = new RandomAccessFile(file, "r").getChannel();
+    totalLength = channel.size();
+    this.offset = Math.min(Math.max(offset, 0), totalLength);
+    this.length = Math.max(Math.min(length, totalLength - this.offset), 0);
+  }
+
+  @Override
+  public long getOffset() {
+    return offset;
+  }
+
+  @Override
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public long getTotalLength() {
+    return totalLength;
+  }
+
+  @Override
+  public long transferTo(WritableByteChannel target) throws IOException {
+    long written = 0;
+    // transferTo may write less than requested, keep going until the region is sent
+    while ( written < length ) {
+      long count = channel.transferTo(offset + written, length - written, target);
+      if ( count <= 0 ) {
+        break;
+      }
+      written += count;
+    }
+    return written;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
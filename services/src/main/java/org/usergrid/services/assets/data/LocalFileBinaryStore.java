@@ -2,11 +2,13 @@ package org.usergrid.services.assets.data;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.UUID;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.usergrid.persistence.entities.Asset;
 
 /**
@@ -64,13 +66,32 @@ public class LocalFileBinaryStore implements BinaryStore {
 
   @Override
   public InputStream read(UUID appId, Asset asset) {
-    return read(appId, asset, 0, FileUtils.ONE_MB * 5);
+    return read(appId, asset, 0, Long.MAX_VALUE);
   }
 
   @Override
   public InputStream read(UUID appId, Asset asset, long offset, long length) {
     try {
-      return new BufferedInputStream(FileUtils.openInputStream(path(appId, asset)));
+      FileInputStream fis = FileUtils.openInputStream(path(appId, asset));
+      if ( offset > 0 ) {
+        fis.getChannel().position(offset);
+      }
+      return new BufferedInputStream(new BoundedInputStream(fis, length));
+    } catch (IOException ioe) {
+      ioe.printStackTrace();
+    }
+    // TODO throw typed exception
+    return null;
+  }
+
+  @Override
+  public BinaryRegion readRegion(UUID appId, Asset asset, long offset, long length) {
+    File file = path(appId, asset);
+    if ( !file.isFile() ) {
+      return null;
+    }
+    try {
+      return new FileBinaryRegion(file, offset, length);
     } catch (IOException ioe) {
       ioe.printStackTrace();
     }
@@ -93,4 +114,14 @@ public class LocalFileBinaryStore implements BinaryStore {
     }
   }
 
+  /**
+   * The asset file is overwritten by write, nothing is left to release
+   */
+  @Override
+  public void commit(UUID appId, Asset asset) {
+  }
+
+  @Override
+  public void rollback(UUID appId, Asset asset) {
+  }
 }
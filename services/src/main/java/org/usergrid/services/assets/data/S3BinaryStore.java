@@ -162,7 +162,8 @@ public class S3BinaryStore implements BinaryStore {
         // missing file will throw: org.jclouds.aws.AWSResponseException:
         blobFuture = blobStore.getBlob(bucketName,AssetUtils.buildAssetKey(appId, asset));
       } else {
-        GetOptions options = GetOptions.Builder.range(offset, length);
+        // the range end is the inclusive position of the last byte
+        GetOptions options = GetOptions.Builder.range(offset, offset + length - 1);
         blobFuture = blobStore.getBlob(bucketName,AssetUtils.buildAssetKey(appId, asset), options);
       }
       return blobFuture.get().getPayload().getInput();
@@ -180,6 +181,24 @@ public class S3BinaryStore implements BinaryStore {
     return read(appId, asset,0,FIVE_MB);
   }
 
+  @Override
+  public BinaryRegion readRegion(UUID appId, Asset asset, long offset, long length) {
+    Object contentLength = asset.getProperty(AssetUtils.CONTENT_LENGTH);
+    long totalLength = contentLength instanceof Number ? ((Number)contentLength).longValue() : Long.MAX_VALUE;
+    length = Math.min(length, totalLength - offset);
+
+    InputStream is;
+    if ( offset == 0 && length == totalLength ) {
+      is = read(appId, asset);
+    } else {
+      is = read(appId, asset, offset, length);
+    }
+    if ( is == null ) {
+      return null;
+    }
+    return new StreamBinaryRegion(is, offset, length, totalLength);
+  }
+
   @Override
   public void delete(UUID appId, Asset asset) {
 
@@ -188,5 +207,15 @@ public class S3BinaryStore implements BinaryStore {
     blobStore.removeBlob(bucketName, AssetUtils.buildAssetKey(appId, asset));
 
   }
-}
 
+  /**
+   * The blob is replaced under the same key by write, nothing is left to release
+   */
+  @Override
+  public void commit(UUID appId, Asset asset) {
+  }
+
+  @Override
+  public void rollback(UUID appId, Asset asset) {
+  }
+}
@@ -0,0 +1,72 @@
+package org.usergrid.services.assets.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A {@link BinaryRegion} backed by a stream that is already positioned at the
+ * start of the region, for stores such as S3 that can only hand back a stream.
+ */
+public class StreamBinaryRegion implements BinaryRegion {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final InputStream inputStream;
+  private final long offset;
+  private final long length;
+  private final long totalLength;
+
+  public StreamBinaryRegion(InputStream inputStream, long offset, long length, long totalLength) {
+    this.inputStream = inputStream;
+    this.offset = offset;
+    this.length = length;
+    this.totalLength = totalLength;
+  }
+
+  @Override
+  public long getOffset() {
+    return offset;
+  }
+
+  @Override
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public long getTotalLength() {
+    return totalLength;
+  }
+
+  @Override
+  public long transferTo(WritableByteChannel target) throws IOException {
+    ReadableByteChannel source = Channels.newChannel(inputStream);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    long written = 0;
+    while ( written < length ) {
+      if ( length - written < buffer.capacity() ) {
+        buffer.limit((int)(length - written));
+      }
+      if ( source.read(buffer) < 0 ) {
+        break;
+      }
+      buffer.flip();
+      while ( buffer.hasRemaining() ) {
+        written += target.write(buffer);
+      }
+      buffer.clear();
+    }
+    return written;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOUtils.closeQuietly(inputStream);
+  }
+}
@@ -1,6 +1,7 @@
 package org.usergrid.services.assets.data;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 
 import java.util.UUID;
 
@@ -38,4 +39,39 @@ public class AssetUtilsTest {
     asset.setUuid(UUID.randomUUID());
     AssetUtils.buildAssetKey(null, asset);
   }
+
+  @Test
+  public void parseRangeOk() {
+    long[] range = AssetUtils.parseRange("bytes=0-499", 1000);
+    assertEquals(0, range[0]);
+    assertEquals(499, range[1]);
+
+    range = AssetUtils.parseRange("bytes=500-", 1000);
+    assertEquals(500, range[0]);
+    assertEquals(999, range[1]);
+
+    range = AssetUtils.parseRange("bytes=-100", 1000);
+    assertEquals(900, range[0]);
+    assertEquals(999, range[1]);
+
+    // last position is clamped to the end of the asset
+    range = AssetUtils.parseRange("bytes=900-2000", 1000);
+    assertEquals(900, range[0]);
+    assertEquals(999, range[1]);
+  }
+
+  @Test
+  public void parseRangeUnsatisfiable() {
+    long[] range = AssetUtils.parseRange("bytes=1000-", 1000);
+    assertEquals(1000, range[0]);
+  }
+
+  @Test
+  public void parseRangeIgnored() {
+    assertNull(AssetUtils.parseRange(null, 1000));
+    assertNull(AssetUtils.parseRange("bytes=0-10,20-30", 1000));
+    assertNull(AssetUtils.parseRange("items=0-10", 1000));
+    assertNull(AssetUtils.parseRange("bytes=10-5", 1000));
+    assertNull(AssetUtils.parseRange("bytes=abc-", 1000));
+  }
 }
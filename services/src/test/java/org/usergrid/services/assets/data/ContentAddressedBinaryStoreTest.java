@@ -0,0 +1,164 @@
+package org.usergrid.services.assets.data;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.usergrid.persistence.entities.Asset;
+
+public class ContentAddressedBinaryStoreTest {
+
+  private static UUID appId = new UUID(0,1);
+
+  private File repos;
+  private ContentAddressedBinaryStore store;
+
+  @Before
+  public void setup() throws Exception {
+    repos = new File(FileUtils.getTempDirectory(), "cas-" + UUID.randomUUID());
+    store = new ContentAddressedBinaryStore();
+    store.setReposLocation(repos.getPath());
+    store.setMemoryThreshold(1024);
+  }
+
+  @After
+  public void cleanup() {
+    FileUtils.deleteQuietly(repos);
+  }
+
+  @Test
+  public void duplicateContentStoredOnce() throws Exception {
+    byte[] data = "some duplicated content".getBytes();
+
+    Asset first = newAsset();
+    store.write(appId, first, new ByteArrayInputStream(data));
+    Asset second = newAsset();
+    store.write(appId, second, new ByteArrayInputStream(data));
+
+    String hash = (String)first.getProperty(AssetUtils.CONTENT_HASH);
+    assertEquals(hash, second.getProperty(AssetUtils.CONTENT_HASH));
+    assertEquals(hash, first.getProperty(AssetUtils.CHECKSUM));
+    assertEquals(hash, first.getProperty(AssetUtils.E_TAG));
+    assertEquals((long)data.length, first.getProperty(AssetUtils.CONTENT_LENGTH));
+    assertEquals(2, store.getReferenceCount(appId, hash));
+
+    File blob = new File(repos, AssetUtils.buildContentKey(appId, hash));
+    assertTrue(blob.exists());
+
+    store.delete(appId, first);
+    assertEquals(1, store.getReferenceCount(appId, hash));
+    assertTrue(blob.exists());
+
+    InputStream is = store.read(appId, second);
+    assertEquals("some duplicated content", IOUtils.toString(is));
+    is.close();
+
+    store.delete(appId, second);
+    assertEquals(0, store.getReferenceCount(appId, hash));
+    assertFalse(blob.exists());
+  }
+
+  @Test
+  public void largeContentSpooledAndRanged() throws Exception {
+    byte[] data = new byte[10 * 1024];
+    new Random(42).nextBytes(data);
+
+    Asset asset = newAsset();
+    store.write(appId, asset, new ByteArrayInputStream(data));
+    assertEquals((long)data.length, asset.getProperty(AssetUtils.CONTENT_LENGTH));
+
+    InputStream is = store.read(appId, asset, 100, 50);
+    byte[] range = IOUtils.toByteArray(is);
+    is.close();
+    assertEquals(50, range.length);
+    assertEquals(data[100], range[0]);
+    assertEquals(data[149], range[49]);
+
+    // nothing left behind in the spool directory
+    assertEquals(0, new File(repos, "blobs/tmp").list().length);
+  }
+
+  @Test
+  public void overwriteReleasesPreviousContent() throws Exception {
+    Asset asset = newAsset();
+    store.write(appId, asset, new ByteArrayInputStream("version one".getBytes()));
+    String oldHash = (String)asset.getProperty(AssetUtils.CONTENT_HASH);
+
+    store.commit(appId, asset);
+    store.write(appId, asset, new ByteArrayInputStream("version two".getBytes()));
+    String newHash = (String)asset.getProperty(AssetUtils.CONTENT_HASH);
+
+    // the previous content is kept until the asset is saved
+    assertFalse(oldHash.equals(newHash));
+    assertEquals(1, store.getReferenceCount(appId, oldHash));
+    assertEquals(1, store.getReferenceCount(appId, newHash));
+
+    store.commit(appId, asset);
+    assertEquals(0, store.getReferenceCount(appId, oldHash));
+    assertEquals(1, store.getReferenceCount(appId, newHash));
+  }
+
+  @Test
+  public void rollbackReleasesWrittenContent() throws Exception {
+    Asset asset = newAsset();
+    store.write(appId, asset, new ByteArrayInputStream("version one".getBytes()));
+    store.commit(appId, asset);
+    String oldHash = (String)asset.getProperty(AssetUtils.CONTENT_HASH);
+
+    store.write(appId, asset, new ByteArrayInputStream("version two".getBytes()));
+    String newHash = (String)asset.getProperty(AssetUtils.CONTENT_HASH);
+
+    store.rollback(appId, asset);
+    assertEquals(1, store.getReferenceCount(appId, oldHash));
+    assertEquals(0, store.getReferenceCount(appId, newHash));
+  }
+
+  @Test
+  public void contentNotSharedBetweenApps() throws Exception {
+    UUID otherAppId = new UUID(0,2);
+    byte[] data = "content of one app".getBytes();
+
+    Asset asset = newAsset();
+    store.write(appId, asset, new ByteArrayInputStream(data));
+    String hash = (String)asset.getProperty(AssetUtils.CONTENT_HASH);
+
+    // another app pointing its asset at the hash can't read or release it
+    Asset other = newAsset();
+    other.setProperty(AssetUtils.CONTENT_HASH, hash);
+    assertNull(store.read(otherAppId, other));
+    store.delete(otherAppId, other);
+    assertEquals(1, store.getReferenceCount(appId, hash));
+
+    InputStream is = store.read(appId, asset);
+    assertEquals("content of one app", IOUtils.toString(is));
+    is.close();
+  }
+
+  @Test
+  public void invalidHashIgnored() throws Exception {
+    Asset asset = newAsset();
+    asset.setProperty(AssetUtils.CONTENT_HASH, "../../" + appId + "/path/to/file");
+    assertNull(store.read(appId, asset));
+    assertNull(store.readRegion(appId, asset, 0, Long.MAX_VALUE));
+    store.delete(appId, asset);
+  }
+
+  private Asset newAsset() {
+    Asset asset = new Asset();
+    asset.setUuid(UUID.randomUUID());
+    asset.setPath("path/to/file");
+    return asset;
+  }
+}
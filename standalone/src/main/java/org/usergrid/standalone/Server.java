@@ -164,10 +164,10 @@ public class Server implements ApplicationContextAware {
                 "true");
         handler.addInitParameter(
         		ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS,
-                "org.usergrid.rest.filters.MeteringFilter,org.usergrid.rest.filters.JSONPCallbackFilter,org.usergrid.rest.security.shiro.filters.OAuth2AccessTokenSecurityFilter,org.usergrid.rest.security.shiro.filters.BasicAuthSecurityFilter,org.usergrid.rest.security.shiro.filters.ClientCredentialsSecurityFilter");
+                "org.usergrid.rest.filters.TracingFilter,org.usergrid.rest.filters.MeteringFilter,org.usergrid.rest.filters.JSONPCallbackFilter,org.usergrid.rest.security.shiro.filters.OAuth2AccessTokenSecurityFilter,org.usergrid.rest.security.shiro.filters.BasicAuthSecurityFilter,org.usergrid.rest.security.shiro.filters.ClientCredentialsSecurityFilter,org.usergrid.rest.filters.RateLimitFilter");
         handler.addInitParameter(
         		ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS,
-                "org.usergrid.rest.security.CrossOriginRequestFilter,org.usergrid.rest.filters.MeteringFilter");
+                "org.usergrid.rest.filters.TracingFilter,org.usergrid.rest.security.CrossOriginRequestFilter,org.usergrid.rest.filters.MeteringFilter");
         handler.addInitParameter(
         		ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
                 "org.usergrid.rest.security.SecuredResourceFilterFactory,com.sun.jersey.api.container.filter.RolesAllowedResourceFilterFactory");
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.tools;
+
+import java.beans.PropertyDescriptor;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.usergrid.persistence.EntityAccessor;
+import org.usergrid.persistence.Schema;
+import org.usergrid.persistence.entities.User;
+import org.usergrid.utils.UUIDUtils;
+
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+/**
+ * Compares reading and writing the schema properties of a user through the
+ * generated entity accessors against invoking the bean property methods
+ * reflectively.
+ */
+public class EntityAccessorBenchMark extends MicroBenchMark {
+
+    private final Timer reflectiveGet = newTimer("reflective-get");
+    private final Timer reflectiveSet = newTimer("reflective-set");
+    private final Timer accessorGet = newTimer("accessor-get");
+    private final Timer accessorSet = newTimer("accessor-set");
+
+    private User user;
+    private EntityAccessor accessor;
+    private Map<String, PropertyDescriptor> descriptors;
+    private Map<String, Object> properties;
+
+    @Override
+    protected void setUp() {
+        Schema schema = Schema.getDefaultSchema();
+
+        user = new User(UUIDUtils.newTimeUUID());
+        user.setUsername("edanuff");
+        user.setEmail("ed@anuff.com");
+        user.setName("Ed Anuff");
+        user.setActivated(true);
+        user.setCreated(System.currentTimeMillis());
+        user.setModified(System.currentTimeMillis());
+
+        accessor = schema.getEntityAccessor(User.class);
+
+        descriptors = new LinkedHashMap<String, PropertyDescriptor>();
+        for (String property : accessor.getPropertyNames()) {
+            descriptors.put(property, schema.getDescriptorForEntityProperty(User.class, property));
+        }
+
+        properties = schema.getEntityProperties(user);
+        properties.keySet().retainAll(descriptors.keySet());
+    }
+
+    @Override
+    protected void run(int count) throws Exception {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+        for (int i = 0; i < count; i++) {
+            values.clear();
+
+            TimerContext timer = reflectiveGet.time();
+            for (Entry<String, PropertyDescriptor> entry : descriptors.entrySet()) {
+                Object value = entry.getValue().getReadMethod().invoke(user);
+                if (value != null) {
+                    values.put(entry.getKey(), value);
+                }
+            }
+            timer.stop();
+
+            timer = reflectiveSet.time();
+            for (Entry<String, Object> entry : properties.entrySet()) {
+                descriptors.get(entry.getKey()).getWriteMethod().invoke(user, entry.getValue());
+            }
+            timer.stop();
+
+            values.clear();
+
+            timer = accessorGet.time();
+            accessor.getProperties(user, values);
+            timer.stop();
+
+            timer = accessorSet.time();
+            for (Entry<String, Object> entry : properties.entrySet()) {
+                accessor.setProperty(user, entry.getKey(), entry.getValue());
+            }
+            timer.stop();
+        }
+    }
+
+}
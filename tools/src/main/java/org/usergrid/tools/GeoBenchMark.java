@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.tools;
+
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.Stack;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.IndexBucketLocator;
+import org.usergrid.persistence.cassandra.CassandraService;
+import org.usergrid.persistence.cassandra.EntityManagerImpl;
+import org.usergrid.persistence.cassandra.GeoIndexManager;
+import org.usergrid.persistence.cassandra.GeoIndexManager.EntityLocationRef;
+import org.usergrid.utils.UUIDUtils;
+
+import com.beoui.geocell.SearchResults;
+import com.beoui.geocell.model.Point;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.reporting.ConsoleReporter;
+
+/**
+ * Loads synthetic points clustered around a few city centers directly into
+ * the geo index of an application, then runs proximity searches near those
+ * centers. Use a count of a few million to see how the geo index behaves with
+ * dense cells.
+ * 
+ */
+public class GeoBenchMark extends ToolBase {
+
+    public static final ByteBufferSerializer be = new ByteBufferSerializer();
+
+    private static final Logger logger = LoggerFactory.getLogger(GeoBenchMark.class);
+
+    private static final String COLLECTION = "benchmarks";
+
+    private static final String PROPERTY = "location.coordinates";
+
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * San Francisco, New York, London, Tokyo and Sydney
+     */
+    private static final double[][] CENTERS = { { 37.7749, -122.4194 }, { 40.7143, -74.006 }, { 51.5072, -0.1275 },
+            { 35.6895, 139.6917 }, { -33.8683, 151.2086 } };
+
+    /**
+     * Roughly 10km of spread around each center
+     */
+    private static final double SPREAD = 0.1;
+
+    private final Timer writes = Metrics.newTimer(GeoBenchMark.class, "writes", TimeUnit.MILLISECONDS,
+            TimeUnit.SECONDS);
+
+    private final Timer searches = Metrics.newTimer(GeoBenchMark.class, "searches", TimeUnit.MILLISECONDS,
+            TimeUnit.SECONDS);
+
+    private final Histogram searchResults = Metrics.newHistogram(GeoBenchMark.class, "results");
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option hostOption = OptionBuilder.withArgName("host").hasArg().isRequired(true)
+                .withDescription("Cassandra host").create("host");
+
+        Option countOption = OptionBuilder.withArgName("count").hasArg().isRequired(true)
+                .withDescription("Number of points to load, 0 to only search").create("count");
+
+        Option appIdOption = OptionBuilder.withArgName("appId").hasArg().isRequired(true)
+                .withDescription("Application Id to use").create("appId");
+
+        Option workerOption = OptionBuilder.withArgName("workers").hasArg().isRequired(true)
+                .withDescription("Number of workers to use").create("workers");
+
+        Option searchOption = OptionBuilder.withArgName("searches").hasArg().isRequired(true)
+                .withDescription("Number of searches per worker").create("searches");
+
+        Option distanceOption = OptionBuilder.withArgName("distance").hasArg().isRequired(false)
+                .withDescription("Search radius in meters, 1000 by default").create("distance");
+
+        Option limitOption = OptionBuilder.withArgName("limit").hasArg().isRequired(false)
+                .withDescription("Results per search, 10 by default").create("limit");
+
+        Options options = new Options();
+        options.addOption(hostOption);
+        options.addOption(countOption);
+        options.addOption(appIdOption);
+        options.addOption(workerOption);
+        options.addOption(searchOption);
+        options.addOption(distanceOption);
+        options.addOption(limitOption);
+
+        return options;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.usergrid.tools.ToolBase#runTool(org.apache.commons.cli.CommandLine)
+     */
+    @Override
+    public void runTool(CommandLine line) throws Exception {
+        startSpring();
+
+        int workerSize = Integer.parseInt(line.getOptionValue("workers"));
+        int count = Integer.parseInt(line.getOptionValue("count"));
+        int searchCount = Integer.parseInt(line.getOptionValue("searches"));
+        double distance = Double.parseDouble(line.getOptionValue("distance", "1000"));
+        int limit = Integer.parseInt(line.getOptionValue("limit", "10"));
+
+        UUID appId = UUID.fromString(line.getOptionValue("appId"));
+
+        ExecutorService executors = Executors.newFixedThreadPool(workerSize);
+
+        final ConsoleReporter reporter = new ConsoleReporter(Metrics.defaultRegistry(), System.out,
+                MetricPredicate.ALL);
+
+        // print every 30 seconds
+        reporter.start(30, TimeUnit.SECONDS);
+
+        Stack<Future<Void>> futures = new Stack<Future<Void>>();
+
+        if (count > 0) {
+            System.out.println("Loading " + count + " points");
+
+            for (int i = 0; i < workerSize; i++) {
+                futures.push(executors.submit(new WriteWorker(i, count / workerSize, appId)));
+            }
+
+            while (!futures.isEmpty()) {
+                futures.pop().get();
+            }
+        }
+
+        System.out.println("Running " + searchCount * workerSize + " searches");
+
+        for (int i = 0; i < workerSize; i++) {
+            futures.push(executors.submit(new SearchWorker(i, searchCount, appId, distance, limit)));
+        }
+
+        while (!futures.isEmpty()) {
+            futures.pop().get();
+        }
+
+        executors.shutdown();
+
+        System.out.println("All workers completed");
+
+        // print the report
+        reporter.run();
+    }
+
+    /**
+     * A random latitude and longitude near one of the centers
+     */
+    private static double[] randomPoint(Random random) {
+        double[] center = CENTERS[random.nextInt(CENTERS.length)];
+        return new double[] { center[0] + random.nextGaussian() * SPREAD / 2,
+                center[1] + random.nextGaussian() * SPREAD / 2 };
+    }
+
+    private class WriteWorker implements Callable<Void> {
+
+        private final int count;
+        private final UUID appId;
+        private final Random random;
+
+        private WriteWorker(int workerNumber, int count, UUID appId) {
+            this.count = count;
+            this.appId = appId;
+            this.random = new Random(workerNumber);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Keyspace ko = cass.getApplicationKeyspace(appId);
+            IndexBucketLocator locator = ((EntityManagerImpl) emf.getEntityManager(appId)).getIndexBucketLocator();
+
+            Object indexKey = key(appId, COLLECTION, PROPERTY);
+
+            Mutator<ByteBuffer> m = createMutator(ko, be);
+            TimerContext timer = writes.time();
+
+            for (int i = 1; i <= count; i++) {
+                double[] point = randomPoint(random);
+                UUID entityId = UUIDUtils.newTimeUUID();
+                EntityLocationRef location = new EntityLocationRef("benchmark", entityId, point[0], point[1]);
+
+                GeoIndexManager.batchStoreLocationInCollectionIndex(m, locator, appId, indexKey, entityId, location);
+
+                if (i % BATCH_SIZE == 0 || i == count) {
+                    batchExecute(m, CassandraService.RETRY_COUNT);
+                    timer.stop();
+
+                    m = createMutator(ko, be);
+                    timer = writes.time();
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private class SearchWorker implements Callable<Void> {
+
+        private final int count;
+        private final UUID appId;
+        private final double distance;
+        private final int limit;
+        private final Random random;
+
+        private SearchWorker(int workerNumber, int count, UUID appId, double distance, int limit) {
+            this.count = count;
+            this.appId = appId;
+            this.distance = distance;
+            this.limit = limit;
+            this.random = new Random(workerNumber + 1000);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            EntityManager em = emf.getEntityManager(appId);
+            GeoIndexManager geo = em.getGeoIndexManager();
+
+            for (int i = 0; i < count; i++) {
+                double[] point = randomPoint(random);
+
+                TimerContext timer = searches.time();
+
+                SearchResults<EntityLocationRef> results = geo.proximitySearchCollection(em.getApplicationRef(),
+                        COLLECTION, PROPERTY, new Point(point[0], point[1]), 0, distance, null, GeoIndexManager.MAX_RESOLUTION,
+                        limit);
+
+                timer.stop();
+
+                searchResults.update(results.getResults().size());
+            }
+
+            logger.info("Search worker finished {} searches", count);
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.tools;
+
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.keyID;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.usergrid.utils.UUIDUtils;
+
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+/**
+ * Compares building index row keys and key ids with the per thread key encoder
+ * against concatenating strings, the way keys were built before.
+ */
+public class KeyEncoderBenchMark extends MicroBenchMark {
+
+    private final Timer stringKey = newTimer("string-key");
+    private final Timer stringKeyId = newTimer("string-key-id");
+    private final Timer encodedKey = newTimer("encoded-key");
+    private final Timer encodedKeyId = newTimer("encoded-key-id");
+
+    private Object[] objects;
+
+    @Override
+    protected void setUp() {
+        objects = new Object[] { UUIDUtils.newTimeUUID(), "users", "Username", "EdAnuff", 42L };
+    }
+
+    @Override
+    protected void run(int count) {
+        for (int i = 0; i < count; i++) {
+            TimerContext timer = stringKey.time();
+            stringKey(objects);
+            timer.stop();
+
+            timer = stringKeyId.time();
+            UUID.nameUUIDFromBytes(stringKey(objects).getBytes());
+            timer.stop();
+
+            timer = encodedKey.time();
+            key(objects);
+            timer.stop();
+
+            timer = encodedKeyId.time();
+            keyID(objects);
+            timer.stop();
+        }
+    }
+
+    private static String stringKey(Object... objects) {
+        StringBuilder s = new StringBuilder();
+        for (Object obj : objects) {
+            if (obj instanceof String) {
+                s.append(((String) obj).toLowerCase());
+            } else if (obj instanceof List<?>) {
+                s.append(stringKey(((List<?>) obj).toArray()));
+            } else if (obj instanceof Object[]) {
+                s.append(stringKey((Object[]) obj));
+            } else if (obj != null) {
+                s.append(obj);
+            } else {
+                s.append("*");
+            }
+            s.append(':');
+        }
+        s.deleteCharAt(s.length() - 1);
+        return s.toString();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.reporting.ConsoleReporter;
+
+/**
+ * Base for the benchmarks that time two implementations of the same operation
+ * in process, without cassandra. The operations are run count times once to
+ * warm up and once more to measure, then the timers are printed.
+ */
+public abstract class MicroBenchMark extends ToolBase {
+
+    private static final int MAX_WARM_UP = 10000;
+
+    private final List<Timer> timers = new ArrayList<Timer>();
+
+    /**
+     * @return A timer in microseconds that is reset after the warm up
+     */
+    protected Timer newTimer(String name) {
+        Timer timer = Metrics.newTimer(getClass(), name, TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        timers.add(timer);
+        return timer;
+    }
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option countOption = OptionBuilder.withArgName("count").hasArg().isRequired(true)
+                .withDescription("Number of times to run each operation").create("count");
+
+        Options options = new Options();
+        options.addOption(countOption);
+
+        return options;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.usergrid.tools.ToolBase#runTool(org.apache.commons.cli.CommandLine)
+     */
+    @Override
+    public void runTool(CommandLine line) throws Exception {
+        int count = Integer.parseInt(line.getOptionValue("count"));
+
+        setUp();
+
+        run(Math.min(count, MAX_WARM_UP));
+        for (Timer timer : timers) {
+            timer.clear();
+        }
+
+        run(count);
+
+        ConsoleReporter reporter = new ConsoleReporter(Metrics.defaultRegistry(), System.out, MetricPredicate.ALL);
+        reporter.run();
+    }
+
+    /**
+     * Build the values the operations are run on
+     */
+    protected abstract void setUp() throws Exception;
+
+    /**
+     * Run each timed operation count times
+     */
+    protected abstract void run(int count) throws Exception;
+
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.tools;
+
+import static org.usergrid.utils.JsonUtils.toJsonNode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.usergrid.persistence.EntityPropertyCodec;
+import org.usergrid.utils.JsonUtils;
+import org.usergrid.utils.MapUtils;
+import org.usergrid.utils.UUIDUtils;
+
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+/**
+ * Compares encoding and decoding a typical user entity's properties with the
+ * typed property codec against the Smile documents it replaces.
+ */
+public class PropertyCodecBenchMark extends MicroBenchMark {
+
+    private final Timer smileEncode = newTimer("smile-encode");
+    private final Timer smileDecode = newTimer("smile-decode");
+    private final Timer typedEncode = newTimer("typed-encode");
+    private final Timer typedDecode = newTimer("typed-decode");
+
+    private Map<String, Object> properties;
+
+    @Override
+    protected void setUp() {
+        properties = new LinkedHashMap<String, Object>();
+        properties.put("uuid", UUIDUtils.newTimeUUID());
+        properties.put("type", "user");
+        properties.put("created", System.currentTimeMillis());
+        properties.put("modified", System.currentTimeMillis());
+        properties.put("username", "edanuff");
+        properties.put("email", "ed@anuff.com");
+        properties.put("name", "Ed Anuff");
+        properties.put("activated", true);
+        properties.put("age", 42);
+        properties.put("rating", 4.5d);
+        properties.put("address", MapUtils.map("city", "San Francisco", "state", "CA"));
+    }
+
+    @Override
+    protected void run(int count) {
+        List<ByteBuffer> encoded = new ArrayList<ByteBuffer>(properties.size());
+
+        for (int i = 0; i < count; i++) {
+            encoded.clear();
+
+            TimerContext timer = smileEncode.time();
+            for (Entry<String, Object> entry : properties.entrySet()) {
+                encoded.add(JsonUtils.toByteBuffer(toJsonNode(entry.getValue())));
+            }
+            timer.stop();
+
+            timer = smileDecode.time();
+            for (ByteBuffer bytes : encoded) {
+                JsonUtils.normalizeJsonTree(JsonUtils.fromByteBuffer(bytes));
+            }
+            timer.stop();
+
+            encoded.clear();
+
+            timer = typedEncode.time();
+            for (Entry<String, Object> entry : properties.entrySet()) {
+                encoded.add(EntityPropertyCodec.encode(entry.getValue()));
+            }
+            timer.stop();
+
+            timer = typedDecode.time();
+            for (ByteBuffer bytes : encoded) {
+                EntityPropertyCodec.decode(bytes);
+            }
+            timer.stop();
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.websocket;
+
+import static org.apache.commons.lang.StringUtils.strip;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelLocal;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.handler.codec.http.websocket.DefaultWebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.changes.ChangeEvent;
+import org.usergrid.changes.ChangeListener;
+import org.usergrid.utils.JsonUtils;
+
+/**
+ * Pushes change events to subscribed websocket channels. Each channel gets at
+ * most one frame per dispatched batch, containing every event it is
+ * subscribed to.
+ *
+ * Channels whose outbound buffer is above the write buffer high water mark
+ * are not written to, the frame is dropped instead. A channel that stays
+ * unwritable for more than maxDroppedFrames consecutive batches is treated as
+ * a dead consumer and closed.
+ *
+ * Subscriptions are keyed by application id, collection and entity id, or "*"
+ * for every entity in the collection. Queue messages use the collection
+ * "queues" and the queue path with its separators written as dots, so
+ * /foo/bar/ is subscribed to as queues/foo.bar
+ */
+public class ChangeFeedPublisher implements ChangeListener {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ChangeFeedPublisher.class);
+
+	public static final int DEFAULT_MAX_DROPPED_FRAMES = 20;
+
+	public static final String ALL = "*";
+
+	private static final ChannelLocal<AtomicInteger> droppedFrames = new ChannelLocal<AtomicInteger>() {
+		@Override
+		protected AtomicInteger initialValue(Channel channel) {
+			return new AtomicInteger();
+		}
+	};
+
+	private int maxDroppedFrames = DEFAULT_MAX_DROPPED_FRAMES;
+
+	public ChangeFeedPublisher() {
+	}
+
+	public int getMaxDroppedFrames() {
+		return maxDroppedFrames;
+	}
+
+	public void setMaxDroppedFrames(int maxDroppedFrames) {
+		this.maxDroppedFrames = maxDroppedFrames;
+	}
+
+	@Override
+	public void onChanges(List<ChangeEvent> events) {
+		Map<Channel, List<Map<String, Object>>> frames = new HashMap<Channel, List<Map<String, Object>>>();
+
+		for (ChangeEvent event : events) {
+			Map<String, Object> json = null;
+			for (String path : getSubscriptionPaths(event)) {
+				ChannelGroup group = WebSocketChannelHandler
+						.findSubscriptionGroup(path);
+				if (group == null) {
+					continue;
+				}
+				if (json == null) {
+					json = toJson(event);
+				}
+				for (Channel channel : group) {
+					List<Map<String, Object>> frame = frames.get(channel);
+					if (frame == null) {
+						frame = new ArrayList<Map<String, Object>>();
+						frames.put(channel, frame);
+					}
+					// a channel subscribed to both the entity and its
+					// collection still only gets the event once
+					if (!frame.isEmpty() && (frame.get(frame.size() - 1) == json)) {
+						continue;
+					}
+					frame.add(json);
+				}
+			}
+		}
+
+		for (Map.Entry<Channel, List<Map<String, Object>>> entry : frames
+				.entrySet()) {
+			send(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void send(Channel channel, List<Map<String, Object>> changes) {
+		if (!channel.isConnected()) {
+			return;
+		}
+
+		AtomicInteger dropped = droppedFrames.get(channel);
+
+		if (!channel.isWritable()) {
+			if (dropped.incrementAndGet() > maxDroppedFrames) {
+				logger.info("Closing slow websocket consumer {}", channel);
+				droppedFrames.remove(channel);
+				channel.close();
+			}
+			return;
+		}
+
+		dropped.set(0);
+
+		Map<String, Object> frame = new LinkedHashMap<String, Object>();
+		frame.put("changes", changes);
+		channel.write(new DefaultWebSocketFrame(JsonUtils
+				.mapToJsonString(frame)));
+	}
+
+	static Map<String, Object> toJson(ChangeEvent event) {
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("type", event.getType().toString().toLowerCase());
+		json.put("path", event.getPath());
+		if (event.getEntityType() != null) {
+			json.put("entityType", event.getEntityType());
+		}
+		json.put("uuid", event.getUuid());
+		json.put("timestamp", event.getTimestamp());
+		return json;
+	}
+
+	static String[] getSubscriptionPaths(ChangeEvent event) {
+		String prefix = event.getApplicationId() + "/";
+		if (event.getType() == ChangeEvent.Type.MESSAGE) {
+			return new String[] {
+					prefix + "queues/"
+							+ strip(event.getPath(), "/").replace('/', '.'),
+					prefix + "queues/" + ALL };
+		}
+		return new String[] { prefix + event.getPath() + "/" + event.getUuid(),
+				prefix + event.getPath() + "/" + ALL };
+	}
+
+}
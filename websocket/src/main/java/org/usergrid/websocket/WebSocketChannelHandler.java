@@ -18,6 +18,8 @@ package org.usergrid.websocket;
 import static org.apache.commons.lang.StringUtils.isEmpty;
 import static org.apache.commons.lang.StringUtils.removeEnd;
 import static org.apache.commons.lang.StringUtils.split;
+import static org.usergrid.security.shiro.utils.SubjectUtils.getPermissionFromPath;
+import static org.usergrid.utils.UUIDUtils.tryGetUUID;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.isKeepAlive;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.setContentLength;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
@@ -39,10 +41,16 @@ import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 import java.security.MessageDigest;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.mgt.SessionsSecurityManager;
 import org.apache.shiro.subject.Subject;
+import org.apache.shiro.subject.support.SubjectThreadState;
+import org.apache.shiro.util.ThreadState;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
@@ -73,11 +81,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.management.ManagementService;
 import org.usergrid.persistence.EntityManagerFactory;
+import org.usergrid.security.AuthPrincipalInfo;
+import org.usergrid.security.AuthPrincipalType;
+import org.usergrid.security.shiro.PrincipalCredentialsToken;
 import org.usergrid.services.ServiceManagerFactory;
 
-import com.google.common.base.Function;
-import com.google.common.collect.MapMaker;
-
 public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
 	private static final Logger logger = LoggerFactory
@@ -93,18 +101,7 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
 	Subject subject = null;
 
-	// static ConcurrentHashMap<String, ChannelGroup> subscribers = new
-	// ConcurrentHashMap<String, ChannelGroup>();
-
-	static ConcurrentMap<String, ChannelGroup> subscribers = new MapMaker()
-			.makeComputingMap(new Function<String, ChannelGroup>() {
-				@Override
-				public ChannelGroup apply(String key) {
-					return new DefaultChannelGroup();
-				}
-			});
-
-	List<String> subscriptions;
+	static ConcurrentMap<String, ChannelGroup> subscribers = new ConcurrentHashMap<String, ChannelGroup>();
 
 	public WebSocketChannelHandler(EntityManagerFactory emf,
 			ServiceManagerFactory smf, ManagementService management,
@@ -244,6 +241,8 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 			String path = qs.getPath();
 			logger.info(path);
 
+			String subscription = null;
+
 			// Fill in the headers and contents depending on handshake method.
 			if (req.containsHeader(SEC_WEBSOCKET_KEY1)
 					&& req.containsHeader(SEC_WEBSOCKET_KEY2)) {
@@ -268,6 +267,21 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 					return;
 				}
 
+				UUID applicationId = resolveApplicationId(nsStr);
+				if (applicationId == null) {
+					sendHttpResponse(ctx, req, FORBIDDEN);
+					return;
+				}
+
+				if (!isPermittedToSubscribe(applicationId,
+						qs.getParameters(), collStr, idStr)) {
+					sendHttpResponse(ctx, req, FORBIDDEN);
+					return;
+				}
+
+				subscription = applicationId + "/" + collStr.toLowerCase()
+						+ "/" + idStr.toLowerCase();
+
 				// New handshake method with a challenge:
 				res.addHeader(SEC_WEBSOCKET_ORIGIN, req.getHeader(ORIGIN));
 				res.addHeader(SEC_WEBSOCKET_LOCATION, getWebSocketLocation(req));
@@ -311,6 +325,10 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
 			p.replace("encoder", "wsencoder", new WebSocketFrameEncoder());
 
+			if (subscription != null) {
+				addSubscription(subscription, ctx.getChannel());
+			}
+
 			return;
 		}
 
@@ -318,6 +336,104 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 		sendHttpResponse(ctx, req, FORBIDDEN);
 	}
 
+	/**
+	 * The namespace segment is either an application id or an application
+	 * name
+	 */
+	private UUID resolveApplicationId(String ns) {
+		UUID applicationId = tryGetUUID(ns);
+		if ((applicationId != null) || (emf == null)) {
+			return applicationId;
+		}
+		try {
+			return emf.lookupApplication(ns);
+		} catch (Exception e) {
+			logger.warn("Unable to look up application " + ns, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Logs the handshake in with its access_token, or as the application's
+	 * guest when it doesn't have one, and checks the caller is allowed to
+	 * read the path it's subscribing to
+	 */
+	private boolean isPermittedToSubscribe(UUID applicationId,
+			Map<String, List<String>> params, String collection, String id) {
+		if ((subject == null) || (management == null)) {
+			return false;
+		}
+
+		String accessToken = null;
+		List<String> values = params.get("access_token");
+		if ((values != null) && !values.isEmpty()) {
+			accessToken = values.get(0);
+		}
+
+		ThreadState threadState = new SubjectThreadState(subject);
+		threadState.bind();
+		try {
+			PrincipalCredentialsToken token = getCredentialsToken(
+					applicationId, accessToken);
+			if (token == null) {
+				return false;
+			}
+			subject.login(token);
+
+			String path = "/" + collection.toLowerCase();
+			if (!"*".equals(id)) {
+				path += "/" + id.toLowerCase();
+			}
+			return subject.isPermitted(getPermissionFromPath(applicationId,
+					"get", path));
+		} catch (AuthenticationException e) {
+			logger.info("Websocket handshake failed to authenticate");
+		} catch (Exception e) {
+			logger.warn("Unable to authorize websocket subscription", e);
+		} finally {
+			threadState.clear();
+		}
+		return false;
+	}
+
+	private PrincipalCredentialsToken getCredentialsToken(UUID applicationId,
+			String accessToken) throws Exception {
+		if (isEmpty(accessToken)) {
+			return PrincipalCredentialsToken
+					.getGuestCredentialsFromApplicationInfo(management
+							.getApplicationInfo(applicationId));
+		}
+
+		AuthPrincipalInfo principal = management.getPrincipalFromAccessToken(
+				accessToken, null, null);
+		if (principal == null) {
+			return null;
+		}
+
+		if (AuthPrincipalType.ADMIN_USER.equals(principal.getType())) {
+			return PrincipalCredentialsToken
+					.getFromAdminUserInfoAndAccessToken(management
+							.getAdminUserInfoFromAccessToken(accessToken),
+							accessToken);
+		} else if (AuthPrincipalType.APPLICATION_USER.equals(principal
+				.getType())) {
+			return PrincipalCredentialsToken.getFromAppUserInfoAndAccessToken(
+					management.getAppUserFromAccessToken(accessToken),
+					accessToken);
+		} else if (AuthPrincipalType.ORGANIZATION.equals(principal.getType())) {
+			return PrincipalCredentialsToken
+					.getFromOrganizationInfoAndAccessToken(management
+							.getOrganizationInfoFromAccessToken(accessToken),
+							accessToken);
+		} else if (AuthPrincipalType.APPLICATION.equals(principal.getType())) {
+			return PrincipalCredentialsToken
+					.getFromApplicationInfoAndAccessToken(management
+							.getApplicationInfoFromAccessToken(accessToken),
+							accessToken);
+		}
+		return null;
+	}
+
 	private void handleWebSocketFrame(ChannelHandlerContext ctx,
 			WebSocketFrame frame) {
 		// Send the uppercased string back.
@@ -331,15 +447,44 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 	// would be 10 seconds when someone opens an app, it connects, then
 	// they close the app.
 
-	public void addSubscription(String path, Channel channel) {
-		ChannelGroup group = subscribers.get(path);
-		synchronized (group) {
-			group.add(channel);
+	/**
+	 * Adds the channel to the path's group and removes it again when the
+	 * channel closes. Groups are dropped from the map as soon as they're
+	 * empty, so the add retries if it raced with the removal of the group it
+	 * found.
+	 */
+	public void addSubscription(final String path, final Channel channel) {
+		while (true) {
+			ChannelGroup group = subscribers.get(path);
+			if (group == null) {
+				group = new DefaultChannelGroup();
+				ChannelGroup existing = subscribers.putIfAbsent(path, group);
+				if (existing != null) {
+					group = existing;
+				}
+			}
+			synchronized (group) {
+				if (subscribers.get(path) == group) {
+					group.add(channel);
+					break;
+				}
+			}
 		}
+
+		// fires straight away if the channel already closed
+		channel.getCloseFuture().addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) {
+				removeSubscription(path, channel);
+			}
+		});
 	}
 
 	public void removeSubscription(String path, Channel channel) {
 		ChannelGroup group = subscribers.get(path);
+		if (group == null) {
+			return;
+		}
 		synchronized (group) {
 			group.remove(channel);
 			if (group.isEmpty()) {
@@ -348,7 +493,14 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 		}
 	}
 
+	/**
+	 * Returns null for paths nobody is subscribed to
+	 */
 	public ChannelGroup getSubscriptionGroup(String path) {
 		return subscribers.get(path);
 	}
+
+	static ChannelGroup findSubscriptionGroup(String path) {
+		return subscribers.get(path);
+	}
 }
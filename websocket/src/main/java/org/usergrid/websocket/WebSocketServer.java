@@ -51,6 +51,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.usergrid.changes.ChangeEventBus;
 import org.usergrid.management.ManagementService;
 import org.usergrid.persistence.EntityManagerFactory;
 import org.usergrid.persistence.cassandra.EntityManagerFactoryImpl;
@@ -78,6 +79,8 @@ public class WebSocketServer {
 	boolean ssl = false;
 	Channel channel;
 	Properties properties;
+	ChangeEventBus changeEventBus;
+	ChangeFeedPublisher changeFeedPublisher;
 
 	public static void main(String[] args) throws Exception {
 		WebSocketServer server = new WebSocketServer();
@@ -112,6 +115,11 @@ public class WebSocketServer {
 		this.realm = realm;
 	}
 
+	@Autowired
+	public void setChangeEventBus(ChangeEventBus changeEventBus) {
+		this.changeEventBus = changeEventBus;
+	}
+
 	public Properties getProperties() {
 		return properties;
 	}
@@ -170,6 +178,16 @@ public class WebSocketServer {
 		bootstrap.setPipelineFactory(new WebSocketServerPipelineFactory(emf,
 				smf, management, securityManager, executionHandler, ssl));
 
+		// bound what a slow change feed consumer can queue up, once a channel
+		// goes over the high water mark the feed drops frames for it
+		bootstrap.setOption("child.writeBufferHighWaterMark", 64 * 1024);
+		bootstrap.setOption("child.writeBufferLowWaterMark", 32 * 1024);
+
+		if (changeEventBus != null) {
+			changeFeedPublisher = new ChangeFeedPublisher();
+			changeEventBus.addListener(changeFeedPublisher);
+		}
+
 		// Bind and start to accept incoming connections.
 		channel = bootstrap.bind(new InetSocketAddress(8088));
 
@@ -178,6 +196,10 @@ public class WebSocketServer {
 
 	public void stopServer() {
 		logger.info("Stopping WebSocket Server");
+		if ((changeEventBus != null) && (changeFeedPublisher != null)) {
+			changeEventBus.removeListener(changeFeedPublisher);
+			changeFeedPublisher = null;
+		}
 		if (channel != null) {
 			channel.close();
 			channel = null;